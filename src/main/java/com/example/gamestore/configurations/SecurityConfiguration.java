@@ -34,6 +34,12 @@ public class SecurityConfiguration {
                         .requestMatchers("/videogiochi/perFasciaPrezzo/**").permitAll()
                         .requestMatchers("/videogiochi/perNome/**").permitAll()
                         .requestMatchers("/videogiochi/ricercaAvanzata/**").permitAll()
+                        .requestMatchers("/videogiochi/cerca/**").permitAll()
+                        .requestMatchers("/videogiochi/suggerimenti/**").permitAll()
+                        .requestMatchers("/videogiochi/dettaglio/**").permitAll()
+                        .requestMatchers("/videogiochi/facette/**").permitAll()
+                        .requestMatchers("/videogiochi/titoli/**").permitAll()
+                        .requestMatchers("/videogiochi/batch/**").permitAll()
                         .requestMatchers("/utenti/**").permitAll()
 
                         // Tutti gli altri richiedono autenticazione
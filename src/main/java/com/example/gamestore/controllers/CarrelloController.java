@@ -1,14 +1,19 @@
 package com.example.gamestore.controllers;
 
-import com.example.gamestore.entities.Carrello;
 import com.example.gamestore.entities.DettaglioCarrello;
 import com.example.gamestore.entities.Ordine;
 import com.example.gamestore.services.CarrelloService;
 import com.example.gamestore.support.ResponseMessage;
 import com.example.gamestore.support.exceptions.*;
 import com.example.gamestore.dto.CarrelloDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.EsitoPuliziaCarrelliDto;
+import com.example.gamestore.dto.EsitoRigaCarrelloDto;
+import com.example.gamestore.dto.ImprontaCarrelloDto;
+import com.example.gamestore.dto.ModificaRigaCarrelloDto;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -24,6 +29,8 @@ import java.util.List;
 @RequestMapping("/carrello")
 public class CarrelloController {
 
+    private static final int MAX_MODIFICHE = 200;
+
     @Autowired
     private CarrelloService carrelloService;
 
@@ -36,7 +43,8 @@ public class CarrelloController {
             @PathVariable int idUtente,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "quantita") String ordinamento
+            @RequestParam(value = "ordinamento", defaultValue = "quantita") String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore
     ) {
         try {
 
@@ -46,6 +54,15 @@ public class CarrelloController {
                 return new ResponseEntity<>(new ResponseMessage("Parametri di paginazione o ordinamento non validi"), HttpStatus.BAD_REQUEST);
             }
 
+            //Paginazione a cursore (opzionale), cursore vuoto per la prima pagina
+            //Il prezzo unitario può essere nullo e il keyset salterebbe quelle righe: con il cursore solo quantità
+            if (cursore != null) {
+                if (!ordinamento.equals("quantita")) {
+                    return new ResponseEntity<>(new ResponseMessage("Ordinamento non supportato con il cursore"), HttpStatus.BAD_REQUEST);
+                }
+                return new ResponseEntity<>(carrelloService.mostraTuttiScorrimento(cursore, dimPagina, ordinamento, idUtente), HttpStatus.OK);
+            }
+
             List<DettaglioCarrello> dettagli = carrelloService.mostraTutti(numPagina, dimPagina, ordinamento, idUtente).getContent();
             if (dettagli.isEmpty()) {
                 return new ResponseEntity<>(new ResponseMessage("Carrello vuoto o nessun risultato"), HttpStatus.OK);
@@ -57,6 +74,8 @@ public class CarrelloController {
             return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
         } catch (TentativoNonAutorizzato e){
             return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.UNAUTHORIZED);
+        } catch (CursoreNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Cursore non valido"), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             e.printStackTrace();
             return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -77,8 +96,9 @@ public class CarrelloController {
             if (idUtente < 0 || idVideogioco < 0) {
                 return new ResponseEntity<>(new ResponseMessage("Carrello o Utente non valido!"), HttpStatus.BAD_REQUEST);
             }
-            Carrello carrelloAggiornato = carrelloService.aggiungiVideogioco(idUtente, idVideogioco, quantita);
-            return new ResponseEntity<>(carrelloAggiornato, HttpStatus.OK);
+            //Solo la riga modificata: il carrello completo si legge con GET /carrello/{idUtente}
+            DettaglioDto riga = carrelloService.aggiungiVideogioco(idUtente, idVideogioco, quantita);
+            return new ResponseEntity<>(riga, HttpStatus.OK);
         } catch (CarrelloNonValidoException e){
             return new ResponseEntity<>(new ResponseMessage("Carrello non valido!"), HttpStatus.BAD_REQUEST);
         } catch (VideogiocoNonValidoException e) {
@@ -94,6 +114,33 @@ public class CarrelloController {
 
 
 
+    /**
+     * Applica più modifiche al carrello in una sola richiesta, con l'esito di ciascuna
+     */
+    @PreAuthorize("hasRole('utente')")
+    @PostMapping("/modifica/{idUtente}")
+    public ResponseEntity<?> modificaCarrello(
+            @PathVariable int idUtente,
+            @RequestBody @NotNull List<ModificaRigaCarrelloDto> modifiche
+    ) {
+        try {
+            if (idUtente < 0) {
+                return new ResponseEntity<>(new ResponseMessage("Carrello o Utente non valido!"), HttpStatus.BAD_REQUEST);
+            }
+            if (modifiche.isEmpty() || modifiche.size() > MAX_MODIFICHE) {
+                return new ResponseEntity<>(new ResponseMessage("Numero di modifiche non valido (1-" + MAX_MODIFICHE + ")"), HttpStatus.BAD_REQUEST);
+            }
+            List<EsitoRigaCarrelloDto> esiti = carrelloService.modificaInBlocco(idUtente, modifiche);
+            return new ResponseEntity<>(esiti, HttpStatus.OK);
+        } catch (CarrelloNonValidoException e){
+            return new ResponseEntity<>(new ResponseMessage("Carrello non valido!"), HttpStatus.BAD_REQUEST);
+        } catch (TentativoNonAutorizzato e) {
+            return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Compra il contenuto del carrello
      */
@@ -117,8 +164,115 @@ public class CarrelloController {
             return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
         } catch (TentativoNonAutorizzato e) {
             return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (ConcurrencyFailureException e) {
+            //lock non ottenuto in tempo o deadlock con un'altra richiesta sugli stessi videogiochi: si può riprovare
+            return new ResponseEntity<>(new ResponseMessage("Videogiochi occupati da un'altra richiesta, riprovare"), HttpStatus.CONFLICT);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("Errore nell'acquisto"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Tutte le righe del carrello con numero di articoli e totale calcolati dal BE
+     */
+    @PreAuthorize("hasRole('utente')")
+    @GetMapping("{idUtente}/riepilogo")
+    public ResponseEntity<?> riepilogo(@PathVariable int idUtente) {
+        try {
+            return new ResponseEntity<>(carrelloService.riepilogo(idUtente), HttpStatus.OK);
+        } catch (CarrelloNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
+        } catch (TentativoNonAutorizzato e) {
+            return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Solo numero di articoli e totale del carrello (badge, mini-carrello)
+     */
+    @PreAuthorize("hasRole('utente')")
+    @GetMapping("{idUtente}/totali")
+    public ResponseEntity<?> totali(@PathVariable int idUtente) {
+        try {
+            return new ResponseEntity<>(carrelloService.totali(idUtente), HttpStatus.OK);
+        } catch (CarrelloNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
+        } catch (TentativoNonAutorizzato e) {
+            return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Versione attuale del carrello (revisione e impronta), da rimandare a /acquista/impronta
+     */
+    @PreAuthorize("hasRole('utente')")
+    @GetMapping("/impronta/{idUtente}")
+    public ResponseEntity<?> impronta(@PathVariable int idUtente) {
+        try {
+            return new ResponseEntity<>(carrelloService.impronta(idUtente), HttpStatus.OK);
+        } catch (CarrelloNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
+        } catch (TentativoNonAutorizzato e) {
+            return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Compra il contenuto del carrello rimandando solo la sua versione: 409 se nel frattempo il carrello è cambiato
+     */
+    @PreAuthorize("hasRole('utente')")
+    @PostMapping("/acquista/impronta")
+    public ResponseEntity<?> acquistaConImpronta(
+            @RequestBody @NotNull ImprontaCarrelloDto impronta
+    ) {
+        try {
+            Ordine ordine = carrelloService.acquistaConImpronta(impronta);
+            return new ResponseEntity<>(ordine, HttpStatus.OK);
+        } catch (CarrelloModificatoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Carrello modificato, ricaricare il carrello"), HttpStatus.CONFLICT);
+        } catch (QuantitaVideogiocoNonDisponibile e) {
+            return new ResponseEntity<>(new ResponseMessage("Quantità non disponibile"), HttpStatus.BAD_REQUEST);
+        } catch (OrdineNonValido e) {
+            return new ResponseEntity<>(new ResponseMessage("Ordine non valido"), HttpStatus.BAD_REQUEST);
+        } catch (VideogiocoNonValidoException e ){
+            return new ResponseEntity<>(new ResponseMessage("Videogioco non valido"), HttpStatus.BAD_REQUEST);
+        } catch (CarrelloNonValidoException e ){
+            return new ResponseEntity<>(new ResponseMessage("Carrello non valido"), HttpStatus.BAD_REQUEST);
+        } catch (TentativoNonAutorizzato e) {
+            return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (ConcurrencyFailureException e) {
+            //lock non ottenuto in tempo o deadlock con un'altra richiesta sugli stessi videogiochi: si può riprovare
+            return new ResponseEntity<>(new ResponseMessage("Videogiochi occupati da un'altra richiesta, riprovare"), HttpStatus.CONFLICT);
         } catch (Exception e) {
             return new ResponseEntity<>(new ResponseMessage("Errore nell'acquisto"), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    /**
+     * Stato dei carrelli in memoria (write-behind): carrelli con modifiche non salvate e ritardo del salvataggio
+     */
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/statistiche")
+    public ResponseEntity<?> statisticheCarrelli() {
+        return new ResponseEntity<>(carrelloService.statisticheCarrelli(), HttpStatus.OK);
+    }
+
+    /**
+     * Esito dell'ultima pulizia dei carrelli abbandonati: righe eliminate, durata e blocchi usati
+     */
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/pulizia")
+    public ResponseEntity<?> ultimaPulizia() {
+        EsitoPuliziaCarrelliDto esito = carrelloService.ultimaPulizia();
+        if (esito == null) {
+            return new ResponseEntity<>(new ResponseMessage("Nessuna pulizia eseguita dall'avvio"), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(esito, HttpStatus.OK);
+    }
 }
@@ -1,18 +1,24 @@
 package com.example.gamestore.controllers;
 
+import com.example.gamestore.dto.ConteggioDto;
 import com.example.gamestore.entities.DettaglioOrdine;
 import com.example.gamestore.entities.Ordine;
+import com.example.gamestore.services.EsportazioneService;
 import com.example.gamestore.services.OrdineService;
 import com.example.gamestore.support.ResponseMessage;
+import com.example.gamestore.support.esportazione.ScrittoreEsportazione;
 import com.example.gamestore.support.exceptions.*;
 import com.example.gamestore.support.authentication.Utils;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
 import java.util.*;
@@ -24,23 +30,63 @@ public class OrdineController {
     @Autowired
     private OrdineService ordineService;
 
+    @Autowired
+    private EsportazioneService esportazioneService;
+
     /** Metodo solo admin per vedere tutti gli ordini */
     @PreAuthorize("hasRole('admin')")
     @GetMapping("/elencoOrdini")
     public ResponseEntity<?> getAll(
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento
+            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore,
+            @RequestParam(value = "exact", defaultValue = "false") boolean exact
     ) {
         LinkedList<String> ordinamentoValido = new LinkedList<>(Arrays.asList("dataOrdine", "utente", "totale"));
         if (numPagina < 0 || dimPagina <= 0 || !ordinamentoValido.contains(ordinamento)) {
             return new ResponseEntity<>(new ResponseMessage("Parametri di paginazione/ordinamento non validi"), HttpStatus.BAD_REQUEST);
         }
+        //Paginazione a cursore (opzionale): il costo non cresce con la profondità della pagina.
+        //Si può ordinare solo per attributi semplici, non per l'utente (che è un'entità)
+        if (cursore != null) {
+            if (!ordinamentoValidoPerCursore(ordinamento)) {
+                return new ResponseEntity<>(new ResponseMessage("Ordinamento non supportato con il cursore"), HttpStatus.BAD_REQUEST);
+            }
+            try {
+                return new ResponseEntity<>(ordineService.mostraTuttiGliOrdiniScorrimento(cursore, dimPagina, ordinamento), HttpStatus.OK);
+            } catch (CursoreNonValidoException e) {
+                return new ResponseEntity<>(new ResponseMessage("Cursore non valido"), HttpStatus.BAD_REQUEST);
+            }
+        }
         List<Ordine> ordini = ordineService.mostraTuttiGliOrdini(numPagina, dimPagina, ordinamento).getContent();
+
+        //Il totale va negli header così il body resta la lista di sempre.
+        //Di default è una stima (statistiche di PostgreSQL), con exact=true è la COUNT(*) esatta
+        HttpHeaders headers = new HttpHeaders();
+        ConteggioDto conteggio = ordineService.contaOrdini(exact);
+        headers.add("X-Totale-Ordini", String.valueOf(conteggio.totale()));
+        headers.add("X-Totale-Approssimato", String.valueOf(conteggio.approssimato()));
+
         if (ordini.isEmpty()) {
-            return new ResponseEntity<>(new ResponseMessage("Nessun ordine trovato"), HttpStatus.OK);
+            return new ResponseEntity<>(new ResponseMessage("Nessun ordine trovato"), headers, HttpStatus.OK);
         }
-        return new ResponseEntity<>(ordini, HttpStatus.OK);
+        return new ResponseEntity<>(ordini, headers, HttpStatus.OK);
+    }
+
+    /** Esportazione completa degli ordini con i dettagli, in streaming (solo admin) */
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/esportazione")
+    public ResponseEntity<StreamingResponseBody> esporta(@RequestParam(value = "formato", defaultValue = "csv") String formato) {
+        ScrittoreEsportazione.Formato f = ScrittoreEsportazione.Formato.da(formato);
+        if (f == null) {
+            //Qui il corpo può essere solo uno StreamingResponseBody (è il tipo che fa scegliere a Spring lo streaming)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_TYPE, f.contentType() + ";charset=UTF-8");
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"ordini." + f.estensione() + "\"");
+        return new ResponseEntity<>(esportazioneService.esportaOrdini(f), headers, HttpStatus.OK);
     }
 
     /** Metodo per inserire ordine (admin?) */
@@ -58,6 +104,9 @@ public class OrdineController {
             return new ResponseEntity<>(new ResponseMessage("Ordine non valido"), HttpStatus.BAD_REQUEST);
         } catch (QuantitaVideogiocoNonDisponibile e) {
             return new ResponseEntity<>(new ResponseMessage("Quantità videogioco non disponibile"), HttpStatus.BAD_REQUEST);
+        } catch (ConcurrencyFailureException e) {
+            //lock non ottenuto in tempo o deadlock con un'altra richiesta sugli stessi videogiochi: si può riprovare
+            return new ResponseEntity<>(new ResponseMessage("Videogiochi occupati da un'altra richiesta, riprovare"), HttpStatus.CONFLICT);
         } catch (Exception e) {
             return new ResponseEntity<>(new ResponseMessage("Errore nell’inserimento"), HttpStatus.BAD_REQUEST);
         }
@@ -71,13 +120,17 @@ public class OrdineController {
             @PathVariable("dataFine") @DateTimeFormat(pattern = "dd-MM-yyyy") Date dataFine,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento
+            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore
     ) {
         try {
             LinkedList<String> ordinamentoValido = new LinkedList<>(Arrays.asList("dataOrdine", "utente", "totale"));
             if (numPagina < 0 || dimPagina <= 0 || !ordinamentoValido.contains(ordinamento)) {
                 return new ResponseEntity<>(new ResponseMessage("Parametri non validi"), HttpStatus.BAD_REQUEST);
             }
+            if (cursore != null && !ordinamentoValidoPerCursore(ordinamento)) {
+                return new ResponseEntity<>(new ResponseMessage("Ordinamento non supportato con il cursore"), HttpStatus.BAD_REQUEST);
+            }
             // estendi dataFine a fine giornata, cioè metto dataFine a 23:59 così è compreso, sennò le query lo escludono
             Calendar cal = Calendar.getInstance();
             cal.setTime(dataFine);
@@ -87,6 +140,10 @@ public class OrdineController {
             cal.set(Calendar.MILLISECOND, 999);
             dataFine = cal.getTime();
 
+            if (cursore != null) {
+                return new ResponseEntity<>(ordineService.getOrdiniUtenteInPeriodoScorrimento(dataInizio, dataFine, cursore, dimPagina, ordinamento), HttpStatus.OK);
+            }
+
             List<Ordine> ordini = ordineService.getOrdiniUtenteInPeriodo(dataInizio, dataFine, numPagina, dimPagina, ordinamento).getContent();
             if (ordini.isEmpty()) {
                 return new ResponseEntity<>(new ResponseMessage("Nessun ordine trovato in questo periodo"), HttpStatus.OK);
@@ -94,6 +151,8 @@ public class OrdineController {
             return new ResponseEntity<>(ordini, HttpStatus.OK);
         } catch (DateORangeDateNonValido e) {
             return new ResponseEntity<>(new ResponseMessage("Intervallo date non accettabile"), HttpStatus.BAD_REQUEST);
+        } catch (CursoreNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Cursore non valido"), HttpStatus.BAD_REQUEST);
         } catch (UtenteNonValidoONonEsistente e) {
             return new ResponseEntity<>(new ResponseMessage("Utente non valido"), HttpStatus.UNAUTHORIZED);
         } catch (Exception e) {
@@ -108,13 +167,20 @@ public class OrdineController {
     public ResponseEntity<?> getOrdiniUtente(
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento
+            @RequestParam(value = "ordinamento", defaultValue = "dataOrdine") String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore
     ) {
         try {
             LinkedList<String> ordinamentoValido = new LinkedList<>(Arrays.asList("dataOrdine", "utente", "totale"));
             if (numPagina < 0 || dimPagina <= 0 || !ordinamentoValido.contains(ordinamento)) {
                 return new ResponseEntity<>(new ResponseMessage("Parametri non validi"), HttpStatus.BAD_REQUEST);
             }
+            if (cursore != null) {
+                if (!ordinamentoValidoPerCursore(ordinamento)) {
+                    return new ResponseEntity<>(new ResponseMessage("Ordinamento non supportato con il cursore"), HttpStatus.BAD_REQUEST);
+                }
+                return new ResponseEntity<>(ordineService.getOrdiniUtenteScorrimento(cursore, dimPagina, ordinamento), HttpStatus.OK);
+            }
             List<Ordine> ordini = ordineService.getOrdiniUtente(numPagina, dimPagina, ordinamento).getContent();
             if (ordini.isEmpty()) {
                 return new ResponseEntity<>(new ResponseMessage("Nessun ordine trovato per l'utente"), HttpStatus.OK);
@@ -122,6 +188,8 @@ public class OrdineController {
             return new ResponseEntity<>(ordini, HttpStatus.OK);
         } catch (UtenteNonValidoONonEsistente e) {
             return new ResponseEntity<>(new ResponseMessage("Utente non valido"), HttpStatus.UNAUTHORIZED);
+        } catch (CursoreNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Cursore non valido"), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             e.printStackTrace();
             return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.BAD_REQUEST);
@@ -147,6 +215,9 @@ public class OrdineController {
             return new ResponseEntity<>(new ResponseMessage("Videogioco non valido"), HttpStatus.BAD_REQUEST);
         } catch (TentativoNonAutorizzato e) {
             return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (ConcurrencyFailureException e) {
+            //lock non ottenuto in tempo o deadlock con un'altra richiesta sugli stessi videogiochi: si può riprovare
+            return new ResponseEntity<>(new ResponseMessage("Videogiochi occupati da un'altra richiesta, riprovare"), HttpStatus.CONFLICT);
         } catch (Exception e) {
             return new ResponseEntity<>(new ResponseMessage("Errore nella rimozione"), HttpStatus.BAD_REQUEST);
         }
@@ -159,13 +230,24 @@ public class OrdineController {
             @PathVariable int idOrdine,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "prezzoUnitario") String ordinamento
+            @RequestParam(value = "ordinamento", required = false) String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore
     ) {
         try {
+            //il prezzo unitario può essere nullo: con il cursore si ordina (e si può ordinare) solo per quantità
+            if (ordinamento == null) {
+                ordinamento = cursore != null ? "quantita" : "prezzoUnitario";
+            }
             LinkedList<String> ordinamentoValido = new LinkedList<>(Arrays.asList("quantita", "prezzoUnitario"));
             if (numPagina < 0 || dimPagina <= 0 || !ordinamentoValido.contains(ordinamento)) {
                 return new ResponseEntity<>(new ResponseMessage("Parametri non validi"), HttpStatus.BAD_REQUEST);
             }
+            if (cursore != null) {
+                if (!ordinamento.equals("quantita")) {
+                    return new ResponseEntity<>(new ResponseMessage("Ordinamento non supportato con il cursore"), HttpStatus.BAD_REQUEST);
+                }
+                return new ResponseEntity<>(ordineService.trovaDettagliOrdineScorrimento(idOrdine, cursore, dimPagina, ordinamento), HttpStatus.OK);
+            }
             List<DettaglioOrdine> dettagli = ordineService.trovaDettagliOrdine(idOrdine, numPagina, dimPagina, ordinamento).getContent();
             if (dettagli.isEmpty()) {
                 return new ResponseEntity<>(new ResponseMessage("Nessun dettaglio per questo ordine"), HttpStatus.OK);
@@ -177,8 +259,16 @@ public class OrdineController {
             return new ResponseEntity<>(new ResponseMessage("Utente non valido o non esistente"), HttpStatus.UNAUTHORIZED);
         } catch (TentativoNonAutorizzato e) {
             return new ResponseEntity<>(new ResponseMessage("Tentativo non autorizzato"), HttpStatus.FORBIDDEN);
+        } catch (CursoreNonValidoException e) {
+            return new ResponseEntity<>(new ResponseMessage("Cursore non valido"), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             return new ResponseEntity<>(new ResponseMessage("Errore nella richiesta"), HttpStatus.BAD_REQUEST);
         }
     }
+
+    // Con il cursore la chiave di ordinamento finisce nel token, quindi deve essere un attributo semplice dell'ordine
+    // e NOT NULL: il totale può essere nullo e il keyset salterebbe quelle righe
+    private boolean ordinamentoValidoPerCursore(String ordinamento) {
+        return ordinamento.equals("dataOrdine");
+    }
 }
@@ -11,6 +11,7 @@ import jakarta.validation.constraints.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.net.URI;
@@ -79,6 +80,12 @@ public class RegistrazioneController {
         }
     }
 
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/cache/statistiche")
+    public ResponseEntity<?> statisticheCacheUtenti() {
+        return new ResponseEntity<>(registrazioneService.statisticheCacheUtenti(), HttpStatus.OK);
+    }
+
     @GetMapping("/test-keycloak")
     public ResponseEntity testKeycloak() {
         registrazioneService.testConnessioneKeycloak();
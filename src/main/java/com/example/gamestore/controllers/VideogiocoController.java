@@ -1,33 +1,63 @@
 package com.example.gamestore.controllers;
 
+import com.example.gamestore.dto.EsitoImportazioneDto;
+import com.example.gamestore.dto.RicercaPerNomeDto;
+import com.example.gamestore.dto.TitoloDto;
+import com.example.gamestore.dto.VideogiocoSintesiDto;
 import com.example.gamestore.entities.Videogioco;
+import com.example.gamestore.services.EsportazioneService;
+import com.example.gamestore.services.ImportazioneCatalogoService;
 import com.example.gamestore.services.VideogiocoService;
 import com.example.gamestore.support.ResponseMessage;
+import com.example.gamestore.support.esportazione.ScrittoreEsportazione;
 import com.example.gamestore.support.exceptions.*;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/videogiochi")
 public class VideogiocoController {
 
+    // Prezzo minimo quando il filtro non è indicato: stesso valore per fascia di prezzo, faccette e ricerca avanzata
+    private static final String PREZZO_MIN_PREDEFINITO = "0.1";
+
     @Autowired
     private VideogiocoService videogiocoService;
 
+    @Autowired
+    private ImportazioneCatalogoService importazioneCatalogoService;
+
+    @Autowired
+    private EsportazioneService esportazioneService;
+
     @GetMapping("/elencoDisponibili")
     public ResponseEntity<?> getAll(
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "prezzo") String ordinamento) {
+            @RequestParam(value = "ordinamento", required = false) String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ordinamento = ordinamentoPredefinito(ordinamento, cursore);
 
         try {
             LinkedList<String> ordinamentoValido = new LinkedList<>(
@@ -39,13 +69,24 @@ public class VideogiocoController {
                 return new ResponseEntity<>(new ResponseMessage("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI"), HttpStatus.BAD_REQUEST);
             }
 
-            List<Videogioco> listaVideogiochi = videogiocoService.elencoVideogiochi(numPagina, dimPagina, ordinamento).getContent();
+            //Paginazione a cursore (opzionale): basta passare il parametro cursore, vuoto per la prima pagina.
+            //In questo caso numPagina viene ignorato e la risposta contiene il cursore per la pagina successiva
+            if (cursore != null) {
+                if (!ordinamentoValidoPerCursore(ordinamento)) {
+                    return new ResponseEntity<>(new ResponseMessage("ORDINAMENTO NON SUPPORTATO CON IL CURSORE"), HttpStatus.BAD_REQUEST);
+                }
+                return new ResponseEntity<>(videogiocoService.elencoVideogiochiScorrimento(cursore, dimPagina, ordinamento), intestazioniCache(etag), HttpStatus.OK);
+            }
+
+            List<VideogiocoSintesiDto> listaVideogiochi = videogiocoService.elencoVideogiochi(numPagina, dimPagina, ordinamento).getContent();
 
             if (listaVideogiochi.isEmpty()) {
-                return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO"), HttpStatus.OK);
+                return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO"), intestazioniCache(etag), HttpStatus.OK);
             }
-            return new ResponseEntity<>(listaVideogiochi, HttpStatus.OK);
+            return new ResponseEntity<>(listaVideogiochi, intestazioniCache(etag), HttpStatus.OK);
 
+        }catch(CursoreNonValidoException e){
+            return new ResponseEntity<>(new ResponseMessage("CURSORE NON VALIDO"), HttpStatus.BAD_REQUEST);
         }catch(Exception e){
             //System.out.println("ERRORE NELLA RICERCA");
             return new ResponseEntity<>(new ResponseMessage("ERRORE NELLA RICERCA"), HttpStatus.BAD_REQUEST);
@@ -57,7 +98,15 @@ public class VideogiocoController {
             @RequestParam(required = false) String piattaforma,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(value = "ordinamento", defaultValue = "prezzo") String ordinamento) {
+            @RequestParam(value = "ordinamento", required = false) String ordinamento,
+            @RequestParam(value = "cursore", required = false) String cursore,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ordinamento = ordinamentoPredefinito(ordinamento, cursore);
 
         LinkedList<String> ordinamentoValido = new LinkedList<>();
         ordinamentoValido.addAll(Arrays.asList("nome", "piattaforma", "descrizione", "prezzo", "quantita"));
@@ -65,45 +114,176 @@ public class VideogiocoController {
             //System.out.println("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI");
             return new ResponseEntity<>(new ResponseMessage("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI"), HttpStatus.BAD_REQUEST);
         }
-        List<Videogioco> listaProdotti = videogiocoService.elencoVideogiochiPerPiattaforma(piattaforma, numPagina, dimPagina, ordinamento).getContent();
+        if (cursore != null) {
+            if (!ordinamentoValidoPerCursore(ordinamento)) {
+                return new ResponseEntity<>(new ResponseMessage("ORDINAMENTO NON SUPPORTATO CON IL CURSORE"), HttpStatus.BAD_REQUEST);
+            }
+            try {
+                return new ResponseEntity<>(videogiocoService.elencoVideogiochiPerPiattaformaScorrimento(piattaforma, cursore, dimPagina, ordinamento), intestazioniCache(etag), HttpStatus.OK);
+            } catch (CursoreNonValidoException e) {
+                return new ResponseEntity<>(new ResponseMessage("CURSORE NON VALIDO"), HttpStatus.BAD_REQUEST);
+            }
+        }
+        List<VideogiocoSintesiDto> listaProdotti = videogiocoService.elencoVideogiochiPerPiattaforma(piattaforma, numPagina, dimPagina, ordinamento).getContent();
         if (listaProdotti.isEmpty()) {
             //System.out.println("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO");
-            return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO"), HttpStatus.OK);
+            return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO"), intestazioniCache(etag), HttpStatus.OK);
         }
-        return new ResponseEntity<>(listaProdotti, HttpStatus.OK);
+        return new ResponseEntity<>(listaProdotti, intestazioniCache(etag), HttpStatus.OK);
     }
 
     @GetMapping("/perFasciaPrezzo")
     public ResponseEntity<?> getVideogiochiByFasciaPrezzo(
-            @RequestParam(defaultValue = "0.1") Double minPrezzo,
+            @RequestParam(defaultValue = PREZZO_MIN_PREDEFINITO) Double minPrezzo,
             @RequestParam(defaultValue = "" + Double.MAX_VALUE) Double maxPrezzo,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
-            @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina) {
+            @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
+            WebRequest request) {
 
         //Chiamo il metodo ricercaAvanzata di questo controller, in cui farò tutti i controlli del caso
         //Prendere i videogiochi per fascia di prezzo è un caso particolare della ricerca avanzata con i parametri qui sotto
-        return this.ricercaAvanzata(minPrezzo, maxPrezzo, null, null, 0, numPagina, dimPagina, "prezzo");
+        return this.ricercaAvanzata(minPrezzo, maxPrezzo, null, null, 0, numPagina, dimPagina, "prezzo", request);
+    }
+
+    @GetMapping("/cerca")
+    public ResponseEntity<?> cerca(
+            @RequestParam String q,
+            @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
+            @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        if (numPagina < 0 || dimPagina <= 0) {
+            return new ResponseEntity<>(new ResponseMessage("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI"), HttpStatus.BAD_REQUEST);
+        }
+        if (q.isBlank()) {
+            return new ResponseEntity<>(new ResponseMessage("TESTO DI RICERCA VUOTO"), HttpStatus.BAD_REQUEST);
+        }
+
+        List<VideogiocoSintesiDto> risultati = videogiocoService.cerca(q, numPagina, dimPagina).getContent();
+        if (risultati.isEmpty()) {
+            return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO"), intestazioniCache(etag), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(risultati, intestazioniCache(etag), HttpStatus.OK);
+    }
+
+    @GetMapping("/suggerimenti")
+    public ResponseEntity<?> suggerimenti(
+            @RequestParam String prefisso,
+            @RequestParam(value = "limite", defaultValue = "10") int limite,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        if (limite <= 0 || limite > 50) {
+            return new ResponseEntity<>(new ResponseMessage("LIMITE NON VALIDO (1-50)"), HttpStatus.BAD_REQUEST);
+        }
+        //Lista vuota e non messaggio: la barra di ricerca la chiama ad ogni tasto e si aspetta sempre un array
+        return new ResponseEntity<>(videogiocoService.suggerimenti(prefisso, limite), intestazioniCache(etag), HttpStatus.OK);
+    }
+
+    //Un elemento per titolo con tutte le sue piattaforme, prezzo minimo/massimo e scorte
+    @GetMapping("/titoli")
+    public ResponseEntity<?> elencoTitoli(
+            @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
+            @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
+            @RequestParam(value = "ordinamento", defaultValue = "nome") String ordinamento,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        if (numPagina < 0 || dimPagina <= 0 || !Arrays.asList("nome", "prezzo").contains(ordinamento)) {
+            return new ResponseEntity<>(new ResponseMessage("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI"), HttpStatus.BAD_REQUEST);
+        }
+        List<TitoloDto> titoli = videogiocoService.elencoTitoli(numPagina, dimPagina, ordinamento).getContent();
+        if (titoli.isEmpty()) {
+            return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO O NUMERO DI PAGINA NON VALIDO"), intestazioniCache(etag), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(titoli, intestazioniCache(etag), HttpStatus.OK);
+    }
+
+    //Come /perNome ma con tutte le piattaforme del titolo invece della sola prima
+    @GetMapping("/titoli/{nomeVideogioco}")
+    public ResponseEntity<?> titolo(@PathVariable String nomeVideogioco, WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        Optional<TitoloDto> titolo = videogiocoService.trovaTitolo(nomeVideogioco);
+        if (titolo.isEmpty()) {
+            return new ResponseEntity<>(new ResponseMessage("NESSUN VIDEOGIOCO CON QUESTO NOME"), intestazioniCache(etag), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(titolo.get(), intestazioniCache(etag), HttpStatus.OK);
+    }
+
+    //Sintesi di più videogiochi in una richiesta (tessere di carrello e storico ordini), nell'ordine degli id passati
+    @GetMapping("/batch")
+    public ResponseEntity<?> batch(@RequestParam List<Integer> ids, WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        try {
+            return new ResponseEntity<>(videogiocoService.trovaPerIds(ids), intestazioniCache(etag), HttpStatus.OK);
+        } catch (IdBatchNonValidiException e) {
+            return idBatchNonValidi();
+        }
+    }
+
+    //Stessa cosa in POST, per liste di id troppo lunghe per stare nell'URL
+    @PostMapping("/batch")
+    public ResponseEntity<?> batchPost(@RequestBody List<Integer> ids) {
+
+        try {
+            return new ResponseEntity<>(videogiocoService.trovaPerIds(ids), HttpStatus.OK);
+        } catch (IdBatchNonValidiException e) {
+            return idBatchNonValidi();
+        }
+    }
+
+    private static ResponseEntity<?> idBatchNonValidi() {
+        return new ResponseEntity<>(new ResponseMessage("ID NON VALIDI: DA 1 A " + VideogiocoService.MAX_ID_BATCH + ", NESSUNO NULLO O RIPETUTO"),
+                HttpStatus.BAD_REQUEST);
     }
 
     @GetMapping("/perNome/{nomeVideogioco}")
-    public ResponseEntity<?> getVideogiochiByNome(@PathVariable String nomeVideogioco) {
+    public ResponseEntity<?> getVideogiochiByNome(@PathVariable String nomeVideogioco, WebRequest request) {
 
-        try{
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
 
-            List<Videogioco> lista = videogiocoService.trovaVideogiocoByNome(nomeVideogioco);
+        try{
 
-            if (lista == null || lista.isEmpty()) {
-                return new ResponseEntity<>(new ResponseMessage("NESSUN VIDEOGIOCO CON QUESTO NOME"), HttpStatus.OK);
+            //Le varianti del nome esatto (una per piattaforma), altrimenti i titoli più simili su tutte le piattaforme.
+            //In entrambi i casi la stessa forma, il flag esatto dice quale dei due
+            List<VideogiocoSintesiDto> esatti = videogiocoService.trovaVideogiocoByNome(nomeVideogioco).stream()
+                    .map(VideogiocoSintesiDto::da)
+                    .toList();
+            if (!esatti.isEmpty()) {
+                return new ResponseEntity<>(new RicercaPerNomeDto(true, esatti), intestazioniCache(etag), HttpStatus.OK);
             }
 
-            Videogioco v = lista.get(0); //Nel Service restituiamo una lista di videogiochi con lo stesso nome, perchè possono esserci più
-                                         //videogiochi con lo stesso nome ma di diversa piattaforma. Noi decidiamo di restituire il primo videogioco
-                                         //con quel nome e che sia visibile.
-
-            if (v == null) {
-                return new ResponseEntity<>(new ResponseMessage("NESSUN VIDEOGIOCO CON QUESTO NOME"), HttpStatus.OK);
+            List<VideogiocoSintesiDto> simili = videogiocoService.trovaVideogiocoByNomeApprossimato(nomeVideogioco, 10);
+            if (simili.isEmpty()) {
+                return new ResponseEntity<>(new ResponseMessage("NESSUN VIDEOGIOCO CON QUESTO NOME"), intestazioniCache(etag), HttpStatus.OK);
             }
-            return new ResponseEntity<>(v, HttpStatus.OK);
+            return new ResponseEntity<>(new RicercaPerNomeDto(false, simili), intestazioniCache(etag), HttpStatus.OK);
 
         } catch (Exception e) {
 
@@ -114,6 +294,48 @@ public class VideogiocoController {
 
     }
 
+    //Conteggi per la barra laterale, stessi filtri di ricercaAvanzata (più l'anno di rilascio)
+    @GetMapping("/facette")
+    public ResponseEntity<?> facette(
+            @RequestParam(required = false, defaultValue = PREZZO_MIN_PREDEFINITO) Double prezzoMin,
+            @RequestParam(required = false, defaultValue = "" + Double.MAX_VALUE) Double prezzoMax,
+            @RequestParam(required = false) String nome,
+            @RequestParam(required = false) String piattaforma,
+            @RequestParam(required = false, defaultValue = "0") Integer quantita,
+            @RequestParam(required = false) Integer annoRilascio,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        try {
+            return new ResponseEntity<>(videogiocoService.facette(prezzoMin, prezzoMax, nome, piattaforma, quantita, annoRilascio), intestazioniCache(etag), HttpStatus.OK);
+        } catch (FasciaPrezzoNonValida e) {
+            return new ResponseEntity<>(new ResponseMessage("FASCIA DI PREZZO NON VALIDA"), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    //Gli elenchi restituiscono solo la sintesi dei videogiochi, la descrizione completa si legge da qui
+    @GetMapping("/dettaglio/{idVideogioco}")
+    public ResponseEntity<?> dettaglio(@PathVariable int idVideogioco, WebRequest request) {
+
+        //L'ETag è la versione (optimistic lock) del videogioco: se il client ha già quella versione non carico niente
+        Optional<Long> versione = videogiocoService.versioneVideogioco(idVideogioco);
+        if (versione.isPresent() && request.checkNotModified(etagVideogioco(idVideogioco, versione.get()))) {
+            return null;
+        }
+
+        try {
+            Videogioco v = videogiocoService.dettaglioVideogioco(idVideogioco);
+            //ETag dalla versione effettivamente caricata, nel caso sia cambiata dopo il controllo precedente
+            return new ResponseEntity<>(v, intestazioniCache(etagVideogioco(v.getId(), v.getVersion())), HttpStatus.OK);
+        } catch (VideogiocoNonPresenteNelDBException e) {
+            return new ResponseEntity<>(new ResponseMessage("VIDEOGIOCO NON PRESENTE"), HttpStatus.NOT_FOUND);
+        }
+    }
+
     @PreAuthorize("hasRole('admin')")
     @PostMapping
     public ResponseEntity<?> salvaVideogioco(@RequestBody @Valid Videogioco v) {
@@ -136,16 +358,70 @@ public class VideogiocoController {
         }
     }
 
+    /*
+    Importazione massiva (CSV con intestazione oppure NDJSON, vedi LettoreImportazione).
+    Il corpo non viene mappato con @RequestBody: lo leggo direttamente dallo stream, senza caricarlo in memoria.
+    La risposta arriva a importazione finita, nel frattempo l'avanzamento si legge da /importazione/stato.
+     */
+    @PreAuthorize("hasRole('admin')")
+    @PostMapping(value = "/importazione", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<?> importa(HttpServletRequest request) {
+
+        try {
+            return new ResponseEntity<>(importazioneCatalogoService.importa(request.getInputStream(), request.getContentType()), HttpStatus.OK);
+        } catch (ImportazioneInCorsoException e) {
+            return new ResponseEntity<>(new ResponseMessage("IMPORTAZIONE GIA' IN CORSO"), HttpStatus.CONFLICT);
+        } catch (ImportazioneNonValidaException e) {
+            return new ResponseEntity<>(new ResponseMessage("FORMATO DEL FILE NON VALIDO"), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            return new ResponseEntity<>(new ResponseMessage("ERRORE NELL'IMPORTAZIONE"), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/importazione/stato")
+    public ResponseEntity<?> statoImportazione() {
+
+        EsitoImportazioneDto stato = importazioneCatalogoService.statoImportazione();
+        if (stato == null) {
+            return new ResponseEntity<>(new ResponseMessage("NESSUNA IMPORTAZIONE DALL'AVVIO"), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(stato, HttpStatus.OK);
+    }
+
+    //Esportazione completa del catalogo (nascosti compresi), in formato compatibile con /importazione
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/esportazione")
+    public ResponseEntity<StreamingResponseBody> esporta(@RequestParam(value = "formato", defaultValue = "csv") String formato) {
+
+        ScrittoreEsportazione.Formato f = ScrittoreEsportazione.Formato.da(formato);
+        if (f == null) {
+            //Qui il corpo può essere solo uno StreamingResponseBody (è il tipo che fa scegliere a Spring lo streaming)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_TYPE, f.contentType() + ";charset=UTF-8");
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"catalogo." + f.estensione() + "\"");
+        return new ResponseEntity<>(esportazioneService.esportaCatalogo(f), headers, HttpStatus.OK);
+    }
+
     @GetMapping("/ricercaAvanzata")
     public ResponseEntity<?> ricercaAvanzata(
-            @RequestParam(required = false, defaultValue = "0.1") Double prezzoMin,
+            @RequestParam(required = false, defaultValue = PREZZO_MIN_PREDEFINITO) Double prezzoMin,
             @RequestParam(required = false, defaultValue = "" + Double.MAX_VALUE) Double prezzoMax,
             @RequestParam(required = false) String nome,
             @RequestParam(required = false) String piattaforma,
             @RequestParam(required = false, defaultValue = "0") Integer quantita,
             @RequestParam(value = "numPagina", defaultValue = "0") int numPagina,
             @RequestParam(value = "dimPagina", defaultValue = "20") int dimPagina,
-            @RequestParam(defaultValue = "prezzo") String ordinamento) {
+            @RequestParam(defaultValue = "prezzo") String ordinamento,
+            WebRequest request) {
+
+        String etag = etagCatalogo();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
         try {
 
             LinkedList<String> ordinamentoValido = new LinkedList<>();
@@ -155,11 +431,11 @@ public class VideogiocoController {
                 return new ResponseEntity<>(new ResponseMessage("PAGINAZIONE NON VALIDA PER I PARAMETRI PASSATI"), HttpStatus.BAD_REQUEST);
             }
 
-            List<Videogioco> listaVideogiochiFiltrati = videogiocoService.ricercaApprofondita(numPagina, dimPagina, prezzoMin, prezzoMax, nome, piattaforma, quantita, ordinamento);
+            List<VideogiocoSintesiDto> listaVideogiochiFiltrati = videogiocoService.ricercaApprofondita(numPagina, dimPagina, prezzoMin, prezzoMax, nome, piattaforma, quantita, ordinamento).getContent();
             if (listaVideogiochiFiltrati.isEmpty()) {
-                return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO"), HttpStatus.OK);
+                return new ResponseEntity<>(new ResponseMessage("NESSUN RISULTATO"), intestazioniCache(etag), HttpStatus.OK);
             }
-            return new ResponseEntity<>(listaVideogiochiFiltrati, HttpStatus.OK);
+            return new ResponseEntity<>(listaVideogiochiFiltrati, intestazioniCache(etag), HttpStatus.OK);
         } catch (FasciaPrezzoNonValida e) {
             return new ResponseEntity<>(new ResponseMessage("FASCIA DI PREZZO NON VALIDA"), HttpStatus.BAD_REQUEST);
         }
@@ -180,4 +456,47 @@ public class VideogiocoController {
             return new ResponseEntity<>(new ResponseMessage("ERRORE NELLA RIMOZIONE"), HttpStatus.BAD_REQUEST);
         }
     }
+
+    /*
+    Con il cursore si può ordinare solo su colonne NOT NULL: nome, piattaforma, descrizione e prezzo possono essere
+    nulli e il keyset salterebbe (o ripeterebbe) quelle righe. Senza ordinamento esplicito la paginazione classica
+    resta per prezzo, quella a cursore usa la quantità.
+     */
+    private static String ordinamentoPredefinito(String ordinamento, String cursore) {
+        if (ordinamento != null) {
+            return ordinamento;
+        }
+        return cursore != null ? "quantita" : "prezzo";
+    }
+
+    private static boolean ordinamentoValidoPerCursore(String ordinamento) {
+        return ordinamento.equals("quantita");
+    }
+
+    /*
+    ETag e Cache-Control per gli endpoint pubblici: il client (o un proxy) può tenere la risposta ma deve
+    sempre chiedere se è ancora valida (no-cache), e finché l'ETag non cambia riceve un 304 senza corpo.
+    L'ETag degli elenchi viene letto PRIMA di caricare i dati: se nel frattempo il catalogo cambia
+    il client riceve dati nuovi con l'ETag vecchio, e alla richiesta successiva li riscarica (mai il contrario).
+     */
+    private String etagCatalogo() {
+        return "\"catalogo-" + videogiocoService.versioneCatalogo() + "\"";
+    }
+
+    private static String etagVideogioco(int idVideogioco, long versione) {
+        return "\"videogioco-" + idVideogioco + "-" + versione + "\"";
+    }
+
+    private static HttpHeaders intestazioniCache(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setCacheControl(CacheControl.noCache().cachePublic());
+        return headers;
+    }
+
+    @PreAuthorize("hasRole('admin')")
+    @GetMapping("/cache/statistiche")
+    public ResponseEntity<?> statisticheCache() {
+        return new ResponseEntity<>(videogiocoService.statisticheCache(), HttpStatus.OK);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,5 @@
+package com.example.gamestore.dto;
+
+// Numero di righe di una tabella: approssimato = true se viene dalle statistiche di PostgreSQL e non da una COUNT(*)
+public record ConteggioDto(long totale, boolean approssimato) {
+}
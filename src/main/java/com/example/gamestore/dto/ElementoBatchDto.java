@@ -0,0 +1,8 @@
+package com.example.gamestore.dto;
+
+/*
+Risultato di /videogiochi/batch per un id richiesto: trovato = false se l'id non esiste o il videogioco
+è nascosto, e in quel caso videogioco è null.
+ */
+public record ElementoBatchDto(int id, boolean trovato, VideogiocoSintesiDto videogioco) {
+}
@@ -0,0 +1,4 @@
+package com.example.gamestore.dto;
+
+public record ErroreRigaImportazioneDto(long riga, String messaggio) {
+}
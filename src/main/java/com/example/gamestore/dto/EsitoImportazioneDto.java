@@ -0,0 +1,15 @@
+package com.example.gamestore.dto;
+
+import java.util.List;
+
+/*
+Stato di un'importazione del catalogo, restituito alla fine della POST e, mentre è in corso, da /importazione/stato.
+errori contiene al massimo le prime N righe scartate (vedi gamestore.importazione.errori-massimi), scartate le conta tutte.
+ */
+public record EsitoImportazioneDto(boolean inCorso,
+                                   long righeLette,
+                                   long inseriti,
+                                   long riattivati,
+                                   long scartati,
+                                   List<ErroreRigaImportazioneDto> errori) {
+}
@@ -0,0 +1,11 @@
+package com.example.gamestore.dto;
+
+import java.util.Date;
+
+/*
+Esito dell'ultimo giro di PuliziaCarrelli: interrotta indica che sono rimaste righe da eliminare
+(blocchi massimi raggiunti o lock non ottenuto), verranno eliminate ai giri successivi.
+ */
+public record EsitoPuliziaCarrelliDto(Date inizio, long durataMillis, int righeNonAcquistabili, int righeInattive,
+                                      int blocchi, boolean interrotta) {
+}
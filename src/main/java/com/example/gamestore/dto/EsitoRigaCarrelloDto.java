@@ -0,0 +1,19 @@
+package com.example.gamestore.dto;
+
+/*
+Risultato di /carrello/modifica per una riga richiesta, nello stesso ordine della richiesta.
+Le righe con esito diverso da AGGIORNATO o RIMOSSO non sono state applicate, le altre sì.
+NON_PRESENTE: quantita = 0 per un videogioco che non era nel carrello (non è un errore, non c'era niente da togliere).
+ */
+public record EsitoRigaCarrelloDto(int idVideogioco, int quantita, Esito esito) {
+
+    public enum Esito {
+        AGGIORNATO,
+        RIMOSSO,
+        NON_PRESENTE,
+        VIDEOGIOCO_NON_VALIDO,
+        QUANTITA_NON_DISPONIBILE,
+        DUPLICATO
+    }
+
+}
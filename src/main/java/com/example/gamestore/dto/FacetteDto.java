@@ -0,0 +1,14 @@
+package com.example.gamestore.dto;
+
+import java.util.Map;
+
+/*
+Conteggi per la barra laterale del catalogo (videogiochi visibili e disponibili).
+Ogni faccetta è calcolata applicando tutti i filtri tranne il proprio, così selezionando una piattaforma
+le altre piattaforme continuano ad avere il loro conteggio.
+ */
+public record FacetteDto(int totale,
+                         Map<String, Integer> piattaforme,
+                         Map<String, Integer> fascePrezzo,
+                         Map<Integer, Integer> anniRilascio) {
+}
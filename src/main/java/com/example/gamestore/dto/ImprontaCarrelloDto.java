@@ -0,0 +1,8 @@
+package com.example.gamestore.dto;
+
+/*
+Versione del carrello vista dal FE: per acquistare basta rimandarla (POST /carrello/acquista/impronta)
+invece di tutto il CarrelloDto. impronta può essere null, in quel caso si controlla solo la revisione.
+ */
+public record ImprontaCarrelloDto(int idUtente, long revisione, String impronta) {
+}
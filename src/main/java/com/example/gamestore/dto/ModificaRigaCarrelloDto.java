@@ -0,0 +1,5 @@
+package com.example.gamestore.dto;
+
+// Una modifica di /carrello/modifica: quantita = 0 toglie il videogioco dal carrello
+public record ModificaRigaCarrelloDto(int idVideogioco, int quantita) {
+}
@@ -0,0 +1,7 @@
+package com.example.gamestore.dto;
+
+import java.util.List;
+
+// cursoreSuccessivo è null quando non ci sono altri elementi da scorrere
+public record PaginaCursoreDto<T>(List<T> contenuto, String cursoreSuccessivo) {
+}
@@ -0,0 +1,10 @@
+package com.example.gamestore.dto;
+
+import java.util.List;
+
+/*
+Risposta di /videogiochi/perNome: sempre una lista, con esatto = true se sono i videogiochi con quel nome
+(una voce per piattaforma) e false se sono i titoli più simili, dal più vicino al più lontano.
+ */
+public record RicercaPerNomeDto(boolean esatto, List<VideogiocoSintesiDto> videogiochi) {
+}
@@ -0,0 +1,13 @@
+package com.example.gamestore.dto;
+
+import com.example.gamestore.entities.DettaglioCarrello;
+
+import java.util.List;
+
+/*
+Carrello attivo completo: tutte le righe con i videogiochi, i totali calcolati dal BE e la versione
+(revisione e impronta) da rimandare a POST /carrello/acquista/impronta.
+ */
+public record RiepilogoCarrelloDto(int idUtente, List<DettaglioCarrello> righe, int numeroArticoli, double totale,
+                                   long revisione, String impronta) {
+}
@@ -0,0 +1,4 @@
+package com.example.gamestore.dto;
+
+public record StatisticheCacheDto(long hit, long miss, long eviction, int dimensione) {
+}
@@ -0,0 +1,11 @@
+package com.example.gamestore.dto;
+
+/*
+Stato dei carrelli in memoria (write-behind): ritardoMassimoMillis è l'età della modifica più vecchia non ancora
+scritta sul DB, 0 se non ce ne sono. carrelliScartati conta i carrelli tolti dalla memoria con le modifiche perse
+perché il loro salvataggio continuava a fallire.
+ */
+public record StatisticheCarrelliDto(boolean attivo, int carrelliInMemoria, int carrelliDaSalvare, long ritardoMassimoMillis,
+                                     long salvataggi, long righeSalvate, long salvataggiFalliti,
+                                     long carrelliScartati) {
+}
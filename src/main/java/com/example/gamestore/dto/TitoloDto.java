@@ -0,0 +1,10 @@
+package com.example.gamestore.dto;
+
+import java.util.List;
+
+/*
+Un titolo con tutte le sue versioni (una per piattaforma) visibili nel catalogo.
+Prezzo minimo/massimo e quantità totale sono calcolati sulle varianti.
+ */
+public record TitoloDto(String nome, Double prezzoMin, Double prezzoMax, int quantitaTotale, List<VarianteTitoloDto> varianti) {
+}
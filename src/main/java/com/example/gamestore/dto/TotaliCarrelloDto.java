@@ -0,0 +1,5 @@
+package com.example.gamestore.dto;
+
+// Numero di articoli e totale del carrello attivo, per badge e mini-carrello
+public record TotaliCarrelloDto(int idUtente, int numeroArticoli, double totale) {
+}
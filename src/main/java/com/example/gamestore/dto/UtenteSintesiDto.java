@@ -0,0 +1,5 @@
+package com.example.gamestore.dto;
+
+// Dati essenziali dell'utente autenticato, tenuti in CacheUtenti al posto dell'entity (niente carrello né ordini)
+public record UtenteSintesiDto(int id, String nome, String cognome, String email) {
+}
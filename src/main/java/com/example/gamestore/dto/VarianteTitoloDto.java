@@ -0,0 +1,4 @@
+package com.example.gamestore.dto;
+
+public record VarianteTitoloDto(int id, String piattaforma, Double prezzo, int quantita) {
+}
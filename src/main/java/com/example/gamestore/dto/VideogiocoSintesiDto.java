@@ -0,0 +1,14 @@
+package com.example.gamestore.dto;
+
+import com.example.gamestore.entities.Videogioco;
+
+/*
+Sintesi di un videogioco per gli elenchi del catalogo: solo quello che serve a mostrare la griglia,
+senza descrizione, casa produttrice e associazioni. Il dettaglio completo si legge da /videogiochi/dettaglio/{id}.
+ */
+public record VideogiocoSintesiDto(int id, String nome, String piattaforma, Double prezzo, int quantita, int annoRilascio) {
+
+    public static VideogiocoSintesiDto da(Videogioco v) {
+        return new VideogiocoSintesiDto(v.getId(), v.getNome(), v.getPiattaforma(), v.getPrezzo(), v.getQuantita(), v.getAnnoRilascio());
+    }
+}
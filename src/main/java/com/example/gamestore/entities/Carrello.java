@@ -35,5 +35,27 @@ public class Carrello {
     @Column(name = "attivo", length = 1)
     private int attivo;
 
+    /*
+    Revisione e impronta (md5) del contenuto del carrello: le aggiorna il DB ad ogni modifica delle righe
+    (trigger su dettaglio_carrello, vedi V3__impronta_carrello.sql), quindi Hibernate non le scrive mai.
+    Servono all'acquisto per capire se il FE ha visto l'ultima versione del carrello.
+     */
+    @Basic
+    @Column(name = "revisione", nullable = false, insertable = false, updatable = false)
+    private long revisione;
+
+    @Basic
+    @Column(name = "impronta", length = 32, nullable = false, insertable = false, updatable = false)
+    private String impronta;
+
+    // Somma delle quantità e dei prezzi delle righe, aggiornati dagli stessi trigger (vedi V5__totali_carrello.sql)
+    @Basic
+    @Column(name = "numero_articoli", nullable = false, insertable = false, updatable = false)
+    private int numeroArticoli;
+
+    @Basic
+    @Column(name = "totale", nullable = false, insertable = false, updatable = false)
+    private double totale;
+
 
 }
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.util.Date;
+
 /*
 Appartiene al Carrello di un utente
 È temporaneo, cioè finché l’utente non conferma l’acquisto, può cambiare quantità, aggiungere o rimuovere videogiochi.
@@ -44,5 +46,11 @@ public class DettaglioCarrello {
     @Column(name = "prezzo_unitario")
     private Double prezzoUnitario;
 
+    // Aggiornata dal DB ad ogni inserimento o modifica della riga (vedi V4__ultima_modifica_dettaglio_carrello.sql)
+    @Basic
+    @Column(name = "ultima_modifica", nullable = false, insertable = false, updatable = false)
+    @JsonIgnore
+    private Date ultimaModifica;
+
 
 }
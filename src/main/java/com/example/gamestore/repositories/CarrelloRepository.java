@@ -1,10 +1,19 @@
 package com.example.gamestore.repositories;
 
+import com.example.gamestore.dto.TotaliCarrelloDto;
 import com.example.gamestore.entities.Carrello;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface CarrelloRepository extends JpaRepository<Carrello, Integer> {
 
@@ -18,4 +27,30 @@ public interface CarrelloRepository extends JpaRepository<Carrello, Integer> {
     )
     Carrello findActiveCarrelloByUtenteId(int idUtente, int attivo);
 
+    // Solo l'id del carrello attivo, senza caricare carrello e utente
+    @Query("SELECT c.id FROM Carrello c WHERE c.utente.id = :idUtente AND c.attivo = 1")
+    Optional<Integer> idCarrelloAttivo(@Param("idUtente") int idUtente);
+
+    /*
+    Carrello attivo con la riga bloccata (SELECT ... FOR UPDATE) fino alla fine della transazione: ogni modifica delle righe
+    aggiorna anche la riga del carrello (revisione), quindi nel frattempo nessuno può cambiarne il contenuto.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Carrello c WHERE c.utente.id = :idUtente AND c.attivo = 1")
+    Optional<Carrello> bloccaCarrelloAttivo(@Param("idUtente") int idUtente);
+
+    /*
+    Carrello attivo con utente, righe e videogiochi in una sola query (fetch join), in sola lettura: serve al riepilogo,
+    che restituisce tutte le righe senza paginare. I totali arrivano già calcolati dalle colonne del carrello.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT c FROM Carrello c JOIN FETCH c.utente u LEFT JOIN FETCH c.listaDettagliCarrello d LEFT JOIN FETCH d.videogioco " +
+            "WHERE u.id = :idUtente AND c.attivo = 1 ORDER BY d.id")
+    Optional<Carrello> riepilogoCarrelloAttivo(@Param("idUtente") int idUtente);
+
+    // Solo le colonne dei totali: nessuna riga del carrello letta, nessuna somma
+    @Query("SELECT new com.example.gamestore.dto.TotaliCarrelloDto(c.utente.id, c.numeroArticoli, c.totale) " +
+            "FROM Carrello c WHERE c.utente.id = :idUtente AND c.attivo = 1")
+    Optional<TotaliCarrelloDto> totaliCarrelloAttivo(@Param("idUtente") int idUtente);
+
 }
@@ -1,22 +1,52 @@
 package com.example.gamestore.repositories;
 
 import com.example.gamestore.entities.DettaglioCarrello;
-import org.springframework.data.domain.Page;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
-public interface DettaglioCarrelloRepository extends JpaRepository<DettaglioCarrello, Integer> {
+public interface DettaglioCarrelloRepository extends JpaRepository<DettaglioCarrello, Integer>, JpaSpecificationExecutor<DettaglioCarrello>, DettaglioCarrelloRepositoryCustom {
 
-    Page<DettaglioCarrello> findByCarrello_Id(int idCarrello, Pageable paging);
+    // Slice: niente COUNT(*) aggiuntiva
+    Slice<DettaglioCarrello> findByCarrello_Id(int idCarrello, Pageable paging);
+
+    // Variante a cursore (keyset) di findByCarrello_Id, sort deve terminare con l'id
+    default Window<DettaglioCarrello> scorriPerCarrello(int idCarrello, ScrollPosition posizione, Sort sort, int limite) {
+        Specification<DettaglioCarrello> perCarrello = (root, query, cb) -> cb.equal(root.get("carrello").get("id"), idCarrello);
+        return findBy(perCarrello, q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
 
     boolean existsByCarrello_IdAndVideogioco_Id(int idCarrello, int videogiocoId);
 
     DettaglioCarrello findByCarrello_IdAndVideogioco_Id(int idCarrello, int videogiocoId);
 
-    boolean existsByCarrello_IdAndVideogioco_IdAndQuantitaAndPrezzoUnitario(int idCarrello, int videogiocoId, int quantita, Double prezzo);
+    /*
+    Righe del carrello attivo dell'utente con videogioco e carrello in un'unica query (JOIN FETCH), per l'acquisto.
+    Le entity sono caricate in sola lettura: Hibernate non fa dirty checking su di loro, quindi aggiornarne i campi
+    (ad esempio la quantità del videogioco dopo l'acquisto) non produce UPDATE al commit.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT d FROM DettaglioCarrello d JOIN FETCH d.videogioco JOIN FETCH d.carrello c " +
+            "WHERE c.utente.id = :idUtente AND c.attivo = 1")
+    List<DettaglioCarrello> righePerAcquisto(@Param("idUtente") int idUtente);
+
+    @Modifying
+    @Query("DELETE FROM DettaglioCarrello d WHERE d.id IN :ids")
+    int eliminaRighe(@Param("ids") List<Integer> ids);
 
 }
@@ -0,0 +1,72 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.dto.DettaglioDto;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/*
+Operazioni sulle righe del carrello scritte direttamente in SQL, così aggiungere, modificare o togliere un videogioco
+costa una sola istruzione invece di caricare carrello, videogioco e riga come entity. Implementate in DettaglioCarrelloRepositoryCustomImpl.
+ */
+public interface DettaglioCarrelloRepositoryCustom {
+
+    // Stato letto solo quando una scrittura non ha toccato righe, per capire quale controllo non è stato superato
+    record StatoRigaCarrello(boolean carrelloAttivo, Integer nascosto, Integer quantitaDisponibile) {
+    }
+
+    /**
+     * Inserisce la riga (idVideogioco, quantita) nel carrello attivo dell'utente o ne aggiorna la quantità se c'è già.
+     * La riga viene scritta solo se il videogioco è visibile e ha almeno quantita copie disponibili: altrimenti Optional vuoto.
+     */
+    Optional<DettaglioDto> impostaQuantita(int idUtente, int idVideogioco, int quantita);
+
+    // Toglie la riga dal carrello attivo dell'utente, Optional vuoto se non c'era
+    Optional<DettaglioDto> rimuoviRiga(int idUtente, int idVideogioco);
+
+    StatoRigaCarrello statoRiga(int idUtente, int idVideogioco);
+
+    // Id del carrello attivo dell'utente, con la riga bloccata (FOR UPDATE) fino alla fine della transazione
+    Optional<Integer> idCarrelloAttivoPerModifica(int idUtente);
+
+    /*
+    Blocca i carrelli indicati (in ordine di id) fino alla fine della transazione. Chi scrive le righe di un carrello
+    deve prima bloccare il carrello, vedi V6__ordine_lock_carrello.sql.
+     */
+    void bloccaCarrelli(Collection<Integer> idCarrelli);
+
+    // Riga da scrivere nel carrello idCarrello: quantita = 0 indica che va tolta
+    record RigaCarrello(int idCarrello, int idVideogioco, int quantita, Double prezzoUnitario) {
+    }
+
+    // Id del carrello attivo dell'utente, senza lock
+    Optional<Integer> idCarrelloAttivo(int idUtente);
+
+    // Tutte le righe del carrello indicato
+    List<DettaglioDto> righeCarrello(int idCarrello);
+
+    /**
+     * Scrive le righe in due batch JDBC, anche se appartengono a carrelli diversi: upsert (ON CONFLICT) per quelle con
+     * quantita > 0, DELETE per le altre. Nessun controllo su scorte o visibilità, vanno fatti prima, e i carrelli vanno
+     * già bloccati nella transazione (bloccaCarrelli o idCarrelloAttivoPerModifica).
+     * Per una riga già presente viene aggiornata solo la quantità, il prezzo unitario resta quello del primo inserimento.
+     * Restituisce, nello stesso ordine di righe, quante righe ha toccato ogni istruzione: 0 per una DELETE di una riga
+     * che non c'era (l'upsert ne tocca sempre una).
+     */
+    int[] scriviRigheInBlocco(List<RigaCarrello> righe);
+
+    /*
+    Pulizia dei carrelli abbandonati (vedi PuliziaCarrelli): ogni chiamata elimina al massimo limite righe, salta i carrelli
+    in carrelliEsclusi e quelli (o le righe) bloccati da altre transazioni (SKIP LOCKED).
+    Restituisce l'id del carrello di ogni riga eliminata.
+     */
+
+    // Righe non modificate da prima di limiteInattivita
+    List<Integer> eliminaRigheInattive(Date limiteInattivita, int limite, Collection<Integer> carrelliEsclusi);
+
+    // Righe di videogiochi nascosti, oppure esauriti e non modificate da prima di limiteEsauriti
+    List<Integer> eliminaRigheNonAcquistabili(Date limiteEsauriti, int limite, Collection<Integer> carrelliEsclusi);
+
+}
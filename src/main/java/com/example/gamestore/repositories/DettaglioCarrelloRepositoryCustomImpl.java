@@ -0,0 +1,170 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.dto.DettaglioDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+public class DettaglioCarrelloRepositoryCustomImpl implements DettaglioCarrelloRepositoryCustom {
+
+    private static final RowMapper<DettaglioDto> RIGA = (rs, n) ->
+            new DettaglioDto(rs.getInt("id_videogioco"), rs.getInt("quantita"), rs.getObject("prezzo_unitario", Double.class));
+
+    // Carrello attivo dell'utente bloccato fino alla fine della transazione, da usare come CTE prima di scrivere le sue righe
+    private static final String CARRELLO_BLOCCATO = "SELECT carrello_id FROM carrello WHERE id_utente = ? AND attivo = 1 FOR NO KEY UPDATE";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /*
+    La SELECT produce una riga solo se il carrello è attivo e il videogioco è visibile con scorte sufficienti, quindi controllo
+    e scrittura sono la stessa istruzione. Con ON CONFLICT sul vincolo unique (id_carrello, id_videogioco) la riga già presente
+    viene aggiornata senza doverla cercare prima; il prezzo unitario resta quello fissato al primo inserimento.
+    Il carrello viene bloccato (CTE con FOR NO KEY UPDATE) prima di scrivere la riga, come fanno acquisto e modifiche in blocco:
+    altrimenti la riga verrebbe bloccata prima del carrello (aggiornato dal trigger) e un acquisto contemporaneo, che blocca
+    il carrello e poi ne elimina le righe, finirebbe in deadlock con questa istruzione (vedi V6__ordine_lock_carrello.sql).
+     */
+    @Override
+    public Optional<DettaglioDto> impostaQuantita(int idUtente, int idVideogioco, int quantita) {
+        String sql = "WITH c AS (" + CARRELLO_BLOCCATO + ") " +
+                "INSERT INTO dettaglio_carrello (quantita, prezzo_unitario, id_carrello, id_videogioco) " +
+                "SELECT ?, v.prezzo, c.carrello_id, v.id_videogioco " +
+                "FROM c JOIN videogioco v ON v.id_videogioco = ? " +
+                "WHERE v.nascosto = 0 AND v.quantita >= ? " +
+                "ON CONFLICT (id_carrello, id_videogioco) DO UPDATE SET quantita = EXCLUDED.quantita " +
+                "RETURNING id_videogioco, quantita, prezzo_unitario";
+        List<DettaglioDto> righe = jdbcTemplate.query(sql, RIGA, idUtente, quantita, idVideogioco, quantita);
+        return righe.stream().findFirst();
+    }
+
+    @Override
+    public Optional<DettaglioDto> rimuoviRiga(int idUtente, int idVideogioco) {
+        String sql = "WITH c AS (" + CARRELLO_BLOCCATO + ") " +
+                "DELETE FROM dettaglio_carrello d USING c " +
+                "WHERE d.id_carrello = c.carrello_id AND d.id_videogioco = ? " +
+                "RETURNING d.id_videogioco, d.quantita, d.prezzo_unitario";
+        List<DettaglioDto> righe = jdbcTemplate.query(sql, RIGA, idUtente, idVideogioco);
+        return righe.stream().findFirst();
+    }
+
+    @Override
+    public StatoRigaCarrello statoRiga(int idUtente, int idVideogioco) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM carrello WHERE id_utente = ? AND attivo = 1) AS carrello_attivo, v.nascosto, v.quantita " +
+                "FROM (SELECT 1) AS u LEFT JOIN videogioco v ON v.id_videogioco = ?";
+        return jdbcTemplate.queryForObject(sql, (rs, n) -> new StatoRigaCarrello(rs.getBoolean("carrello_attivo"),
+                rs.getObject("nascosto", Integer.class), rs.getObject("quantita", Integer.class)), idUtente, idVideogioco);
+    }
+
+    /*
+    Il lock sulla riga del carrello serializza le modifiche in blocco dello stesso utente: due richieste
+    contemporanee non possono controllare e scrivere le righe intrecciandosi.
+     */
+    @Override
+    public Optional<Integer> idCarrelloAttivoPerModifica(int idUtente) {
+        List<Integer> ids = jdbcTemplate.queryForList("SELECT carrello_id FROM carrello WHERE id_utente = ? AND attivo = 1 FOR UPDATE",
+                Integer.class, idUtente);
+        return ids.stream().findFirst();
+    }
+
+    @Override
+    public void bloccaCarrelli(Collection<Integer> idCarrelli) {
+        String sql = "SELECT carrello_id FROM carrello WHERE carrello_id = ANY (?::int[]) ORDER BY carrello_id FOR NO KEY UPDATE";
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("integer", idCarrelli.toArray()));
+            return ps;
+        }, rs -> {
+        });
+    }
+
+    @Override
+    public Optional<Integer> idCarrelloAttivo(int idUtente) {
+        List<Integer> ids = jdbcTemplate.queryForList("SELECT carrello_id FROM carrello WHERE id_utente = ? AND attivo = 1",
+                Integer.class, idUtente);
+        return ids.stream().findFirst();
+    }
+
+    @Override
+    public List<DettaglioDto> righeCarrello(int idCarrello) {
+        return jdbcTemplate.query("SELECT id_videogioco, quantita, prezzo_unitario FROM dettaglio_carrello WHERE id_carrello = ?",
+                RIGA, idCarrello);
+    }
+
+    @Override
+    public int[] scriviRigheInBlocco(List<RigaCarrello> righe) {
+        int[] toccate = new int[righe.size()];
+        List<Object[]> daScrivere = new ArrayList<>();
+        List<Object[]> daRimuovere = new ArrayList<>();
+        List<Integer> posizioniRimosse = new ArrayList<>();
+        for (int i = 0; i < righe.size(); i++) {
+            RigaCarrello r = righe.get(i);
+            if (r.quantita() > 0) {
+                daScrivere.add(new Object[]{r.quantita(), r.prezzoUnitario(), r.idCarrello(), r.idVideogioco()});
+                toccate[i] = 1;
+            } else {
+                daRimuovere.add(new Object[]{r.idCarrello(), r.idVideogioco()});
+                posizioniRimosse.add(i);
+            }
+        }
+        //Con reWriteBatchedInserts il driver unisce le INSERT e non restituisce i conteggi (SUCCESS_NO_INFO): per l'upsert
+        //non servono, inserisce o aggiorna sempre. Le DELETE non vengono riscritte e danno il conteggio di ognuna
+        if (!daScrivere.isEmpty()) {
+            String sql = "INSERT INTO dettaglio_carrello (quantita, prezzo_unitario, id_carrello, id_videogioco) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (id_carrello, id_videogioco) DO UPDATE SET quantita = EXCLUDED.quantita";
+            jdbcTemplate.batchUpdate(sql, daScrivere, new int[]{Types.INTEGER, Types.DOUBLE, Types.INTEGER, Types.INTEGER});
+        }
+        if (!daRimuovere.isEmpty()) {
+            String sql = "DELETE FROM dettaglio_carrello WHERE id_carrello = ? AND id_videogioco = ?";
+            int[] rimosse = jdbcTemplate.batchUpdate(sql, daRimuovere, new int[]{Types.INTEGER, Types.INTEGER});
+            for (int j = 0; j < rimosse.length; j++) {
+                toccate[posizioniRimosse.get(j)] = rimosse[j];
+            }
+        }
+        return toccate;
+    }
+
+    /*
+    DELETE a blocchi: la sottoquery sceglie al massimo limite righe e blocca prima il loro carrello e poi le righe, saltando
+    quelli già bloccati da chi sta usando il carrello in quel momento (SKIP LOCKED), così la pulizia non aspetta e non fa
+    aspettare il traffico normale. Il carrello va bloccato anche lui: la DELETE fa aggiornare la sua riga dai trigger di V3,
+    e acquista lo blocca prima di togliere le righe, quindi bloccando solo le righe i due potevano aspettarsi a vicenda (vedi V6__ordine_lock_carrello.sql).
+     */
+    @Override
+    public List<Integer> eliminaRigheInattive(Date limiteInattivita, int limite, Collection<Integer> carrelliEsclusi) {
+        String sql = "DELETE FROM dettaglio_carrello WHERE id_dettaglio_carrello IN (" +
+                "SELECT d.id_dettaglio_carrello FROM dettaglio_carrello d JOIN carrello c ON c.carrello_id = d.id_carrello " +
+                "WHERE d.ultima_modifica < ? AND d.id_carrello <> ALL (?::int[]) " +
+                "LIMIT ? FOR UPDATE OF c, d SKIP LOCKED) RETURNING id_carrello";
+        return eliminaRighe(sql, limiteInattivita, limite, carrelliEsclusi);
+    }
+
+    @Override
+    public List<Integer> eliminaRigheNonAcquistabili(Date limiteEsauriti, int limite, Collection<Integer> carrelliEsclusi) {
+        String sql = "DELETE FROM dettaglio_carrello WHERE id_dettaglio_carrello IN (" +
+                "SELECT d.id_dettaglio_carrello FROM dettaglio_carrello d JOIN carrello c ON c.carrello_id = d.id_carrello " +
+                "JOIN videogioco v ON v.id_videogioco = d.id_videogioco " +
+                "WHERE (v.nascosto = 1 OR (v.quantita = 0 AND d.ultima_modifica < ?)) AND d.id_carrello <> ALL (?::int[]) " +
+                "LIMIT ? FOR UPDATE OF c, d SKIP LOCKED) RETURNING id_carrello";
+        return eliminaRighe(sql, limiteEsauriti, limite, carrelliEsclusi);
+    }
+
+    private List<Integer> eliminaRighe(String sql, Date limite, int righe, Collection<Integer> carrelliEsclusi) {
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setTimestamp(1, new Timestamp(limite.getTime()));
+            ps.setArray(2, con.createArrayOf("integer", carrelliEsclusi.toArray()));
+            ps.setInt(3, righe);
+            return ps;
+        }, (rs, n) -> rs.getInt(1));
+    }
+
+}
@@ -3,14 +3,26 @@ package com.example.gamestore.repositories;
 
 import com.example.gamestore.entities.DettaglioOrdine;
 import com.example.gamestore.entities.Ordine;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface DettaglioOrdineRepository extends JpaRepository<DettaglioOrdine, Integer> {
+public interface DettaglioOrdineRepository extends JpaRepository<DettaglioOrdine, Integer>, JpaSpecificationExecutor<DettaglioOrdine> {
 
-    Page<DettaglioOrdine> findByOrdine_Id(int idOrdine, Pageable pageable);
+    // Slice: niente COUNT(*) aggiuntiva
+    Slice<DettaglioOrdine> findByOrdine_Id(int idOrdine, Pageable pageable);
+
+    // Variante a cursore (keyset) di findByOrdine_Id, sort deve terminare con l'id
+    default Window<DettaglioOrdine> scorriPerOrdine(int idOrdine, ScrollPosition posizione, Sort sort, int limite) {
+        Specification<DettaglioOrdine> perOrdine = (root, query, cb) -> cb.equal(root.get("ordine").get("id"), idOrdine);
+        return findBy(perOrdine, q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
 
 }
@@ -2,24 +2,63 @@ package com.example.gamestore.repositories;
 
 import com.example.gamestore.entities.Ordine;
 import com.example.gamestore.entities.Utente;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
 
 @Repository
-public interface OrdineRepository extends JpaRepository<Ordine, Integer> {
+public interface OrdineRepository extends JpaRepository<Ordine, Integer>, JpaSpecificationExecutor<Ordine>, OrdineRepositoryCustom {
 
-    Page<Ordine> findByUtente(Utente utente, Pageable pageable);
+    // Le liste restituite sono Slice: i controller non usano il totale, quindi evitiamo la COUNT(*) ad ogni pagina
+    Slice<Ordine> findByUtente(Utente utente, Pageable pageable);
+
+    Slice<Ordine> findAllBy(Pageable pageable);
+
+    /*
+    Stima del numero di ordini letta dalle statistiche di PostgreSQL (aggiornate da VACUUM/ANALYZE):
+    costa come leggere una riga, al contrario della COUNT(*) che scorre tutta la tabella.
+    Restituisce -1 se la tabella non è mai stata analizzata. La tabella è cercata per regclass, cioè risolta con il
+    search_path della connessione: con relname si rischierebbe di leggere una tabella ordine di un altro schema.
+     */
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = 'ordine'::regclass", nativeQuery = true)
+    long stimaNumeroOrdini();
 
     @Query( "SELECT o "+
            "FROM Ordine o "+
            "WHERE o.utente = ?1 AND " +
            "o.dataOrdine >= ?2 AND o.dataOrdine <= ?3"
     )
-    Page<Ordine> ricercaPerUtenteInPeriodo(Utente u, Date dataI, Date dataF, Pageable paging);
+    Slice<Ordine> ricercaPerUtenteInPeriodo(Utente u, Date dataI, Date dataF, Pageable paging);
+
+    /*
+    Varianti a cursore (keyset) delle ricerche precedenti e di findAll(Pageable):
+    il costo di una pagina non dipende da quante pagine sono state già viste.
+    sort deve terminare con l'id, così l'ordine è totale.
+     */
+    default Window<Ordine> scorriTutti(ScrollPosition posizione, Sort sort, int limite) {
+        Specification<Ordine> tutti = (root, query, cb) -> cb.conjunction();
+        return findBy(tutti, q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
+
+    default Window<Ordine> scorriPerUtente(int idUtente, ScrollPosition posizione, Sort sort, int limite) {
+        Specification<Ordine> perUtente = (root, query, cb) -> cb.equal(root.get("utente").get("id"), idUtente);
+        return findBy(perUtente, q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
+
+    default Window<Ordine> scorriPerUtenteInPeriodo(int idUtente, Date dataI, Date dataF, ScrollPosition posizione, Sort sort, int limite) {
+        Specification<Ordine> perUtenteInPeriodo = (root, query, cb) -> cb.and(
+                cb.equal(root.get("utente").get("id"), idUtente),
+                cb.between(root.<Date>get("dataOrdine"), dataI, dataF));
+        return findBy(perUtenteInPeriodo, q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
 
 }
@@ -0,0 +1,28 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.entities.DettaglioOrdine;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+// Operazioni su Ordine scritte direttamente in JDBC, implementate in OrdineRepositoryCustomImpl
+public interface OrdineRepositoryCustom {
+
+    /**
+     * Tutti gli ordini con i loro dettagli (una riga per dettaglio, gli ordini senza dettagli compaiono una volta),
+     * letti con un cursore lato server una riga alla volta. Va chiamato in una transazione.
+     */
+    void esportaOrdini(RowCallbackHandler riga);
+
+    // INSERT dell'ordine, restituisce l'id generato
+    int inserisciOrdine(int idUtente, Date dataOrdine, double totale);
+
+    /**
+     * INSERT di tutti i dettagli dell'ordine con una sola istruzione (quantità, prezzo e videogioco presi dai dettagli).
+     * Restituisce id videogioco -> id del dettaglio generato (un videogioco compare una sola volta in un ordine).
+     */
+    Map<Integer, Integer> inserisciDettagli(int idOrdine, List<DettaglioOrdine> dettagli);
+
+}
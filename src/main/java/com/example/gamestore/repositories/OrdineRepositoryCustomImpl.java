@@ -0,0 +1,77 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.entities.DettaglioOrdine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OrdineRepositoryCustomImpl implements OrdineRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${gamestore.esportazione.fetch-size:1000}")
+    private int fetchSize;
+
+    // Vedi VideogiocoRepositoryCustomImpl.esportaCatalogo per il funzionamento del cursore
+    @Override
+    public void esportaOrdini(RowCallbackHandler riga) {
+        JdbcTemplate cursore = new JdbcTemplate(jdbcTemplate.getDataSource());
+        cursore.setFetchSize(fetchSize);
+        cursore.query("SELECT o.id_ordine AS \"idOrdine\", o.data_ordine AS \"dataOrdine\", o.totale, " +
+                "o.id_utente AS \"idUtente\", u.email, " +
+                "d.id_dettaglio_ordine AS \"idDettaglio\", d.id_videogioco AS \"idVideogioco\", v.nome AS \"nomeVideogioco\", " +
+                "d.quantita, d.prezzo_unitario AS \"prezzoUnitario\" " +
+                "FROM ordine o " +
+                "LEFT JOIN utente u ON u.id_utente = o.id_utente " +
+                "LEFT JOIN dettaglio_ordine d ON d.id_ordine = o.id_ordine " +
+                "LEFT JOIN videogioco v ON v.id_videogioco = d.id_videogioco " +
+                "ORDER BY o.id_ordine, d.id_dettaglio_ordine", riga);
+    }
+
+    @Override
+    public int inserisciOrdine(int idUtente, Date dataOrdine, double totale) {
+        return jdbcTemplate.queryForObject("INSERT INTO ordine (data_ordine, totale, id_utente) VALUES (?, ?, ?) RETURNING id_ordine",
+                Integer.class, new Timestamp(dataOrdine.getTime()), totale, idUtente);
+    }
+
+    // Come VideogiocoRepositoryCustomImpl.trovaPerNomeEPiattaforma: i valori arrivano come array e unnest li trasforma in righe
+    @Override
+    public Map<Integer, Integer> inserisciDettagli(int idOrdine, List<DettaglioOrdine> dettagli) {
+        String sql = "INSERT INTO dettaglio_ordine (quantita, prezzo_unitario, id_ordine, id_videogioco) " +
+                "SELECT k.quantita, k.prezzo, ?, k.id FROM unnest(?::int[], ?::float8[], ?::int[]) AS k(quantita, prezzo, id) " +
+                "RETURNING id_videogioco, id_dettaglio_ordine";
+
+        Integer[] quantita = new Integer[dettagli.size()];
+        Double[] prezzi = new Double[dettagli.size()];
+        Integer[] videogiochi = new Integer[dettagli.size()];
+        for (int i = 0; i < dettagli.size(); i++) {
+            DettaglioOrdine d = dettagli.get(i);
+            quantita[i] = d.getQuantita();
+            prezzi[i] = d.getPrezzoUnitario();
+            videogiochi[i] = d.getVideogioco().getId();
+        }
+
+        Map<Integer, Integer> idDettagli = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setInt(1, idOrdine);
+            ps.setArray(2, con.createArrayOf("integer", quantita));
+            ps.setArray(3, con.createArrayOf("float8", prezzi));
+            ps.setArray(4, con.createArrayOf("integer", videogiochi));
+            return ps;
+        }, rs -> {
+            idDettagli.put(rs.getInt(1), rs.getInt(2));
+        });
+        return idDettagli;
+    }
+
+}
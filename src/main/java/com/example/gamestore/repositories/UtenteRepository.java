@@ -1,9 +1,14 @@
 package com.example.gamestore.repositories;
 
+import com.example.gamestore.dto.UtenteSintesiDto;
 import com.example.gamestore.entities.Utente;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface UtenteRepository extends JpaRepository<Utente, Integer> {
 
@@ -13,4 +18,8 @@ public interface UtenteRepository extends JpaRepository<Utente, Integer> {
 
     boolean existsByNomeIgnoreCaseAndCognomeIgnoreCaseAndEmailIgnoreCase(String nome, String cognome, String email);
 
+    // Solo i dati essenziali, senza caricare l'entity con carrello e ordini (vedi CacheUtenti)
+    @Query("SELECT new com.example.gamestore.dto.UtenteSintesiDto(u.id, u.nome, u.cognome, u.email) FROM Utente u WHERE u.id = :id")
+    Optional<UtenteSintesiDto> trovaSintesi(@Param("id") int id);
+
 }
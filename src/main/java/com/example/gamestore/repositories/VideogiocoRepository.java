@@ -1,26 +1,34 @@
 package com.example.gamestore.repositories;
 
+import com.example.gamestore.dto.VideogiocoSintesiDto;
 import com.example.gamestore.entities.Videogioco;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 @Repository
-public interface VideogiocoRepository extends JpaRepository<Videogioco, Integer> {
+public interface VideogiocoRepository extends JpaRepository<Videogioco, Integer>, JpaSpecificationExecutor<Videogioco>, VideogiocoRepositoryCustom {
 
     // Cerca i videogiochi per nome (e se visibili), non Page perchè non ci sono tantissimi giochi con lo stesso identico nome
     List<Videogioco> findByNomeIgnoreCaseAndNascosto(String nome, int nascosto);
 
 
 
-    // Cerca giochi per piattaforma con paginazione (PS5, Xbox, PC, ecc...)
-    Page<Videogioco> findByPiattaformaContainingIgnoreCaseAndNascosto(String piattaforma, Pageable paging, int nascosto);
-
     /**
      * Trova i videogiochi il cui nome inizia con la stringa specificata.
      * Ad esempio cercando "Fi" restituirà "Final Fantasy", "Fifa", ecc...
@@ -31,23 +39,57 @@ public interface VideogiocoRepository extends JpaRepository<Videogioco, Integer>
     boolean existsByNomeIgnoreCaseAndPiattaformaIgnoreCase(String nome, String piattaforma);
 
 
+    /*
+    Elenchi a cursore (keyset) dei videogiochi disponibili e di quelli di una piattaforma:
+    la pagina successiva riparte dalle chiavi dell'ultimo elemento invece di saltare N righe con OFFSET.
+    sort deve terminare con l'id, così l'ordine è totale e nessuna riga viene saltata o ripetuta.
+     */
+    default Window<Videogioco> scorriDisponibili(ScrollPosition posizione, Sort sort, int limite) {
+        return findBy(VideogiocoSpecifications.disponibili(), q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
+
+    default Window<Videogioco> scorriPerPiattaforma(String piattaforma, ScrollPosition posizione, Sort sort, int limite) {
+        return findBy(VideogiocoSpecifications.perPiattaforma(piattaforma), q -> q.sortBy(sort).limit(limite).scroll(posizione));
+    }
+
+    /*
+    Proiezioni per gli elenchi del catalogo: la SELECT legge solo le colonne della sintesi e Hibernate crea
+    direttamente i record, senza entity gestite nel persistence context (niente snapshot, niente associazioni).
+    L'ordinamento del Pageable viene applicato sull'alias v come per le query derivate.
+     */
+    @Query("SELECT new com.example.gamestore.dto.VideogiocoSintesiDto(v.id, v.nome, v.piattaforma, v.prezzo, v.quantita, v.annoRilascio) " +
+            "FROM Videogioco v WHERE v.quantita > 0 AND v.nascosto = 0")
+    Slice<VideogiocoSintesiDto> sintesiDisponibili(Pageable paging);
+
+    @Query("SELECT new com.example.gamestore.dto.VideogiocoSintesiDto(v.id, v.nome, v.piattaforma, v.prezzo, v.quantita, v.annoRilascio) " +
+            "FROM Videogioco v WHERE UPPER(v.piattaforma) LIKE :modello ESCAPE '\\' AND v.nascosto = 0")
+    Slice<VideogiocoSintesiDto> sintesiPerPiattaformaLike(@Param("modello") String modello, Pageable paging);
+
+    // Piattaforma che contiene il testo, senza distinguere maiuscole e minuscole: i caratteri jolly scritti dall'utente sono cercati letteralmente
+    default Slice<VideogiocoSintesiDto> sintesiPerPiattaforma(String piattaforma, Pageable paging) {
+        return sintesiPerPiattaformaLike("%" + VideogiocoSpecifications.escapeLike(piattaforma.toUpperCase(Locale.ROOT)) + "%", paging);
+    }
+
+    // Sintesi dei videogiochi visibili tra quelli indicati (l'ordine non è garantito)
+    @Query("SELECT new com.example.gamestore.dto.VideogiocoSintesiDto(v.id, v.nome, v.piattaforma, v.prezzo, v.quantita, v.annoRilascio) " +
+            "FROM Videogioco v WHERE v.id IN :ids AND v.nascosto = 0")
+    List<VideogiocoSintesiDto> trovaSintesiPerId(@Param("ids") List<Integer> ids);
+
+    // Quali degli id indicati esistono, nascosti compresi
+    @Query("SELECT v.id FROM Videogioco v WHERE v.id IN :ids")
+    List<Integer> idEsistenti(@Param("ids") List<Integer> ids);
 
     /*
-    Ricerca avanzata con filtri opzionali (prezzo min/max, nome, piattaforma, quantità disponibile).
-    I videogiochi "nascosti" (nascosto=1) vengono esclusi dai risultati.
+    Videogiochi indicati (nascosti compresi) in sola lettura: Hibernate non li controlla al flush, quindi dopo una UPDATE
+    SQL sulle scorte (scalaScorte, ripristinaScorte) si possono aggiornare a mano senza che provi a riscriverli.
      */
-    @Query(" SELECT v "+
-           " FROM Videogioco v "+
-           " WHERE (v.prezzo >= ?1 OR ?1 IS NULL) AND "+
-           "       (v.prezzo <= ?2 OR ?2 IS NULL) AND "+
-           "       (v.nome LIKE ?3 OR ?3 IS NULL) AND "+
-           "       (v.piattaforma LIKE ?4 OR ?4 IS NULL) AND"+
-           "       (v.quantita >= ?5 OR ?5 IS NULL) AND v.nascosto = 0"
-    )
-    List<Videogioco> ricercaApprofondita(double prezzoMin, double prezzoMax, String nome, String piattaforma, int quantita);
-
-
-    Page<Videogioco> findByQuantitaGreaterThanAndNascosto(Pageable paging, int quantita, int nascosto);
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT v FROM Videogioco v WHERE v.id IN :ids")
+    List<Videogioco> trovaInSolaLettura(@Param("ids") List<Integer> ids);
+
+    // Solo la versione (optimistic lock) di un videogioco visibile: basta per l'ETag, senza caricare l'entity
+    @Query("SELECT v.version FROM Videogioco v WHERE v.id = :id AND v.nascosto = 0")
+    Optional<Long> versioneVisibile(@Param("id") int id);
 
     boolean existsByNomeIgnoreCaseAndNascosto(String nome,int nascosto);
 
@@ -0,0 +1,64 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.dto.VideogiocoSintesiDto;
+import com.example.gamestore.entities.Videogioco;
+import com.example.gamestore.support.catalogo.VoceCatalogo;
+import com.example.gamestore.support.importazione.RigaImportazione;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+Operazioni su Videogioco scritte direttamente in JDBC, per i casi in cui passare dalle entity costerebbe troppo
+(ad esempio l'importazione massiva del catalogo). Implementate in VideogiocoRepositoryCustomImpl.
+ */
+public interface VideogiocoRepositoryCustom {
+
+    record VideogiocoEsistente(int id, int nascosto) {
+    }
+
+    record ScorteAggiornate(int id, int quantita, long version) {
+    }
+
+    /**
+     * Per ogni coppia (nomi[i], piattaforme[i]) già presente nel DB (senza distinguere maiuscole e minuscole)
+     * restituisce i -> videogioco esistente. Una sola query per tutte le coppie.
+     */
+    Map<Integer, VideogiocoEsistente> trovaPerNomeEPiattaforma(List<String> nomi, List<String> piattaforme);
+
+    // INSERT in batch di nuovi videogiochi, visibili salvo le righe con nascosto = 1
+    void inserisciInBlocco(List<RigaImportazione> righe);
+
+    // Riattivazione in batch di videogiochi nascosti: ids.get(i) viene aggiornato con i dati di righe.get(i)
+    void riattivaInBlocco(List<Integer> ids, List<RigaImportazione> righe);
+
+    /**
+     * Scala quantita.get(i) copie dal videogioco ids.get(i), per tutti i videogiochi con una sola UPDATE condizionata:
+     * un videogioco viene aggiornato solo se ha ancora abbastanza copie. Restituisce id -> scorte dopo l'aggiornamento
+     * dei soli videogiochi aggiornati, quindi se mancano degli id la transazione va annullata.
+     */
+    Map<Integer, ScorteAggiornate> scalaScorte(List<Integer> ids, List<Integer> quantita);
+
+    // Rimette quantita.get(i) copie nel videogioco ids.get(i) (annullamento di un ordine), stessa forma del risultato di scalaScorte
+    Map<Integer, ScorteAggiornate> ripristinaScorte(List<Integer> ids, List<Integer> quantita);
+
+    /**
+     * Pagina dei videogiochi che soddisfano filtri, già ridotti alla sintesi: la SELECT legge solo le colonne della sintesi
+     * e chiede una riga in più per sapere se esiste la pagina successiva, quindi niente COUNT(*) e niente entity.
+     */
+    Slice<VideogiocoSintesiDto> sintesiPerFiltri(Specification<Videogioco> filtri, Pageable paging);
+
+    // Tutto il catalogo (nascosti compresi) letto con un cursore lato server, una riga alla volta. Va chiamato in una transazione
+    void esportaCatalogo(RowCallbackHandler riga);
+
+    /**
+     * I videogiochi visibili con le sole colonne usate dagli indici in memoria, letti a blocchi di fetch-size righe
+     * senza passare dalle entity. Va chiamato in una transazione, altrimenti PostgreSQL ignora la fetch size.
+     */
+    List<VoceCatalogo> leggiCatalogoVisibile();
+
+}
@@ -0,0 +1,186 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.dto.VideogiocoSintesiDto;
+import com.example.gamestore.entities.Videogioco;
+import com.example.gamestore.support.catalogo.VoceCatalogo;
+import com.example.gamestore.support.importazione.RigaImportazione;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VideogiocoRepositoryCustomImpl implements VideogiocoRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${gamestore.esportazione.fetch-size:1000}")
+    private int fetchSize;
+
+    /*
+    Le coppie cercate arrivano come due array PostgreSQL: unnest li trasforma in una tabella con il numero di riga
+    (ordinality), così nel risultato so a quale riga del blocco corrisponde ogni videogioco trovato.
+    upper() come le query IgnoreCase di Spring Data.
+     */
+    @Override
+    public Map<Integer, VideogiocoEsistente> trovaPerNomeEPiattaforma(List<String> nomi, List<String> piattaforme) {
+        String sql = "SELECT k.i, v.id_videogioco, v.nascosto " +
+                "FROM unnest(?::text[], ?::text[]) WITH ORDINALITY AS k(nome, piattaforma, i) " +
+                "JOIN videogioco v ON upper(v.nome) = upper(k.nome) AND upper(v.piattaforma) = upper(k.piattaforma)";
+
+        Map<Integer, VideogiocoEsistente> esistenti = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            Array arrayNomi = con.createArrayOf("text", nomi.toArray());
+            Array arrayPiattaforme = con.createArrayOf("text", piattaforme.toArray());
+            ps.setArray(1, arrayNomi);
+            ps.setArray(2, arrayPiattaforme);
+            return ps;
+        }, rs -> {
+            // ordinality parte da 1
+            esistenti.put(rs.getInt(1) - 1, new VideogiocoEsistente(rs.getInt(2), rs.getInt(3)));
+        });
+        return esistenti;
+    }
+
+    /*
+    I lock sulle righe vengono presi in ordine di id (CTE MATERIALIZED con FOR UPDATE) prima dell'UPDATE: due acquisti
+    contemporanei con videogiochi in comune li prendono nello stesso ordine e non possono andare in deadlock.
+    version viene incrementata come farebbe Hibernate, così gli ETag del dettaglio cambiano.
+     */
+    @Override
+    public Map<Integer, ScorteAggiornate> scalaScorte(List<Integer> ids, List<Integer> quantita) {
+        String sql = "WITH richiesti AS (SELECT k.id, k.quantita FROM unnest(?::int[], ?::int[]) AS k(id, quantita)), " +
+                "bloccati AS MATERIALIZED (SELECT v.id_videogioco FROM videogioco v JOIN richiesti r ON r.id = v.id_videogioco " +
+                "ORDER BY v.id_videogioco FOR UPDATE OF v) " +
+                "UPDATE videogioco v SET quantita = v.quantita - r.quantita, version = v.version + 1 " +
+                "FROM richiesti r " +
+                "WHERE v.id_videogioco = r.id AND v.id_videogioco IN (SELECT b.id_videogioco FROM bloccati b) AND v.quantita >= r.quantita " +
+                "RETURNING v.id_videogioco, v.quantita, v.version";
+        return aggiornaScorte(sql, ids, quantita);
+    }
+
+    // Come scalaScorte (stesso ordine dei lock), ma le copie vengono rimesse in magazzino senza condizioni
+    @Override
+    public Map<Integer, ScorteAggiornate> ripristinaScorte(List<Integer> ids, List<Integer> quantita) {
+        String sql = "WITH richiesti AS (SELECT k.id, k.quantita FROM unnest(?::int[], ?::int[]) AS k(id, quantita)), " +
+                "bloccati AS MATERIALIZED (SELECT v.id_videogioco FROM videogioco v JOIN richiesti r ON r.id = v.id_videogioco " +
+                "ORDER BY v.id_videogioco FOR UPDATE OF v) " +
+                "UPDATE videogioco v SET quantita = v.quantita + r.quantita, version = v.version + 1 " +
+                "FROM richiesti r " +
+                "WHERE v.id_videogioco = r.id AND v.id_videogioco IN (SELECT b.id_videogioco FROM bloccati b) " +
+                "RETURNING v.id_videogioco, v.quantita, v.version";
+        return aggiornaScorte(sql, ids, quantita);
+    }
+
+    private Map<Integer, ScorteAggiornate> aggiornaScorte(String sql, List<Integer> ids, List<Integer> quantita) {
+        Map<Integer, ScorteAggiornate> aggiornate = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("integer", ids.toArray()));
+            ps.setArray(2, con.createArrayOf("integer", quantita.toArray()));
+            return ps;
+        }, rs -> {
+            aggiornate.put(rs.getInt(1), new ScorteAggiornate(rs.getInt(1), rs.getInt(2), rs.getLong(3)));
+        });
+        return aggiornate;
+    }
+
+    @Override
+    public Slice<VideogiocoSintesiDto> sintesiPerFiltri(Specification<Videogioco> filtri, Pageable paging) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<VideogiocoSintesiDto> query = cb.createQuery(VideogiocoSintesiDto.class);
+        Root<Videogioco> v = query.from(Videogioco.class);
+        query.select(cb.construct(VideogiocoSintesiDto.class, v.get("id"), v.get("nome"), v.get("piattaforma"),
+                v.get("prezzo"), v.get("quantita"), v.get("annoRilascio")));
+        query.where(filtri.toPredicate(v, query, cb));
+        query.orderBy(QueryUtils.toOrders(paging.getSort(), v, cb));
+
+        List<VideogiocoSintesiDto> righe = entityManager.createQuery(query)
+                .setFirstResult((int) paging.getOffset())
+                .setMaxResults(paging.getPageSize() + 1)
+                .getResultList();
+        boolean haSuccessiva = righe.size() > paging.getPageSize();
+        return new SliceImpl<>(haSuccessiva ? righe.subList(0, paging.getPageSize()) : righe, paging, haSuccessiva);
+    }
+
+    @Override
+    public void inserisciInBlocco(List<RigaImportazione> righe) {
+        if (righe.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO videogioco (version, nome, descrizione, piattaforma, anno_rilascio, casa_produttrice, prezzo, quantita, nascosto) " +
+                "VALUES (0, ?, ?, ?, ?, ?, ?, ?, ?)";
+        List<Object[]> parametri = new ArrayList<>(righe.size());
+        for (RigaImportazione r : righe) {
+            parametri.add(new Object[]{r.nome(), r.descrizione(), r.piattaforma(), annoOZero(r), r.casaProduttrice(), r.prezzo(), r.quantita(),
+                    r.daNascondere() ? 1 : 0});
+        }
+        jdbcTemplate.batchUpdate(sql, parametri, new int[]{Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.DOUBLE, Types.INTEGER, Types.INTEGER});
+    }
+
+    // Come salvaVideogioco: si copiano i nuovi dati sul record nascosto e lo si rende visibile (version incrementata come farebbe Hibernate)
+    @Override
+    public void riattivaInBlocco(List<Integer> ids, List<RigaImportazione> righe) {
+        if (righe.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE videogioco SET descrizione = ?, prezzo = ?, quantita = ?, anno_rilascio = ?, casa_produttrice = ?, " +
+                "nascosto = 0, version = version + 1 WHERE id_videogioco = ? AND nascosto = 1";
+        List<Object[]> parametri = new ArrayList<>(righe.size());
+        for (int i = 0; i < righe.size(); i++) {
+            RigaImportazione r = righe.get(i);
+            parametri.add(new Object[]{r.descrizione(), r.prezzo(), r.quantita(), annoOZero(r), r.casaProduttrice(), ids.get(i)});
+        }
+        jdbcTemplate.batchUpdate(sql, parametri, new int[]{Types.VARCHAR, Types.DOUBLE, Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.INTEGER});
+    }
+
+    /*
+    Con fetch size impostato e autocommit disattivato (siamo in una transazione) il driver PostgreSQL usa un cursore
+    lato server e porta in memoria fetchSize righe alla volta, invece di tutto il risultato.
+     */
+    @Override
+    public void esportaCatalogo(RowCallbackHandler riga) {
+        JdbcTemplate cursore = new JdbcTemplate(jdbcTemplate.getDataSource());
+        cursore.setFetchSize(fetchSize);
+        cursore.query("SELECT id_videogioco AS id, nome, piattaforma, descrizione, anno_rilascio AS \"annoRilascio\", " +
+                "casa_produttrice AS \"casaProduttrice\", prezzo, quantita, nascosto FROM videogioco ORDER BY id_videogioco", riga);
+    }
+
+    @Override
+    public List<VoceCatalogo> leggiCatalogoVisibile() {
+        JdbcTemplate cursore = new JdbcTemplate(jdbcTemplate.getDataSource());
+        cursore.setFetchSize(fetchSize);
+        return cursore.query("SELECT id_videogioco, nome, descrizione, piattaforma, casa_produttrice, anno_rilascio, prezzo, quantita " +
+                        "FROM videogioco WHERE nascosto = 0",
+                (rs, i) -> new VoceCatalogo(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                        rs.getInt(6), rs.getObject(7, Double.class), rs.getInt(8)));
+    }
+
+    // anno_rilascio è un int nell'entity: se manca vale 0 come per un Videogioco creato senza anno
+    private static int annoOZero(RigaImportazione r) {
+        return r.annoRilascio() == null ? 0 : r.annoRilascio();
+    }
+
+}
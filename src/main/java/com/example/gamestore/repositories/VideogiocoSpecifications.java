@@ -0,0 +1,70 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.entities.Videogioco;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+Filtri dinamici per le query su Videogioco.
+A differenza del vecchio pattern "(v.prezzo >= ?1 OR ?1 IS NULL)" qui un filtro non passato non finisce proprio
+nella query: il planner di PostgreSQL vede solo i predicati reali e può usare gli indici.
+ */
+public class VideogiocoSpecifications {
+
+    private VideogiocoSpecifications() {
+    }
+
+    /**
+     * Ricerca avanzata con filtri opzionali (prezzo min/max, nome, piattaforma, quantità disponibile).
+     * I videogiochi "nascosti" (nascosto=1) vengono sempre esclusi dai risultati.
+     */
+    public static Specification<Videogioco> ricercaApprofondita(Double prezzoMin, Double prezzoMax, String nome, String piattaforma, Integer quantita) {
+        return (root, query, cb) -> {
+            List<Predicate> predicati = new ArrayList<>();
+            predicati.add(cb.equal(root.get("nascosto"), 0));
+
+            if (prezzoMin != null)
+                predicati.add(cb.greaterThanOrEqualTo(root.<Double>get("prezzo"), prezzoMin));
+
+            if (prezzoMax != null)
+                predicati.add(cb.lessThanOrEqualTo(root.<Double>get("prezzo"), prezzoMax));
+
+            if (nome != null)
+                predicati.add(cb.like(root.<String>get("nome"), nome));
+
+            if (piattaforma != null)
+                predicati.add(cb.like(root.<String>get("piattaforma"), piattaforma));
+
+            //quantita >= 0 è sempre vero, quindi lo aggiungo solo se serve davvero
+            if (quantita != null && quantita > 0)
+                predicati.add(cb.greaterThanOrEqualTo(root.<Integer>get("quantita"), quantita));
+
+            return cb.and(predicati.toArray(new Predicate[0]));
+        };
+    }
+
+    // Visibili e con almeno una copia in magazzino
+    public static Specification<Videogioco> disponibili() {
+        return (root, query, cb) -> cb.and(
+                cb.greaterThan(root.<Integer>get("quantita"), 0),
+                cb.equal(root.get("nascosto"), 0));
+    }
+
+    // Visibili con piattaforma che contiene il testo, senza distinguere maiuscole e minuscole
+    public static Specification<Videogioco> perPiattaforma(String piattaforma) {
+        String modello = "%" + escapeLike(piattaforma.toUpperCase(Locale.ROOT)) + "%";
+        return (root, query, cb) -> cb.and(
+                cb.like(cb.upper(root.<String>get("piattaforma")), modello, '\\'),
+                cb.equal(root.get("nascosto"), 0));
+    }
+
+    // I caratteri jolly scritti dall'utente vanno cercati letteralmente, come fa Spring Data con "Containing"
+    static String escapeLike(String testo) {
+        return testo.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+}
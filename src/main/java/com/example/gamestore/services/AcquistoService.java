@@ -0,0 +1,170 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.dto.CarrelloDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.ImprontaCarrelloDto;
+import com.example.gamestore.entities.*;
+import com.example.gamestore.repositories.CarrelloRepository;
+import com.example.gamestore.repositories.DettaglioCarrelloRepository;
+import com.example.gamestore.support.authentication.UtenteCorrente;
+import com.example.gamestore.support.exceptions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/*
+Transazioni dell'acquisto del carrello, separate da CarrelloService perché lì acquista e acquistaConImpronta devono
+prima salvare i carrelli in memoria fuori da ogni transazione (una chiamata a un metodo della stessa classe non passerebbe
+dal proxy di @Transactional). Qui l'utente arriva già controllato contro quello del token.
+ */
+@Service
+public class AcquistoService {
+
+    @Autowired
+    private CarrelloRepository carrelloRepository;
+
+    @Autowired
+    private DettaglioCarrelloRepository dettaglioCarrelloRepository;
+
+    @Autowired
+    private OrdineService ordineService;
+
+    @Autowired
+    private UtenteCorrente utenteCorrente;
+
+    @Transactional(readOnly = false, rollbackFor = {QuantitaVideogiocoNonDisponibile.class, OrdineNonValido.class, UtenteNonValidoONonEsistente.class, VideogiocoNonValidoException.class, CarrelloNonValidoException.class})
+    public Ordine acquista(int idUt, CarrelloDto carrelloDto) throws QuantitaVideogiocoNonDisponibile, OrdineNonValido,
+            UtenteNonValidoONonEsistente, VideogiocoNonValidoException, CarrelloNonValidoException {
+
+        //Come in acquistaConImpronta il carrello viene bloccato prima di leggerne le righe: due acquisti dello stesso
+        //carrello (doppio click, richiesta ripetuta) vanno uno dopo l'altro e il secondo trova il carrello già vuoto
+        if (carrelloRepository.bloccaCarrelloAttivo(idUt).isEmpty()) {
+            if (utenteCorrente.utente().isEmpty()) {
+                throw new UtenteNonValidoONonEsistente();
+            }
+            throw new CarrelloNonValidoException();
+        }
+
+        //Tutte le righe del carrello attivo con i loro videogiochi in una sola query: i controlli sotto sono fatti in memoria.
+        //Il carrello del DB va confrontato con quello ricevuto dal FE, altrimenti c'è il problema introdotto a lezione
+        //(moglie collana, marito canna da pesca): l'ordine potrebbe non corrispondere al carrello che l'utente sta vedendo.
+        List<DettaglioCarrello> righeBE = dettaglioCarrelloRepository.righePerAcquisto(idUt);
+
+        //Se nel DB il carrello è vuoto non ha senso andare avanti, l'ordine non è valido
+        if (righeBE.isEmpty()) {
+            throw new OrdineNonValido();
+        }
+
+        //Se i dettagli sono diversi a livello di dimensione sono nel caso in cui la moglie ha messo nel carrello la collana:
+        //quindi nel db ho più videogiochi rispetto a quelli che il marito mi sta passando dal FE, ovvero che vede lui
+        List<DettaglioDto> righeFE = carrelloDto.listaDettaglioCarrello();
+        if (righeFE == null || righeBE.size() != righeFE.size()) {
+            throw new OrdineNonValido();
+        }
+
+        Map<Integer, DettaglioCarrello> righePerVideogioco = new HashMap<>();
+        for (DettaglioCarrello d : righeBE) {
+            righePerVideogioco.put(d.getVideogioco().getId(), d);
+        }
+
+        List<DettaglioOrdine> dettagliOrdine = new ArrayList<>(righeFE.size());
+        Set<Integer> visti = new HashSet<>();
+        for (DettaglioDto dettaglioFE : righeFE) {
+
+            int idVideogioco = dettaglioFE.idVideogioco();
+            if (idVideogioco < 0) {
+                throw new VideogiocoNonValidoException();
+            }
+
+            //Stessa dimensione non basta: per ogni riga del FE ci deve essere nel carrello BE lo stesso videogioco
+            //con stessa quantità e stesso prezzo (e ogni videogioco una volta sola)
+            DettaglioCarrello dettaglioBE = righePerVideogioco.get(idVideogioco);
+            if (dettaglioBE == null || !visti.add(idVideogioco) || dettaglioBE.getQuantita() != dettaglioFE.quantita()
+                    || !Objects.equals(dettaglioBE.getPrezzoUnitario(), dettaglioFE.prezzoUnitario())) {
+                throw new OrdineNonValido();
+            }
+
+            dettagliOrdine.add(dettaglioOrdineDa(dettaglioBE));
+        }
+
+        return concludiAcquisto(righeBE, dettagliOrdine);
+
+    }
+
+    /*
+    Acquisto con la sola versione del carrello vista dal FE (revisione e impronta, vedi Carrello) al posto di tutte le righe.
+    Il carrello viene bloccato prima del confronto: ogni modifica delle righe aggiorna la riga del carrello, quindi finché
+    l'acquisto non finisce nessuno può cambiarne il contenuto e le righe lette sono proprio quelle della revisione controllata.
+    Se la revisione non è più quella vista dal FE -> CarrelloModificatoException, il FE deve rileggere il carrello.
+     */
+    @Transactional(readOnly = false, rollbackFor = {QuantitaVideogiocoNonDisponibile.class, OrdineNonValido.class, VideogiocoNonValidoException.class, CarrelloNonValidoException.class, CarrelloModificatoException.class})
+    public Ordine acquistaConImpronta(int idUt, ImprontaCarrelloDto improntaFE) throws QuantitaVideogiocoNonDisponibile, OrdineNonValido,
+            VideogiocoNonValidoException, CarrelloNonValidoException, CarrelloModificatoException {
+
+        Optional<Carrello> carrello = carrelloRepository.bloccaCarrelloAttivo(idUt);
+        if (carrello.isEmpty()) {
+            throw new CarrelloNonValidoException();
+        }
+        Carrello carrelloBE = carrello.get();
+        if (carrelloBE.getRevisione() != improntaFE.revisione() ||
+                (improntaFE.impronta() != null && !improntaFE.impronta().equals(carrelloBE.getImpronta()))) {
+            throw new CarrelloModificatoException();
+        }
+
+        List<DettaglioCarrello> righeBE = dettaglioCarrelloRepository.righePerAcquisto(idUt);
+        if (righeBE.isEmpty()) {
+            throw new OrdineNonValido();
+        }
+
+        List<DettaglioOrdine> dettagliOrdine = new ArrayList<>(righeBE.size());
+        for (DettaglioCarrello dettaglioBE : righeBE) {
+            dettagliOrdine.add(dettaglioOrdineDa(dettaglioBE));
+        }
+
+        return concludiAcquisto(righeBE, dettagliOrdine);
+
+    }
+
+    // Controlli di una riga del carrello rispetto al suo videogioco (caricato con la riga, vedi righePerAcquisto)
+    private DettaglioOrdine dettaglioOrdineDa(DettaglioCarrello dettaglioBE) throws QuantitaVideogiocoNonDisponibile, VideogiocoNonValidoException {
+
+        Videogioco videogioco = dettaglioBE.getVideogioco();
+        if (dettaglioBE.getQuantita() <= 0 || dettaglioBE.getQuantita() > videogioco.getQuantita()) {
+            throw new QuantitaVideogiocoNonDisponibile();
+        }
+
+        //Controllo prezzo nel DettaglioCarrello diverso da quello vero del Videogioco
+        if (!Objects.equals(dettaglioBE.getPrezzoUnitario(), videogioco.getPrezzo())) {
+            throw new VideogiocoNonValidoException();
+        }
+
+        DettaglioOrdine dettaglioOrdine = new DettaglioOrdine();
+        dettaglioOrdine.setVideogioco(videogioco);
+        dettaglioOrdine.setQuantita(dettaglioBE.getQuantita());
+        dettaglioOrdine.setPrezzoUnitario(dettaglioBE.getPrezzoUnitario());
+        return dettaglioOrdine;
+
+    }
+
+    private Ordine concludiAcquisto(List<DettaglioCarrello> righeBE, List<DettaglioOrdine> dettagliOrdine) throws OrdineNonValido, QuantitaVideogiocoNonDisponibile {
+
+        //Scorte scalate e ordine scritto con un numero fisso di query (vedi OrdineService.registraOrdine)
+        Utente utente = righeBE.get(0).getCarrello().getUtente();
+        Ordine ordine = ordineService.registraOrdine(utente, dettagliOrdine);
+
+        //Tolgo dal carrello le righe acquistate con una sola DELETE (solo quelle lette, non eventuali righe aggiunte nel frattempo).
+        //Se qualcuna non c'è più è stata già acquistata o tolta da un'altra transazione: l'ordine viene annullato
+        List<Integer> idRighe = new ArrayList<>(righeBE.size());
+        for (DettaglioCarrello d : righeBE) {
+            idRighe.add(d.getId());
+        }
+        if (dettaglioCarrelloRepository.eliminaRighe(idRighe) != righeBE.size()) {
+            throw new OrdineNonValido();
+        }
+        return ordine;
+
+    }
+
+}
@@ -2,20 +2,37 @@ package com.example.gamestore.services;
 
 import com.example.gamestore.dto.CarrelloDto;
 import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.EsitoPuliziaCarrelliDto;
+import com.example.gamestore.dto.EsitoRigaCarrelloDto;
+import com.example.gamestore.dto.ImprontaCarrelloDto;
+import com.example.gamestore.dto.ModificaRigaCarrelloDto;
+import com.example.gamestore.dto.PaginaCursoreDto;
+import com.example.gamestore.dto.RiepilogoCarrelloDto;
+import com.example.gamestore.dto.StatisticheCarrelliDto;
+import com.example.gamestore.dto.TotaliCarrelloDto;
+import com.example.gamestore.dto.VideogiocoSintesiDto;
 import com.example.gamestore.entities.*;
 import com.example.gamestore.repositories.CarrelloRepository;
 import com.example.gamestore.repositories.DettaglioCarrelloRepository;
-import com.example.gamestore.repositories.UtenteRepository;
+import com.example.gamestore.repositories.DettaglioCarrelloRepositoryCustom;
 import com.example.gamestore.repositories.VideogiocoRepository;
-import com.example.gamestore.support.authentication.Utils;
+import com.example.gamestore.support.CursoreKeyset;
+import com.example.gamestore.support.authentication.UtenteCorrente;
+import com.example.gamestore.support.carrello.CarrelliInMemoria;
+import com.example.gamestore.support.carrello.PuliziaCarrelli;
 import com.example.gamestore.support.exceptions.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
 
@@ -29,215 +46,448 @@ public class CarrelloService {
     private DettaglioCarrelloRepository dettaglioCarrelloRepository;
 
     @Autowired
-    private UtenteRepository utenteRepository;
+    private VideogiocoRepository videogiocoRepository;
 
     @Autowired
-    private VideogiocoRepository videogiocoRepository;
+    private AcquistoService acquistoService;
 
     @Autowired
-    private OrdineService ordineService;
+    private CarrelliInMemoria carrelliInMemoria;
+
+    @Autowired
+    private PuliziaCarrelli puliziaCarrelli;
+
+    @Autowired
+    private UtenteCorrente utenteCorrente;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     // mostro tutti i dettagliCarrello di un utente specifico
     @Transactional(readOnly = true)
-    public Page<DettaglioCarrello> mostraTutti(int numPagina, int dimPagina, String ordinamento, int idUtente) throws TentativoNonAutorizzato, UtenteNonValidoONonEsistente, CarrelloNonValidoException{
+    public Slice<DettaglioCarrello> mostraTutti(int numPagina, int dimPagina, String ordinamento, int idUtente) throws TentativoNonAutorizzato, UtenteNonValidoONonEsistente, CarrelloNonValidoException{
 
-        int idUt = Utils.getIdUtente();
-        if(idUtente != idUt){
-            throw new TentativoNonAutorizzato();
+        if (carrelliInMemoria.attivo()) {
+            return paginaDallaMemoria(numPagina, dimPagina, ordinamento, idUtente);
         }
 
         Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
         Pageable paging =  PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-        Optional<Utente> opt = utenteRepository.findById(idUtente);
+        int idCarrello = idCarrelloAttivoDellUtente(idUtente);
 
-        if(opt.isEmpty() || !utentePresenteNelDb(opt.get())){
-            throw new UtenteNonValidoONonEsistente();
+        return dettaglioCarrelloRepository.findByCarrello_Id(idCarrello, paging);
+
+    }
+
+    /*
+    mostraTutti con i carrelli in memoria (write-behind): le righe arrivano dalla memoria, dal DB si leggono solo
+    i videogiochi della pagina. Le righe non ancora salvate non hanno un id (0).
+     */
+    private Slice<DettaglioCarrello> paginaDallaMemoria(int numPagina, int dimPagina, String ordinamento, int idUtente) throws TentativoNonAutorizzato, CarrelloNonValidoException{
+
+        int idUt = utenteCorrente.id();
+        if(idUtente != idUt){
+            throw new TentativoNonAutorizzato();
         }
 
-        Utente u = opt.get();
-        Carrello c = u.getCarrello();
+        List<DettaglioDto> righe = carrelliInMemoria.righe(idUtente);
+        Comparator<DettaglioDto> ordine = "quantita".equals(ordinamento)
+                ? Comparator.comparingInt(DettaglioDto::quantita)
+                : Comparator.comparing(DettaglioDto::prezzoUnitario, Comparator.nullsFirst(Comparator.naturalOrder()));
+        righe.sort(ordine.thenComparingInt(DettaglioDto::idVideogioco).reversed());
 
-        //il carrello deve essere attivo
-        if(c == null || !carrelloRepository.existsByIdAndAttivo(c.getId(), 1))
-            throw new CarrelloNonValidoException();
+        int da = (int) Math.min((long) numPagina * dimPagina, righe.size());
+        int a = (int) Math.min((long) da + dimPagina, righe.size());
+        List<DettaglioDto> pagina = righe.subList(da, a);
+
+        List<Integer> ids = new ArrayList<>(pagina.size());
+        for (DettaglioDto r : pagina) {
+            ids.add(r.idVideogioco());
+        }
+        Map<Integer, Videogioco> videogiochi = new HashMap<>();
+        for (Videogioco v : videogiocoRepository.findAllById(ids)) {
+            videogiochi.put(v.getId(), v);
+        }
 
-        return dettaglioCarrelloRepository.findByCarrello_Id(u.getCarrello().getId(), paging);
+        List<DettaglioCarrello> contenuto = new ArrayList<>(pagina.size());
+        for (DettaglioDto r : pagina) {
+            DettaglioCarrello d = new DettaglioCarrello();
+            d.setVideogioco(videogiochi.get(r.idVideogioco()));
+            d.setQuantita(r.quantita());
+            d.setPrezzoUnitario(r.prezzoUnitario());
+            contenuto.add(d);
+        }
+        return new SliceImpl<>(contenuto, PageRequest.of(numPagina, dimPagina), a < righe.size());
 
     }
 
-    private boolean utentePresenteNelDb(Utente utente){
-        return utenteRepository.existsByNomeIgnoreCaseAndCognomeIgnoreCaseAndEmailIgnoreCase(utente.getNome(), utente.getCognome(), utente.getEmail());
+    // Variante a cursore (keyset) di mostraTutti: cursore null o vuoto per la prima pagina
+    public PaginaCursoreDto<DettaglioCarrello> mostraTuttiScorrimento(String cursore, int dimPagina, String ordinamento, int idUtente) throws TentativoNonAutorizzato, UtenteNonValidoONonEsistente, CarrelloNonValidoException, CursoreNonValidoException{
+
+        //Il cursore lavora sulle righe del DB, quindi prima si scrivono quelle ancora in memoria
+        if (carrelliInMemoria.attivo()) {
+            carrelliInMemoria.salvaUtente(idUtente);
+        }
+
+        int idCarrello = idCarrelloAttivoDellUtente(idUtente);
+
+        Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+        ScrollPosition posizione = CursoreKeyset.decodifica(cursore, sort, DettaglioCarrello.class);
+        return inLettura(s -> CursoreKeyset.pagina(dettaglioCarrelloRepository.scorriPerCarrello(idCarrello, posizione, sort, dimPagina)));
+
     }
 
-    @Transactional(readOnly = false, rollbackFor = {TentativoNonAutorizzato.class, CarrelloNonValidoException.class, VideogiocoNonValidoException.class, QuantitaVideogiocoNonDisponibile.class})
-    public Carrello aggiungiVideogioco(int idUtente, int idVideogioco, int quantita) throws TentativoNonAutorizzato, CarrelloNonValidoException, VideogiocoNonValidoException, QuantitaVideogiocoNonDisponibile {
+    // Restituisce l'id del carrello attivo dell'utente, dopo aver controllato che sia lo stesso utente del token
+    private int idCarrelloAttivoDellUtente(int idUtente) throws TentativoNonAutorizzato, UtenteNonValidoONonEsistente, CarrelloNonValidoException{
 
-        int idUt = Utils.getIdUtente();
-        if (idUtente != idUt) {
+        int idUt = utenteCorrente.id();
+        if(idUtente != idUt){
             throw new TentativoNonAutorizzato();
         }
 
-        Optional<Utente> utente = utenteRepository.findById(idUtente);
-        Carrello carr = carrelloRepository.findActiveCarrelloByUtenteId(idUtente, 1);
-        Optional<Videogioco> videog = videogiocoRepository.findById(idVideogioco);
+        //L'utente deve esistere nel DB (di solito è già in CacheUtenti, quindi nessuna query)
+        if(utenteCorrente.utente().isEmpty()){
+            throw new UtenteNonValidoONonEsistente();
+        }
 
-        if (carr == null) {
+        //il carrello deve essere attivo
+        Optional<Integer> idCarrello = carrelloRepository.idCarrelloAttivo(idUtente);
+        if(idCarrello.isEmpty())
             throw new CarrelloNonValidoException();
+
+        return idCarrello.get();
+
+    }
+
+    /*
+    Aggiunge, modifica (quantita > 0) o toglie (quantita = 0) un videogioco dal carrello attivo dell'utente.
+    Nel caso normale è una sola istruzione SQL (upsert o delete, vedi DettaglioCarrelloRepositoryCustomImpl) che fa anche
+    i controlli su carrello, visibilità e scorte; solo se non viene scritto niente si legge lo stato per sapere quale errore dare.
+    Restituisce la sola riga modificata (quantita = 0 se rimossa) invece di tutto il carrello.
+     */
+    @Transactional(readOnly = false, rollbackFor = {TentativoNonAutorizzato.class, CarrelloNonValidoException.class, VideogiocoNonValidoException.class, QuantitaVideogiocoNonDisponibile.class})
+    public DettaglioDto aggiungiVideogioco(int idUtente, int idVideogioco, int quantita) throws TentativoNonAutorizzato, CarrelloNonValidoException, VideogiocoNonValidoException, QuantitaVideogiocoNonDisponibile {
+
+        int idUt = utenteCorrente.id();
+        if (idUtente != idUt) {
+            throw new TentativoNonAutorizzato();
+        }
+
+        if (quantita < 0) {
+            throw new QuantitaVideogiocoNonDisponibile();
         }
 
-        /*
-         Ridonandante perchè findActiveCarrelloByUtenteId(idUtente, 1) mi ha già restituito un carrello valido
-         e legato all’utente.
+        if (carrelliInMemoria.attivo()) {
+            return aggiungiInMemoria(idUtente, idVideogioco, quantita);
+        }
 
-        if (utente.isPresent()) {
-            if (utente.get().getCarrello().getId() != carr.getId()) {
-                throw new TentativoNonAutorizzato();
+        if (quantita == 0) {
+            Optional<DettaglioDto> rimosso = dettaglioCarrelloRepository.rimuoviRiga(idUtente, idVideogioco);
+            if (rimosso.isPresent()) {
+                return new DettaglioDto(idVideogioco, 0, rimosso.get().prezzoUnitario());
+            }
+            //Niente da togliere: va bene se il videogioco semplicemente non era nel carrello
+            DettaglioCarrelloRepositoryCustom.StatoRigaCarrello stato = dettaglioCarrelloRepository.statoRiga(idUtente, idVideogioco);
+            if (!stato.carrelloAttivo()) {
+                throw new CarrelloNonValidoException();
+            }
+            if (stato.nascosto() == null) {
+                throw new VideogiocoNonValidoException();
             }
+            return new DettaglioDto(idVideogioco, 0, null);
         }
-        */
 
-        if (videog.isEmpty()) {
+        Optional<DettaglioDto> riga = dettaglioCarrelloRepository.impostaQuantita(idUtente, idVideogioco, quantita);
+        if (riga.isPresent()) {
+            return riga.get();
+        }
+
+        DettaglioCarrelloRepositoryCustom.StatoRigaCarrello stato = dettaglioCarrelloRepository.statoRiga(idUtente, idVideogioco);
+        if (!stato.carrelloAttivo()) {
+            throw new CarrelloNonValidoException();
+        }
+        //Videogioco inesistente o nascosto (ad esempio rimosso dal catalogo mentre era nel carrello di qualcuno)
+        if (stato.nascosto() == null || stato.nascosto() != 0) {
             throw new VideogiocoNonValidoException();
         }
+        throw new QuantitaVideogiocoNonDisponibile();
 
-        Videogioco videogioco = videog.get();
-        if (quantita < 0 || videogioco.getQuantita() < quantita)
-            throw new QuantitaVideogiocoNonDisponibile();
+    }
 
-        //Devo gestire il caso in cui un videogioco diventa nascosto dopo che l'utente l'ha messp nel carrello:
-        //può capitare che un utenta metta un videogioco nel carrello e rimanga lì per diverso tempo, ma con il videogioco stesso
-        //che viene esaurito nel frattempo
-        if (quantita != 0 && videogiocoRepository.existsByNomeIgnoreCaseAndNascosto(videogioco.getNome(), 1)) {
-            throw new VideogiocoNonValidoException();
+    // aggiungiVideogioco con i carrelli in memoria: una lettura per scorte e visibilità, la riga verrà scritta dal salvataggio periodico
+    private DettaglioDto aggiungiInMemoria(int idUtente, int idVideogioco, int quantita) throws CarrelloNonValidoException, VideogiocoNonValidoException, QuantitaVideogiocoNonDisponibile {
+
+        Double prezzo = null;
+        if (quantita > 0) {
+            List<VideogiocoSintesiDto> trovati = videogiocoRepository.trovaSintesiPerId(List.of(idVideogioco));
+            if (trovati.isEmpty()) {
+                throw new VideogiocoNonValidoException();
+            }
+            if (trovati.get(0).quantita() < quantita) {
+                throw new QuantitaVideogiocoNonDisponibile();
+            }
+            prezzo = trovati.get(0).prezzo();
+        }
+        DettaglioDto riga = carrelliInMemoria.applica(idUtente, List.of(new DettaglioDto(idVideogioco, quantita, prezzo))).get(0);
+        return riga != null ? riga : new DettaglioDto(idVideogioco, 0, null);
+
+    }
+
+    /*
+    Applica più modifiche al carrello attivo in una sola transazione: una query (IN) legge prezzo e scorte di tutti i videogiochi
+    coinvolti, poi le righe valide vengono scritte con due batch JDBC (upsert e delete). Le righe non valide non bloccano le altre,
+    il loro esito dice perché sono state scartate. Se un videogioco compare più volte vale la prima occorrenza.
+    Per le righe da togliere l'esito viene dal conteggio della DELETE: RIMOSSO solo se la riga c'era davvero.
+     */
+    @Transactional(readOnly = false, rollbackFor = {TentativoNonAutorizzato.class, CarrelloNonValidoException.class})
+    public List<EsitoRigaCarrelloDto> modificaInBlocco(int idUtente, List<ModificaRigaCarrelloDto> modifiche) throws TentativoNonAutorizzato, CarrelloNonValidoException {
+
+        int idUt = utenteCorrente.id();
+        if (idUtente != idUt) {
+            throw new TentativoNonAutorizzato();
         }
 
-        //Se nel carrello attivo del cliente c'è già il videogioco passato aggiorniamo la quantità, in modo tale da usarlo sia
-        //per aggiunte che rimozioni di elementi
-        //In caso di rimozione elemento (quantita = 0) faccio:
-        if (dettaglioCarrelloRepository.existsByCarrello_IdAndVideogioco_Id(carr.getId(), idVideogioco)) {
-            DettaglioCarrello dettaglioCarrello = dettaglioCarrelloRepository.findByCarrello_IdAndVideogioco_Id(carr.getId(), idVideogioco);
-            if (quantita == 0) {//Se il prodotto è già presente e passo quantità uguale a zero lo rimuovo
-                carr.getListaDettagliCarrello().remove(dettaglioCarrello);
-                dettaglioCarrelloRepository.delete(dettaglioCarrello);
+        //Con i carrelli in memoria è il lock del carrello in memoria a serializzare le modifiche
+        Optional<Integer> idCarrello = Optional.empty();
+        if (!carrelliInMemoria.attivo()) {
+            idCarrello = dettaglioCarrelloRepository.idCarrelloAttivoPerModifica(idUtente);
+            if (idCarrello.isEmpty()) {
+                throw new CarrelloNonValidoException();
+            }
+        }
 
+        //Solo i videogiochi visibili: quelli che mancano nella mappa sono inesistenti o nascosti
+        Set<Integer> ids = new HashSet<>();
+        for (ModificaRigaCarrelloDto m : modifiche) {
+            ids.add(m.idVideogioco());
+        }
+        Map<Integer, VideogiocoSintesiDto> videogiochi = new HashMap<>();
+        for (VideogiocoSintesiDto v : videogiocoRepository.trovaSintesiPerId(new ArrayList<>(ids))) {
+            videogiochi.put(v.id(), v);
+        }
+
+        List<EsitoRigaCarrelloDto> esiti = new ArrayList<>(modifiche.size());
+        //quantita = 0 -> riga da togliere; posizioni dice a quale esito corrisponde ogni riga da scrivere
+        List<DettaglioDto> daScrivere = new ArrayList<>();
+        List<Integer> posizioni = new ArrayList<>();
+        Set<Integer> visti = new HashSet<>();
+        for (ModificaRigaCarrelloDto m : modifiche) {
+            EsitoRigaCarrelloDto.Esito esito;
+            if (!visti.add(m.idVideogioco())) {
+                esito = EsitoRigaCarrelloDto.Esito.DUPLICATO;
+            } else if (m.quantita() < 0) {
+                esito = EsitoRigaCarrelloDto.Esito.QUANTITA_NON_DISPONIBILE;
+            } else if (m.quantita() == 0) {
+                //Come aggiungiVideogioco: togliere un videogioco nascosto dal carrello è sempre permesso.
+                //L'esito definitivo si sa solo dopo la DELETE (la riga poteva non esserci)
+                daScrivere.add(new DettaglioDto(m.idVideogioco(), 0, null));
+                posizioni.add(esiti.size());
+                esito = EsitoRigaCarrelloDto.Esito.RIMOSSO;
             } else {
-                dettaglioCarrello.setQuantita(quantita);
+                VideogiocoSintesiDto v = videogiochi.get(m.idVideogioco());
+                if (v == null) {
+                    esito = EsitoRigaCarrelloDto.Esito.VIDEOGIOCO_NON_VALIDO;
+                } else if (v.quantita() < m.quantita()) {
+                    esito = EsitoRigaCarrelloDto.Esito.QUANTITA_NON_DISPONIBILE;
+                } else {
+                    daScrivere.add(new DettaglioDto(m.idVideogioco(), m.quantita(), v.prezzo()));
+                    posizioni.add(esiti.size());
+                    esito = EsitoRigaCarrelloDto.Esito.AGGIORNATO;
+                }
             }
-        } else {//Se il videogioco non era già nel carrello aggiungo solo nel caso in cui il videogioco è disponibile in quantità maggiore di 0
-            if (quantita != 0) {
-                DettaglioCarrello dettaglioCarrello = new DettaglioCarrello();
-                dettaglioCarrello.setCarrello(carr);
-                dettaglioCarrello.setVideogioco(videogioco);
-                dettaglioCarrello.setQuantita(quantita);
-                dettaglioCarrello.setPrezzoUnitario(videogioco.getPrezzo());
-                dettaglioCarrelloRepository.save(dettaglioCarrello);
-                carr.getListaDettagliCarrello().add(dettaglioCarrello);
+            esiti.add(new EsitoRigaCarrelloDto(m.idVideogioco(), m.quantita(), esito));
+        }
+
+        boolean[] toccate = new boolean[daScrivere.size()];
+        if (carrelliInMemoria.attivo()) {
+            List<DettaglioDto> applicate = carrelliInMemoria.applica(idUtente, daScrivere);
+            for (int i = 0; i < toccate.length; i++) {
+                toccate[i] = applicate.get(i) != null;
+            }
+        } else {
+            List<DettaglioCarrelloRepositoryCustom.RigaCarrello> righe = new ArrayList<>(daScrivere.size());
+            for (DettaglioDto r : daScrivere) {
+                righe.add(new DettaglioCarrelloRepositoryCustom.RigaCarrello(idCarrello.get(), r.idVideogioco(), r.quantita(), r.prezzoUnitario()));
+            }
+            int[] conteggi = dettaglioCarrelloRepository.scriviRigheInBlocco(righe);
+            for (int i = 0; i < toccate.length; i++) {
+                toccate[i] = conteggi[i] > 0;
+            }
+        }
+
+        //Righe da togliere che non c'erano: NON_PRESENTE se il videogioco esiste (anche nascosto), altrimenti l'id non è valido.
+        //Per i visibili lo dice già la prima query, solo per gli altri serve una seconda lettura
+        List<Integer> daVerificare = new ArrayList<>();
+        for (int i = 0; i < toccate.length; i++) {
+            int id = daScrivere.get(i).idVideogioco();
+            if (!toccate[i] && !videogiochi.containsKey(id)) {
+                daVerificare.add(id);
+            }
+        }
+        Set<Integer> esistenti = daVerificare.isEmpty() ? Set.of() : new HashSet<>(videogiocoRepository.idEsistenti(daVerificare));
+        for (int i = 0; i < toccate.length; i++) {
+            if (!toccate[i]) {
+                EsitoRigaCarrelloDto esito = esiti.get(posizioni.get(i));
+                boolean esiste = videogiochi.containsKey(esito.idVideogioco()) || esistenti.contains(esito.idVideogioco());
+                esiti.set(posizioni.get(i), new EsitoRigaCarrelloDto(esito.idVideogioco(), esito.quantita(),
+                        esiste ? EsitoRigaCarrelloDto.Esito.NON_PRESENTE : EsitoRigaCarrelloDto.Esito.VIDEOGIOCO_NON_VALIDO));
             }
         }
-        return carr;
+        return esiti;
 
     }
 
-    @Transactional(readOnly = false, rollbackFor = {QuantitaVideogiocoNonDisponibile.class, OrdineNonValido.class, UtenteNonValidoONonEsistente.class, VideogiocoNonValidoException.class, CarrelloNonValidoException.class, TentativoNonAutorizzato.class})
+    /*
+    Acquisto del carrello: la transazione è quella di AcquistoService. Con i carrelli in memoria le modifiche in sospeso
+    vanno scritte prima che parta (salvaUtente ha una transazione sua: fatto dentro l'acquisto terrebbe occupate due
+    connessioni per richiesta); ad acquisto concluso il carrello esce dalla memoria, perché ne sono cambiate le righe sul DB.
+     */
     public Ordine acquista(CarrelloDto carrelloDto) throws QuantitaVideogiocoNonDisponibile, OrdineNonValido,
             UtenteNonValidoONonEsistente, VideogiocoNonValidoException, CarrelloNonValidoException, TentativoNonAutorizzato {
 
-        int idUt = Utils.getIdUtente();
+        int idUt = utenteCorrente.id();
         //Ricordiamo che l'utente passatomi nel DTO è != da quello attuale che vedo dal token
         if (idUt != carrelloDto.idUtente()) {
             throw new TentativoNonAutorizzato();
         }
 
-        //Verifica utente non esistente nel DB
-        Optional<Utente> u = utenteRepository.findById(idUt);
-        if (u.isEmpty()) {
-            throw new UtenteNonValidoONonEsistente();
+        salvaCarrelloInMemoria(idUt);
+        try {
+            return acquistoService.acquista(idUt, carrelloDto);
+        } finally {
+            dimenticaCarrelloInMemoria(idUt);
         }
 
-        Utente utente = u.get();
+    }
 
-        //Prendo carrello nel DB per verificare se i videogiochi che ho nei due carrelli (lato FE e lato BE) sono uguali o meno, altrimenti
-        //c'è il problema introdotto a lezione (moglie collana, marito canna da pesca)
+    // Come acquista, con la sola versione del carrello vista dal FE (vedi AcquistoService.acquistaConImpronta)
+    public Ordine acquistaConImpronta(ImprontaCarrelloDto improntaFE) throws QuantitaVideogiocoNonDisponibile, OrdineNonValido,
+            VideogiocoNonValidoException, CarrelloNonValidoException, CarrelloModificatoException, TentativoNonAutorizzato {
 
-        //Se il backend non controllasse che il carrello effettivo (BE) e quello ricevuto dal FE coincidono, rischieremmo che l’ordine
-        //non corrisponde al vero carrello.
+        int idUt = utenteCorrente.id();
+        if (idUt != improntaFE.idUtente()) {
+            throw new TentativoNonAutorizzato();
+        }
 
-        Carrello carrelloBE = carrelloRepository.findActiveCarrelloByUtenteId(idUt, 1);
-        if (carrelloBE == null) {
-            throw new CarrelloNonValidoException();
+        salvaCarrelloInMemoria(idUt);
+        try {
+            return acquistoService.acquistaConImpronta(idUt, improntaFE);
+        } finally {
+            dimenticaCarrelloInMemoria(idUt);
         }
-        //Se nel DB il carrello è vuoto non ha senso andare avanti, l'ordine non è valido
-        if (carrelloBE.getListaDettagliCarrello().isEmpty()) {
-            throw new OrdineNonValido();
+
+    }
+
+    // Versione attuale del carrello attivo, da rimandare a acquistaConImpronta
+    public ImprontaCarrelloDto impronta(int idUtente) throws TentativoNonAutorizzato, CarrelloNonValidoException {
+
+        int idUt = utenteCorrente.id();
+        if (idUtente != idUt) {
+            throw new TentativoNonAutorizzato();
         }
 
-        //Creiamo l'ordine da salvare
-        Ordine ordine = new Ordine();
-        ordine.setUtente(utente);
-        ordine.setListaDettagliOrdine(new LinkedList<>());//li aggiungo uno per volta in seguito
-        ordine.setDataOrdine(new Date());
-        double totale = 0.0;
-        for (DettaglioDto dettaglioFE : carrelloDto.listaDettaglioCarrello()) {
+        //Le modifiche ancora in memoria non hanno ancora cambiato la revisione sul DB
+        if (carrelliInMemoria.attivo()) {
+            carrelliInMemoria.salvaUtente(idUtente);
+        }
 
-            int idVideogioco = dettaglioFE.idVideogioco();
-            if (idVideogioco < 0) {
-                throw new VideogiocoNonValidoException();
-            }
+        ImprontaCarrelloDto impronta = inLettura(s -> {
+            Carrello c = carrelloRepository.findActiveCarrelloByUtenteId(idUtente, 1);
+            return c == null ? null : new ImprontaCarrelloDto(idUtente, c.getRevisione(), c.getImpronta());
+        });
+        if (impronta == null) {
+            throw new CarrelloNonValidoException();
+        }
+        return impronta;
 
-            //Cerchiamo se esiste il videogioco
-            Optional<Videogioco> videog = videogiocoRepository.findById(idVideogioco);
-            if (videog.isEmpty()) {
-                throw new VideogiocoNonValidoException();
-            }
+    }
 
-            //Se esiste prendo il videogioco
-            Videogioco videogioco = videog.get();
+    /*
+    Tutto il carrello attivo in una sola query (carrello, righe e videogiochi in fetch join), con i totali tenuti
+    aggiornati dal DB sulla riga del carrello (vedi V5__totali_carrello.sql): nessuna pagina da ricaricare e nessuna somma.
+     */
+    public RiepilogoCarrelloDto riepilogo(int idUtente) throws TentativoNonAutorizzato, CarrelloNonValidoException {
 
-            //Se i dettagliOrdine sono diversi a livello di dimensione sono nel caso in cui la moglie ha messo nel carrello la collana:
-            //quindi nel db ho più videogiochi rispetto a quelli che il marito mi sta passando dal FE, ovvero che vede lui
+        int idUt = utenteCorrente.id();
+        if (idUtente != idUt) {
+            throw new TentativoNonAutorizzato();
+        }
 
-            if (carrelloBE.getListaDettagliCarrello().size() != carrelloDto.listaDettaglioCarrello().size()) {
-                throw new OrdineNonValido();
-            }
+        //Righe, totali e revisione vanno letti dal DB: prima si scrivono le modifiche ancora in memoria
+        if (carrelliInMemoria.attivo()) {
+            carrelliInMemoria.salvaUtente(idUtente);
+        }
 
-            //Ma questo controllo non basta: i carrelli potrebbero avere stessa dimensione ma di un videogioco potrei avere quantità diverse
-            //oppure potrei avere stessa dimensione ma i videogiochi nei due carrelli potrebbero non corrispondere. Quindi, controllo:
+        RiepilogoCarrelloDto riepilogo = inLettura(s -> carrelloRepository.riepilogoCarrelloAttivo(idUtente)
+                .map(c -> new RiepilogoCarrelloDto(idUtente, c.getListaDettagliCarrello(), c.getNumeroArticoli(), c.getTotale(), c.getRevisione(), c.getImpronta()))
+                .orElse(null));
+        if (riepilogo == null) {
+            throw new CarrelloNonValidoException();
+        }
+        return riepilogo;
 
-            //Se nel carrello lato BE non esiste un DettaglioOrdine che ha lo stesso Videogioco con stessa quantità di quello che sto considerando
-            //ovviamente non va bene
+    }
 
-            if (!dettaglioCarrelloRepository.existsByCarrello_IdAndVideogioco_IdAndQuantitaAndPrezzoUnitario(carrelloBE.getId(),
-                    videogioco.getId(), dettaglioFE.quantita(), dettaglioFE.prezzoUnitario())) {
-                throw new OrdineNonValido();
-            }
-            DettaglioCarrello dettaglioBE = dettaglioCarrelloRepository.findByCarrello_IdAndVideogioco_Id(carrelloBE.getId(), videogioco.getId());
+    // Solo numero di articoli e totale (badge, mini-carrello): una lettura delle colonne del carrello
+    @Transactional(readOnly = true)
+    public TotaliCarrelloDto totali(int idUtente) throws TentativoNonAutorizzato, CarrelloNonValidoException {
 
-            //Faccio il controllo sulle quantità (lo faccio con il dettaglio lato BE, ma poco cambia dato che ho fatto il check prima per vedere
-            //se i due corrispondevano)
-            if (dettaglioBE.getQuantita() <= 0 || dettaglioBE.getQuantita() > videogioco.getQuantita()) {
-                throw new QuantitaVideogiocoNonDisponibile();
-            }
+        int idUt = utenteCorrente.id();
+        if (idUtente != idUt) {
+            throw new TentativoNonAutorizzato();
+        }
 
-            //Controllo prezzo nel DettaglioCarrello diverso da quello vero del Videogioco
-            if (!Objects.equals(dettaglioBE.getPrezzoUnitario(), videogioco.getPrezzo())) {
-                throw new VideogiocoNonValidoException();
+        //Con i carrelli in memoria i totali sul DB possono essere indietro: si sommano le righe in memoria, senza salvarle
+        if (carrelliInMemoria.attivo()) {
+            int numeroArticoli = 0;
+            double totale = 0;
+            for (DettaglioDto r : carrelliInMemoria.righe(idUtente)) {
+                numeroArticoli += r.quantita();
+                if (r.prezzoUnitario() != null) {
+                    totale += r.quantita() * r.prezzoUnitario();
+                }
             }
+            return new TotaliCarrelloDto(idUtente, numeroArticoli, Math.round(totale * 100) / 100.0);
+        }
+
+        Optional<TotaliCarrelloDto> totali = carrelloRepository.totaliCarrelloAttivo(idUtente);
+        if (totali.isEmpty()) {
+            throw new CarrelloNonValidoException();
+        }
+        return totali.get();
+
+    }
+
+    /*
+    Transazione di sola lettura per i metodi che prima scrivono le modifiche dei carrelli in memoria (salvaUtente).
+    Il salvataggio ha una transazione sua: se partisse dentro una @Transactional(readOnly = true) terrebbe occupate due
+    connessioni per richiesta, quindi questi metodi non sono annotati e aprono la transazione di lettura solo dopo.
+     */
+    private <T> T inLettura(TransactionCallback<T> lettura) {
+        TransactionTemplate transazione = new TransactionTemplate(transactionManager);
+        transazione.setReadOnly(true);
+        return transazione.execute(lettura);
+    }
 
-            DettaglioOrdine dettaglioOrdine = new DettaglioOrdine();
-            dettaglioOrdine.setVideogioco(videogioco);
-            dettaglioOrdine.setQuantita(dettaglioBE.getQuantita());
-            dettaglioOrdine.setPrezzoUnitario(dettaglioBE.getPrezzoUnitario());
-            ordine.getListaDettagliOrdine().add(dettaglioOrdine);
-            totale += dettaglioBE.getQuantita() * dettaglioBE.getPrezzoUnitario();
+    private void salvaCarrelloInMemoria(int idUtente) {
+        if (carrelliInMemoria.attivo()) {
+            carrelliInMemoria.salvaUtente(idUtente);
+        }
+    }
 
-            //Devo rimuovere dal Carrello gli elementi inseriti nell'Ordine
-            //Non chiamo il metodo realizzato sopra in questo Service (aggiungiProdotto) con quantità = 0
-            //perchè potrei avere ConcurrentModificationException
-            dettaglioCarrelloRepository.delete(dettaglioBE);
+    private void dimenticaCarrelloInMemoria(int idUtente) {
+        if (carrelliInMemoria.attivo()) {
+            carrelliInMemoria.dimentica(idUtente);
         }
-        ordine.setTotale(totale);
-        return ordineService.salvaOrdine(ordine);
+    }
+
+    public StatisticheCarrelliDto statisticheCarrelli() {
+        return carrelliInMemoria.statistiche();
+    }
 
+    // null se dall'avvio non è ancora stato fatto nessun giro di pulizia
+    public EsitoPuliziaCarrelliDto ultimaPulizia() {
+        return puliziaCarrelli.ultima();
     }
 
 }
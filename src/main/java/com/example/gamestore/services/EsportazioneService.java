@@ -0,0 +1,56 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.repositories.OrdineRepository;
+import com.example.gamestore.repositories.VideogiocoRepository;
+import com.example.gamestore.support.esportazione.ScrittoreEsportazione;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/*
+Esportazioni complete di catalogo e ordini per gli admin, al posto di centinaia di chiamate paginate.
+Il corpo della risposta viene scritto mentre il cursore JDBC legge le righe (StreamingResponseBody gira su un
+thread a parte, la transazione in sola lettura viene aperta lì): la memoria usata non dipende dal numero di righe.
+ */
+@Service
+public class EsportazioneService {
+
+    @Autowired
+    private VideogiocoRepository videogiocoRepository;
+
+    @Autowired
+    private OrdineRepository ordineRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    public StreamingResponseBody esportaCatalogo(ScrittoreEsportazione.Formato formato) {
+        return esporta(formato, videogiocoRepository::esportaCatalogo);
+    }
+
+    public StreamingResponseBody esportaOrdini(ScrittoreEsportazione.Formato formato) {
+        return esporta(formato, ordineRepository::esportaOrdini);
+    }
+
+    private StreamingResponseBody esporta(ScrittoreEsportazione.Formato formato, Consumer<RowCallbackHandler> query) {
+        TransactionTemplate transazione = new TransactionTemplate(transactionManager);
+        transazione.setReadOnly(true);
+
+        return output -> {
+            ScrittoreEsportazione scrittore = new ScrittoreEsportazione(formato, output);
+            try {
+                transazione.executeWithoutResult(status -> query.accept(scrittore));
+                scrittore.chiudi();
+            } catch (UncheckedIOException e) {
+                //Il client si è disconnesso: la query è già stata interrotta e il cursore chiuso, non c'è nessuno a cui rispondere
+            }
+        };
+    }
+
+}
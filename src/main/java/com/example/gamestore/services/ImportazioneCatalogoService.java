@@ -0,0 +1,215 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.dto.ErroreRigaImportazioneDto;
+import com.example.gamestore.dto.EsitoImportazioneDto;
+import com.example.gamestore.repositories.VideogiocoRepository;
+import com.example.gamestore.repositories.VideogiocoRepositoryCustom.VideogiocoEsistente;
+import com.example.gamestore.support.catalogo.CacheCatalogo;
+import com.example.gamestore.support.catalogo.ContatoreModificheCatalogo;
+import com.example.gamestore.support.catalogo.SincronizzatoreIndiciCatalogo;
+import com.example.gamestore.support.exceptions.ImportazioneInCorsoException;
+import com.example.gamestore.support.exceptions.ImportazioneNonValidaException;
+import com.example.gamestore.support.importazione.LettoreImportazione;
+import com.example.gamestore.support.importazione.RigaImportazione;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Importazione massiva del catalogo (feed dei fornitori) in alternativa a una POST /videogiochi per ogni titolo.
+
+Il file viene letto in streaming e scritto a blocchi: per ogni blocco una sola query trova le coppie
+(nome, piattaforma) già presenti, poi INSERT e UPDATE in batch JDBC, tutto in una transazione per blocco.
+In memoria c'è al massimo un blocco più i primi errori, qualunque sia la dimensione del file.
+
+Stesse regole di salvaVideogioco:
+ - videogioco già presente e visibile -> riga scartata (VIDEOGIOCO GIA' ESISTENTE)
+ - videogioco presente ma nascosto -> riattivato con i nuovi dati
+ - videogioco nuovo -> prezzo e quantità devono essere maggiori di zero
+Le righe con nascosto = 1 (un file di /esportazione reimportato) non rendono mai visibile niente: se il videogioco
+esiste già vengono scartate come VIDEOGIOCO GIA' ESISTENTE, altrimenti viene inserito nascosto (anche con quantità zero).
+ */
+@Service
+public class ImportazioneCatalogoService {
+
+    @Autowired
+    private VideogiocoRepository videogiocoRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SincronizzatoreIndiciCatalogo sincronizzatoreIndiciCatalogo;
+
+    @Autowired
+    private CacheCatalogo cacheCatalogo;
+
+    @Autowired
+    private ContatoreModificheCatalogo contatoreModificheCatalogo;
+
+    @Value("${gamestore.importazione.dimensione-blocco:1000}")
+    private int dimensioneBlocco;
+
+    @Value("${gamestore.importazione.errori-massimi:1000}")
+    private int erroriMassimi;
+
+    // Una sola importazione alla volta: due import paralleli dello stesso feed si scarterebbero le righe a vicenda
+    private final AtomicBoolean inCorso = new AtomicBoolean(false);
+
+    private volatile Avanzamento ultima;
+
+    private static class Avanzamento {
+        final AtomicLong righeLette = new AtomicLong();
+        final AtomicLong inseriti = new AtomicLong();
+        final AtomicLong riattivati = new AtomicLong();
+        final AtomicLong scartati = new AtomicLong();
+        final List<ErroreRigaImportazioneDto> errori = new ArrayList<>();
+        volatile boolean inCorso = true;
+
+        EsitoImportazioneDto esito() {
+            synchronized (errori) {
+                return new EsitoImportazioneDto(inCorso, righeLette.get(), inseriti.get(), riattivati.get(), scartati.get(), List.copyOf(errori));
+            }
+        }
+    }
+
+    public EsitoImportazioneDto importa(InputStream input, String contentType) throws ImportazioneInCorsoException, ImportazioneNonValidaException, IOException {
+
+        if (!inCorso.compareAndSet(false, true)) {
+            throw new ImportazioneInCorsoException();
+        }
+        Avanzamento avanzamento = new Avanzamento();
+        ultima = avanzamento;
+        try {
+            LettoreImportazione lettore = new LettoreImportazione(input, contentType);
+            List<LettoreImportazione.RigaLetta> blocco = new ArrayList<>(dimensioneBlocco);
+            LettoreImportazione.RigaLetta letta;
+            while ((letta = lettore.prossima()) != null) {
+                avanzamento.righeLette.incrementAndGet();
+                String errore = letta.errore() != null ? letta.errore() : valida(letta.riga());
+                if (errore != null) {
+                    scarta(avanzamento, letta.numero(), errore);
+                    continue;
+                }
+                blocco.add(letta);
+                if (blocco.size() == dimensioneBlocco) {
+                    scriviBlocco(blocco, avanzamento);
+                    blocco.clear();
+                }
+            }
+            scriviBlocco(blocco, avanzamento);
+            return avanzamento.esito();
+        } finally {
+            avanzamento.inCorso = false;
+            inCorso.set(false);
+            //Le scritture JDBC non pubblicano VideogiocoModificatoEvent: riallineo in una volta sola indici e cache
+            if (avanzamento.inseriti.get() + avanzamento.riattivati.get() > 0) {
+                sincronizzatoreIndiciCatalogo.ricostruisci();
+                cacheCatalogo.svuota();
+                contatoreModificheCatalogo.incrementa();
+            }
+        }
+    }
+
+    // Stato dell'importazione in corso o dell'ultima terminata (null se dall'avvio non ce ne sono state)
+    public EsitoImportazioneDto statoImportazione() {
+        Avanzamento avanzamento = ultima;
+        return avanzamento == null ? null : avanzamento.esito();
+    }
+
+    // Controlli che non dipendono dal DB
+    private String valida(RigaImportazione riga) {
+        if (riga.nome() == null || riga.nome().isBlank() || riga.piattaforma() == null || riga.piattaforma().isBlank()) {
+            return "NOME E PIATTAFORMA OBBLIGATORI";
+        }
+        if (riga.prezzo() == null || riga.quantita() == null) {
+            return "PREZZO E QUANTITA' OBBLIGATORI";
+        }
+        if (riga.nascosto() != null && riga.nascosto() != 0 && riga.nascosto() != 1) {
+            return "NASCOSTO DEVE ESSERE 0 O 1";
+        }
+        return null;
+    }
+
+    private void scriviBlocco(List<LettoreImportazione.RigaLetta> blocco, Avanzamento avanzamento) {
+        if (blocco.isEmpty()) {
+            return;
+        }
+        List<String> nomi = new ArrayList<>(blocco.size());
+        List<String> piattaforme = new ArrayList<>(blocco.size());
+        for (LettoreImportazione.RigaLetta r : blocco) {
+            nomi.add(r.riga().nome());
+            piattaforme.add(r.riga().piattaforma());
+        }
+
+        List<RigaImportazione> nuovi = new ArrayList<>();
+        List<Integer> idDaRiattivare = new ArrayList<>();
+        List<RigaImportazione> daRiattivare = new ArrayList<>();
+        List<LettoreImportazione.RigaLetta> scritte = new ArrayList<>();
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Map<Integer, VideogiocoEsistente> esistenti = videogiocoRepository.trovaPerNomeEPiattaforma(nomi, piattaforme);
+                Set<String> giaNelBlocco = new HashSet<>();
+                for (int i = 0; i < blocco.size(); i++) {
+                    LettoreImportazione.RigaLetta letta = blocco.get(i);
+                    RigaImportazione riga = letta.riga();
+                    String chiave = riga.nome().toUpperCase(Locale.ROOT) + '\u0000' + riga.piattaforma().toUpperCase(Locale.ROOT);
+                    VideogiocoEsistente esistente = esistenti.get(i);
+
+                    if (!giaNelBlocco.add(chiave)) {
+                        scarta(avanzamento, letta.numero(), "VIDEOGIOCO RIPETUTO NEL FILE");
+                    } else if (esistente == null) {
+                        if (riga.prezzo() <= 0) {
+                            scarta(avanzamento, letta.numero(), "FASCIA PREZZO ERRATA");
+                        } else if (riga.quantita() < 0 || (riga.quantita() == 0 && !riga.daNascondere())) {
+                            scarta(avanzamento, letta.numero(), "VIDEOGIOCO NON VALIDO");
+                        } else {
+                            nuovi.add(riga);
+                            scritte.add(letta);
+                        }
+                    } else if (esistente.nascosto() == 0 || riga.daNascondere()) {
+                        scarta(avanzamento, letta.numero(), "VIDEOGIOCO GIA' ESISTENTE");
+                    } else {
+                        idDaRiattivare.add(esistente.id());
+                        daRiattivare.add(riga);
+                        scritte.add(letta);
+                    }
+                }
+                videogiocoRepository.inserisciInBlocco(nuovi);
+                videogiocoRepository.riattivaInBlocco(idDaRiattivare, daRiattivare);
+            });
+            avanzamento.inseriti.addAndGet(nuovi.size());
+            avanzamento.riattivati.addAndGet(daRiattivare.size());
+        } catch (DataAccessException e) {
+            //Il blocco è stato annullato (ad esempio un altro admin ha inserito lo stesso titolo nel frattempo):
+            //le righe che stavo per scrivere risultano scartate, l'importazione prosegue col blocco successivo
+            for (LettoreImportazione.RigaLetta letta : scritte) {
+                scarta(avanzamento, letta.numero(), "BLOCCO NON SALVATO, RIPROVARE");
+            }
+        }
+    }
+
+    private void scarta(Avanzamento avanzamento, long riga, String messaggio) {
+        avanzamento.scartati.incrementAndGet();
+        synchronized (avanzamento.errori) {
+            if (avanzamento.errori.size() < erroriMassimi) {
+                avanzamento.errori.add(new ErroreRigaImportazioneDto(riga, messaggio));
+            }
+        }
+    }
+
+}
@@ -1,26 +1,44 @@
 package com.example.gamestore.services;
 
+import com.example.gamestore.dto.ConteggioDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.PaginaCursoreDto;
+import com.example.gamestore.dto.UtenteSintesiDto;
 import com.example.gamestore.entities.*;
 import com.example.gamestore.repositories.*;
-import com.example.gamestore.support.authentication.Utils;
+import com.example.gamestore.support.CursoreKeyset;
+import com.example.gamestore.support.authentication.UtenteCorrente;
+import com.example.gamestore.support.carrello.CarrelliInMemoria;
+import com.example.gamestore.support.catalogo.VideogiocoModificatoEvent;
 import org.antlr.v4.runtime.misc.NotNull;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import com.example.gamestore.support.exceptions.*;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
 @Service
 public class OrdineService {
 
+    private static final Logger log = LoggerFactory.getLogger(OrdineService.class);
+
     @Autowired
     private  OrdineRepository ordineRepository;
 
@@ -39,18 +57,28 @@ public class OrdineService {
     @Autowired
     private UtenteRepository utenteRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private UtenteCorrente utenteCorrente;
+
+    @Autowired
+    private CarrelliInMemoria carrelliInMemoria;
+
 
     //Prima metodi transazionali con solo lettura dal db
 
     @Transactional(readOnly = true)
-    public Page<Ordine> getOrdiniUtente(int numPagina, int dimPagina, String ordinamento)  throws UtenteNonValidoONonEsistente{
+    public Slice<Ordine> getOrdiniUtente(int numPagina, int dimPagina, String ordinamento)  throws UtenteNonValidoONonEsistente{
 
-        //L'istanza dell'utente corrente la prendo in automatico dal token
-        if(!utenteRepository.existsById(Utils.getIdUtente())) {
+        //L'utente corrente lo prendo in automatico dal token (e da CacheUtenti, senza query se è già in cache)
+        Optional<UtenteSintesiDto> corrente = utenteCorrente.utente();
+        if(corrente.isEmpty()) {
             throw new UtenteNonValidoONonEsistente();
         }
 
-        Utente u = utenteRepository.findById(Utils.getIdUtente()).get(); //il controllo precedente mi permette di fare la get direttamente
+        Utente u = utenteRepository.getReferenceById(corrente.get().id()); //serve solo l'id per la query, niente SELECT sull'utente
         Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
         Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento)); //ordinamento sarebbe l'attributo per cui vogliamo ordinare(data, totale)
         return ordineRepository.findByUtente(u, paging);
@@ -58,24 +86,41 @@ public class OrdineService {
     }
 
     @Transactional(readOnly = true)
-    public Page<Ordine> mostraTuttiGliOrdini(int numPagina, int dimPagina, String ordinamento){
+    public Slice<Ordine> mostraTuttiGliOrdini(int numPagina, int dimPagina, String ordinamento){
         Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
         Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-        return ordineRepository.findAll(paging);
+        return ordineRepository.findAllBy(paging);
     }
 
+    /*
+    Numero totale di ordini per l'admin. Di default è la stima delle statistiche di PostgreSQL (quasi gratis),
+    con esatto = true (oppure se la tabella non è mai stata analizzata) si fa la COUNT(*) vera.
+    Il risultato dice quale delle due è stata usata, perché anche senza esatto si può ricadere sulla COUNT(*).
+     */
     @Transactional(readOnly = true)
-    public Page<Ordine> getOrdiniUtenteInPeriodo(Date inizio, Date fine, int numPagina, int dimPagina, String ordinamento) throws DateORangeDateNonValido, UtenteNonValidoONonEsistente{
+    public ConteggioDto contaOrdini(boolean esatto){
+        if(!esatto){
+            long stima = ordineRepository.stimaNumeroOrdini();
+            if(stima >= 0){
+                return new ConteggioDto(stima, true);
+            }
+        }
+        return new ConteggioDto(ordineRepository.count(), false);
+    }
+
+    @Transactional(readOnly = true)
+    public Slice<Ordine> getOrdiniUtenteInPeriodo(Date inizio, Date fine, int numPagina, int dimPagina, String ordinamento) throws DateORangeDateNonValido, UtenteNonValidoONonEsistente{
 
         if(inizio == null || fine == null || inizio.after(fine)){
             throw new DateORangeDateNonValido();
         }
 
-        if(!utenteRepository.existsById(Utils.getIdUtente())) {
+        Optional<UtenteSintesiDto> corrente = utenteCorrente.utente();
+        if(corrente.isEmpty()) {
             throw new UtenteNonValidoONonEsistente();
         }
 
-        Utente u = utenteRepository.findById(Utils.getIdUtente()).get();
+        Utente u = utenteRepository.getReferenceById(corrente.get().id());
 
         Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
         Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
@@ -84,83 +129,226 @@ public class OrdineService {
     }
 
     @Transactional(readOnly = true)
-    public Page<DettaglioOrdine> trovaDettagliOrdine(int idOrdine,int numPagina, int dimPagina,String ordinamento) throws OrdineNonPresenteNelDbException, UtenteNonValidoONonEsistente, TentativoNonAutorizzato {
+    public Slice<DettaglioOrdine> trovaDettagliOrdine(int idOrdine,int numPagina, int dimPagina,String ordinamento) throws OrdineNonPresenteNelDbException, UtenteNonValidoONonEsistente, TentativoNonAutorizzato {
 
         Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
         Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-        Optional<Ordine> ordine = ordineRepository.findById(idOrdine);
+        verificaOrdineDellUtenteCorrente(idOrdine);
+
+        return dettaglioOrdineRepository.findByOrdine_Id(idOrdine,paging);
 
-        if (ordine.isEmpty()) {
-            throw new OrdineNonPresenteNelDbException();
         }
 
-        Utente utenteOrdine=utenteRepository.findById(ordine.get().getUtente().getId()).orElse(null);
-        Optional<Utente> u=utenteRepository.findById(Utils.getIdUtente());
-        if(u.isEmpty()){
+    /*
+    Varianti a cursore (keyset) delle letture precedenti: al posto del numero di pagina ricevono il cursore
+    restituito dalla pagina prima (null o vuoto per la prima). La chiave di ordinamento è sempre completata con l'id.
+     */
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<Ordine> getOrdiniUtenteScorrimento(String cursore, int dimPagina, String ordinamento) throws UtenteNonValidoONonEsistente, CursoreNonValidoException {
+
+        Optional<UtenteSintesiDto> corrente = utenteCorrente.utente();
+        if(corrente.isEmpty()) {
             throw new UtenteNonValidoONonEsistente();
         }
-        Utente utente=u.get();
+        int idUtente = corrente.get().id();
+
+        Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+        return CursoreKeyset.pagina(ordineRepository.scorriPerUtente(idUtente, CursoreKeyset.decodifica(cursore, sort, Ordine.class), sort, dimPagina));
+
+    }
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<Ordine> mostraTuttiGliOrdiniScorrimento(String cursore, int dimPagina, String ordinamento) throws CursoreNonValidoException {
+
+        Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+        return CursoreKeyset.pagina(ordineRepository.scorriTutti(CursoreKeyset.decodifica(cursore, sort, Ordine.class), sort, dimPagina));
 
-        //Devo capire se l'utente dell'Ordine di id idOrdine esiste nel db e se quest'ultimo corrisponde all'utente dato dal token
-        if(utenteOrdine==null||utenteOrdine.getId()!=utente.getId()){
+    }
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<Ordine> getOrdiniUtenteInPeriodoScorrimento(Date inizio, Date fine, String cursore, int dimPagina, String ordinamento) throws DateORangeDateNonValido, UtenteNonValidoONonEsistente, CursoreNonValidoException {
+
+        if(inizio == null || fine == null || inizio.after(fine)){
+            throw new DateORangeDateNonValido();
+        }
+
+        Optional<UtenteSintesiDto> corrente = utenteCorrente.utente();
+        if(corrente.isEmpty()) {
             throw new UtenteNonValidoONonEsistente();
         }
+        int idUtente = corrente.get().id();
+
+        Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+        return CursoreKeyset.pagina(ordineRepository.scorriPerUtenteInPeriodo(idUtente, inizio, fine, CursoreKeyset.decodifica(cursore, sort, Ordine.class), sort, dimPagina));
+
+    }
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<DettaglioOrdine> trovaDettagliOrdineScorrimento(int idOrdine, String cursore, int dimPagina, String ordinamento) throws OrdineNonPresenteNelDbException, UtenteNonValidoONonEsistente, TentativoNonAutorizzato, CursoreNonValidoException {
 
-        //se l'utente è lo stesso devo vedere se esso effettivamente ha effettuato l'ordine per cui vogliamo vedere i dettagli
-        if(!utente.getOrdini().contains(ordine.get())){
-            throw new TentativoNonAutorizzato();
+        verificaOrdineDellUtenteCorrente(idOrdine);
+
+        Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+        return CursoreKeyset.pagina(dettaglioOrdineRepository.scorriPerOrdine(idOrdine, CursoreKeyset.decodifica(cursore, sort, DettaglioOrdine.class), sort, dimPagina));
+
+    }
+
+    // Controlla che l'ordine esista e che appartenga all'utente del token
+    private void verificaOrdineDellUtenteCorrente(int idOrdine) throws OrdineNonPresenteNelDbException, UtenteNonValidoONonEsistente, TentativoNonAutorizzato {
+
+        Optional<Ordine> ordine = ordineRepository.findById(idOrdine);
+
+        if (ordine.isEmpty()) {
+            throw new OrdineNonPresenteNelDbException();
         }
 
-        return dettaglioOrdineRepository.findByOrdine_Id(idOrdine,paging);
+        Optional<UtenteSintesiDto> corrente = utenteCorrente.utente();
+        if(corrente.isEmpty()){
+            throw new UtenteNonValidoONonEsistente();
+        }
 
+        //L'ordine deve appartenere all'utente dato dal token: basta confrontare gli id, senza caricare l'utente dell'ordine
+        //né tutti gli ordini dell'utente corrente
+        Utente utenteOrdine = ordine.get().getUtente();
+        if(utenteOrdine == null || utenteOrdine.getId() != corrente.get().id()){
+            throw new UtenteNonValidoONonEsistente();
         }
 
+    }
+
     // Ora metodi nel db che comprendono operazioni di write
 
+    /*
+    Le scorte non vengono più lette, scalate in Java e salvate (con il @Version di Videogioco, acquisti contemporanei
+    dello stesso videogioco fallivano quasi tutti con OptimisticLockException): dopo i controlli su prezzi e quantità
+    una sola UPDATE condizionata (scalaScorte) scala tutte le righe, prendendo i lock in ordine di id.
+    Se un acquisto concorrente ha preso le ultime copie la UPDATE non aggiorna il videogioco e l'ordine viene annullato.
+     */
     @Transactional(readOnly = false, rollbackFor = {OrdineNonValido.class, QuantitaVideogiocoNonDisponibile.class})
     public Ordine salvaOrdine(@NotNull Ordine ordine) throws OrdineNonValido, QuantitaVideogiocoNonDisponibile{
 
-        if(ordine.getListaDettagliOrdine().isEmpty())
+        List<DettaglioOrdine> dettagli = ordine.getListaDettagliOrdine();
+        if(dettagli == null || dettagli.isEmpty())
             throw new OrdineNonValido();
 
-        double totaleOrdine = 0.0;
+        List<Integer> ids = new ArrayList<>(dettagli.size());
+        List<Integer> quantita = new ArrayList<>(dettagli.size());
+        for(DettaglioOrdine d: dettagli){
+            //un videogioco può comparire una sola volta in un ordine (vincolo unique su dettaglio_ordine)
+            if(d.getVideogioco() == null || d.getQuantita() <= 0 || ids.contains(d.getVideogioco().getId())){
+                throw new OrdineNonValido();
+            }
+            ids.add(d.getVideogioco().getId());
+            quantita.add(d.getQuantita());
+        }
 
-        for(DettaglioOrdine d: ordine.getListaDettagliOrdine()){
+        Map<Integer, Videogioco> videogiochi = new HashMap<>();
+        for(Videogioco v: videogiocoRepository.trovaInSolaLettura(ids)){
+            videogiochi.put(v.getId(), v);
+        }
 
-            Videogioco videogiocoDaAcquistare = videogiocoRepository.findById(d.getVideogioco().getId()).orElse(null);
+        double totaleOrdine = 0.0;
+        for(DettaglioOrdine d: dettagli){
 
+            Videogioco videogiocoDaAcquistare = videogiochi.get(d.getVideogioco().getId());
 
-            //Devo controllare che esista il videogioco, che le quantità siano valide e che il prezzo nel dettaglio ordine sia quello del videogioco nello stesso dettaglio ordine
-            if(videogiocoDaAcquistare==null || d.getQuantita() <= 0 || d.getPrezzoUnitario() == null ||
+            //Devo controllare che esista il videogioco e che il prezzo nel dettaglio ordine sia quello del videogioco nello stesso dettaglio ordine
+            if(videogiocoDaAcquistare==null || d.getPrezzoUnitario() == null ||
                 d.getPrezzoUnitario() <= 0 || !d.getPrezzoUnitario().equals(videogiocoDaAcquistare.getPrezzo())){
                 throw new OrdineNonValido();
             }
 
+            //Controllo anticipato, senza lock: quello che conta è la condizione della UPDATE
             if(videogiocoDaAcquistare.getQuantita() < d.getQuantita()){
                 throw new QuantitaVideogiocoNonDisponibile();
             }
 
-            //Il videogioco a questo punto sicuramente non sarà null, perciò
-            int nuovaQuantita = videogiocoDaAcquistare.getQuantita() - d.getQuantita();
-            videogiocoDaAcquistare.setQuantita(nuovaQuantita);
+            //Totale da mettere su Ordine
+            totaleOrdine += d.getPrezzoUnitario()*d.getQuantita();
+
+        }
+
+        Map<Integer, VideogiocoRepositoryCustom.ScorteAggiornate> scorte = videogiocoRepository.scalaScorte(ids, quantita);
+        if(scorte.size() != ids.size()){
+            throw new QuantitaVideogiocoNonDisponibile();
+        }
 
-            // Salvo subito il videogioco aggiornato (nuova quantità disponibile)
-            videogiocoRepository.save(videogiocoDaAcquistare);
+        for(DettaglioOrdine d: dettagli){
+            //I videogiochi sono in sola lettura: aggiornarli serve solo alla risposta e agli eventi
+            Videogioco videogioco = videogiochi.get(d.getVideogioco().getId());
+            VideogiocoRepositoryCustom.ScorteAggiornate s = scorte.get(videogioco.getId());
+            videogioco.setQuantita(s.quantita());
+            videogioco.setVersion(s.version());
+            eventPublisher.publishEvent(VideogiocoModificatoEvent.scorte(videogioco, s.quantita() + d.getQuantita()));
 
             //Devo gestire anche persistenza di dettaglioOrdine
+            d.setVideogioco(videogioco);
             d.setOrdine(ordine);
+        }
 
-            //Totale da mettere su Ordine
+        ordine.setTotale(totaleOrdine);
+
+        Ordine ordineSalvato = ordineRepository.save(ordine);
+        dettaglioOrdineRepository.saveAll(dettagli);
+
+        return ordineSalvato;
+
+    }
+
+
+    /*
+    Registra l'ordine di un acquisto dal carrello con un numero di query che non dipende dal numero di righe:
+    una UPDATE condizionata scala le scorte di tutti i videogiochi, poi una INSERT per l'ordine e una per i dettagli.
+    Quantità e prezzi devono essere già stati controllati (vedi AcquistoService.acquista); le scorte vengono ricontrollate
+    dalla UPDATE stessa, se anche un solo videogioco non ne ha abbastanza l'intero ordine viene annullato.
+
+    I videogiochi dei dettagli vengono aggiornati con le nuove scorte per la risposta e per gli eventi: devono essere
+    entity in sola lettura o staccate dal persistence context, altrimenti Hibernate proverebbe a salvarle al commit.
+     */
+    @Transactional(readOnly = false, rollbackFor = {OrdineNonValido.class, QuantitaVideogiocoNonDisponibile.class})
+    public Ordine registraOrdine(Utente utente, List<DettaglioOrdine> dettagli) throws OrdineNonValido, QuantitaVideogiocoNonDisponibile{
+
+        if(dettagli.isEmpty())
+            throw new OrdineNonValido();
+
+        List<Integer> ids = new ArrayList<>(dettagli.size());
+        List<Integer> quantita = new ArrayList<>(dettagli.size());
+        double totaleOrdine = 0.0;
+        for(DettaglioOrdine d: dettagli){
+            ids.add(d.getVideogioco().getId());
+            quantita.add(d.getQuantita());
             totaleOrdine += d.getPrezzoUnitario()*d.getQuantita();
+        }
 
+        Map<Integer, VideogiocoRepositoryCustom.ScorteAggiornate> scorte = videogiocoRepository.scalaScorte(ids, quantita);
+        if(scorte.size() != dettagli.size()){
+            throw new QuantitaVideogiocoNonDisponibile();
         }
 
+        Date adesso = new Date();
+        int idOrdine = ordineRepository.inserisciOrdine(utente.getId(), adesso, totaleOrdine);
+        Map<Integer, Integer> idDettagli = ordineRepository.inserisciDettagli(idOrdine, dettagli);
+
+        Ordine ordine = new Ordine();
+        ordine.setId(idOrdine);
+        ordine.setDataOrdine(adesso);
         ordine.setTotale(totaleOrdine);
+        ordine.setUtente(utente);
+        ordine.setListaDettagliOrdine(dettagli);
 
-        Ordine ordineSalvato = ordineRepository.save(ordine);
-        dettaglioOrdineRepository.saveAll(ordine.getListaDettagliOrdine());
+        for(DettaglioOrdine d: dettagli){
+            Videogioco videogioco = d.getVideogioco();
+            VideogiocoRepositoryCustom.ScorteAggiornate s = scorte.get(videogioco.getId());
+            videogioco.setQuantita(s.quantita());
+            videogioco.setVersion(s.version());
+            eventPublisher.publishEvent(VideogiocoModificatoEvent.scorte(videogioco, s.quantita() + d.getQuantita()));
 
-        return ordineSalvato;
+            d.setId(idDettagli.get(videogioco.getId()));
+            d.setOrdine(ordine);
+        }
+
+        return ordine;
 
     }
 
@@ -185,7 +373,7 @@ public class OrdineService {
 
             Utente utenteOrdineDaEliminare=utenteRepository.findById(daEliminare.getUtente().getId()).orElse(null);
 
-            Optional<Utente> u = utenteRepository.findById(Utils.getIdUtente());
+            Optional<Utente> u = utenteRepository.findById(utenteCorrente.id());
             if(u.isEmpty()){
                 throw new UtenteNonValidoONonEsistente();
             }
@@ -201,6 +389,24 @@ public class OrdineService {
 
             utenteOrdineDaEliminare.getOrdini().remove(daEliminare); //elimino questo tra i suoi ordini
 
+            //Le righe tornano nel carrello: prima si blocca il carrello, poi scorte e righe, come nell'acquisto (vedi V6__ordine_lock_carrello.sql)
+            dettaglioCarrelloRepository.bloccaCarrelli(List.of(utente.getCarrello().getId()));
+
+
+            //Le copie tornano in magazzino con una sola UPDATE (lock in ordine di id, come per l'acquisto), senza leggere
+            //e riscrivere i videogiochi: un acquisto contemporaneo dello stesso videogioco non fa fallire l'annullamento
+            List<Integer> ids = new ArrayList<>();
+            List<Integer> quantita = new ArrayList<>();
+            for(DettaglioOrdine d: daEliminare.getListaDettagliOrdine()){
+                ids.add(d.getVideogioco().getId());
+                quantita.add(d.getQuantita());
+            }
+            Map<Integer, VideogiocoRepositoryCustom.ScorteAggiornate> scorte = videogiocoRepository.ripristinaScorte(ids, quantita);
+
+            //Con i carrelli in memoria (write-behind) le righe del carrello sono quelle in memoria: scriverle qui sul DB
+            //non basterebbe, il prossimo salvataggio del carrello le riscriverebbe con le quantità di prima
+            boolean carrelloInMemoria = carrelliInMemoria.attivo();
+            List<DettaglioDto> restituite = new ArrayList<>();
 
             for(DettaglioOrdine d: daEliminare.getListaDettagliOrdine()){
 
@@ -212,27 +418,29 @@ public class OrdineService {
 
                 }
 
-                Videogioco videogioco = videogiocoRepository.findById(d.getVideogioco().getId()).orElse(null);
+                Videogioco videogioco = d.getVideogioco();
+                VideogiocoRepositoryCustom.ScorteAggiornate s = scorte.get(videogioco.getId());
 
-                if(videogioco == null){
+                if(s == null){
                     throw new VideogiocoNonValidoException();
                 }
 
-
-                int quantitaAggiornata = videogioco.getQuantita() + d.getQuantita();
-                videogioco.setQuantita(quantitaAggiornata);//reimposto quantita disponibile prodotto
-                videogioco.getListaDettagliOrdine().remove(dettaglioDaEliminare);
+                //videogioco non viene modificato (ha ancora version e quantità di prima), la quantità aggiornata va solo nell'evento
+                eventPublisher.publishEvent(VideogiocoModificatoEvent.scorte(videogioco, s.quantita(), s.quantita() - d.getQuantita()));
 
                 // Se nel carrello c'era già uno dei videogiochi presente nell'ordine annullato
                 // vado ad aumentare la quantità senza creare un nuovo DettaglioCarrello o violo i vincoli unique id_prodotto-id_carrello
-                if(dettaglioCarrelloRepository.existsByCarrello_IdAndVideogioco_Id(utente.getCarrello().getId(), videogioco.getId())){
+                if(carrelloInMemoria){
+                    restituite.add(new DettaglioDto(videogioco.getId(), d.getQuantita(), videogioco.getPrezzo()));
+                }
+                else if(dettaglioCarrelloRepository.existsByCarrello_IdAndVideogioco_Id(utente.getCarrello().getId(), videogioco.getId())){
                     DettaglioCarrello dettaglioCarrello = dettaglioCarrelloRepository.findByCarrello_IdAndVideogioco_Id(utente.getCarrello().getId(), videogioco.getId());
                     dettaglioCarrello.setQuantita(dettaglioCarrello.getQuantita() + d.getQuantita());
                 }
                 //e se non c'è aggiungo
                 else {
                     DettaglioCarrello dettcarr = new DettaglioCarrello();
-                    dettcarr.setVideogioco(d.getVideogioco());
+                    dettcarr.setVideogioco(videogioco);
                     dettcarr.setQuantita(d.getQuantita());
                     dettcarr.setPrezzoUnitario(videogioco.getPrezzo());
                     dettcarr.setCarrello(utenteOrdineDaEliminare.getCarrello());
@@ -243,14 +451,32 @@ public class OrdineService {
 
             //Elimino l'ordine alla fine
             ordineRepository.delete(daEliminare);
+
+            if(carrelloInMemoria){
+                restituisciInMemoria(utente.getId(), restituite);
+            }
         }else{
             throw new OrdineNonPresenteNelDbException();
         }
 
         }
 
+    //Le righe entrano nel carrello in memoria solo a commit avvenuto: se l'annullamento fallisce il carrello non cambia
+    private void restituisciInMemoria(int idUtente, List<DettaglioDto> restituite) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    carrelliInMemoria.aggiungi(idUtente, restituite);
+                } catch (CarrelloNonValidoException e) {
+                    log.error("Righe dell'ordine annullato non rimesse nel carrello dell'utente {}: carrello attivo non trovato", idUtente);
+                }
+            }
+        });
     }
 
+}
+
 
 
 
@@ -1,12 +1,14 @@
 package com.example.gamestore.services;
 
+import com.example.gamestore.dto.StatisticheCacheDto;
 import com.example.gamestore.dto.UtenteRegistrDto;
 import com.example.gamestore.entities.Carrello;
 import com.example.gamestore.entities.Utente;
 import com.example.gamestore.repositories.CarrelloRepository;
 import com.example.gamestore.repositories.UtenteRepository;
 import com.example.gamestore.support.ResponseMessage;
-import com.example.gamestore.support.authentication.Utils;
+import com.example.gamestore.support.authentication.CacheUtenti;
+import com.example.gamestore.support.authentication.UtenteCorrente;
 import com.example.gamestore.support.exceptions.ErroreNellaRegistrazioneUtenteException;
 import com.example.gamestore.support.exceptions.UtenteNonValidoONonEsistente;
 import jakarta.ws.rs.core.Response;
@@ -34,6 +36,9 @@ public class RegistrazioneService {
     private final UtenteRepository utenteRepository;
     // Repository per accedere ai carrelli salvati nel DB
     private final CarrelloRepository carrelloRepository;
+    // Utente del token della richiesta corrente
+    private final UtenteCorrente utenteCorrente;
+    private final CacheUtenti cacheUtenti;
 
     // Variabili lette dal file application.yaml (tramite @Value)
     @Value("${keycloak.server-url}")
@@ -59,9 +64,12 @@ public class RegistrazioneService {
     private String clientSecret;
 
     // Costruttore con injection dei repository
-    public RegistrazioneService(UtenteRepository utenteRepository, CarrelloRepository carrelloRepository) {
+    public RegistrazioneService(UtenteRepository utenteRepository, CarrelloRepository carrelloRepository,
+                                UtenteCorrente utenteCorrente, CacheUtenti cacheUtenti) {
         this.utenteRepository = utenteRepository;
         this.carrelloRepository = carrelloRepository;
+        this.utenteCorrente = utenteCorrente;
+        this.cacheUtenti = cacheUtenti;
     }
 
     /**
@@ -200,7 +208,7 @@ public class RegistrazioneService {
     // Metodo che trova utente nel DB partendo dall'id presente nel token JWT
     @Transactional(readOnly = true)
     public Utente trovaUtente() throws UtenteNonValidoONonEsistente {
-        Integer idUtente= Utils.getIdUtente();  // estraggo idUtente dal token JWT
+        Integer idUtente= utenteCorrente.id();  // idUtente dal token JWT
         if(idUtente==null){
             return null;
         }
@@ -214,6 +222,10 @@ public class RegistrazioneService {
     }
 
 
+    public StatisticheCacheDto statisticheCacheUtenti() {
+        return cacheUtenti.statistiche();
+    }
+
     /**
      * Metodo per testare la connessione a Keycloak
      */
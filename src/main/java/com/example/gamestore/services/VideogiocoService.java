@@ -1,36 +1,93 @@
 package com.example.gamestore.services;
 
+import com.example.gamestore.dto.ElementoBatchDto;
+import com.example.gamestore.dto.FacetteDto;
+import com.example.gamestore.dto.PaginaCursoreDto;
+import com.example.gamestore.dto.StatisticheCacheDto;
+import com.example.gamestore.dto.TitoloDto;
+import com.example.gamestore.dto.VideogiocoSintesiDto;
 import com.example.gamestore.entities.Videogioco;
 import com.example.gamestore.repositories.VideogiocoRepository;
+import com.example.gamestore.repositories.VideogiocoSpecifications;
+import com.example.gamestore.support.CursoreKeyset;
+import com.example.gamestore.support.catalogo.CacheCatalogo;
+import com.example.gamestore.support.catalogo.ContatoreModificheCatalogo;
+import com.example.gamestore.support.catalogo.FacetteCatalogo;
+import com.example.gamestore.support.catalogo.IndicePrezzi;
+import com.example.gamestore.support.catalogo.IndiceInvertito;
+import com.example.gamestore.support.catalogo.IndicePrefissi;
+import com.example.gamestore.support.catalogo.IndiceTitoliApprossimato;
+import com.example.gamestore.support.catalogo.RaggruppamentoTitoli;
+import com.example.gamestore.support.catalogo.VideogiocoModificatoEvent;
 import com.example.gamestore.support.exceptions.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class VideogiocoService {
 
+    // Massimo numero di id per /videogiochi/batch: oltre, la IN diventa una query troppo pesante per una sola richiesta
+    public static final int MAX_ID_BATCH = 500;
+
    @Autowired
     private VideogiocoRepository videogiocoRepository;
 
-   @Transactional(readOnly = true)
-    public Page<Videogioco> elencoVideogiochi(int numPagina, int dimPagina, String ordinamento){
+   @Autowired
+    private CacheCatalogo cacheCatalogo;
+
+   @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+   @Autowired
+    private IndiceInvertito indiceInvertito;
+
+   @Autowired
+    private IndicePrefissi indicePrefissi;
+
+   @Autowired
+    private IndiceTitoliApprossimato indiceTitoliApprossimato;
+
+   @Autowired
+    private FacetteCatalogo facetteCatalogo;
+
+   @Autowired
+    private ContatoreModificheCatalogo contatoreModificheCatalogo;
+
+   @Autowired
+    private IndicePrezzi indicePrezzi;
+
+   @Autowired
+    private RaggruppamentoTitoli raggruppamentoTitoli;
+
+   /*
+   I due elenchi del catalogo non sono @Transactional: una transazione prenderebbe una connessione dal pool anche
+   quando la pagina è in cache. In caso di miss la query del repository apre la sua transazione in sola lettura.
+    */
+    public Slice<VideogiocoSintesiDto> elencoVideogiochi(int numPagina, int dimPagina, String ordinamento){
 
        Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
        Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-       return videogiocoRepository.findByQuantitaGreaterThanAndNascosto(paging, 0, 0);
+       CacheCatalogo.Chiave chiave = new CacheCatalogo.Chiave(null, numPagina, dimPagina, ordinamento);
+       return cacheCatalogo.trova(chiave, () -> videogiocoRepository.sintesiDisponibili(paging));
 
    }
 
-   @Transactional(readOnly = true)
-    public Page<Videogioco> elencoVideogiochiPerPiattaforma(String piattaforma, int numPagina, int dimPagina, String ordinamento){
+    public Slice<VideogiocoSintesiDto> elencoVideogiochiPerPiattaforma(String piattaforma, int numPagina, int dimPagina, String ordinamento){
 
        if(piattaforma == null){
 
@@ -44,7 +101,127 @@ public class VideogiocoService {
 
        Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
        Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-       return videogiocoRepository.findByPiattaformaContainingIgnoreCaseAndNascosto(piattaforma, paging, 0);
+       CacheCatalogo.Chiave chiave = new CacheCatalogo.Chiave(piattaforma, numPagina, dimPagina, ordinamento);
+       return cacheCatalogo.trova(chiave, () -> videogiocoRepository.sintesiPerPiattaforma(piattaforma, paging));
+
+   }
+
+   /*
+   Varianti a cursore dei due elenchi precedenti: invece del numero di pagina ricevono il cursore restituito
+   dalla pagina prima (null o vuoto per la prima). Non passano dalla cache perché il cursore identifica già
+   in modo preciso il punto di partenza e la query usa l'indice, a qualunque profondità.
+   Lo scorrimento keyset di Spring Data lavora sulle entity, che qui vengono subito ridotte alla sintesi
+   (la transazione è in sola lettura, quindi Hibernate non ne tiene lo snapshot).
+    */
+   @Transactional(readOnly = true)
+    public PaginaCursoreDto<VideogiocoSintesiDto> elencoVideogiochiScorrimento(String cursore, int dimPagina, String ordinamento) throws CursoreNonValidoException{
+
+       Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+       return CursoreKeyset.pagina(videogiocoRepository.scorriDisponibili(CursoreKeyset.decodifica(cursore, sort, Videogioco.class), sort, dimPagina).map(VideogiocoSintesiDto::da));
+
+   }
+
+   @Transactional(readOnly = true)
+    public PaginaCursoreDto<VideogiocoSintesiDto> elencoVideogiochiPerPiattaformaScorrimento(String piattaforma, String cursore, int dimPagina, String ordinamento) throws CursoreNonValidoException{
+
+       if(piattaforma == null){
+           return this.elencoVideogiochiScorrimento(cursore, dimPagina, ordinamento);
+       }
+
+       Sort sort = Sort.by(Sort.Direction.DESC, ordinamento, "id");
+       return CursoreKeyset.pagina(videogiocoRepository.scorriPerPiattaforma(piattaforma, CursoreKeyset.decodifica(cursore, sort, Videogioco.class), sort, dimPagina).map(VideogiocoSintesiDto::da));
+
+   }
+
+   /*
+   Ricerca full-text ordinata per rilevanza su nome, descrizione, piattaforma e casa produttrice.
+   Le parole vengono cercate nell'indice invertito in memoria, dal DB leggo solo i videogiochi della pagina
+   (per chiave primaria) e li rimetto nell'ordine di rilevanza.
+    */
+   @Transactional(readOnly = true)
+    public Slice<VideogiocoSintesiDto> cerca(String testo, int numPagina, int dimPagina){
+
+       IndiceInvertito.Risultato risultato = indiceInvertito.cerca(testo, numPagina, dimPagina);
+       List<VideogiocoSintesiDto> pagina = ordinaComeIds(videogiocoRepository.trovaSintesiPerId(risultato.idVideogiochi()), risultato.idVideogiochi());
+       return new SliceImpl<>(pagina, PageRequest.of(numPagina, dimPagina), risultato.haSuccessiva());
+
+   }
+
+   // La query per id non garantisce l'ordine: rimetto i videogiochi nell'ordine degli id (quelli nel frattempo nascosti non ci sono)
+   private List<VideogiocoSintesiDto> ordinaComeIds(List<VideogiocoSintesiDto> trovati, List<Integer> ids){
+
+       Map<Integer, VideogiocoSintesiDto> perId = new HashMap<>();
+       for(VideogiocoSintesiDto v : trovati){
+           perId.put(v.id(), v);
+       }
+       List<VideogiocoSintesiDto> ordinati = new ArrayList<>(ids.size());
+       for(Integer id : ids){
+           VideogiocoSintesiDto v = perId.get(id);
+           if(v != null){
+               ordinati.add(v);
+           }
+       }
+       return ordinati;
+
+   }
+
+   /*
+   Elenco per titolo invece che per singolo videogioco: un elemento per nome con tutte le piattaforme,
+   paginato e ordinato sui titoli. Servito dal raggruppamento in memoria, nessuna query.
+    */
+    public Slice<TitoloDto> elencoTitoli(int numPagina, int dimPagina, String ordinamento){
+
+       return raggruppamentoTitoli.elenco(numPagina, dimPagina, ordinamento);
+
+   }
+
+    public Optional<TitoloDto> trovaTitolo(String nome){
+
+       return Optional.ofNullable(raggruppamentoTitoli.trova(nome));
+
+   }
+
+   /*
+   Sintesi di molti videogiochi in una sola query, nell'ordine in cui sono stati chiesti.
+   Gli id inesistenti o nascosti non sono un errore: compaiono nella risposta con trovato = false.
+   Da 1 a MAX_ID_BATCH id, nessuno null o ripetuto: i controlli vengono prima della query, e il metodo non è
+   @Transactional (la transazione in sola lettura la apre la query), così una richiesta sbagliata non prende
+   nemmeno una connessione.
+    */
+    public List<ElementoBatchDto> trovaPerIds(List<Integer> ids) throws IdBatchNonValidiException{
+
+       if(ids == null || ids.isEmpty() || ids.size() > MAX_ID_BATCH){
+
+           throw new IdBatchNonValidiException();
+
+       }
+       Set<Integer> distinti = new HashSet<>();
+       for(Integer id : ids){
+           if(id == null || !distinti.add(id)){
+
+               throw new IdBatchNonValidiException();
+
+           }
+       }
+
+       Map<Integer, VideogiocoSintesiDto> perId = new HashMap<>();
+       for(VideogiocoSintesiDto v : videogiocoRepository.trovaSintesiPerId(ids)){
+           perId.put(v.id(), v);
+       }
+
+       List<ElementoBatchDto> risultato = new ArrayList<>(ids.size());
+       for(Integer id : ids){
+           VideogiocoSintesiDto v = perId.get(id);
+           risultato.add(new ElementoBatchDto(id, v != null, v));
+       }
+       return risultato;
+
+   }
+
+   // Autocompletamento della barra di ricerca: servito solo dalla memoria, nessuna query
+    public List<String> suggerimenti(String prefisso, int limite){
+
+       return indicePrefissi.suggerisci(prefisso, limite);
 
    }
 
@@ -55,8 +232,33 @@ public class VideogiocoService {
 
    }
 
+   /*
+   Ricerca tollerante agli errori di battitura, usata da /perNome quando il nome esatto non c'è.
+   La distanza ammessa cresce con la lunghezza del nome (1 errore ogni 5 caratteri, al massimo 3),
+   così "fifa" non trova anche "nba" ma "zelda breath of the wlid" trova "zelda breath of the wild".
+    */
    @Transactional(readOnly = true)
-    public List<Videogioco> ricercaApprofondita(int numPagina, int dimPagina, double prezzoMin, double prezzoMax, String nome, String piattaforma, int quantita, String ordinamento) throws FasciaPrezzoNonValida{
+    public List<VideogiocoSintesiDto> trovaVideogiocoByNomeApprossimato(String nomeVideogioco, int limite){
+
+       int lunghezza = nomeVideogioco.strip().length();
+       int distanzaMassima = Math.min(3, Math.max(1, lunghezza / 5));
+
+       List<Integer> ids = new ArrayList<>();
+       for(IndiceTitoliApprossimato.Candidato c : indiceTitoliApprossimato.cerca(nomeVideogioco, distanzaMassima, limite)){
+           for(int id : c.idVideogiochi()){
+               ids.add(id);
+           }
+       }
+       if(ids.isEmpty()){
+           return List.of();
+       }
+       List<VideogiocoSintesiDto> candidati = ordinaComeIds(videogiocoRepository.trovaSintesiPerId(ids), ids);
+       return candidati.size() > limite ? candidati.subList(0, limite) : candidati;
+
+   }
+
+   @Transactional(readOnly = true)
+    public Slice<VideogiocoSintesiDto> ricercaApprofondita(int numPagina, int dimPagina, double prezzoMin, double prezzoMax, String nome, String piattaforma, int quantita, String ordinamento) throws FasciaPrezzoNonValida{
 
        if(prezzoMin <= 0 || prezzoMax <= 0 || prezzoMin > prezzoMax){
 
@@ -66,7 +268,67 @@ public class VideogiocoService {
 
        Sort.Direction tipoOrdinamento = Sort.Direction.DESC;
        Pageable paging = PageRequest.of(numPagina, dimPagina, Sort.by(tipoOrdinamento, ordinamento));
-       return  videogiocoRepository.ricercaApprofondita(prezzoMin, prezzoMax, nome, piattaforma, quantita);
+
+       //Double.MAX_VALUE è il default del controller e vuol dire "nessun limite superiore": non lo passo proprio alla query
+       Double limiteSuperiore = prezzoMax == Double.MAX_VALUE ? null : prezzoMax;
+
+       //Solo fascia di prezzo e ordinamento per prezzo (è il caso di /perFasciaPrezzo): gli id della pagina li dà
+       //l'indice dei prezzi in memoria, dal DB leggo solo quei videogiochi per chiave primaria
+       if(nome == null && piattaforma == null && quantita <= 0 && "prezzo".equals(ordinamento) && indicePrezzi.pronto()){
+           IndicePrezzi.Risultato risultato = indicePrezzi.cerca(prezzoMin, limiteSuperiore, numPagina, dimPagina);
+           if(risultato.idVideogiochi().isEmpty()){
+               return new SliceImpl<>(List.of(), paging, false);
+           }
+           List<VideogiocoSintesiDto> pagina = ordinaComeIds(videogiocoRepository.trovaSintesiPerId(risultato.idVideogiochi()), risultato.idVideogiochi());
+           return new SliceImpl<>(pagina, paging, risultato.haSuccessiva());
+       }
+
+       //Slice di sintesi: nessuna COUNT(*) e nessuna entity (la descrizione non viene letta)
+       return videogiocoRepository.sintesiPerFiltri(VideogiocoSpecifications.ricercaApprofondita(prezzoMin, limiteSuperiore, nome, piattaforma, quantita), paging);
+
+   }
+
+   /*
+   Conteggi per piattaforma, fascia di prezzo e anno dei videogiochi disponibili, con gli stessi filtri della
+   ricerca avanzata (più l'anno). Calcolati sui contatori in memoria, nessuna query.
+    */
+    public FacetteDto facette(double prezzoMin, double prezzoMax, String nome, String piattaforma, int quantita, Integer annoRilascio) throws FasciaPrezzoNonValida{
+
+       if(prezzoMin <= 0 || prezzoMax <= 0 || prezzoMin > prezzoMax){
+
+           throw new FasciaPrezzoNonValida();
+
+       }
+
+       Double limiteSuperiore = prezzoMax == Double.MAX_VALUE ? null : prezzoMax;
+       return facetteCatalogo.conteggi(new FacetteCatalogo.Filtri(prezzoMin, limiteSuperiore, nome, piattaforma, quantita, annoRilascio));
+
+   }
+
+   // Versione dell'intero catalogo per gli ETag degli elenchi (vedi ContatoreModificheCatalogo)
+    public long versioneCatalogo(){
+
+       return contatoreModificheCatalogo.versione();
+
+   }
+
+   // Versione di un singolo videogioco visibile per l'ETag del dettaglio, vuoto se non esiste o è nascosto
+   @Transactional(readOnly = true)
+    public Optional<Long> versioneVideogioco(int idVideogioco){
+
+       return videogiocoRepository.versioneVisibile(idVideogioco);
+
+   }
+
+   // Dettaglio completo (descrizione compresa) di un videogioco visibile, per la pagina del singolo prodotto
+   @Transactional(readOnly = true)
+    public Videogioco dettaglioVideogioco(int idVideogioco) throws VideogiocoNonPresenteNelDBException{
+
+       Optional<Videogioco> videogioco = videogiocoRepository.findById(idVideogioco);
+       if(videogioco.isEmpty() || videogioco.get().getNascosto() == 1){
+           throw new VideogiocoNonPresenteNelDBException();
+       }
+       return videogioco.get();
 
    }
 
@@ -95,6 +357,7 @@ public class VideogiocoService {
 
            daAggiornare.setNascosto(0); // Rendo visibile
            videogiocoRepository.save(daAggiornare);
+           eventPublisher.publishEvent(VideogiocoModificatoEvent.catalogo(daAggiornare));
            return; // Operazione completata
        }
 
@@ -107,7 +370,8 @@ public class VideogiocoService {
            throw new VideogiocoNonValidoException();
 
        videogioco.setNascosto(0);
-       videogiocoRepository.save(videogioco);
+       Videogioco salvato = videogiocoRepository.save(videogioco);
+       eventPublisher.publishEvent(VideogiocoModificatoEvent.catalogo(salvato));
 
 
 
@@ -153,6 +417,7 @@ public class VideogiocoService {
 
            //Rendo persistente la modifica del parametro nascosto
            videogiocoRepository.save(daEliminare);
+           eventPublisher.publishEvent(VideogiocoModificatoEvent.catalogo(daEliminare));
 
        }else{
 
@@ -162,5 +427,9 @@ public class VideogiocoService {
 
    }
 
+   public StatisticheCacheDto statisticheCache(){
+       return cacheCatalogo.statistiche();
+   }
+
 
 }
@@ -0,0 +1,160 @@
+package com.example.gamestore.support;
+
+import com.example.gamestore.dto.PaginaCursoreDto;
+import com.example.gamestore.support.exceptions.CursoreNonValidoException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Paginazione a cursore (keyset / seek): invece di "salta le prime N righe" (OFFSET, che costa sempre di più
+man mano che si va avanti con le pagine) il client ci rimanda il valore della chiave di ordinamento e l'id
+dell'ultimo elemento visto, e la query riparte da lì con un WHERE che usa l'indice.
+
+Il cursore che diamo al client è opaco: sono le chiavi della KeysetScrollPosition di Spring Data, ciascuna con
+il suo tipo (altrimenti una data tornerebbe indietro come numero), codificate in Base64 URL-safe.
+
+Al ritorno il cursore viene confrontato con l'ordinamento della richiesta: le chiavi devono essere esattamente
+quelle dell'ordinamento, non nulle e del tipo dell'attributo. L'ordine delle chiavi nel cursore non conta (Spring Data
+le scrive nell'ordine che vuole, ad esempio id prima di dataOrdine, e le rilegge per nome). Un cursore preso con un altro
+ordinamento o manomesso diventa così un CursoreNonValidoException (400) invece di un errore della query.
+Le chiavi non possono essere nulle perché il WHERE "chiave < valore" di Spring Data salterebbe le righe con la
+chiave a NULL: per questo con il cursore si può ordinare solo su colonne NOT NULL (vedi i controller).
+ */
+public class CursoreKeyset {
+
+    private CursoreKeyset() {
+    }
+
+    /**
+     * Un cursore assente o vuoto indica la prima pagina.
+     */
+    public static ScrollPosition decodifica(String cursore, Sort ordinamento, Class<?> entita) throws CursoreNonValidoException {
+        if (cursore == null || cursore.isBlank()) {
+            return ScrollPosition.keyset();
+        }
+        Map<String, Object> chiavi = leggiChiavi(cursore);
+        List<String> attese = ordinamento.stream().map(Sort.Order::getProperty).toList();
+        if (chiavi.size() != attese.size() || !chiavi.keySet().containsAll(attese)) {
+            throw new CursoreNonValidoException();
+        }
+        //Le chiavi tornano nell'ordine dell'ordinamento
+        Map<String, Object> ordinate = new LinkedHashMap<>();
+        for (String nome : attese) {
+            Object valore = chiavi.get(nome);
+            Field campo = ReflectionUtils.findField(entita, nome);
+            if (campo == null || valore == null
+                    || !ClassUtils.resolvePrimitiveIfNecessary(campo.getType()).isInstance(valore)) {
+                throw new CursoreNonValidoException();
+            }
+            ordinate.put(nome, valore);
+        }
+        return ScrollPosition.forward(ordinate);
+    }
+
+    private static Map<String, Object> leggiChiavi(String cursore) throws CursoreNonValidoException {
+        try {
+            String testo = new String(Base64.getUrlDecoder().decode(cursore), StandardCharsets.UTF_8);
+            Map<String, Object> chiavi = new LinkedHashMap<>();
+            for (String coppia : testo.split("&")) {
+                int uguale = coppia.indexOf('=');
+                String nome = URLDecoder.decode(coppia.substring(0, uguale), StandardCharsets.UTF_8);
+                char tipo = coppia.charAt(uguale + 1);
+                String valore = URLDecoder.decode(coppia.substring(uguale + 2), StandardCharsets.UTF_8);
+                if (chiavi.containsKey(nome)) {
+                    throw new IllegalArgumentException("Chiave ripetuta: " + nome);
+                }
+                chiavi.put(nome, leggiValore(tipo, valore));
+            }
+            return chiavi;
+        } catch (RuntimeException e) {
+            throw new CursoreNonValidoException();
+        }
+    }
+
+    public static String codifica(ScrollPosition posizione) {
+        KeysetScrollPosition keyset = (KeysetScrollPosition) posizione;
+        StringBuilder testo = new StringBuilder();
+        for (Map.Entry<String, Object> chiave : keyset.getKeys().entrySet()) {
+            if (!testo.isEmpty()) {
+                testo.append('&');
+            }
+            testo.append(URLEncoder.encode(chiave.getKey(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(scriviValore(chiave.getValue()));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(testo.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static <T> PaginaCursoreDto<T> pagina(Window<T> finestra) {
+        String successivo = null;
+        if (finestra.hasNext() && !finestra.isEmpty()) {
+            successivo = codifica(finestra.positionAt(finestra.size() - 1));
+        }
+        return new PaginaCursoreDto<>(finestra.getContent(), successivo);
+    }
+
+    private static String scriviValore(Object valore) {
+        String tipo;
+        String testo;
+        if (valore == null) {
+            tipo = "N";
+            testo = "";
+        } else if (valore instanceof Integer) {
+            tipo = "I";
+            testo = valore.toString();
+        } else if (valore instanceof Long) {
+            tipo = "L";
+            testo = valore.toString();
+        } else if (valore instanceof Double) {
+            tipo = "D";
+            testo = valore.toString();
+        } else if (valore instanceof String) {
+            tipo = "S";
+            testo = (String) valore;
+        } else if (valore instanceof Timestamp ts) {
+            //i timestamp di PostgreSQL arrivano al microsecondo: tengo anche i nanosecondi o salterei delle righe
+            tipo = "T";
+            testo = ts.getTime() + ":" + ts.getNanos();
+        } else if (valore instanceof Date data) {
+            tipo = "d";
+            testo = String.valueOf(data.getTime());
+        } else {
+            throw new IllegalArgumentException("Tipo di chiave non supportato nel cursore: " + valore.getClass());
+        }
+        return tipo + URLEncoder.encode(testo, StandardCharsets.UTF_8);
+    }
+
+    private static Object leggiValore(char tipo, String testo) {
+        return switch (tipo) {
+            case 'N' -> null;
+            case 'I' -> Integer.valueOf(testo);
+            case 'L' -> Long.valueOf(testo);
+            case 'D' -> Double.valueOf(testo);
+            case 'S' -> testo;
+            case 'T' -> {
+                String[] parti = testo.split(":");
+                Timestamp ts = new Timestamp(Long.parseLong(parti[0]));
+                ts.setNanos(Integer.parseInt(parti[1]));
+                yield ts;
+            }
+            case 'd' -> new Date(Long.parseLong(testo));
+            default -> throw new IllegalArgumentException("Tipo sconosciuto: " + tipo);
+        };
+    }
+
+}
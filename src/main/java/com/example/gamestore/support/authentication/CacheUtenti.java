@@ -0,0 +1,81 @@
+package com.example.gamestore.support.authentication;
+
+import com.example.gamestore.dto.StatisticheCacheDto;
+import com.example.gamestore.dto.UtenteSintesiDto;
+import com.example.gamestore.repositories.UtenteRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Cache id utente -> UtenteSintesiDto, limitata per numero di utenti (LRU) e per tempo (TTL) come CacheCatalogo.
+Serve a UtenteCorrente: quasi ogni richiesta autenticata deve sapere se l'utente del token esiste, e senza cache
+sarebbe una query (o più) ad ogni richiesta.
+Gli id non presenti nel DB non vengono memorizzati, così un utente appena registrato è visibile subito.
+ */
+@Component
+public class CacheUtenti {
+
+    private record Voce(UtenteSintesiDto utente, long scadenza) {
+    }
+
+    @Autowired
+    private UtenteRepository utenteRepository;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Integer, Voce> voci;
+
+    private final AtomicLong hit = new AtomicLong();
+    private final AtomicLong miss = new AtomicLong();
+    private final AtomicLong eviction = new AtomicLong();
+
+    public CacheUtenti(@Value("${gamestore.cache.utenti.dimensione-massima:10000}") int dimensioneMassima,
+                       @Value("${gamestore.cache.utenti.ttl-secondi:300}") long ttlSecondi) {
+        this.ttlMillis = ttlSecondi * 1000;
+        this.voci = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Voce> eldest) {
+                if (size() > dimensioneMassima) {
+                    eviction.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // La lettura dal DB avviene fuori dal lock, come in CacheCatalogo.trova
+    public Optional<UtenteSintesiDto> trova(int idUtente) {
+        synchronized (this) {
+            Voce voce = voci.get(idUtente);
+            if (voce != null) {
+                if (voce.scadenza() > System.currentTimeMillis()) {
+                    hit.incrementAndGet();
+                    return Optional.of(voce.utente());
+                }
+                voci.remove(idUtente);
+                eviction.incrementAndGet();
+            }
+        }
+
+        miss.incrementAndGet();
+        Optional<UtenteSintesiDto> utente = utenteRepository.trovaSintesi(idUtente);
+        if (utente.isPresent()) {
+            synchronized (this) {
+                voci.put(idUtente, new Voce(utente.get(), System.currentTimeMillis() + ttlMillis));
+            }
+        }
+        return utente;
+    }
+
+    public synchronized StatisticheCacheDto statistiche() {
+        return new StatisticheCacheDto(hit.get(), miss.get(), eviction.get(), voci.size());
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.example.gamestore.support.authentication;
+
+import com.example.gamestore.dto.UtenteSintesiDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import java.util.Optional;
+
+/*
+Utente autenticato della richiesta corrente. Un'istanza per richiesta HTTP (i Service ricevono un proxy):
+l'id viene letto dal token una volta sola, l'utente viene cercato una volta sola e da CacheUtenti,
+qualunque sia il numero di Service e metodi che lo chiedono durante la richiesta.
+ */
+@Component
+@RequestScope
+public class UtenteCorrente {
+
+    @Autowired
+    private CacheUtenti cacheUtenti;
+
+    private boolean idLetto = false;
+    private Integer id;
+
+    private boolean utenteCercato = false;
+    private UtenteSintesiDto utente;
+
+    // Id presente nel token JWT, null se la richiesta non è autenticata (come Utils.getIdUtente)
+    public Integer id() {
+        if (!idLetto) {
+            id = Utils.getIdUtente();
+            idLetto = true;
+        }
+        return id;
+    }
+
+    // L'utente del token se esiste nel DB, vuoto se non c'è token o se l'utente non esiste
+    public Optional<UtenteSintesiDto> utente() {
+        if (!utenteCercato) {
+            Integer idUtente = id();
+            utente = idUtente == null ? null : cacheUtenti.trova(idUtente).orElse(null);
+            utenteCercato = true;
+        }
+        return Optional.ofNullable(utente);
+    }
+
+}
@@ -16,7 +16,6 @@ public class Utils {
         // Recupera l'autenticazione corrente dal SecurityContext di Spring
         JwtAuthenticationToken authenticationToken =
                 (JwtAuthenticationToken) SecurityContextHolder.getContext().getAuthentication();
-        System.out.println(authenticationToken);
 
         // Se non c'è autenticazione, restituisce null (utente non loggato)
         if (authenticationToken == null) {
@@ -25,12 +24,9 @@ public class Utils {
 
         // Estrae il token JWT dalle credenziali di autenticazione
         Jwt jwt = (Jwt) authenticationToken.getCredentials();
-        System.out.println(jwt);
 
         // Cerca il claim personalizzato "idUtente" nella mappa dei claims del token
         Object idClaim = jwt.getClaims().get("idUtente");
-        System.out.println(idClaim);
-        
 
         // Se il claim non esiste, restituisce null
         if (idClaim == null) {
@@ -0,0 +1,395 @@
+package com.example.gamestore.support.carrello;
+
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.StatisticheCarrelliDto;
+import com.example.gamestore.repositories.DettaglioCarrelloRepository;
+import com.example.gamestore.repositories.DettaglioCarrelloRepositoryCustom.RigaCarrello;
+import com.example.gamestore.support.exceptions.CarrelloNonValidoException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Carrelli attivi tenuti in memoria con scrittura differita (write-behind), attivabile con gamestore.carrello.write-behind.attivo.
+
+Le modifiche alle righe cambiano solo la memoria; un task periodico scrive su dettaglio_carrello le righe cambiate di tutti
+i carrelli in due batch JDBC (vedi DettaglioCarrelloRepositoryCustom.scriviRigheInBlocco). Più modifiche della stessa riga
+tra due salvataggi diventano una sola scrittura con l'ultimo valore.
+Se il batch comune fallisce si riprova un carrello alla volta, ognuno nella sua transazione, così le righe rifiutate dal DB
+(ad esempio un videogioco eliminato nel frattempo) non fermano gli altri carrelli. Un carrello che fallisce
+tentativi-massimi volte di fila viene scartato: le sue modifiche in sospeso si perdono e al prossimo accesso si rilegge dal DB.
+Prima di un acquisto le righe dell'utente vengono salvate subito (salvaUtente), così l'ordine legge dal DB il carrello vero;
+lo stesso per tutti i carrelli alla chiusura dell'applicazione.
+
+La mappa è una ConcurrentHashMap (lock per segmento), ogni carrello ha poi il suo lock: utenti diversi non si bloccano a vicenda.
+I carrelli senza modifiche da salvare e non usati da un po' vengono tolti dalla memoria e riletti dal DB al bisogno.
+ */
+@Component
+public class CarrelliInMemoria {
+
+    private static final Logger log = LoggerFactory.getLogger(CarrelliInMemoria.class);
+
+    private static final class StatoCarrello {
+        final int idUtente;
+        final int idCarrello;
+        // idVideogioco -> riga, solo quantità > 0
+        final Map<Integer, DettaglioDto> righe = new LinkedHashMap<>();
+        // idVideogioco -> ultimo valore non ancora salvato (quantita = 0 -> riga da togliere)
+        final Map<Integer, DettaglioDto> daSalvare = new HashMap<>();
+        long primaModificaNonSalvata;
+        long ultimoAccesso = System.currentTimeMillis();
+        // salvataggi iniziati e non ancora conclusi: finché ce ne sono il carrello non può essere tolto dalla memoria
+        int salvataggiInCorso;
+        // tolto dalla mappa: chi lo ha ancora in mano deve rileggerlo
+        boolean scartato;
+        // salvataggi falliti di fila, azzerati dal primo che riesce
+        int fallimenti;
+
+        StatoCarrello(int idUtente, int idCarrello) {
+            this.idUtente = idUtente;
+            this.idCarrello = idCarrello;
+        }
+    }
+
+    // Righe prese da un carrello per un salvataggio, da rimettere tra le modifiche se la scrittura fallisce
+    private record Prelievo(StatoCarrello stato, Map<Integer, DettaglioDto> righe, long primaModifica) {
+    }
+
+    @Autowired
+    private DettaglioCarrelloRepository dettaglioCarrelloRepository;
+
+    private final TransactionTemplate transazioneSalvataggio;
+
+    @Value("${gamestore.carrello.write-behind.attivo:false}")
+    private boolean attivo;
+
+    @Value("${gamestore.carrello.write-behind.inattivita-secondi:1800}")
+    private long inattivitaSecondi;
+
+    @Value("${gamestore.carrello.write-behind.tentativi-massimi:5}")
+    private int tentativiMassimi;
+
+    private final ConcurrentHashMap<Integer, StatoCarrello> carrelli = new ConcurrentHashMap<>();
+
+    // Un salvataggio alla volta: due salvataggi paralleli potrebbero scrivere lo stesso valore in ordine inverso
+    private final ReentrantLock scrittura = new ReentrantLock();
+
+    private final AtomicLong salvataggi = new AtomicLong();
+    private final AtomicLong righeSalvate = new AtomicLong();
+    private final AtomicLong salvataggiFalliti = new AtomicLong();
+    private final AtomicLong carrelliScartati = new AtomicLong();
+
+    public CarrelliInMemoria(PlatformTransactionManager transactionManager) {
+        // Transazione propria: le righe salvate prima di un acquisto restano salvate anche se l'acquisto fallisce
+        this.transazioneSalvataggio = new TransactionTemplate(transactionManager);
+        this.transazioneSalvataggio.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public boolean attivo() {
+        return attivo;
+    }
+
+    /**
+     * Righe del carrello attivo dell'utente (lette dal DB al primo accesso).
+     */
+    public List<DettaglioDto> righe(int idUtente) throws CarrelloNonValidoException {
+        while (true) {
+            StatoCarrello stato = stato(idUtente);
+            synchronized (stato) {
+                if (!stato.scartato) {
+                    stato.ultimoAccesso = System.currentTimeMillis();
+                    return new ArrayList<>(stato.righe.values());
+                }
+            }
+        }
+    }
+
+    /**
+     * Applica le righe (quantita = 0 per togliere) al carrello attivo dell'utente. Le scorte vanno controllate prima.
+     * Come l'upsert su DB, per una riga già presente cambia solo la quantità e resta il prezzo del primo inserimento.
+     * Restituisce le righe come sono dopo la modifica, null al posto di una riga da togliere che non c'era
+     * (in quel caso non c'è niente da scrivere sul DB).
+     */
+    public List<DettaglioDto> applica(int idUtente, List<DettaglioDto> modifiche) throws CarrelloNonValidoException {
+        return modifica(idUtente, modifiche, false);
+    }
+
+    /**
+     * Come applica, ma le quantità (> 0) si sommano a quelle già nel carrello; le righe che non c'erano vengono
+     * aggiunte con il prezzo indicato. Serve a chi rimette righe nel carrello senza sapere cosa c'è in memoria
+     * (ad esempio l'annullamento di un ordine).
+     */
+    public List<DettaglioDto> aggiungi(int idUtente, List<DettaglioDto> aggiunte) throws CarrelloNonValidoException {
+        return modifica(idUtente, aggiunte, true);
+    }
+
+    private List<DettaglioDto> modifica(int idUtente, List<DettaglioDto> modifiche, boolean somma) throws CarrelloNonValidoException {
+        while (true) {
+            StatoCarrello stato = stato(idUtente);
+            synchronized (stato) {
+                if (stato.scartato) {
+                    continue;
+                }
+                long adesso = System.currentTimeMillis();
+                List<DettaglioDto> risultato = new ArrayList<>(modifiche.size());
+                for (DettaglioDto m : modifiche) {
+                    DettaglioDto riga;
+                    if (m.quantita() > 0) {
+                        DettaglioDto presente = stato.righe.get(m.idVideogioco());
+                        if (presente == null) {
+                            riga = m;
+                        } else {
+                            riga = new DettaglioDto(m.idVideogioco(), somma ? presente.quantita() + m.quantita() : m.quantita(), presente.prezzoUnitario());
+                        }
+                        stato.righe.put(m.idVideogioco(), riga);
+                    } else {
+                        DettaglioDto rimossa = stato.righe.remove(m.idVideogioco());
+                        if (rimossa == null) {
+                            risultato.add(null);
+                            continue;
+                        }
+                        riga = new DettaglioDto(m.idVideogioco(), 0, rimossa.prezzoUnitario());
+                    }
+                    stato.daSalvare.put(m.idVideogioco(), riga);
+                    risultato.add(riga);
+                }
+                if (stato.primaModificaNonSalvata == 0 && !stato.daSalvare.isEmpty()) {
+                    stato.primaModificaNonSalvata = adesso;
+                }
+                stato.ultimoAccesso = adesso;
+                return risultato;
+            }
+        }
+    }
+
+    /**
+     * Scrive subito sul DB le modifiche in sospeso del carrello dell'utente e lo toglie dalla memoria,
+     * così chi legge dal DB subito dopo (ad esempio acquista) vede il carrello aggiornato.
+     */
+    public void salvaUtente(int idUtente) {
+        StatoCarrello stato = carrelli.get(idUtente);
+        if (stato != null && !salva(List.of(stato))) {
+            throw new IllegalStateException("Impossibile salvare il carrello dell'utente " + idUtente);
+        }
+        dimentica(idUtente);
+    }
+
+    // Toglie il carrello dell'utente dalla memoria se non ha modifiche in sospeso (verrà riletto dal DB)
+    public void dimentica(int idUtente) {
+        carrelli.computeIfPresent(idUtente, (id, stato) -> {
+            synchronized (stato) {
+                if (!stato.daSalvare.isEmpty() || stato.salvataggiInCorso > 0) {
+                    return stato;
+                }
+                stato.scartato = true;
+                return null;
+            }
+        });
+    }
+
+    // Id dei carrelli con modifiche non ancora scritte sul DB (o in scrittura in questo momento)
+    public Set<Integer> carrelliNonSalvati() {
+        Set<Integer> idCarrelli = new HashSet<>();
+        for (StatoCarrello stato : carrelli.values()) {
+            synchronized (stato) {
+                if (!stato.daSalvare.isEmpty() || stato.salvataggiInCorso > 0) {
+                    idCarrelli.add(stato.idCarrello);
+                }
+            }
+        }
+        return idCarrelli;
+    }
+
+    // Toglie dalla memoria i carrelli indicati le cui righe sono cambiate sul DB (ad esempio per la pulizia), se non hanno modifiche in sospeso
+    public void dimenticaCarrelli(Collection<Integer> idCarrelli) {
+        if (idCarrelli.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Integer, StatoCarrello> e : carrelli.entrySet()) {
+            if (idCarrelli.contains(e.getValue().idCarrello)) {
+                dimentica(e.getKey());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${gamestore.carrello.write-behind.intervallo-ms:500}")
+    public void salvaPeriodicamente() {
+        if (!attivo) {
+            return;
+        }
+        salva(carrelli.values());
+        scartaInattivi();
+    }
+
+    @PreDestroy
+    public void salvaTutto() {
+        if (attivo) {
+            salva(carrelli.values());
+        }
+    }
+
+    // false se c'erano righe da scrivere e la scrittura di almeno un carrello è fallita
+    private boolean salva(Collection<StatoCarrello> daControllare) {
+        scrittura.lock();
+        try {
+            List<Prelievo> prelievi = new ArrayList<>();
+            for (StatoCarrello stato : daControllare) {
+                synchronized (stato) {
+                    if (stato.daSalvare.isEmpty()) {
+                        continue;
+                    }
+                    prelievi.add(new Prelievo(stato, new HashMap<>(stato.daSalvare), stato.primaModificaNonSalvata));
+                    stato.daSalvare.clear();
+                    stato.primaModificaNonSalvata = 0;
+                    stato.salvataggiInCorso++;
+                }
+            }
+
+            if (prelievi.size() > 1 && scrivi(prelievi)) {
+                for (Prelievo p : prelievi) {
+                    concludi(p, true);
+                }
+                return true;
+            }
+            //Un carrello alla volta: solo quelli con righe rifiutate restano indietro
+            boolean tuttiSalvati = true;
+            for (Prelievo p : prelievi) {
+                boolean riuscito = scrivi(List.of(p));
+                concludi(p, riuscito);
+                tuttiSalvati &= riuscito;
+            }
+            return tuttiSalvati;
+        } finally {
+            scrittura.unlock();
+        }
+    }
+
+    // Righe dei prelievi scritte in una sola transazione, dopo aver bloccato i loro carrelli
+    private boolean scrivi(List<Prelievo> prelievi) {
+        List<RigaCarrello> righe = new ArrayList<>();
+        Set<Integer> idCarrelli = new HashSet<>();
+        for (Prelievo p : prelievi) {
+            idCarrelli.add(p.stato().idCarrello);
+            for (DettaglioDto r : p.righe().values()) {
+                righe.add(new RigaCarrello(p.stato().idCarrello, r.idVideogioco(), r.quantita(), r.prezzoUnitario()));
+            }
+        }
+        try {
+            transazioneSalvataggio.executeWithoutResult(s -> {
+                dettaglioCarrelloRepository.bloccaCarrelli(idCarrelli);
+                dettaglioCarrelloRepository.scriviRigheInBlocco(righe);
+            });
+            salvataggi.incrementAndGet();
+            righeSalvate.addAndGet(righe.size());
+            return true;
+        } catch (RuntimeException e) {
+            salvataggiFalliti.incrementAndGet();
+            if (prelievi.size() > 1) {
+                log.warn("Salvataggio di {} carrelli fallito, si riprova un carrello alla volta: {}", prelievi.size(), e.getMessage());
+            } else {
+                log.warn("Salvataggio del carrello {} fallito ({} righe): {}", prelievi.get(0).stato().idCarrello, righe.size(), e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    // Dopo un salvataggio fallito le righe tornano tra le modifiche, dopo tentativiMassimi fallimenti il carrello viene scartato
+    private void concludi(Prelievo p, boolean riuscito) {
+        StatoCarrello stato = p.stato();
+        int perse;
+        synchronized (stato) {
+            stato.salvataggiInCorso--;
+            if (riuscito) {
+                stato.fallimenti = 0;
+                return;
+            }
+            if (++stato.fallimenti < tentativiMassimi) {
+                //una modifica arrivata nel frattempo è più recente di quella non salvata
+                p.righe().forEach(stato.daSalvare::putIfAbsent);
+                if (stato.primaModificaNonSalvata == 0 || p.primaModifica() < stato.primaModificaNonSalvata) {
+                    stato.primaModificaNonSalvata = p.primaModifica();
+                }
+                return;
+            }
+            //Le righe in memoria non corrispondono più a niente di salvabile: si torna a quelle del DB
+            perse = p.righe().size() + stato.daSalvare.size();
+            stato.daSalvare.clear();
+            stato.primaModificaNonSalvata = 0;
+            stato.scartato = true;
+        }
+        carrelli.remove(stato.idUtente, stato);
+        carrelliScartati.incrementAndGet();
+        log.error("Carrello {} dell'utente {} scartato dopo {} salvataggi falliti di fila, {} modifiche perse",
+                stato.idCarrello, stato.idUtente, tentativiMassimi, perse);
+    }
+
+    private void scartaInattivi() {
+        long limite = System.currentTimeMillis() - inattivitaSecondi * 1000;
+        for (Map.Entry<Integer, StatoCarrello> e : carrelli.entrySet()) {
+            StatoCarrello stato = e.getValue();
+            synchronized (stato) {
+                if (stato.ultimoAccesso >= limite) {
+                    continue;
+                }
+            }
+            dimentica(e.getKey());
+        }
+    }
+
+    /*
+    Il carrello viene letto dal DB fuori dalla mappa e poi inserito con putIfAbsent: se nel frattempo un'altra richiesta
+    dello stesso utente lo ha già caricato vince il suo (che potrebbe avere già modifiche).
+     */
+    private StatoCarrello stato(int idUtente) throws CarrelloNonValidoException {
+        StatoCarrello stato = carrelli.get(idUtente);
+        if (stato != null) {
+            return stato;
+        }
+        Optional<Integer> idCarrello = dettaglioCarrelloRepository.idCarrelloAttivo(idUtente);
+        if (idCarrello.isEmpty()) {
+            throw new CarrelloNonValidoException();
+        }
+        StatoCarrello nuovo = new StatoCarrello(idUtente, idCarrello.get());
+        for (DettaglioDto r : dettaglioCarrelloRepository.righeCarrello(idCarrello.get())) {
+            nuovo.righe.put(r.idVideogioco(), r);
+        }
+        StatoCarrello presente = carrelli.putIfAbsent(idUtente, nuovo);
+        return presente != null ? presente : nuovo;
+    }
+
+    public StatisticheCarrelliDto statistiche() {
+        int daSalvare = 0;
+        long primaModifica = Long.MAX_VALUE;
+        for (StatoCarrello stato : carrelli.values()) {
+            synchronized (stato) {
+                if (!stato.daSalvare.isEmpty()) {
+                    daSalvare++;
+                    primaModifica = Math.min(primaModifica, stato.primaModificaNonSalvata);
+                }
+            }
+        }
+        long ritardo = daSalvare == 0 ? 0 : System.currentTimeMillis() - primaModifica;
+        return new StatisticheCarrelliDto(attivo, carrelli.size(), daSalvare, ritardo, salvataggi.get(), righeSalvate.get(), salvataggiFalliti.get(), carrelliScartati.get());
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.example.gamestore.support.carrello;
+
+import com.example.gamestore.dto.EsitoPuliziaCarrelliDto;
+import com.example.gamestore.repositories.DettaglioCarrelloRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/*
+Pulizia periodica delle righe dei carrelli abbandonati, che altrimenti resterebbero in dettaglio_carrello per sempre
+(nessuno le acquista né le toglie) appesantendo tabella e indici usati da tutte le query sui carrelli.
+
+Vengono eliminate:
+ - le righe di videogiochi nascosti, che non potranno più essere acquistate
+ - le righe di videogiochi esauriti non toccate da ore-esaurito ore (un'esaurimento breve non svuota i carrelli)
+ - le righe non toccate da giorni-inattivita giorni
+
+Per non disturbare il traffico normale si lavora a blocchi di dimensione-blocco righe, ognuno in una transazione breve
+con lock_timeout, saltando i carrelli e le righe bloccati (SKIP LOCKED) e con una pausa tra un blocco e l'altro; dopo blocchi-massimi
+blocchi il giro si ferma e riprende al successivo. Se un blocco non riesce a prendere un lock in tempo il giro si interrompe.
+
+Con i carrelli in memoria (CarrelliInMemoria) i carrelli con modifiche non ancora salvate vengono saltati, perché sul DB
+ultima_modifica è indietro; quelli puliti che erano in memoria ne escono e verranno riletti dal DB.
+ */
+@Component
+public class PuliziaCarrelli {
+
+    private static final Logger log = LoggerFactory.getLogger(PuliziaCarrelli.class);
+
+    @Autowired
+    private DettaglioCarrelloRepository dettaglioCarrelloRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CarrelliInMemoria carrelliInMemoria;
+
+    @Value("${gamestore.carrello.pulizia.attiva:true}")
+    private boolean attiva;
+
+    @Value("${gamestore.carrello.pulizia.giorni-inattivita:30}")
+    private int giorniInattivita;
+
+    @Value("${gamestore.carrello.pulizia.ore-esaurito:72}")
+    private int oreEsaurito;
+
+    @Value("${gamestore.carrello.pulizia.dimensione-blocco:500}")
+    private int dimensioneBlocco;
+
+    @Value("${gamestore.carrello.pulizia.blocchi-massimi:200}")
+    private int blocchiMassimi;
+
+    @Value("${gamestore.carrello.pulizia.pausa-ms:200}")
+    private long pausaMs;
+
+    @Value("${gamestore.carrello.pulizia.lock-timeout-ms:2000}")
+    private int lockTimeoutMs;
+
+    private volatile EsitoPuliziaCarrelliDto ultima;
+
+    @Scheduled(fixedDelayString = "${gamestore.carrello.pulizia.intervallo-ms:3600000}",
+            initialDelayString = "${gamestore.carrello.pulizia.ritardo-iniziale-ms:60000}")
+    public void pulisci() {
+        if (!attiva) {
+            return;
+        }
+
+        long inizio = System.currentTimeMillis();
+        Date limiteInattivita = new Date(inizio - giorniInattivita * 24L * 3600 * 1000);
+        Date limiteEsauriti = new Date(inizio - oreEsaurito * 3600L * 1000);
+
+        int[] blocchi = {0};
+        int nonAcquistabili = 0;
+        int inattive = 0;
+        boolean interrotta = false;
+        try {
+            nonAcquistabili = eliminaABlocchi(blocchi, esclusi -> dettaglioCarrelloRepository.eliminaRigheNonAcquistabili(limiteEsauriti, dimensioneBlocco, esclusi));
+            inattive = eliminaABlocchi(blocchi, esclusi -> dettaglioCarrelloRepository.eliminaRigheInattive(limiteInattivita, dimensioneBlocco, esclusi));
+            interrotta = blocchi[0] >= blocchiMassimi;
+        } catch (DataAccessException e) {
+            interrotta = true;
+            log.warn("Pulizia carrelli interrotta: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            interrotta = true;
+            Thread.currentThread().interrupt();
+        }
+
+        long durata = System.currentTimeMillis() - inizio;
+        ultima = new EsitoPuliziaCarrelliDto(new Date(inizio), durata, nonAcquistabili, inattive, blocchi[0], interrotta);
+        log.info("Pulizia carrelli: eliminate {} righe ({} non acquistabili, {} inattive) in {} blocchi, {} ms{}",
+                nonAcquistabili + inattive, nonAcquistabili, inattive, blocchi[0], durata, interrotta ? ", interrotta" : "");
+    }
+
+    /*
+    Ripete il blocco finché elimina righe piene (ce ne sono ancora) e non si superano i blocchi del giro.
+    Il blocco riceve i carrelli da saltare e restituisce il carrello di ogni riga eliminata: dopo il commit quei carrelli
+    escono dalla memoria, altrimenti continuerebbero a mostrare le righe eliminate.
+     */
+    private int eliminaABlocchi(int[] blocchi, Function<Set<Integer>, List<Integer>> blocco) throws InterruptedException {
+        int totale = 0;
+        while (blocchi[0] < blocchiMassimi) {
+            Set<Integer> esclusi = carrelliInMemoria.carrelliNonSalvati();
+            List<Integer> carrelliPuliti = transactionTemplate.execute(s -> {
+                jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+                return blocco.apply(esclusi);
+            });
+            carrelliInMemoria.dimenticaCarrelli(new HashSet<>(carrelliPuliti));
+            blocchi[0]++;
+            totale += carrelliPuliti.size();
+            if (carrelliPuliti.size() < dimensioneBlocco) {
+                break;
+            }
+            Thread.sleep(pausaMs);
+        }
+        return totale;
+    }
+
+    public EsitoPuliziaCarrelliDto ultima() {
+        return ultima;
+    }
+
+}
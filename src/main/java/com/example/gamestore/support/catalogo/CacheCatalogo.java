@@ -0,0 +1,141 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.dto.StatisticheCacheDto;
+import com.example.gamestore.dto.VideogiocoSintesiDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+Cache in memoria delle pagine del catalogo pubblico (/videogiochi/elencoDisponibili e /videogiochi/perPiattaforma).
+È limitata sia per numero di pagine (LRU) sia per tempo (TTL) e viene invalidata dopo il commit di ogni modifica
+a un videogioco (vedi VideogiocoModificatoEvent), togliendo solo le pagine che la modifica può aver cambiato.
+ */
+@Component
+public class CacheCatalogo {
+
+    /**
+     * Una pagina del catalogo è identificata dai parametri della richiesta.
+     * piattaforma = null indica l'elenco completo dei disponibili (quantita > 0).
+     */
+    public record Chiave(String piattaforma, int numPagina, int dimPagina, String ordinamento) {
+        public Chiave {
+            //la ricerca per piattaforma è case insensitive, quindi "PS5" e "ps5" sono la stessa pagina
+            piattaforma = piattaforma == null ? null : piattaforma.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private record Voce(Slice<VideogiocoSintesiDto> pagina, long scadenza) {
+    }
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Chiave, Voce> voci;
+
+    // Incrementata ad ogni invalidazione: una pagina letta dal DB prima di un'invalidazione non va messa in cache
+    private long generazione = 0;
+
+    private final AtomicLong hit = new AtomicLong();
+    private final AtomicLong miss = new AtomicLong();
+    private final AtomicLong eviction = new AtomicLong();
+
+    public CacheCatalogo(@Value("${gamestore.cache.catalogo.dimensione-massima:500}") int dimensioneMassima,
+                         @Value("${gamestore.cache.catalogo.ttl-secondi:60}") long ttlSecondi) {
+        this.ttlMillis = ttlSecondi * 1000;
+        // accessOrder = true -> l'ordine di iterazione è quello dell'ultimo accesso, quindi la prima voce è la meno usata
+        this.voci = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Chiave, Voce> eldest) {
+                if (size() > dimensioneMassima) {
+                    eviction.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Restituisce la pagina in cache, oppure la carica con caricamento e la memorizza.
+     * Il caricamento avviene fuori dal lock, così due pagine diverse possono essere lette dal DB in parallelo.
+     */
+    public Slice<VideogiocoSintesiDto> trova(Chiave chiave, Supplier<Slice<VideogiocoSintesiDto>> caricamento) {
+        long generazioneLettura;
+        synchronized (this) {
+            Voce voce = voci.get(chiave);
+            if (voce != null) {
+                if (voce.scadenza() > System.currentTimeMillis()) {
+                    hit.incrementAndGet();
+                    return voce.pagina();
+                }
+                voci.remove(chiave);
+                eviction.incrementAndGet();
+            }
+            generazioneLettura = generazione;
+        }
+
+        miss.incrementAndGet();
+        Slice<VideogiocoSintesiDto> pagina = caricamento.get();
+
+        synchronized (this) {
+            if (generazioneLettura == generazione) {
+                voci.put(chiave, new Voce(pagina, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+        return pagina;
+    }
+
+    @Order(0) // prima di ContatoreModificheCatalogo
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public synchronized void onVideogiocoModificato(VideogiocoModificatoEvent evento) {
+        generazione++;
+        voci.entrySet().removeIf(e -> daInvalidare(e.getKey(), e.getValue(), evento));
+    }
+
+    private boolean daInvalidare(Chiave chiave, Voce voce, VideogiocoModificatoEvent evento) {
+
+        //Una pagina filtrata per un'altra piattaforma non può contenere il videogioco modificato
+        if (chiave.piattaforma() != null && (evento.piattaforma() == null ||
+                !evento.piattaforma().toLowerCase(Locale.ROOT).contains(chiave.piattaforma()))) {
+            return false;
+        }
+
+        //Inserimento, rimozione o riattivazione: il videogioco entra o esce dall'elenco, tutte le pagine possono scorrere
+        if (evento.tipo() == VideogiocoModificatoEvent.TipoModifica.CATALOGO) {
+            return true;
+        }
+
+        //Variazione delle sole scorte:
+        // - l'elenco dei disponibili (piattaforma null) cambia composizione se la quantità passa da/a zero
+        // - le pagine ordinate per quantità possono cambiare ordine
+        // - le pagine che mostrano il videogioco mostrano una quantità ormai vecchia
+        boolean cambiaDisponibilita = (evento.quantita() > 0) != (evento.quantitaPrecedente() > 0);
+        if (chiave.piattaforma() == null && cambiaDisponibilita) {
+            return true;
+        }
+        if ("quantita".equals(chiave.ordinamento())) {
+            return true;
+        }
+        return voce.pagina().getContent().stream().anyMatch(v -> v.id() == evento.idVideogioco());
+    }
+
+    // Per le modifiche fatte senza passare dagli eventi (importazione massiva): si ricomincia da zero
+    public synchronized void svuota() {
+        generazione++;
+        voci.clear();
+    }
+
+    public synchronized StatisticheCacheDto statistiche() {
+        return new StatisticheCacheDto(hit.get(), miss.get(), eviction.get(), voci.size());
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.example.gamestore.support.catalogo;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Numero che cambia ad ogni modifica del catalogo, usato come ETag degli elenchi: se non è cambiato dall'ultima
+richiesta del client nessuna pagina può essere diversa e si risponde 304 senza fare query.
+Parte dall'istante di avvio, così dopo un riavvio (in cui le modifiche potrebbero non essere state contate)
+gli ETag vecchi non valgono più.
+ */
+@Component
+public class ContatoreModificheCatalogo {
+
+    private final AtomicLong versione = new AtomicLong(System.currentTimeMillis());
+
+    public long versione() {
+        return versione.get();
+    }
+
+    // Per le modifiche che non passano dagli eventi (importazione massiva)
+    public void incrementa() {
+        versione.incrementAndGet();
+    }
+
+    // Per ultimo: la nuova versione deve essere visibile solo quando cache e indici in memoria sono già aggiornati
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onVideogiocoModificato(VideogiocoModificatoEvent evento) {
+        versione.incrementAndGet();
+    }
+
+}
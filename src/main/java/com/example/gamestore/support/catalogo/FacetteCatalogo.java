@@ -0,0 +1,333 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.dto.FacetteDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/*
+Conteggi delle faccette del catalogo (piattaforma, fascia di prezzo, anno di rilascio) sui videogiochi visibili
+e con almeno una copia in magazzino, tenuti aggiornati in memoria ad ogni modifica (anche solo di scorte).
+In nessun caso si esegue una GROUP BY sulla tabella.
+
+Ogni videogioco disponibile occupa uno slot, e per ogni piattaforma, fascia di prezzo e anno c'è un BitSet con gli
+slot che ne fanno parte: un filtro su piattaforma o anno è l'OR dei BitSet che lo soddisfano e un conteggio è la
+cardinalità di un AND, 64 videogiochi per operazione. Solo nome, quantità e i prezzi delle fasce tagliate a metà dal
+filtro si controllano videogioco per videogioco, e soltanto su quelli che possono ancora entrare in una faccetta.
+
+Sotto il lock in lettura si copiano solo BitSet e array (memcpy): i filtri e i conteggi si calcolano sulla copia
+dopo aver rilasciato il lock, così una richiesta con filtri non blocca le scritture (che arrivano ad ogni acquisto).
+ */
+@Component
+public class FacetteCatalogo implements IndiceCatalogo {
+
+    // Limiti superiori (esclusi) delle fasce di prezzo, l'ultima fascia è aperta
+    private static final double[] LIMITI_FASCE = {20, 40, 60, 80};
+    private static final String[] NOMI_FASCE = {"0-20", "20-40", "40-60", "60-80", "80+"};
+
+    /**
+     * Filtri combinabili con le faccette, con lo stesso significato di quelli di /ricercaAvanzata
+     * (nome e piattaforma sono modelli LIKE). Un filtro null non viene applicato.
+     */
+    public record Filtri(Double prezzoMin, Double prezzoMax, String nome, String piattaforma, Integer quantita, Integer annoRilascio) {
+
+        boolean perPrezzo() {
+            return prezzoMin != null || prezzoMax != null;
+        }
+
+        boolean perQuantita() {
+            return quantita != null && quantita > 0;
+        }
+    }
+
+    // Copia di lavoro per una richiesta: gli array sono copiati solo se un filtro li usa
+    private record Istantanea(BitSet disponibili, Map<String, BitSet> perPiattaforma, BitSet[] perFascia,
+                              Map<Integer, BitSet> perAnno, String[] nomi, double[] prezzi, int[] quantita) {
+    }
+
+    // id videogioco -> slot; gli slot liberati vengono riusati, così i BitSet non crescono all'infinito
+    private final Map<Integer, Integer> slotPerId = new HashMap<>();
+    private final ArrayDeque<Integer> slotLiberi = new ArrayDeque<>();
+    private int slotUsati = 0;
+
+    private String[] nomi = new String[64];
+    private double[] prezzi = new double[64];
+    private int[] quantita = new int[64];
+    private String[] piattaforme = new String[64];
+    private int[] anni = new int[64];
+
+    private final BitSet disponibili = new BitSet();
+    private final Map<String, BitSet> perPiattaforma = new HashMap<>();
+    private final BitSet[] perFascia = new BitSet[NOMI_FASCE.length];
+    private final Map<Integer, BitSet> perAnno = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public FacetteCatalogo() {
+        for (int i = 0; i < perFascia.length; i++) {
+            perFascia[i] = new BitSet();
+        }
+    }
+
+    @Override
+    public void ricostruisci(List<VoceCatalogo> visibili) {
+        lock.writeLock().lock();
+        try {
+            slotPerId.clear();
+            slotLiberi.clear();
+            slotUsati = 0;
+            disponibili.clear();
+            perPiattaforma.clear();
+            perAnno.clear();
+            for (BitSet fascia : perFascia) {
+                fascia.clear();
+            }
+            for (VoceCatalogo v : visibili) {
+                if (v.quantita() > 0) {
+                    aggiungi(v.id(), v.nome(), v.piattaforma(), prezzo(v.prezzo()), v.quantita(), v.annoRilascio());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Qui servono anche le variazioni di scorte: un videogioco che va a zero esce dai conteggi
+    @Override
+    public void aggiorna(VideogiocoModificatoEvent evento) {
+        lock.writeLock().lock();
+        try {
+            rimuovi(evento.idVideogioco());
+            if (evento.disponibile()) {
+                aggiungi(evento.idVideogioco(), evento.nome(), evento.piattaforma(), prezzo(evento.prezzo()),
+                        evento.quantita(), evento.annoRilascio());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public FacetteDto conteggi(Filtri filtri) {
+        Istantanea istantanea;
+        lock.readLock().lock();
+        try {
+            istantanea = copia(filtri);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return conta(istantanea, filtri);
+    }
+
+    private Istantanea copia(Filtri filtri) {
+        Map<String, BitSet> piattaformeCopia = new HashMap<>();
+        perPiattaforma.forEach((p, slot) -> piattaformeCopia.put(p, (BitSet) slot.clone()));
+        Map<Integer, BitSet> anniCopia = new HashMap<>();
+        perAnno.forEach((a, slot) -> anniCopia.put(a, (BitSet) slot.clone()));
+        BitSet[] fasceCopia = new BitSet[perFascia.length];
+        for (int i = 0; i < perFascia.length; i++) {
+            fasceCopia[i] = (BitSet) perFascia[i].clone();
+        }
+        return new Istantanea((BitSet) disponibili.clone(), piattaformeCopia, fasceCopia, anniCopia,
+                filtri.nome() != null ? Arrays.copyOf(nomi, slotUsati) : null,
+                filtri.perPrezzo() ? Arrays.copyOf(prezzi, slotUsati) : null,
+                filtri.perQuantita() ? Arrays.copyOf(quantita, slotUsati) : null);
+    }
+
+    private static FacetteDto conta(Istantanea s, Filtri filtri) {
+        BitSet tutti = s.disponibili();
+
+        BitSet okPiattaforma = tutti;
+        if (filtri.piattaforma() != null) {
+            Pattern modello = daLike(filtri.piattaforma());
+            okPiattaforma = new BitSet();
+            for (Map.Entry<String, BitSet> e : s.perPiattaforma().entrySet()) {
+                if (modello.matcher(e.getKey()).matches()) {
+                    okPiattaforma.or(e.getValue());
+                }
+            }
+        }
+        BitSet okAnno = tutti;
+        if (filtri.annoRilascio() != null) {
+            okAnno = s.perAnno().getOrDefault(filtri.annoRilascio(), new BitSet());
+        }
+        BitSet okPrezzo = filtri.perPrezzo() ? perPrezzo(s, filtri.prezzoMin(), filtri.prezzoMax()) : tutti;
+
+        // Nome e quantità valgono per tutte le faccette: si controllano solo dove almeno due degli altri filtri passano
+        BitSet okAltri = tutti;
+        if (filtri.nome() != null || filtri.perQuantita()) {
+            Pattern nome = filtri.nome() == null ? null : daLike(filtri.nome());
+            BitSet candidati = e(okPrezzo, okPiattaforma);
+            candidati.or(e(okPrezzo, okAnno));
+            candidati.or(e(okPiattaforma, okAnno));
+            okAltri = new BitSet();
+            for (int i = candidati.nextSetBit(0); i >= 0; i = candidati.nextSetBit(i + 1)) {
+                boolean ok = (nome == null || (s.nomi()[i] != null && nome.matcher(s.nomi()[i]).matches()))
+                        && (!filtri.perQuantita() || s.quantita()[i] >= filtri.quantita());
+                if (ok) {
+                    okAltri.set(i);
+                }
+            }
+        }
+
+        // Ogni faccetta ignora il proprio filtro
+        BitSet base = e(okPrezzo, okAnno, okAltri);
+        Map<String, Integer> piattaforme = new TreeMap<>();
+        for (Map.Entry<String, BitSet> e : s.perPiattaforma().entrySet()) {
+            int n = contaComuni(e.getValue(), base);
+            if (n > 0) {
+                piattaforme.put(e.getKey(), n);
+            }
+        }
+
+        base = e(okPiattaforma, okAnno, okAltri);
+        Map<String, Integer> fasce = new LinkedHashMap<>();
+        for (int i = 0; i < NOMI_FASCE.length; i++) {
+            fasce.put(NOMI_FASCE[i], contaComuni(s.perFascia()[i], base));
+        }
+
+        base = e(okPrezzo, okPiattaforma, okAltri);
+        Map<Integer, Integer> anni = new TreeMap<>();
+        for (Map.Entry<Integer, BitSet> e : s.perAnno().entrySet()) {
+            int n = contaComuni(e.getValue(), base);
+            if (n > 0) {
+                anni.put(e.getKey(), n);
+            }
+        }
+
+        return new FacetteDto(e(okPrezzo, okPiattaforma, okAnno, okAltri).cardinality(), piattaforme, fasce, anni);
+    }
+
+    // Le fasce interamente dentro l'intervallo entrano in blocco, solo quelle tagliate dal filtro si guardano prezzo per prezzo
+    private static BitSet perPrezzo(Istantanea s, Double minimo, Double massimo) {
+        BitSet ok = new BitSet();
+        for (int i = 0; i < NOMI_FASCE.length; i++) {
+            double da = i == 0 ? Double.NEGATIVE_INFINITY : LIMITI_FASCE[i - 1];
+            double a = i == LIMITI_FASCE.length ? Double.POSITIVE_INFINITY : LIMITI_FASCE[i];
+            if ((minimo == null || minimo <= da) && (massimo == null || massimo >= a)) {
+                ok.or(s.perFascia()[i]);
+            } else if ((minimo == null || minimo < a) && (massimo == null || massimo >= da)) {
+                BitSet fascia = s.perFascia()[i];
+                for (int j = fascia.nextSetBit(0); j >= 0; j = fascia.nextSetBit(j + 1)) {
+                    double prezzo = s.prezzi()[j];
+                    if ((minimo == null || prezzo >= minimo) && (massimo == null || prezzo <= massimo)) {
+                        ok.set(j);
+                    }
+                }
+            }
+        }
+        return ok;
+    }
+
+    private static BitSet e(BitSet primo, BitSet... altri) {
+        BitSet risultato = (BitSet) primo.clone();
+        for (BitSet altro : altri) {
+            risultato.and(altro);
+        }
+        return risultato;
+    }
+
+    private static int contaComuni(BitSet a, BitSet b) {
+        BitSet comuni = (BitSet) a.clone();
+        comuni.and(b);
+        return comuni.cardinality();
+    }
+
+    private void aggiungi(int id, String nome, String piattaforma, double prezzo, int quantitaDisponibile, int annoRilascio) {
+        int slot = slotLiberi.isEmpty() ? nuovoSlot() : slotLiberi.pop();
+        slotPerId.put(id, slot);
+        nomi[slot] = nome;
+        prezzi[slot] = prezzo;
+        quantita[slot] = quantitaDisponibile;
+        piattaforme[slot] = piattaforma;
+        anni[slot] = annoRilascio;
+
+        disponibili.set(slot);
+        if (piattaforma != null) {
+            perPiattaforma.computeIfAbsent(piattaforma, p -> new BitSet()).set(slot);
+        }
+        perFascia[fascia(prezzo)].set(slot);
+        perAnno.computeIfAbsent(annoRilascio, a -> new BitSet()).set(slot);
+    }
+
+    private void rimuovi(int id) {
+        Integer slot = slotPerId.remove(id);
+        if (slot == null) {
+            return;
+        }
+        disponibili.clear(slot);
+        if (piattaforme[slot] != null) {
+            togli(perPiattaforma, piattaforme[slot], slot);
+        }
+        perFascia[fascia(prezzi[slot])].clear(slot);
+        togli(perAnno, anni[slot], slot);
+        nomi[slot] = null;
+        piattaforme[slot] = null;
+        slotLiberi.push(slot);
+    }
+
+    private int nuovoSlot() {
+        if (slotUsati == nomi.length) {
+            int capacita = nomi.length * 2;
+            nomi = Arrays.copyOf(nomi, capacita);
+            prezzi = Arrays.copyOf(prezzi, capacita);
+            quantita = Arrays.copyOf(quantita, capacita);
+            piattaforme = Arrays.copyOf(piattaforme, capacita);
+            anni = Arrays.copyOf(anni, capacita);
+        }
+        return slotUsati++;
+    }
+
+    // Un valore senza più videogiochi esce dalla mappa, così non compare nelle faccette con conteggio zero
+    private static <K> void togli(Map<K, BitSet> perValore, K valore, int slot) {
+        BitSet slotValore = perValore.get(valore);
+        if (slotValore != null) {
+            slotValore.clear(slot);
+            if (slotValore.isEmpty()) {
+                perValore.remove(valore);
+            }
+        }
+    }
+
+    private static int fascia(double prezzo) {
+        int i = 0;
+        while (i < LIMITI_FASCE.length && prezzo >= LIMITI_FASCE[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static double prezzo(Double prezzo) {
+        return prezzo == null ? 0 : prezzo;
+    }
+
+    // Traduce un modello LIKE (% e _) in un'espressione regolare, il resto del testo è letterale come in SQL
+    private static Pattern daLike(String modello) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder letterale = new StringBuilder();
+        for (char c : modello.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (!letterale.isEmpty()) {
+                    regex.append(Pattern.quote(letterale.toString()));
+                    letterale.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                letterale.append(c);
+            }
+        }
+        if (!letterale.isEmpty()) {
+            regex.append(Pattern.quote(letterale.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.example.gamestore.support.catalogo;
+
+import java.util.List;
+
+/*
+Struttura in memoria costruita sul catalogo e tenuta allineata alle scritture.
+Le implementazioni sono bean Spring: SincronizzatoreIndiciCatalogo le costruisce tutte all'avvio con un'unica
+lettura dei videogiochi visibili e poi inoltra a ciascuna le modifiche, dopo il commit.
+ */
+public interface IndiceCatalogo {
+
+    /**
+     * Scarta il contenuto attuale e ricostruisce l'indice dai videogiochi visibili (nascosto = 0).
+     */
+    void ricostruisci(List<VoceCatalogo> visibili);
+
+    /**
+     * Applica una singola modifica già confermata sul DB.
+     */
+    void aggiorna(VideogiocoModificatoEvent evento);
+
+}
@@ -0,0 +1,167 @@
+package com.example.gamestore.support.catalogo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+Indice invertito full-text sui videogiochi visibili: per ogni parola (normalizzata con NormalizzatoreTesto)
+tiene i videogiochi che la contengono e con che peso, così una ricerca non deve scorrere la tabella con LIKE.
+
+Il peso di una parola in un videogioco dipende dal campo in cui compare (il nome conta più della descrizione),
+il punteggio di un risultato è la somma, sulle parole cercate, di peso * idf (le parole rare contano di più).
+ */
+@Component
+public class IndiceInvertito implements IndiceCatalogo {
+
+    private static final float PESO_NOME = 3.0f;
+    private static final float PESO_PIATTAFORMA = 2.0f;
+    private static final float PESO_CASA_PRODUTTRICE = 1.5f;
+    private static final float PESO_DESCRIZIONE = 1.0f;
+
+    public record Risultato(List<Integer> idVideogiochi, boolean haSuccessiva) {
+    }
+
+    private record Punteggio(int idVideogioco, double valore) {
+    }
+
+    // parola -> (id videogioco -> peso)
+    private final Map<String, Map<Integer, Float>> postings = new HashMap<>();
+
+    // id videogioco -> parole indicizzate, serve per togliere un videogioco senza scorrere tutto l'indice
+    private final Map<Integer, Map<String, Float>> documenti = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void ricostruisci(List<VoceCatalogo> visibili) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documenti.clear();
+            for (VoceCatalogo v : visibili) {
+                indicizza(v.id(), v.nome(), v.piattaforma(), v.casaProduttrice(), v.descrizione());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void aggiorna(VideogiocoModificatoEvent evento) {
+        //Le scorte non cambiano il testo indicizzato
+        if (evento.tipo() == VideogiocoModificatoEvent.TipoModifica.SCORTE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            rimuovi(evento.idVideogioco());
+            if (evento.visibile()) {
+                indicizza(evento.idVideogioco(), evento.nome(), evento.piattaforma(), evento.casaProduttrice(), evento.descrizione());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce gli id della pagina richiesta, ordinati per punteggio decrescente (a parità, per id).
+     */
+    public Risultato cerca(String testo, int numPagina, int dimPagina) {
+        List<String> parole = NormalizzatoreTesto.tokenizza(testo);
+        if (parole.isEmpty()) {
+            return new Risultato(List.of(), false);
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> punteggi = new HashMap<>();
+            int numeroDocumenti = documenti.size();
+            for (String parola : new HashSet<>(parole)) {
+                Map<Integer, Float> lista = postings.get(parola);
+                if (lista == null) {
+                    continue;
+                }
+                double idf = Math.log(1.0 + (double) numeroDocumenti / lista.size());
+                for (Map.Entry<Integer, Float> e : lista.entrySet()) {
+                    punteggi.merge(e.getKey(), e.getValue() * idf, Double::sum);
+                }
+            }
+
+            //Tengo solo i migliori (numPagina + 1) * dimPagina + 1 risultati, l'ultimo serve solo a sapere se c'è una pagina dopo
+            long daTenere = (long) (numPagina + 1) * dimPagina + 1;
+            PriorityQueue<Punteggio> migliori = new PriorityQueue<>((a, b) -> confronta(b, a));
+            for (Map.Entry<Integer, Double> e : punteggi.entrySet()) {
+                migliori.add(new Punteggio(e.getKey(), e.getValue()));
+                if (migliori.size() > daTenere) {
+                    migliori.poll();
+                }
+            }
+
+            List<Punteggio> ordinati = new ArrayList<>(migliori);
+            ordinati.sort(this::confronta);
+
+            int da = numPagina * dimPagina;
+            if (da >= ordinati.size()) {
+                return new Risultato(List.of(), false);
+            }
+            int a = Math.min(da + dimPagina, ordinati.size());
+            List<Integer> ids = new ArrayList<>(a - da);
+            for (Punteggio p : ordinati.subList(da, a)) {
+                ids.add(p.idVideogioco());
+            }
+            return new Risultato(Collections.unmodifiableList(ids), ordinati.size() > a);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ordine dei risultati: punteggio decrescente, poi id crescente per avere pagine stabili
+    private int confronta(Punteggio a, Punteggio b) {
+        int c = Double.compare(b.valore(), a.valore());
+        return c != 0 ? c : Integer.compare(a.idVideogioco(), b.idVideogioco());
+    }
+
+    private void indicizza(int id, String nome, String piattaforma, String casaProduttrice, String descrizione) {
+        Map<String, Float> pesi = new HashMap<>();
+        aggiungiCampo(pesi, nome, PESO_NOME);
+        aggiungiCampo(pesi, piattaforma, PESO_PIATTAFORMA);
+        aggiungiCampo(pesi, casaProduttrice, PESO_CASA_PRODUTTRICE);
+        aggiungiCampo(pesi, descrizione, PESO_DESCRIZIONE);
+
+        documenti.put(id, pesi);
+        for (Map.Entry<String, Float> e : pesi.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new HashMap<>()).put(id, e.getValue());
+        }
+    }
+
+    private void aggiungiCampo(Map<String, Float> pesi, String testo, float peso) {
+        for (String parola : NormalizzatoreTesto.tokenizza(testo)) {
+            pesi.merge(parola, peso, Float::sum);
+        }
+    }
+
+    private void rimuovi(int id) {
+        Map<String, Float> pesi = documenti.remove(id);
+        if (pesi == null) {
+            return;
+        }
+        for (String parola : pesi.keySet()) {
+            Map<Integer, Float> lista = postings.get(parola);
+            if (lista != null) {
+                lista.remove(id);
+                if (lista.isEmpty()) {
+                    postings.remove(parola);
+                }
+            }
+        }
+    }
+
+}
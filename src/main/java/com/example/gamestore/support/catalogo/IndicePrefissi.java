@@ -0,0 +1,91 @@
+package com.example.gamestore.support.catalogo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+Nomi dei videogiochi visibili in ordine alfabetico (normalizzati con NormalizzatoreTesto), per l'autocompletamento.
+I titoli che iniziano con un prefisso sono tutti consecutivi nella mappa ordinata: basta posizionarsi sul prefisso
+e leggere finché le chiavi continuano a iniziare con esso, senza mai andare sul DB.
+Le letture non prendono lock (ConcurrentSkipListMap), le scritture sono serializzate tra loro. La ricostruzione
+prepara una mappa nuova e la pubblica con una scrittura volatile: chi sta leggendo continua sulla vecchia invece di
+vederla svuotarsi a metà.
+ */
+@Component
+public class IndicePrefissi implements IndiceCatalogo {
+
+    // Stesso nome su più piattaforme = un solo suggerimento, finché resta visibile almeno una delle varianti
+    private record Voce(String nome, int varianti) {
+    }
+
+    private volatile ConcurrentSkipListMap<String, Voce> titoli = new ConcurrentSkipListMap<>();
+
+    // id videogioco -> chiave normalizzata, per sapere cosa togliere quando un videogioco viene nascosto.
+    // Usata solo dalle scritture, sotto il monitor
+    private Map<Integer, String> chiavePerId = new HashMap<>();
+
+    @Override
+    public synchronized void ricostruisci(List<VoceCatalogo> visibili) {
+        ConcurrentSkipListMap<String, Voce> nuoviTitoli = new ConcurrentSkipListMap<>();
+        Map<Integer, String> nuoveChiavi = new HashMap<>();
+        for (VoceCatalogo v : visibili) {
+            aggiungi(nuoviTitoli, nuoveChiavi, v.id(), v.nome());
+        }
+        chiavePerId = nuoveChiavi;
+        titoli = nuoviTitoli;
+    }
+
+    @Override
+    public synchronized void aggiorna(VideogiocoModificatoEvent evento) {
+        if (evento.tipo() == VideogiocoModificatoEvent.TipoModifica.SCORTE) {
+            return;
+        }
+        rimuovi(evento.idVideogioco());
+        if (evento.visibile()) {
+            aggiungi(titoli, chiavePerId, evento.idVideogioco(), evento.nome());
+        }
+    }
+
+    /**
+     * Al massimo limite nomi che iniziano con prefisso, in ordine alfabetico.
+     */
+    public List<String> suggerisci(String prefisso, int limite) {
+        String chiave = NormalizzatoreTesto.normalizza(prefisso);
+        List<String> suggerimenti = new ArrayList<>(limite);
+        if (chiave.isEmpty()) {
+            return suggerimenti;
+        }
+        //una sola lettura del riferimento: se nel frattempo arriva una ricostruzione si finisce sulla mappa di prima
+        ConcurrentSkipListMap<String, Voce> correnti = titoli;
+        for (Map.Entry<String, Voce> e : correnti.tailMap(chiave, true).entrySet()) {
+            if (!e.getKey().startsWith(chiave) || suggerimenti.size() == limite) {
+                break;
+            }
+            suggerimenti.add(e.getValue().nome());
+        }
+        return suggerimenti;
+    }
+
+    private static void aggiungi(ConcurrentSkipListMap<String, Voce> titoli, Map<Integer, String> chiavePerId, int id, String nome) {
+        if (nome == null) {
+            return;
+        }
+        String chiave = NormalizzatoreTesto.normalizza(nome).strip();
+        chiavePerId.put(id, chiave);
+        titoli.merge(chiave, new Voce(nome.intern(), 1), (vecchia, nuova) -> new Voce(vecchia.nome(), vecchia.varianti() + 1));
+    }
+
+    private void rimuovi(int id) {
+        String chiave = chiavePerId.remove(id);
+        if (chiave == null) {
+            return;
+        }
+        titoli.computeIfPresent(chiave, (k, voce) -> voce.varianti() > 1 ? new Voce(voce.nome(), voce.varianti() - 1) : null);
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.example.gamestore.support.catalogo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Prezzi dei videogiochi visibili in due array primitivi paralleli ordinati per (prezzo, id): prezzi in centesimi
+e id. Una ricerca per fascia di prezzo sono due ricerche binarie, poi si leggono dal fondo (prezzo decrescente,
+come l'ordinamento degli elenchi) solo gli id della pagina richiesta.
+
+Gli array non vengono mai modificati: ogni aggiornamento ne crea una copia e la pubblica con una sola
+scrittura volatile (copy-on-write), quindi le letture non prendono lock e vedono sempre uno stato coerente.
+ */
+@Component
+public class IndicePrezzi implements IndiceCatalogo {
+
+    private record Istantanea(int[] centesimi, int[] ids) {
+    }
+
+    public record Risultato(List<Integer> idVideogiochi, boolean haSuccessiva) {
+    }
+
+    // null finché l'indice non è stato costruito all'avvio: chi lo usa deve andare sul DB
+    private volatile Istantanea istantanea;
+
+    @Override
+    public synchronized void ricostruisci(List<VoceCatalogo> visibili) {
+        long[] coppie = new long[visibili.size()];
+        for (int i = 0; i < coppie.length; i++) {
+            VoceCatalogo v = visibili.get(i);
+            // prezzo nei 32 bit alti e id in quelli bassi: ordinare i long ordina per (prezzo, id) senza oggetti
+            coppie[i] = ((long) centesimi(v.prezzo()) << 32) | (v.id() & 0xffffffffL);
+        }
+        Arrays.sort(coppie);
+        int[] centesimi = new int[coppie.length];
+        int[] ids = new int[coppie.length];
+        for (int i = 0; i < coppie.length; i++) {
+            centesimi[i] = (int) (coppie[i] >> 32);
+            ids[i] = (int) coppie[i];
+        }
+        istantanea = new Istantanea(centesimi, ids);
+    }
+
+    // Il prezzo cambia solo con le modifiche del catalogo; le scorte non entrano in questa ricerca
+    @Override
+    public synchronized void aggiorna(VideogiocoModificatoEvent evento) {
+        Istantanea corrente = istantanea;
+        if (corrente == null || evento.tipo() == VideogiocoModificatoEvent.TipoModifica.SCORTE) {
+            return;
+        }
+        int[] centesimi = corrente.centesimi();
+        int[] ids = corrente.ids();
+
+        int daTogliere = -1;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == evento.idVideogioco()) {
+                daTogliere = i;
+                break;
+            }
+        }
+        int n = ids.length - (daTogliere >= 0 ? 1 : 0) + (evento.visibile() ? 1 : 0);
+        int[] nuoviCentesimi = new int[n];
+        int[] nuoviIds = new int[n];
+
+        int prezzo = centesimi(evento.prezzo());
+        int inserimento = evento.visibile() ? posizione(centesimi, ids, prezzo, evento.idVideogioco()) : -1;
+        int j = 0;
+        for (int i = 0; i <= ids.length; i++) {
+            if (i == inserimento) {
+                nuoviCentesimi[j] = prezzo;
+                nuoviIds[j++] = evento.idVideogioco();
+            }
+            if (i < ids.length && i != daTogliere) {
+                nuoviCentesimi[j] = centesimi[i];
+                nuoviIds[j++] = ids[i];
+            }
+        }
+        istantanea = new Istantanea(nuoviCentesimi, nuoviIds);
+    }
+
+    public boolean pronto() {
+        return istantanea != null;
+    }
+
+    /**
+     * Id della pagina richiesta tra i videogiochi con prezzo tra prezzoMin e prezzoMax (null = nessun limite),
+     * in ordine di prezzo decrescente.
+     */
+    public Risultato cerca(Double prezzoMin, Double prezzoMax, int numPagina, int dimPagina) {
+        Istantanea corrente = istantanea;
+        int[] centesimi = corrente.centesimi();
+
+        int minimo = prezzoMin == null ? Integer.MIN_VALUE : limite(Math.ceil(prezzoMin * 100 - 1e-6));
+        int massimo = prezzoMax == null ? Integer.MAX_VALUE : limite(Math.floor(prezzoMax * 100 + 1e-6));
+        if (minimo > massimo) {
+            return new Risultato(List.of(), false);
+        }
+        int da = primoMaggioreOUguale(centesimi, minimo);
+        int a = massimo == Integer.MAX_VALUE ? centesimi.length : primoMaggioreOUguale(centesimi, massimo + 1);
+
+        // Dal prezzo più alto: la pagina k parte k * dimPagina posizioni prima della fine dell'intervallo
+        long inizio = (long) a - (long) numPagina * dimPagina;
+        if (inizio <= da) {
+            return new Risultato(List.of(), false);
+        }
+        int fine = (int) Math.max(da, inizio - dimPagina);
+        List<Integer> pagina = new ArrayList<>((int) inizio - fine);
+        for (int i = (int) inizio - 1; i >= fine; i--) {
+            pagina.add(corrente.ids()[i]);
+        }
+        return new Risultato(pagina, fine > da);
+    }
+
+    // Prima posizione con prezzo >= valore (ricerca binaria)
+    private static int primoMaggioreOUguale(int[] centesimi, int valore) {
+        int basso = 0;
+        int alto = centesimi.length;
+        while (basso < alto) {
+            int medio = (basso + alto) >>> 1;
+            if (centesimi[medio] < valore) {
+                basso = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return basso;
+    }
+
+    // Posizione di inserimento di (prezzo, id) mantenendo l'ordine
+    private static int posizione(int[] centesimi, int[] ids, int prezzo, int id) {
+        int i = primoMaggioreOUguale(centesimi, prezzo);
+        while (i < centesimi.length && centesimi[i] == prezzo && ids[i] < id) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int centesimi(Double prezzo) {
+        return prezzo == null ? 0 : limite(Math.round(prezzo * 100));
+    }
+
+    private static int limite(double valore) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, valore));
+    }
+
+}
@@ -0,0 +1,354 @@
+package com.example.gamestore.support.catalogo;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+BK-tree sui nomi (normalizzati) dei videogiochi visibili, per trovare i titoli "simili" a quello cercato
+anche quando c'è qualche errore di battitura ("zelda breath of the wlid").
+
+Ogni nodo è un nome distinto, i figli sono indicizzati per distanza di Levenshtein dal padre: per la disuguaglianza
+triangolare, cercando entro distanza k da un nodo a distanza d basta scendere nei figli con distanza tra d-k e d+k,
+quindi si visita solo una piccola parte dell'albero. Lo stesso nome su più piattaforme è un solo nodo con più id.
+
+La distanza si calcola con l'algoritmo bit-parallelo di Myers: un nodo interno va confrontato per intero (serve la
+distanza esatta per scegliere i figli) e con la versione a matrice costerebbe lunghezza x lunghezza operazioni,
+abbastanza da annullare il vantaggio di visitare pochi nodi rispetto a scorrere tutti i nomi.
+
+Un BK-tree non permette di togliere nodi: quando un nome non ha più videogiochi visibili il nodo resta senza id
+(e viene saltato nelle ricerche); quando i nodi vuoti diventano troppi l'albero viene ricostruito.
+ */
+@Component
+public class IndiceTitoliApprossimato implements IndiceCatalogo {
+
+    private static final int[] NESSUN_ID = new int[0];
+
+    private static final class Nodo {
+        final String chiave;
+        int[] ids;
+        // figli e relative distanze in array paralleli: molto più leggeri di una mappa per nodo
+        int[] distanzeFigli = new int[0];
+        Nodo[] figli = new Nodo[0];
+        int distanzaMassimaFigli = 0;
+
+        Nodo(String chiave, int[] ids) {
+            this.chiave = chiave;
+            this.ids = ids;
+        }
+    }
+
+    public record Candidato(String nome, int distanza, int[] idVideogiochi) {
+    }
+
+    private Nodo radice;
+    private int numeroNodi = 0;
+    private int nodiVuoti = 0;
+
+    // id videogioco -> chiave del suo nodo, serve a togliere il videogioco quando viene nascosto o rinominato
+    private final Map<Integer, String> chiavePerId = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void ricostruisci(List<VoceCatalogo> visibili) {
+        lock.writeLock().lock();
+        try {
+            svuota();
+            for (VoceCatalogo v : visibili) {
+                aggiungi(v.id(), v.nome());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void aggiorna(VideogiocoModificatoEvent evento) {
+        if (evento.tipo() == VideogiocoModificatoEvent.TipoModifica.SCORTE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            rimuovi(evento.idVideogioco());
+            if (evento.visibile()) {
+                aggiungi(evento.idVideogioco(), evento.nome());
+            }
+            if (nodiVuoti > numeroNodi / 2) {
+                compatta();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce al massimo limite nomi entro la distanza massima dal testo cercato,
+     * ordinati per distanza crescente (a parità, per nome).
+     */
+    public List<Candidato> cerca(String testo, int distanzaMassima, int limite) {
+        String chiave = chiave(testo);
+        List<Candidato> trovati = new ArrayList<>();
+        if (chiave.isEmpty()) {
+            return trovati;
+        }
+
+        lock.readLock().lock();
+        try {
+            visita(new Maschere(chiave), distanzaMassima, trovati);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        trovati.sort(Comparator.comparingInt(Candidato::distanza).thenComparing(Candidato::nome));
+        return trovati.size() > limite ? new ArrayList<>(trovati.subList(0, limite)) : trovati;
+    }
+
+    // Numero di nomi confrontati da una ricerca: quanto dell'albero viene davvero visitato (usato nei test)
+    int confronti(String testo, int distanzaMassima) {
+        String chiave = chiave(testo);
+        lock.readLock().lock();
+        try {
+            return chiave.isEmpty() ? 0 : visita(new Maschere(chiave), distanzaMassima, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Da chiamare con il lock in lettura; restituisce il numero di nodi confrontati
+    private int visita(Maschere maschere, int distanzaMassima, List<Candidato> trovati) {
+        if (radice == null) {
+            return 0;
+        }
+        int confrontati = 0;
+        List<Nodo> daVisitare = new ArrayList<>();
+        daVisitare.add(radice);
+        while (!daVisitare.isEmpty()) {
+            Nodo nodo = daVisitare.remove(daVisitare.size() - 1);
+            confrontati++;
+            // Oltre distanzaMassima + distanzaMassimaFigli nessun figlio può rientrare nell'intervallo, non serve la distanza esatta
+            int d = distanza(maschere, nodo.chiave, distanzaMassima + nodo.distanzaMassimaFigli);
+            if (d <= distanzaMassima && nodo.ids.length > 0) {
+                trovati.add(new Candidato(nodo.chiave, d, nodo.ids.clone()));
+            }
+            for (int i = 0; i < nodo.figli.length; i++) {
+                if (Math.abs(nodo.distanzeFigli[i] - d) <= distanzaMassima) {
+                    daVisitare.add(nodo.figli[i]);
+                }
+            }
+        }
+        return confrontati;
+    }
+
+    private static String chiave(String nome) {
+        return nome == null ? "" : NormalizzatoreTesto.normalizza(nome).strip();
+    }
+
+    private void aggiungi(int id, String nome) {
+        String chiave = chiave(nome);
+        if (chiave.isEmpty()) {
+            return;
+        }
+        chiavePerId.put(id, chiave);
+        Maschere maschere = new Maschere(chiave);
+
+        if (radice == null) {
+            radice = new Nodo(chiave, new int[]{id});
+            numeroNodi++;
+            return;
+        }
+        Nodo nodo = radice;
+        while (true) {
+            int d = distanza(maschere, nodo.chiave, Integer.MAX_VALUE);
+            if (d == 0) {
+                if (nodo.ids.length == 0) {
+                    nodiVuoti--;
+                }
+                nodo.ids = Arrays.copyOf(nodo.ids, nodo.ids.length + 1);
+                nodo.ids[nodo.ids.length - 1] = id;
+                return;
+            }
+            Nodo figlio = figlio(nodo, d);
+            if (figlio == null) {
+                int n = nodo.figli.length;
+                nodo.figli = Arrays.copyOf(nodo.figli, n + 1);
+                nodo.distanzeFigli = Arrays.copyOf(nodo.distanzeFigli, n + 1);
+                nodo.figli[n] = new Nodo(chiave, new int[]{id});
+                nodo.distanzeFigli[n] = d;
+                nodo.distanzaMassimaFigli = Math.max(nodo.distanzaMassimaFigli, d);
+                numeroNodi++;
+                return;
+            }
+            nodo = figlio;
+        }
+    }
+
+    private void rimuovi(int id) {
+        String chiave = chiavePerId.remove(id);
+        if (chiave == null) {
+            return;
+        }
+        Maschere maschere = new Maschere(chiave);
+        Nodo nodo = radice;
+        while (nodo != null) {
+            int d = distanza(maschere, nodo.chiave, Integer.MAX_VALUE);
+            if (d == 0) {
+                int[] rimasti = Arrays.stream(nodo.ids).filter(x -> x != id).toArray();
+                nodo.ids = rimasti.length == 0 ? NESSUN_ID : rimasti;
+                if (rimasti.length == 0) {
+                    nodiVuoti++;
+                }
+                return;
+            }
+            nodo = figlio(nodo, d);
+        }
+    }
+
+    private static Nodo figlio(Nodo nodo, int distanza) {
+        for (int i = 0; i < nodo.figli.length; i++) {
+            if (nodo.distanzeFigli[i] == distanza) {
+                return nodo.figli[i];
+            }
+        }
+        return null;
+    }
+
+    // Ricostruisce l'albero con i soli nomi che hanno ancora videogiochi visibili
+    private void compatta() {
+        List<Nodo> vivi = new ArrayList<>();
+        List<Nodo> daVisitare = new ArrayList<>();
+        if (radice != null) {
+            daVisitare.add(radice);
+        }
+        while (!daVisitare.isEmpty()) {
+            Nodo nodo = daVisitare.remove(daVisitare.size() - 1);
+            if (nodo.ids.length > 0) {
+                vivi.add(nodo);
+            }
+            daVisitare.addAll(Arrays.asList(nodo.figli));
+        }
+        svuota();
+        for (Nodo nodo : vivi) {
+            for (int id : nodo.ids) {
+                aggiungi(id, nodo.chiave);
+            }
+        }
+    }
+
+    private void svuota() {
+        radice = null;
+        numeroNodi = 0;
+        nodiVuoti = 0;
+        chiavePerId.clear();
+    }
+
+    /*
+    Maschere di bit del testo cercato per la distanza di Myers: per ogni carattere, i bit delle posizioni in cui
+    compare. Un bit per posizione, quindi valgono per testi fino a 64 caratteri (oltre si usa la versione a due righe).
+    Si costruiscono una volta e si riusano su tutti i nodi confrontati.
+     */
+    static final class Maschere {
+        final String testo;
+        private final long[] ascii = new long[128];
+        private final Map<Character, Long> altri = new HashMap<>();
+
+        Maschere(String testo) {
+            this.testo = testo;
+            for (int i = 0; i < Math.min(testo.length(), 64); i++) {
+                char c = testo.charAt(i);
+                if (c < 128) {
+                    ascii[c] |= 1L << i;
+                } else {
+                    altri.merge(c, 1L << i, (x, y) -> x | y);
+                }
+            }
+        }
+
+        long di(char c) {
+            return c < 128 ? ascii[c] : altri.getOrDefault(c, 0L);
+        }
+    }
+
+    /*
+    Distanza di Levenshtein bit-parallela (Myers, nella formulazione di Hyyrö): una colonna della matrice per volta,
+    codificata come differenze +1/-1 tra righe vicine in due long, quindi poche operazioni per carattere di b.
+    Stesso risultato e stessa interruzione oltre limite della versione a due righe.
+     */
+    static int distanza(Maschere a, String b, int limite) {
+        int m = a.testo.length();
+        int n = b.length();
+        if (m > 64) {
+            return distanza(a.testo, b, limite);
+        }
+        if (Math.abs(m - n) > limite) {
+            return limite + 1;
+        }
+        if (m == 0) {
+            return n;
+        }
+        long pv = -1L;
+        long mv = 0L;
+        long ultimo = 1L << (m - 1);
+        int punteggio = m;
+        for (int j = 0; j < n; j++) {
+            long eq = a.di(b.charAt(j));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & ultimo) != 0) {
+                punteggio++;
+            } else if ((mh & ultimo) != 0) {
+                punteggio--;
+            }
+            // ogni carattere che resta di b può abbassare la distanza al massimo di 1
+            if (punteggio - (n - j - 1) > limite) {
+                return limite + 1;
+            }
+            ph = (ph << 1) | 1;
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+        return punteggio > limite ? limite + 1 : punteggio;
+    }
+
+    /*
+    Distanza di Levenshtein con due sole righe, interrotta appena tutta la riga supera limite
+    (in quel caso restituisce limite + 1: il valore esatto non serve).
+     */
+    static int distanza(String a, String b, int limite) {
+        if (Math.abs(a.length() - b.length()) > limite) {
+            return limite + 1;
+        }
+        int[] precedente = new int[b.length() + 1];
+        int[] corrente = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            precedente[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            corrente[0] = i;
+            int minimoRiga = corrente[0];
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int costo = c == b.charAt(j - 1) ? 0 : 1;
+                corrente[j] = Math.min(Math.min(corrente[j - 1] + 1, precedente[j] + 1), precedente[j - 1] + costo);
+                minimoRiga = Math.min(minimoRiga, corrente[j]);
+            }
+            if (minimoRiga > limite) {
+                return limite + 1;
+            }
+            int[] t = precedente;
+            precedente = corrente;
+            corrente = t;
+        }
+        return precedente[b.length()] > limite ? limite + 1 : precedente[b.length()];
+    }
+
+}
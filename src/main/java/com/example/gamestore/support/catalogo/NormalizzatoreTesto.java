@@ -0,0 +1,39 @@
+package com.example.gamestore.support.catalogo;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/*
+Normalizzazione comune a tutte le strutture di ricerca in memoria sul catalogo:
+minuscolo, senza accenti ("Pokémon" -> "pokemon") e spezzato su tutto ciò che non è lettera o cifra.
+ */
+public class NormalizzatoreTesto {
+
+    private static final Pattern DIACRITICI = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORI = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private NormalizzatoreTesto() {
+    }
+
+    public static String normalizza(String testo) {
+        if (testo == null) {
+            return "";
+        }
+        String scomposto = Normalizer.normalize(testo, Normalizer.Form.NFD);
+        return DIACRITICI.matcher(scomposto).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    public static List<String> tokenizza(String testo) {
+        List<String> token = new ArrayList<>();
+        for (String t : SEPARATORI.split(normalizza(testo))) {
+            if (!t.isEmpty()) {
+                token.add(t);
+            }
+        }
+        return token;
+    }
+
+}
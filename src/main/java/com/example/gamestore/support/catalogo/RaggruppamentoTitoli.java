@@ -0,0 +1,191 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.dto.TitoloDto;
+import com.example.gamestore.dto.VarianteTitoloDto;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+Videogiochi visibili raggruppati per nome (normalizzato): un TitoloDto per nome con tutte le piattaforme.
+I titoli sono in una mappa ordinata per nome, quindi l'elenco per nome si pagina scorrendola; l'elenco per
+prezzo usa un ordinamento delle chiavi calcolato alla prima richiesta e tenuto finché non cambia il prezzo minimo,
+il nome o l'esistenza di un titolo. Le scorte (un evento ad ogni acquisto) non lo toccano: i titoli della pagina
+si leggono dalla mappa, con le quantità correnti.
+I TitoloDto sono immutabili: ogni modifica sostituisce il titolo interessato, le letture non prendono lock.
+La ricostruzione prepara una mappa nuova e la sostituisce in una volta, chi legge non vede mai il catalogo a metà.
+ */
+@Component
+public class RaggruppamentoTitoli implements IndiceCatalogo {
+
+    private static final Comparator<TitoloDto> PER_PREZZO =
+            Comparator.comparing(TitoloDto::prezzoMin, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(TitoloDto::nome)
+                    .reversed();
+
+    private volatile ConcurrentSkipListMap<String, TitoloDto> titoli = new ConcurrentSkipListMap<>();
+
+    // id videogioco -> chiave del suo titolo (solo sotto il lock delle modifiche)
+    private Map<Integer, String> chiavePerId = new HashMap<>();
+
+    // chiavi dei titoli in ordine di prezzo, null quando va ricalcolato
+    private volatile List<String> ordinatiPerPrezzo;
+
+    @Override
+    public synchronized void ricostruisci(List<VoceCatalogo> visibili) {
+        ConcurrentSkipListMap<String, TitoloDto> nuoviTitoli = new ConcurrentSkipListMap<>();
+        Map<Integer, String> nuoveChiavi = new HashMap<>();
+        for (VoceCatalogo v : visibili) {
+            aggiungi(nuoviTitoli, nuoveChiavi, v.id(), v.nome(), new VarianteTitoloDto(v.id(), v.piattaforma(), v.prezzo(), v.quantita()));
+        }
+        titoli = nuoviTitoli;
+        chiavePerId = nuoveChiavi;
+        ordinatiPerPrezzo = null;
+    }
+
+    // Anche le scorte: la quantità di ogni variante è parte della risposta
+    @Override
+    public synchronized void aggiorna(VideogiocoModificatoEvent evento) {
+        ConcurrentSkipListMap<String, TitoloDto> correnti = titoli;
+        String chiavePrecedente = chiavePerId.get(evento.idVideogioco());
+        String chiaveNuova = evento.visibile() ? chiave(evento.nome()) : null;
+        TitoloDto[] prima = {titolo(correnti, chiavePrecedente), titolo(correnti, chiaveNuova)};
+
+        rimuovi(correnti, chiavePerId, evento.idVideogioco());
+        if (evento.visibile()) {
+            aggiungi(correnti, chiavePerId, evento.idVideogioco(), evento.nome(),
+                    new VarianteTitoloDto(evento.idVideogioco(), evento.piattaforma(), evento.prezzo(), evento.quantita()));
+        }
+
+        if (cambiaOrdine(prima[0], titolo(correnti, chiavePrecedente)) || cambiaOrdine(prima[1], titolo(correnti, chiaveNuova))) {
+            ordinatiPerPrezzo = null;
+        }
+    }
+
+    public TitoloDto trova(String nome) {
+        return titoli.get(chiave(nome));
+    }
+
+    /**
+     * Pagina di titoli ordinati per nome o per prezzo minimo, sempre in ordine decrescente come gli altri elenchi.
+     */
+    public Slice<TitoloDto> elenco(int numPagina, int dimPagina, String ordinamento) {
+        ConcurrentSkipListMap<String, TitoloDto> correnti = titoli;
+        long da = (long) numPagina * dimPagina;
+        List<TitoloDto> pagina = new ArrayList<>(dimPagina);
+        boolean haSuccessiva;
+
+        if ("prezzo".equals(ordinamento)) {
+            List<String> ordinati = ordinatiPerPrezzo();
+            for (long i = da; i < Math.min(ordinati.size(), da + dimPagina); i++) {
+                // null solo se il titolo è sparito mentre si legge: l'ordinamento è già stato invalidato
+                TitoloDto titolo = correnti.get(ordinati.get((int) i));
+                if (titolo != null) {
+                    pagina.add(titolo);
+                }
+            }
+            haSuccessiva = da + dimPagina < ordinati.size();
+        } else {
+            Iterator<TitoloDto> it = correnti.descendingMap().values().iterator();
+            for (long i = 0; i < da && it.hasNext(); i++) {
+                it.next();
+            }
+            while (pagina.size() < dimPagina && it.hasNext()) {
+                pagina.add(it.next());
+            }
+            haSuccessiva = it.hasNext();
+        }
+        return new SliceImpl<>(pagina, PageRequest.of(numPagina, dimPagina), haSuccessiva);
+    }
+
+    // Calcolato sotto lo stesso lock delle modifiche, così non può essere salvato un ordinamento già vecchio
+    private List<String> ordinatiPerPrezzo() {
+        List<String> ordinati = ordinatiPerPrezzo;
+        if (ordinati != null) {
+            return ordinati;
+        }
+        synchronized (this) {
+            if (ordinatiPerPrezzo == null) {
+                List<Map.Entry<String, TitoloDto>> voci = new ArrayList<>(titoli.entrySet());
+                voci.sort(Map.Entry.comparingByValue(PER_PREZZO));
+                ordinatiPerPrezzo = voci.stream().map(Map.Entry::getKey).toList();
+            }
+            return ordinatiPerPrezzo;
+        }
+    }
+
+    // La posizione di un titolo nell'ordine per prezzo dipende solo da prezzo minimo e nome (e dal fatto che esista)
+    private static boolean cambiaOrdine(TitoloDto prima, TitoloDto dopo) {
+        if (prima == null || dopo == null) {
+            return prima != dopo;
+        }
+        return !Objects.equals(prima.prezzoMin(), dopo.prezzoMin()) || !prima.nome().equals(dopo.nome());
+    }
+
+    private static TitoloDto titolo(Map<String, TitoloDto> titoli, String chiave) {
+        return chiave == null ? null : titoli.get(chiave);
+    }
+
+    private static String chiave(String nome) {
+        return nome == null ? "" : NormalizzatoreTesto.normalizza(nome).strip();
+    }
+
+    private static void aggiungi(Map<String, TitoloDto> titoli, Map<Integer, String> chiavePerId, int id, String nome, VarianteTitoloDto variante) {
+        String chiave = chiave(nome);
+        if (chiave.isEmpty()) {
+            return;
+        }
+        chiavePerId.put(id, chiave);
+        TitoloDto esistente = titoli.get(chiave);
+        List<VarianteTitoloDto> varianti = new ArrayList<>();
+        if (esistente != null) {
+            varianti.addAll(esistente.varianti());
+        }
+        varianti.add(variante);
+        titoli.put(chiave, componi(esistente == null ? nome : esistente.nome(), varianti));
+    }
+
+    private static void rimuovi(Map<String, TitoloDto> titoli, Map<Integer, String> chiavePerId, int id) {
+        String chiave = chiavePerId.remove(id);
+        if (chiave == null) {
+            return;
+        }
+        TitoloDto esistente = titoli.get(chiave);
+        if (esistente == null) {
+            return;
+        }
+        List<VarianteTitoloDto> varianti = new ArrayList<>(esistente.varianti());
+        varianti.removeIf(v -> v.id() == id);
+        if (varianti.isEmpty()) {
+            titoli.remove(chiave);
+        } else {
+            titoli.put(chiave, componi(esistente.nome(), varianti));
+        }
+    }
+
+    private static TitoloDto componi(String nome, List<VarianteTitoloDto> varianti) {
+        varianti.sort(Comparator.comparing(VarianteTitoloDto::piattaforma, Comparator.nullsLast(Comparator.naturalOrder())));
+        Double minimo = null;
+        Double massimo = null;
+        int quantita = 0;
+        for (VarianteTitoloDto v : varianti) {
+            if (v.prezzo() != null) {
+                minimo = minimo == null ? v.prezzo() : Math.min(minimo, v.prezzo());
+                massimo = massimo == null ? v.prezzo() : Math.max(massimo, v.prezzo());
+            }
+            quantita += v.quantita();
+        }
+        return new TitoloDto(nome, minimo, massimo, quantita, List.copyOf(varianti));
+    }
+
+}
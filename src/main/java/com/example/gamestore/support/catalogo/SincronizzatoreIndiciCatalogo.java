@@ -0,0 +1,87 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.repositories.VideogiocoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Costruisce gli indici in memoria e li tiene allineati alle modifiche.
+
+La lettura del catalogo e la ricostruzione non sono atomiche rispetto alle scritture: un videogioco modificato
+dopo la lettura ma prima che gli indici vengano sostituiti andrebbe perso. Per questo, finché una ricostruzione è
+in corso, gli eventi vengono sia applicati agli indici attuali sia messi da parte, e riapplicati sugli indici
+appena ricostruiti. Riapplicare un evento che la lettura aveva già visto non cambia nulla: ogni evento porta lo
+stato completo del videogioco e gli indici lo sostituiscono a quello che avevano.
+ */
+@Component
+public class SincronizzatoreIndiciCatalogo {
+
+    @Autowired
+    private VideogiocoRepository videogiocoRepository;
+
+    @Autowired
+    private List<IndiceCatalogo> indici;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Eventi arrivati mentre c'è almeno una ricostruzione in corso (null se non ce ne sono); protetti dal monitor di this
+    private List<VideogiocoModificatoEvent> inAttesa;
+
+    private int ricostruzioniInCorso;
+
+    // Una sola lettura del catalogo visibile, condivisa da tutti gli indici
+    @EventListener(ApplicationReadyEvent.class)
+    public void ricostruisci() {
+        synchronized (this) {
+            if (ricostruzioniInCorso++ == 0) {
+                inAttesa = new ArrayList<>();
+            }
+        }
+        List<VoceCatalogo> visibili = null;
+        try {
+            TransactionTemplate lettura = new TransactionTemplate(transactionManager);
+            lettura.setReadOnly(true);
+            visibili = lettura.execute(s -> videogiocoRepository.leggiCatalogoVisibile());
+        } finally {
+            synchronized (this) {
+                if (visibili != null) {
+                    for (IndiceCatalogo indice : indici) {
+                        indice.ricostruisci(visibili);
+                    }
+                    for (VideogiocoModificatoEvent evento : inAttesa) {
+                        for (IndiceCatalogo indice : indici) {
+                            indice.aggiorna(evento);
+                        }
+                    }
+                }
+                //con due ricostruzioni sovrapposte (avvio e importazione) l'altra ha ancora bisogno degli eventi
+                if (--ricostruzioniInCorso == 0) {
+                    inAttesa = null;
+                }
+            }
+        }
+    }
+
+    @Order(0) // prima di ContatoreModificheCatalogo
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public synchronized void onVideogiocoModificato(VideogiocoModificatoEvent evento) {
+        if (inAttesa != null) {
+            inAttesa.add(evento);
+        }
+        for (IndiceCatalogo indice : indici) {
+            indice.aggiorna(evento);
+        }
+    }
+
+}
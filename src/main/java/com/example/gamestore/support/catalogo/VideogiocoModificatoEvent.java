@@ -0,0 +1,54 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.entities.Videogioco;
+
+/*
+Evento pubblicato dai Service ogni volta che un videogioco cambia: inserimento, rimozione logica, riattivazione
+oppure variazione delle scorte dovuta a un ordine.
+Contiene una fotografia dello stato DOPO la modifica, così chi lo ascolta (cache, strutture in memoria, ...)
+non deve tornare sul DB. Viene ascoltato con @TransactionalEventListener: arriva solo dopo il commit, quindi
+se la transazione fa rollback nessuno se ne accorge.
+ */
+public record VideogiocoModificatoEvent(TipoModifica tipo,
+                                        int idVideogioco,
+                                        String nome,
+                                        String descrizione,
+                                        String piattaforma,
+                                        String casaProduttrice,
+                                        int annoRilascio,
+                                        Double prezzo,
+                                        int quantita,
+                                        int quantitaPrecedente,
+                                        int nascosto) {
+
+    public enum TipoModifica {
+        CATALOGO, // inserimento, rimozione o riattivazione da parte dell'admin
+        SCORTE    // è cambiata solo la quantità disponibile (acquisto o annullamento di un ordine)
+    }
+
+    public static VideogiocoModificatoEvent catalogo(Videogioco v) {
+        return new VideogiocoModificatoEvent(TipoModifica.CATALOGO, v.getId(), v.getNome(), v.getDescrizione(), v.getPiattaforma(),
+                v.getCasaProduttrice(), v.getAnnoRilascio(), v.getPrezzo(), v.getQuantita(), v.getQuantita(), v.getNascosto());
+    }
+
+    public static VideogiocoModificatoEvent scorte(Videogioco v, int quantitaPrecedente) {
+        return new VideogiocoModificatoEvent(TipoModifica.SCORTE, v.getId(), v.getNome(), v.getDescrizione(), v.getPiattaforma(),
+                v.getCasaProduttrice(), v.getAnnoRilascio(), v.getPrezzo(), v.getQuantita(), quantitaPrecedente, v.getNascosto());
+    }
+
+    // Per le scorte aggiornate con SQL (vedi VideogiocoRepositoryCustom.scalaScorte): v può avere ancora la quantità di prima
+    public static VideogiocoModificatoEvent scorte(Videogioco v, int quantita, int quantitaPrecedente) {
+        return new VideogiocoModificatoEvent(TipoModifica.SCORTE, v.getId(), v.getNome(), v.getDescrizione(), v.getPiattaforma(),
+                v.getCasaProduttrice(), v.getAnnoRilascio(), v.getPrezzo(), quantita, quantitaPrecedente, v.getNascosto());
+    }
+
+    public boolean visibile() {
+        return nascosto == 0;
+    }
+
+    // visibile e con almeno una copia in magazzino, cioè compare in /elencoDisponibili
+    public boolean disponibile() {
+        return nascosto == 0 && quantita > 0;
+    }
+
+}
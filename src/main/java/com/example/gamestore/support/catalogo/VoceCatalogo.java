@@ -0,0 +1,15 @@
+package com.example.gamestore.support.catalogo;
+
+/*
+Un videogioco visibile così come serve agli indici in memoria: solo le colonne che indicizzano, senza version,
+associazioni e contesto di persistenza. Letto in blocco da VideogiocoRepositoryCustom.leggiCatalogoVisibile.
+ */
+public record VoceCatalogo(int id,
+                           String nome,
+                           String descrizione,
+                           String piattaforma,
+                           String casaProduttrice,
+                           int annoRilascio,
+                           Double prezzo,
+                           int quantita) {
+}
@@ -0,0 +1,163 @@
+package com.example.gamestore.support.esportazione;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Locale;
+
+/*
+Scrive le righe di una query JDBC direttamente sullo stream della risposta, in CSV (con intestazione) o NDJSON,
+man mano che il cursore le restituisce: non si accumula niente in memoria.
+I nomi delle colonne sono quelli (alias) della SELECT.
+
+Se il client chiude la connessione la scrittura fallisce con IOException, che viene rilanciata come
+UncheckedIOException: JdbcTemplate interrompe la query, chiude il cursore e la transazione fa rollback.
+ */
+public class ScrittoreEsportazione implements RowCallbackHandler {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    public enum Formato {
+        CSV("text/csv"), NDJSON("application/x-ndjson");
+
+        private final String contentType;
+
+        Formato(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String estensione() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        // null se il formato richiesto non è supportato
+        public static Formato da(String formato) {
+            for (Formato f : values()) {
+                if (f.name().equalsIgnoreCase(formato)) {
+                    return f;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Formato formato;
+    private final Writer writer;
+    private JsonGenerator json;
+    private String[] colonne;
+
+    public ScrittoreEsportazione(Formato formato, OutputStream output) {
+        this.formato = formato;
+        this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        try {
+            if (colonne == null) {
+                inizia(rs.getMetaData());
+            }
+            if (formato == Formato.CSV) {
+                scriviCsv(rs);
+            } else {
+                scriviJson(rs);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Da chiamare a query finita, anche se non ha restituito righe
+    public void chiudi() throws IOException {
+        if (json != null) {
+            json.flush();
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private void inizia(ResultSetMetaData metaData) throws SQLException, IOException {
+        colonne = new String[metaData.getColumnCount()];
+        for (int i = 0; i < colonne.length; i++) {
+            colonne[i] = metaData.getColumnLabel(i + 1);
+        }
+        if (formato == Formato.CSV) {
+            for (int i = 0; i < colonne.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(colonne[i]);
+            }
+            writer.write('\n');
+        } else {
+            json = JSON.createGenerator(writer);
+            json.setRootValueSeparator(new SerializedString("\n"));
+        }
+    }
+
+    private void scriviCsv(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < colonne.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object valore = rs.getObject(i + 1);
+            if (valore != null) {
+                writer.write(campoCsv(testo(valore)));
+            }
+        }
+        writer.write('\n');
+    }
+
+    private void scriviJson(ResultSet rs) throws SQLException, IOException {
+        json.writeStartObject();
+        for (int i = 0; i < colonne.length; i++) {
+            Object valore = rs.getObject(i + 1);
+            json.writeFieldName(colonne[i]);
+            if (valore == null) {
+                json.writeNull();
+            } else if (valore instanceof Integer n) {
+                json.writeNumber(n);
+            } else if (valore instanceof Long n) {
+                json.writeNumber(n);
+            } else if (valore instanceof Double n) {
+                json.writeNumber(n);
+            } else {
+                json.writeString(testo(valore));
+            }
+        }
+        json.writeEndObject();
+    }
+
+    private static String testo(Object valore) {
+        if (valore instanceof Timestamp t) {
+            return t.toInstant().toString();
+        }
+        return valore.toString();
+    }
+
+    // Virgolette solo se servono, come nei file che accettiamo in importazione
+    private static String campoCsv(String testo) {
+        if (testo.indexOf(',') < 0 && testo.indexOf('"') < 0 && testo.indexOf('\n') < 0 && testo.indexOf('\r') < 0) {
+            return testo;
+        }
+        return '"' + testo.replace("\"", "\"\"") + '"';
+    }
+
+}
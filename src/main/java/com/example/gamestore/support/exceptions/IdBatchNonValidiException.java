@@ -0,0 +1,9 @@
+package com.example.gamestore.support.exceptions;
+
+public class IdBatchNonValidiException extends Exception {
+
+    public IdBatchNonValidiException() {
+
+    }
+
+}
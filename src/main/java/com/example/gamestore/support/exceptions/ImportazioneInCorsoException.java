@@ -0,0 +1,9 @@
+package com.example.gamestore.support.exceptions;
+
+public class ImportazioneInCorsoException extends Exception {
+
+    public ImportazioneInCorsoException() {
+
+    }
+
+}
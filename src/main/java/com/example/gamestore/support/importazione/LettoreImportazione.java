@@ -0,0 +1,216 @@
+package com.example.gamestore.support.importazione;
+
+import com.example.gamestore.support.exceptions.ImportazioneNonValidaException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+Legge il corpo di un'importazione una riga alla volta, direttamente dallo stream della richiesta: in memoria c'è
+sempre e solo la riga corrente, qualunque sia la dimensione del file.
+
+Formati supportati:
+ - CSV (text/csv): prima riga di intestazione con i nomi dei campi (nome, descrizione, piattaforma, annoRilascio,
+   casaProduttrice, prezzo, quantita, nascosto) in qualunque ordine, le colonne sconosciute vengono ignorate.
+   Come in RFC 4180 un campo è tra virgolette solo se la virgoletta è il suo primo carattere: allora può contenere
+   virgole, a capo e "" per le virgolette. Una virgoletta in mezzo a un campo non quotato è un carattere come gli altri
+   (12" Vinyl Edition).
+ - NDJSON (application/x-ndjson): un oggetto JSON per riga con gli stessi campi.
+ */
+public class LettoreImportazione {
+
+    // Una riga più lunga di così è sicuramente sbagliata: viene scartata senza tenerla tutta in memoria
+    private static final int LUNGHEZZA_MASSIMA_RIGA = 64 * 1024;
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Riga letta dal file: numero (a partire da 1, esclusa l'intestazione) e contenuto, oppure il motivo per cui non è leggibile.
+     */
+    public record RigaLetta(long numero, RigaImportazione riga, String errore) {
+    }
+
+    private final BufferedReader reader;
+    private final boolean csv;
+    private Map<String, Integer> colonne;
+    private long numero = 0;
+    private boolean troppoLunga;
+
+    public LettoreImportazione(InputStream input, String contentType) throws ImportazioneNonValidaException, IOException {
+        this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String tipo = contentType == null ? "" : contentType.toLowerCase(Locale.ROOT);
+        if (tipo.startsWith("text/csv")) {
+            this.csv = true;
+            leggiIntestazione();
+        } else if (tipo.startsWith("application/x-ndjson")) {
+            this.csv = false;
+        } else {
+            throw new ImportazioneNonValidaException();
+        }
+    }
+
+    /**
+     * Restituisce la riga successiva, oppure null a fine file. Le righe vuote vengono saltate.
+     */
+    public RigaLetta prossima() throws IOException {
+        while (true) {
+            if (csv) {
+                List<String> campi = leggiRecordCsv();
+                if (campi == null) {
+                    return null;
+                }
+                if (!troppoLunga && campi.size() == 1 && campi.get(0).isBlank()) {
+                    continue;
+                }
+                numero++;
+                if (troppoLunga) {
+                    return new RigaLetta(numero, null, "RIGA TROPPO LUNGA");
+                }
+                try {
+                    return new RigaLetta(numero, daCsv(campi), null);
+                } catch (NumberFormatException e) {
+                    return new RigaLetta(numero, null, "RIGA NON LEGGIBILE");
+                }
+            }
+
+            String testo = leggiRigaJson();
+            if (testo == null) {
+                return null;
+            }
+            if (!troppoLunga && testo.isBlank()) {
+                continue;
+            }
+            numero++;
+            if (troppoLunga) {
+                return new RigaLetta(numero, null, "RIGA TROPPO LUNGA");
+            }
+            try {
+                return new RigaLetta(numero, JSON.readValue(testo, RigaImportazione.class), null);
+            } catch (IOException e) {
+                return new RigaLetta(numero, null, "RIGA NON LEGGIBILE");
+            }
+        }
+    }
+
+    private void leggiIntestazione() throws IOException, ImportazioneNonValidaException {
+        List<String> intestazione = leggiRecordCsv();
+        if (intestazione == null || troppoLunga) {
+            throw new ImportazioneNonValidaException();
+        }
+        colonne = new HashMap<>();
+        for (int i = 0; i < intestazione.size(); i++) {
+            colonne.put(intestazione.get(i).strip(), i);
+        }
+        if (!colonne.containsKey("nome") || !colonne.containsKey("piattaforma")
+                || !colonne.containsKey("prezzo") || !colonne.containsKey("quantita")) {
+            throw new ImportazioneNonValidaException();
+        }
+    }
+
+    private RigaImportazione daCsv(List<String> campi) {
+        return new RigaImportazione(
+                campo(campi, "nome"),
+                campo(campi, "descrizione"),
+                campo(campi, "piattaforma"),
+                intero(campo(campi, "annoRilascio")),
+                campo(campi, "casaProduttrice"),
+                decimale(campo(campi, "prezzo")),
+                intero(campo(campi, "quantita")),
+                intero(campo(campi, "nascosto")));
+    }
+
+    private String campo(List<String> campi, String nome) {
+        Integer i = colonne.get(nome);
+        if (i == null || i >= campi.size() || campi.get(i).isEmpty()) {
+            return null;
+        }
+        return campi.get(i);
+    }
+
+    private static Integer intero(String testo) {
+        return testo == null ? null : Integer.valueOf(testo.strip());
+    }
+
+    private static Double decimale(String testo) {
+        return testo == null ? null : Double.valueOf(testo.strip());
+    }
+
+    private String leggiRigaJson() throws IOException {
+        troppoLunga = false;
+        StringBuilder riga = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1 && c != '\n') {
+            if (riga.length() < LUNGHEZZA_MASSIMA_RIGA) {
+                riga.append((char) c);
+            } else {
+                troppoLunga = true;
+            }
+        }
+        if (c == -1 && riga.isEmpty() && !troppoLunga) {
+            return null;
+        }
+        return riga.toString();
+    }
+
+    // Un record CSV (che può occupare più righe se ci sono a capo tra virgolette), null a fine file
+    private List<String> leggiRecordCsv() throws IOException {
+        troppoLunga = false;
+        List<String> campi = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean traVirgolette = false;
+        // il campo corrente è stato aperto da una virgoletta: dopo quella di chiusura le virgolette non aprono più niente
+        boolean quotato = false;
+        int letti = 0;
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        while (c != -1) {
+            if (++letti > LUNGHEZZA_MASSIMA_RIGA) {
+                troppoLunga = true;
+            }
+            if (traVirgolette) {
+                if (c == '"') {
+                    reader.mark(1);
+                    int successivo = reader.read();
+                    if (successivo == '"') {
+                        campo.append('"');
+                    } else {
+                        traVirgolette = false;
+                        reader.reset();
+                    }
+                } else if (!troppoLunga) {
+                    campo.append((char) c);
+                }
+            } else if (c == '"' && campo.isEmpty() && !quotato) {
+                traVirgolette = true;
+                quotato = true;
+            } else if (c == ',') {
+                if (!troppoLunga) {
+                    campi.add(campo.toString());
+                }
+                campo.setLength(0);
+                quotato = false;
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r' && !troppoLunga) {
+                campo.append((char) c);
+            }
+            c = reader.read();
+        }
+        campi.add(campo.toString());
+        return troppoLunga ? List.of() : campi;
+    }
+
+}
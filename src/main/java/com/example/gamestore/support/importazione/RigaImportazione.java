@@ -0,0 +1,20 @@
+package com.example.gamestore.support.importazione;
+
+/*
+Una riga del file di importazione del catalogo, con gli stessi campi che si passano a POST /videogiochi.
+I campi numerici sono oggetti perché nel file possono mancare: la validazione la fa ImportazioneCatalogoService.
+nascosto (0 o 1, se manca 0) c'è perché un file di /esportazione, che comprende i nascosti, si possa reimportare così com'è.
+ */
+public record RigaImportazione(String nome,
+                               String descrizione,
+                               String piattaforma,
+                               Integer annoRilascio,
+                               String casaProduttrice,
+                               Double prezzo,
+                               Integer quantita,
+                               Integer nascosto) {
+
+    public boolean daNascondere() {
+        return nascosto != null && nascosto == 1;
+    }
+}
@@ -0,0 +1,70 @@
+-- Schema di partenza, identico a quello che Hibernate generava con ddl-auto=update.
+-- Sui database già esistenti questa migrazione non viene eseguita: Flyway parte dalla baseline 1
+-- (vedi spring.flyway.baseline-on-migrate in application.yaml) e applica solo le successive.
+
+CREATE TABLE utente (
+    id_utente   INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    nome        VARCHAR(50),
+    cognome     VARCHAR(50),
+    email       VARCHAR(90),
+    PRIMARY KEY (id_utente),
+    CONSTRAINT uk_utente_email UNIQUE (email)
+);
+
+CREATE TABLE videogioco (
+    id_videogioco    INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    version          BIGINT NOT NULL,
+    nome             VARCHAR(255),
+    descrizione      VARCHAR(2000),
+    piattaforma      VARCHAR(255),
+    anno_rilascio    INTEGER NOT NULL,
+    casa_produttrice VARCHAR(255),
+    prezzo           FLOAT(53),
+    quantita         INTEGER NOT NULL,
+    nascosto         INTEGER NOT NULL,
+    PRIMARY KEY (id_videogioco),
+    CONSTRAINT uk_videogioco_nome_piattaforma UNIQUE (nome, piattaforma)
+);
+
+CREATE TABLE carrello (
+    carrello_id INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    id_utente   INTEGER,
+    attivo      INTEGER NOT NULL,
+    PRIMARY KEY (carrello_id),
+    CONSTRAINT uk_carrello_utente UNIQUE (id_utente),
+    CONSTRAINT uk_carrello_utente_attivo UNIQUE (id_utente, attivo),
+    CONSTRAINT fk_carrello_utente FOREIGN KEY (id_utente) REFERENCES utente (id_utente)
+);
+
+CREATE TABLE ordine (
+    id_ordine   INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    data_ordine TIMESTAMP(6) NOT NULL,
+    totale      FLOAT(53),
+    id_utente   INTEGER,
+    PRIMARY KEY (id_ordine),
+    CONSTRAINT fk_ordine_utente FOREIGN KEY (id_utente) REFERENCES utente (id_utente)
+);
+
+CREATE TABLE dettaglio_carrello (
+    id_dettaglio_carrello INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    quantita              INTEGER NOT NULL,
+    prezzo_unitario       FLOAT(53),
+    id_carrello           INTEGER,
+    id_videogioco         INTEGER,
+    PRIMARY KEY (id_dettaglio_carrello),
+    CONSTRAINT uk_dettaglio_carrello_videogioco UNIQUE (id_carrello, id_videogioco),
+    CONSTRAINT fk_dettaglio_carrello_carrello FOREIGN KEY (id_carrello) REFERENCES carrello (carrello_id),
+    CONSTRAINT fk_dettaglio_carrello_videogioco FOREIGN KEY (id_videogioco) REFERENCES videogioco (id_videogioco)
+);
+
+CREATE TABLE dettaglio_ordine (
+    id_dettaglio_ordine INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    quantita            INTEGER NOT NULL,
+    prezzo_unitario     FLOAT(53),
+    id_ordine           INTEGER,
+    id_videogioco       INTEGER,
+    PRIMARY KEY (id_dettaglio_ordine),
+    CONSTRAINT uk_dettaglio_ordine_videogioco UNIQUE (id_ordine, id_videogioco),
+    CONSTRAINT fk_dettaglio_ordine_ordine FOREIGN KEY (id_ordine) REFERENCES ordine (id_ordine),
+    CONSTRAINT fk_dettaglio_ordine_videogioco FOREIGN KEY (id_videogioco) REFERENCES videogioco (id_videogioco)
+);
@@ -0,0 +1,38 @@
+-- Indici per le query più frequenti dei repository.
+-- IF NOT EXISTS perché sui database nati con ddl-auto=update questa è la prima migrazione eseguita.
+--
+-- Già coperti dai vincoli UNIQUE (PostgreSQL crea un indice per ognuno), quindi non ripetuti qui:
+--   dettaglio_carrello (id_carrello, id_videogioco)  -> ricerche per carrello e per coppia carrello/videogioco
+--   dettaglio_ordine (id_ordine, id_videogioco)      -> findByOrdine_Id e scorrimento dei dettagli di un ordine
+--   carrello (id_utente)                             -> findActiveCarrelloByUtenteId
+
+-- Le query IgnoreCase di Spring Data confrontano upper(colonna) = upper(?):
+-- findByNomeIgnoreCaseAndNascosto usa la prima colonna, findByNomeIgnoreCaseAndPiattaformaIgnoreCase
+-- (salvaVideogioco) e la ricerca a blocchi dell'importazione le usano entrambe
+CREATE INDEX IF NOT EXISTS idx_videogioco_upper_nome_piattaforma
+    ON videogioco (upper(nome), upper(piattaforma));
+
+-- perPiattaforma: upper(piattaforma) LIKE '%...%' non può usare un btree, serve un indice trigram
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_videogioco_upper_piattaforma_trgm
+    ON videogioco USING gin (upper(piattaforma) gin_trgm_ops);
+
+-- findByQuantitaGreaterThanAndNascosto e il filtro dei disponibili con parametri non noti al planner
+CREATE INDEX IF NOT EXISTS idx_videogioco_nascosto_quantita
+    ON videogioco (nascosto, quantita);
+
+-- elencoDisponibili con l'ordinamento di default (prezzo DESC) e il suo scorrimento a cursore (prezzo, id DESC):
+-- sintesiDisponibili ha "quantita > 0 AND nascosto = 0" scritti nella query, quindi il planner usa l'indice parziale
+-- e legge le righe già nell'ordine giusto fermandosi a fine pagina
+CREATE INDEX IF NOT EXISTS idx_videogioco_disponibili_prezzo
+    ON videogioco (prezzo DESC, id_videogioco DESC)
+    WHERE nascosto = 0 AND quantita > 0;
+
+-- ricercaAvanzata / perFasciaPrezzo: intervalli di prezzo sui soli videogiochi visibili
+CREATE INDEX IF NOT EXISTS idx_videogioco_visibili_prezzo
+    ON videogioco (prezzo)
+    WHERE nascosto = 0;
+
+-- Ordini di un utente (anche in un periodo) ordinati per data, con l'id come spareggio per il cursore
+CREATE INDEX IF NOT EXISTS idx_ordine_utente_data
+    ON ordine (id_utente, data_ordine DESC, id_ordine DESC);
@@ -0,0 +1,58 @@
+-- Revisione e impronta del contenuto di ogni carrello, usate dall'acquisto per capire se il FE ha visto l'ultima
+-- versione del carrello senza dover rimandare e ricontrollare tutte le righe (vedi CarrelloService.acquistaConImpronta).
+--
+-- revisione: cresce ad ogni istruzione che modifica le righe del carrello
+-- impronta:  md5 delle righe (id_videogioco:quantita:prezzo_unitario) ordinate per videogioco, md5('') se vuoto
+--
+-- Le aggiorna il DB con trigger su dettaglio_carrello, così valgono per tutti i percorsi di scrittura
+-- (entity JPA, upsert e batch JDBC, DELETE in blocco) senza che il codice Java debba ricordarsene.
+ALTER TABLE carrello
+    ADD COLUMN revisione BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN impronta  VARCHAR(32) NOT NULL DEFAULT md5('');
+
+CREATE FUNCTION ricalcola_impronta_carrelli(carrelli INTEGER[]) RETURNS void
+    LANGUAGE sql AS
+$$
+UPDATE carrello c
+SET revisione = c.revisione + 1,
+    impronta  = (SELECT md5(coalesce(string_agg(d.id_videogioco || ':' || d.quantita || ':' || coalesce(d.prezzo_unitario::text, ''),
+                                                ',' ORDER BY d.id_videogioco), ''))
+                 FROM dettaglio_carrello d
+                 WHERE d.id_carrello = c.carrello_id)
+WHERE c.carrello_id = ANY (carrelli);
+$$;
+
+-- Trigger per istruzione (non per riga): un batch di N righe sullo stesso carrello lo ricalcola una volta sola.
+-- Le tabelle di transizione non si possono usare con più eventi nello stesso trigger, quindi un trigger per evento.
+CREATE FUNCTION aggiorna_impronta_carrello() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM ricalcola_impronta_carrelli(ARRAY(SELECT DISTINCT id_carrello FROM nuove));
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM ricalcola_impronta_carrelli(ARRAY(SELECT id_carrello FROM nuove UNION SELECT id_carrello FROM vecchie));
+    ELSE
+        PERFORM ricalcola_impronta_carrelli(ARRAY(SELECT DISTINCT id_carrello FROM vecchie));
+    END IF;
+    RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER trg_dettaglio_carrello_inserimento
+    AFTER INSERT ON dettaglio_carrello
+    REFERENCING NEW TABLE AS nuove
+    FOR EACH STATEMENT EXECUTE FUNCTION aggiorna_impronta_carrello();
+
+CREATE TRIGGER trg_dettaglio_carrello_modifica
+    AFTER UPDATE ON dettaglio_carrello
+    REFERENCING OLD TABLE AS vecchie NEW TABLE AS nuove
+    FOR EACH STATEMENT EXECUTE FUNCTION aggiorna_impronta_carrello();
+
+CREATE TRIGGER trg_dettaglio_carrello_rimozione
+    AFTER DELETE ON dettaglio_carrello
+    REFERENCING OLD TABLE AS vecchie
+    FOR EACH STATEMENT EXECUTE FUNCTION aggiorna_impronta_carrello();
+
+-- Carrelli già esistenti
+SELECT ricalcola_impronta_carrelli(ARRAY(SELECT carrello_id FROM carrello));
@@ -0,0 +1,22 @@
+-- Momento dell'ultima modifica di ogni riga del carrello, usato dalla pulizia dei carrelli abbandonati (PuliziaCarrelli).
+-- Come revisione e impronta del carrello (V3) lo aggiorna il DB, così vale per tutti i percorsi di scrittura.
+-- Le righe già esistenti partono da adesso: verranno considerate abbandonate solo dopo il periodo configurato.
+ALTER TABLE dettaglio_carrello
+    ADD COLUMN ultima_modifica TIMESTAMP(6) NOT NULL DEFAULT now();
+
+CREATE FUNCTION aggiorna_ultima_modifica_dettaglio() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    NEW.ultima_modifica := now();
+    RETURN NEW;
+END;
+$$;
+
+CREATE TRIGGER trg_dettaglio_carrello_ultima_modifica
+    BEFORE INSERT OR UPDATE ON dettaglio_carrello
+    FOR EACH ROW EXECUTE FUNCTION aggiorna_ultima_modifica_dettaglio();
+
+-- La pulizia cerca le righe più vecchie di una data: senza indice sarebbe una scansione completa ad ogni blocco
+CREATE INDEX idx_dettaglio_carrello_ultima_modifica
+    ON dettaglio_carrello (ultima_modifica);
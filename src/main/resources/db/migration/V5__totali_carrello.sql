@@ -0,0 +1,26 @@
+-- Numero di articoli e totale del carrello tenuti sulla riga di carrello, così badge e mini-carrello li leggono
+-- senza sommare le righe ad ogni richiesta (vedi CarrelloService.totali e riepilogo).
+--
+-- Li aggiorna la stessa funzione dei trigger di V3, che ad ogni istruzione su dettaglio_carrello ricalcola già
+-- l'impronta dei carrelli toccati: un solo passaggio sulle righe del carrello calcola impronta, articoli e totale.
+ALTER TABLE carrello
+    ADD COLUMN numero_articoli INTEGER   NOT NULL DEFAULT 0,
+    ADD COLUMN totale          FLOAT(53) NOT NULL DEFAULT 0;
+
+CREATE OR REPLACE FUNCTION ricalcola_impronta_carrelli(carrelli INTEGER[]) RETURNS void
+    LANGUAGE sql AS
+$$
+UPDATE carrello c
+SET revisione = c.revisione + 1,
+    (impronta, numero_articoli, totale) =
+        (SELECT md5(coalesce(string_agg(d.id_videogioco || ':' || d.quantita || ':' || coalesce(d.prezzo_unitario::text, ''),
+                                        ',' ORDER BY d.id_videogioco), '')),
+                coalesce(sum(d.quantita), 0),
+                coalesce(round(sum(d.quantita * d.prezzo_unitario)::numeric, 2), 0)
+         FROM dettaglio_carrello d
+         WHERE d.id_carrello = c.carrello_id)
+WHERE c.carrello_id = ANY (carrelli);
+$$;
+
+-- Carrelli già esistenti
+SELECT ricalcola_impronta_carrelli(ARRAY(SELECT carrello_id FROM carrello));
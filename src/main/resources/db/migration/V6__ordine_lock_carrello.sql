@@ -0,0 +1,18 @@
+-- Ordine dei lock tra carrello e righe.
+--
+-- I trigger di V3 (con la funzione aggiornata in V5) fanno aggiornare la riga di carrello a ogni istruzione su
+-- dettaglio_carrello, quindi chi scrive le righe blocca sempre anche il loro carrello. Per non finire in deadlock
+-- tutti lo fanno nello stesso ordine: prima il carrello (FOR UPDATE o FOR NO KEY UPDATE), poi le righe.
+--
+--  - acquisto e acquisto con impronta:   CarrelloRepository.bloccaCarrelloAttivo
+--  - modifica di una riga:               CTE con FOR NO KEY UPDATE in impostaQuantita e rimuoviRiga
+--  - modifiche in blocco:                idCarrelloAttivoPerModifica
+--  - salvataggio dei carrelli in memoria e annullamento di un ordine: bloccaCarrelli (in ordine di id)
+--  - pulizia dei carrelli abbandonati:   FOR UPDATE OF c, d SKIP LOCKED
+--
+-- Nessuna modifica allo schema: la regola viene scritta anche sulle funzioni dei trigger, dove la trova chi le cambia.
+COMMENT ON FUNCTION aggiorna_impronta_carrello() IS
+    'Aggiorna la riga di carrello dopo ogni istruzione su dettaglio_carrello: chi scrive le righe deve aver già bloccato il carrello (V6__ordine_lock_carrello.sql)';
+
+COMMENT ON FUNCTION ricalcola_impronta_carrelli(INTEGER[]) IS
+    'Revisione, impronta, numero di articoli e totale dei carrelli indicati. Blocca le righe di carrello: vedi V6__ordine_lock_carrello.sql';
@@ -0,0 +1,23 @@
+-- Indici per gli scorrimenti a cursore (keyset) rimasti senza un indice nell'ordine giusto, e correzione di V2.
+--
+-- Tutti gli ordini per gli admin (/ordini/elencoOrdini con cursore, OrdineRepository.scorriTutti): il cursore è
+-- ammesso solo su dataOrdine, con l'id come spareggio. idx_ordine_utente_data (V2) parte dall'utente e qui non serve:
+-- senza questo indice ogni pagina ordina tutta la tabella per prenderne 20 righe.
+CREATE INDEX idx_ordine_data
+    ON ordine (data_ordine DESC, id_ordine DESC);
+
+-- Catalogo a cursore (VideogiocoRepository.scorriDisponibili): il cursore è ammesso solo su quantita, con l'id come
+-- spareggio, e il filtro dei disponibili arriva da una Specification, quindi nascosto = 0 è un parametro della query.
+-- Un indice parziale WHERE nascosto = 0 non verrebbe usato dai piani generici delle istruzioni preparate: nascosto va
+-- in testa all'indice, così vale qualunque sia il valore. Lo stesso indice copre anche la ricerca avanzata con la
+-- quantità minima (nascosto = ? AND quantita >= ?).
+CREATE INDEX idx_videogioco_nascosto_quantita_id
+    ON videogioco (nascosto, quantita DESC, id_videogioco DESC);
+
+-- È l'inizio del nuovo indice e la query per cui era stato creato (findByQuantitaGreaterThanAndNascosto) non esiste più
+DROP INDEX IF EXISTS idx_videogioco_nascosto_quantita;
+
+-- Il commento in V2 è rimasto quello di quando il catalogo si poteva scorrere con il cursore per prezzo.
+-- Adesso l'indice serve solo all'elenco a pagine (sintesiDisponibili) ordinato per prezzo.
+COMMENT ON INDEX idx_videogioco_disponibili_prezzo IS
+    'elencoVideogiochi a pagine (sintesiDisponibili) ordinato per prezzo DESC: quantita > 0 AND nascosto = 0 sono scritti nella query. Il cursore del catalogo usa idx_videogioco_nascosto_quantita_id (V7)';
@@ -0,0 +1,92 @@
+package com.example.gamestore;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Conta le istruzioni SQL mandate al DB da un thread, qualunque sia la strada (Hibernate, JdbcTemplate, Flyway):
+avvolge il DataSource e conta le prepareStatement / createStatement / prepareCall sulle sue connessioni.
+Le statistiche di Hibernate non bastano, perché non vedono le query fatte con JdbcTemplate.
+Si contano solo le istruzioni del thread che ha chiamato azzera() (quello del test), non quelle dei job in background.
+Un batch JDBC è una sola istruzione, anche se manda più righe.
+Per lo stesso thread tiene anche il testo delle istruzioni preparate (per farne l'EXPLAIN) e il massimo di connessioni aperte insieme (una transazione REQUIRES_NEW dentro un'altra -> 2).
+ */
+public class ContatoreIstruzioniSql implements BeanPostProcessor {
+
+    private static final Set<String> ISTRUZIONI = Set.of("prepareStatement", "createStatement", "prepareCall");
+
+    private static final AtomicLong contate = new AtomicLong();
+    private static final List<String> testi = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger aperte = new AtomicInteger();
+    private static final AtomicInteger aperteInsieme = new AtomicInteger();
+    private static volatile Thread thread;
+
+    public static void azzera() {
+        thread = Thread.currentThread();
+        contate.set(0);
+        testi.clear();
+        aperte.set(0);
+        aperteInsieme.set(0);
+    }
+
+    public static long contate() {
+        return contate.get();
+    }
+
+    public static List<String> testi() {
+        return List.copyOf(testi);
+    }
+
+    public static int connessioniAperteInsieme() {
+        return aperteInsieme.get();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource dataSource)) {
+            return bean;
+        }
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, metodo, argomenti) -> {
+            Object risultato = invoca(metodo, dataSource, argomenti);
+            return risultato instanceof Connection connessione ? conta(connessione) : risultato;
+        });
+    }
+
+    private static Connection conta(Connection connessione) {
+        AtomicBoolean aperta = new AtomicBoolean(Thread.currentThread() == thread);
+        if (aperta.get()) {
+            aperteInsieme.accumulateAndGet(aperte.incrementAndGet(), Math::max);
+        }
+        return (Connection) Proxy.newProxyInstance(ContatoreIstruzioniSql.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, metodo, argomenti) -> {
+            if (ISTRUZIONI.contains(metodo.getName()) && Thread.currentThread() == thread) {
+                contate.incrementAndGet();
+                if (metodo.getName().equals("prepareStatement")) {
+                    testi.add((String) argomenti[0]);
+                }
+            }
+            if (metodo.getName().equals("close") && aperta.getAndSet(false)) {
+                aperte.decrementAndGet();
+            }
+            return invoca(metodo, connessione, argomenti);
+        });
+    }
+
+    private static Object invoca(java.lang.reflect.Method metodo, Object destinatario, Object[] argomenti) throws Throwable {
+        try {
+            return metodo.invoke(destinatario, argomenti);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.example.gamestore;
+
+import com.example.gamestore.support.authentication.UtenteCorrente;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+/*
+Base dei test che passano dal DB: PostgreSQL embedded con lo schema creato da Flyway, come in produzione.
+Tutti i test che la estendono condividono lo stesso contesto Spring (e lo stesso DB, svuotato prima di ogni test).
+L'utente autenticato è un mock: il test sceglie l'id con autentica(idUtente).
+Le statistiche di Hibernate servono a contare le istruzioni SQL eseguite da un metodo con JPA; istruzioniSql()
+conta anche quelle fatte con JdbcTemplate (vedi ContatoreIstruzioniSql).
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false",
+        "gamestore.carrello.pulizia.attiva=false"
+})
+@AutoConfigureEmbeddedDatabase(provider = AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY)
+@Import(ContatoreIstruzioniSql.class)
+public abstract class TestConDatabase {
+
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @MockitoBean
+    protected UtenteCorrente utenteCorrente;
+
+    @BeforeEach
+    void svuotaDatabase() {
+        jdbcTemplate.execute("TRUNCATE dettaglio_ordine, ordine, dettaglio_carrello, carrello, videogioco, utente RESTART IDENTITY CASCADE");
+        statistiche().clear();
+        ContatoreIstruzioniSql.azzera();
+    }
+
+    // Istruzioni SQL mandate dal thread del test dall'ultimo azzeraIstruzioniSql() (o dall'inizio del test)
+    protected long istruzioniSql() {
+        return ContatoreIstruzioniSql.contate();
+    }
+
+    protected void azzeraIstruzioniSql() {
+        ContatoreIstruzioniSql.azzera();
+    }
+
+    // Testo delle istruzioni preparate dal thread del test dall'ultimo azzeraIstruzioniSql(), in ordine
+    protected List<String> testiIstruzioniSql() {
+        return ContatoreIstruzioniSql.testi();
+    }
+
+    // Massimo di connessioni tenute insieme dal thread del test dall'ultimo azzeraIstruzioniSql()
+    protected int connessioniAperteInsieme() {
+        return ContatoreIstruzioniSql.connessioniAperteInsieme();
+    }
+
+    protected Statistics statistiche() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    protected void autentica(int idUtente) {
+        when(utenteCorrente.id()).thenReturn(idUtente);
+    }
+
+    protected int inserisciVideogioco(String nome, String piattaforma, double prezzo, int quantita) {
+        return jdbcTemplate.queryForObject("INSERT INTO videogioco (version, nome, piattaforma, anno_rilascio, prezzo, quantita, nascosto) " +
+                "VALUES (0, ?, ?, 2020, ?, ?, 0) RETURNING id_videogioco", Integer.class, nome, piattaforma, prezzo, quantita);
+    }
+
+    // Utente con il suo carrello attivo, restituisce l'id dell'utente
+    protected int inserisciUtenteConCarrello(String email) {
+        int idUtente = jdbcTemplate.queryForObject("INSERT INTO utente (nome, cognome, email) VALUES ('Mario', 'Rossi', ?) RETURNING id_utente",
+                Integer.class, email);
+        jdbcTemplate.update("INSERT INTO carrello (id_utente, attivo) VALUES (?, 1)", idUtente);
+        return idUtente;
+    }
+
+    protected void inserisciRigaCarrello(int idUtente, int idVideogioco, int quantita, double prezzo) {
+        jdbcTemplate.update("INSERT INTO dettaglio_carrello (id_carrello, id_videogioco, quantita, prezzo_unitario) " +
+                "SELECT carrello_id, ?, ?, ? FROM carrello WHERE id_utente = ? AND attivo = 1", idVideogioco, quantita, prezzo, idUtente);
+    }
+
+    protected int quantita(int idVideogioco) {
+        return jdbcTemplate.queryForObject("SELECT quantita FROM videogioco WHERE id_videogioco = ?", Integer.class, idVideogioco);
+    }
+
+}
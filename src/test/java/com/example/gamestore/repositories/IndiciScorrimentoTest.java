@@ -0,0 +1,111 @@
+package com.example.gamestore.repositories;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.PaginaCursoreDto;
+import com.example.gamestore.services.OrdineService;
+import com.example.gamestore.services.VideogiocoService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+Piani delle pagine successive alla prima degli scorrimenti a cursore, con l'SQL esattamente come lo manda Hibernate.
+L'istruzione viene preparata e spiegata con plan_cache_mode = force_generic_plan: è il piano che PostgreSQL può
+riusare per tutte le esecuzioni, senza guardare i valori dei parametri (per questo si passano tutti NULL).
+ */
+class IndiciScorrimentoTest extends TestConDatabase {
+
+    @Autowired
+    private OrdineService ordineService;
+
+    @Autowired
+    private VideogiocoService videogiocoService;
+
+    // Ultima istruzione preparata dal test che legge dalla tabella indicata
+    private String ultimaSu(String tabella) {
+        List<String> testi = testiIstruzioniSql();
+        for (int i = testi.size() - 1; i >= 0; i--) {
+            if (testi.get(i).contains(" from " + tabella + " ")) {
+                return testi.get(i);
+            }
+        }
+        throw new AssertionError("Nessuna istruzione su " + tabella + ": " + testi);
+    }
+
+    private String pianoGenerico(String sql) {
+        StringBuilder numerata = new StringBuilder();
+        StringJoiner parametri = new StringJoiner(", ", "(", ")");
+        int n = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                numerata.append('$').append(++n);
+                parametri.add("NULL");
+            } else {
+                numerata.append(c);
+            }
+        }
+        return jdbcTemplate.execute((ConnectionCallback<String>) con -> {
+            try (Statement st = con.createStatement()) {
+                st.execute("SET plan_cache_mode = force_generic_plan");
+                st.execute("PREPARE scorrimento AS " + numerata);
+                StringBuilder piano = new StringBuilder();
+                try (ResultSet rs = st.executeQuery("EXPLAIN EXECUTE scorrimento" + parametri)) {
+                    while (rs.next()) {
+                        piano.append(rs.getString(1)).append('\n');
+                    }
+                } finally {
+                    st.execute("DEALLOCATE scorrimento");
+                    st.execute("RESET plan_cache_mode");
+                }
+                return piano.toString();
+            }
+        });
+    }
+
+    @Test
+    void gliOrdiniDegliAdminUsanoLIndicePerData() throws Exception {
+        int idUtente = inserisciUtenteConCarrello("admin@example.com");
+        jdbcTemplate.update("INSERT INTO ordine (data_ordine, totale, id_utente) " +
+                "SELECT now() - n * interval '1 minute', n, ? FROM generate_series(1, 5000) AS n", idUtente);
+        jdbcTemplate.execute("ANALYZE ordine");
+
+        PaginaCursoreDto<?> prima = ordineService.mostraTuttiGliOrdiniScorrimento(null, 20, "dataOrdine");
+        azzeraIstruzioniSql();
+        ordineService.mostraTuttiGliOrdiniScorrimento(prima.cursoreSuccessivo(), 20, "dataOrdine");
+
+        String piano = pianoGenerico(ultimaSu("ordine"));
+        assertThat(piano).contains("idx_ordine_data").doesNotContain("Seq Scan");
+    }
+
+    @Test
+    void ilCatalogoACursoreUsaLIndicePerQuantita() throws Exception {
+        jdbcTemplate.update("INSERT INTO videogioco (version, nome, piattaforma, anno_rilascio, prezzo, quantita, nascosto) " +
+                "SELECT 0, 'Gioco ' || n, 'PC', 2020, 10 + n % 50, n % 100, CASE WHEN n % 10 = 0 THEN 1 ELSE 0 END " +
+                "FROM generate_series(1, 5000) AS n");
+        jdbcTemplate.execute("ANALYZE videogioco");
+
+        PaginaCursoreDto<?> prima = videogiocoService.elencoVideogiochiScorrimento(null, 20, "quantita");
+        azzeraIstruzioniSql();
+        videogiocoService.elencoVideogiochiScorrimento(prima.cursoreSuccessivo(), 20, "quantita");
+
+        String piano = pianoGenerico(ultimaSu("videogioco"));
+        assertThat(piano).contains("idx_videogioco_nascosto_quantita_id").doesNotContain("Seq Scan");
+    }
+
+    // idx_videogioco_nascosto_quantita (V2) è l'inizio di idx_videogioco_nascosto_quantita_id e nessuna query lo usa più
+    @Test
+    void lIndiceSuperatoNonCEPiu() {
+        List<String> indici = jdbcTemplate.queryForList("SELECT indexname FROM pg_indexes WHERE tablename = 'videogioco'", String.class);
+
+        assertThat(indici).contains("idx_videogioco_nascosto_quantita_id", "idx_videogioco_disponibili_prezzo")
+                .doesNotContain("idx_videogioco_nascosto_quantita");
+    }
+
+}
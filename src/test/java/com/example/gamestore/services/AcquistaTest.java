@@ -0,0 +1,122 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.CarrelloDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.support.exceptions.OrdineNonValido;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+Istruzioni SQL di acquista per carrelli da 1, 10 e 100 righe, misurate con ContatoreIstruzioniSql:
+
+    righe   prima   dopo
+      1        9      7
+     10       54      7
+    100      504      7
+
+Prima c'erano 4 istruzioni fisse più 5 per riga, adesso: blocco del carrello, righe con i videogiochi, scorte, ordine,
+righe dell'ordine, eliminazione delle righe del carrello, più la lettura dell'utente del carrello (@OneToOne, caricato subito).
+ */
+class AcquistaTest extends TestConDatabase {
+
+    @Autowired
+    private CarrelloService carrelloService;
+
+    private final List<Integer> videogiochi = new ArrayList<>();
+
+    @BeforeEach
+    void prepara() {
+        videogiochi.clear();
+        for (int i = 0; i < 100; i++) {
+            videogiochi.add(inserisciVideogioco("Gioco " + i, "PC", 10 + i, 5));
+        }
+    }
+
+    // Utente con un carrello di righe righe (una copia per videogioco), restituisce il carrello come lo vede il FE
+    private CarrelloDto carrello(String email, int righe) {
+        int idUtente = inserisciUtenteConCarrello(email);
+        List<DettaglioDto> dettagli = new ArrayList<>();
+        for (int i = 0; i < righe; i++) {
+            inserisciRigaCarrello(idUtente, videogiochi.get(i), 1, 10.0 + i);
+            dettagli.add(new DettaglioDto(videogiochi.get(i), 1, 10.0 + i));
+        }
+        autentica(idUtente);
+        return new CarrelloDto(dettagli, idUtente);
+    }
+
+    private int ordini() {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM ordine", Integer.class);
+    }
+
+    @Test
+    void istruzioniIndipendentiDalNumeroDiRighe() throws Exception {
+        List<Long> istruzioni = new ArrayList<>();
+        for (int righe : new int[]{1, 10, 100}) {
+            CarrelloDto carrello = carrello("righe" + righe + "@example.com", righe);
+            azzeraIstruzioniSql();
+            carrelloService.acquista(carrello);
+            istruzioni.add(istruzioniSql());
+        }
+
+        assertThat(istruzioni).containsExactly(7L, 7L, 7L);
+        assertThat(ordini()).isEqualTo(3);
+        assertThat(quantita(videogiochi.get(0))).isEqualTo(2);
+        assertThat(quantita(videogiochi.get(99))).isEqualTo(4);
+    }
+
+    @Test
+    void lAcquistoRipetutoNonCreaUnSecondoOrdine() throws Exception {
+        CarrelloDto carrello = carrello("ripetuto@example.com", 3);
+
+        carrelloService.acquista(carrello);
+        assertThatThrownBy(() -> carrelloService.acquista(carrello)).isInstanceOf(OrdineNonValido.class);
+
+        assertThat(ordini()).isEqualTo(1);
+        assertThat(quantita(videogiochi.get(0))).isEqualTo(4);
+    }
+
+    // Doppio click: due richieste uguali nello stesso momento, il blocco del carrello le mette in fila
+    @Test
+    void dueAcquistiContemporaneiDelloStessoCarrelloUnSoloOrdine() throws Exception {
+        CarrelloDto carrello = carrello("contemporanei@example.com", 10);
+
+        CountDownLatch via = new CountDownLatch(1);
+        Callable<Boolean> acquisto = () -> {
+            via.await();
+            try {
+                carrelloService.acquista(carrello);
+                return true;
+            } catch (OrdineNonValido e) {
+                return false;
+            }
+        };
+        ExecutorService esecutore = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> primo = esecutore.submit(acquisto);
+            Future<Boolean> secondo = esecutore.submit(acquisto);
+            via.countDown();
+            assertThat(List.of(primo.get(), secondo.get())).containsExactlyInAnyOrder(true, false);
+        } finally {
+            esecutore.shutdown();
+        }
+
+        assertThat(ordini()).isEqualTo(1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(quantita(videogiochi.get(i))).isEqualTo(4);
+        }
+    }
+
+}
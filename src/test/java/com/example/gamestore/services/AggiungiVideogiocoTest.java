@@ -0,0 +1,129 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.CarrelloDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.support.exceptions.OrdineNonValido;
+import com.example.gamestore.support.exceptions.QuantitaVideogiocoNonDisponibile;
+import com.example.gamestore.support.exceptions.VideogiocoNonValidoException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Istruzioni SQL per chiamata di aggiungiVideogioco: una sola quando la riga viene scritta, due quando la richiesta è respinta
+class AggiungiVideogiocoTest extends TestConDatabase {
+
+    @Autowired
+    private CarrelloService carrelloService;
+
+    private int idUtente;
+    private int doom;
+
+    @BeforeEach
+    void prepara() {
+        idUtente = inserisciUtenteConCarrello("aggiungi@example.com");
+        autentica(idUtente);
+        doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        azzeraIstruzioniSql();
+    }
+
+    private int quantitaNelCarrello() {
+        Integer quantita = jdbcTemplate.query("SELECT d.quantita FROM dettaglio_carrello d JOIN carrello c ON c.carrello_id = d.id_carrello " +
+                "WHERE c.id_utente = ? AND d.id_videogioco = ?", rs -> rs.next() ? rs.getInt(1) : 0, idUtente, doom);
+        return quantita;
+    }
+
+    @Test
+    void aggiuntaModificaERimozioneUnaIstruzioneCiascuna() throws Exception {
+        DettaglioDto aggiunta = carrelloService.aggiungiVideogioco(idUtente, doom, 2);
+        assertThat(istruzioniSql()).isEqualTo(1);
+        assertThat(aggiunta).isEqualTo(new DettaglioDto(doom, 2, 19.99));
+
+        azzeraIstruzioniSql();
+        carrelloService.aggiungiVideogioco(idUtente, doom, 4);
+        assertThat(istruzioniSql()).isEqualTo(1);
+        assertThat(quantitaNelCarrello()).isEqualTo(4);
+
+        azzeraIstruzioniSql();
+        DettaglioDto rimossa = carrelloService.aggiungiVideogioco(idUtente, doom, 0);
+        assertThat(istruzioniSql()).isEqualTo(1);
+        assertThat(rimossa.quantita()).isZero();
+        assertThat(quantitaNelCarrello()).isZero();
+    }
+
+    @Test
+    void richiesteRespinteDueIstruzioni() {
+        assertThatThrownBy(() -> carrelloService.aggiungiVideogioco(idUtente, doom, 6)).isInstanceOf(QuantitaVideogiocoNonDisponibile.class);
+        assertThat(istruzioniSql()).isEqualTo(2);
+
+        jdbcTemplate.update("UPDATE videogioco SET nascosto = 1 WHERE id_videogioco = ?", doom);
+        azzeraIstruzioniSql();
+        assertThatThrownBy(() -> carrelloService.aggiungiVideogioco(idUtente, doom, 1)).isInstanceOf(VideogiocoNonValidoException.class);
+        assertThat(istruzioniSql()).isEqualTo(2);
+        assertThat(quantitaNelCarrello()).isZero();
+    }
+
+    /*
+    Modifiche di una riga e acquisto dello stesso carrello nello stesso momento: tutti bloccano prima il carrello e poi
+    le righe, quindi si mettono in fila. Con l'ordine inverso (riga e poi carrello, dal trigger) PostgreSQL interrompeva
+    una delle due transazioni per deadlock.
+     */
+    @Test
+    void modificheEAcquistoContemporaneiSenzaDeadlock() throws Exception {
+        int halo = inserisciVideogioco("Halo", "Xbox", 29.99, 1000);
+        jdbcTemplate.update("UPDATE videogioco SET quantita = 1000 WHERE id_videogioco = ?", doom);
+        CarrelloDto carrello = new CarrelloDto(List.of(new DettaglioDto(doom, 1, 19.99), new DettaglioDto(halo, 1, 29.99)), idUtente);
+
+        ConcurrentLinkedQueue<Exception> inattese = new ConcurrentLinkedQueue<>();
+        ExecutorService esecutore = Executors.newFixedThreadPool(2);
+        try {
+            for (int giro = 0; giro < 30; giro++) {
+                jdbcTemplate.update("DELETE FROM dettaglio_carrello");
+                inserisciRigaCarrello(idUtente, doom, 1, 19.99);
+                inserisciRigaCarrello(idUtente, halo, 1, 29.99);
+
+                CountDownLatch via = new CountDownLatch(1);
+                Future<?> modifiche = esecutore.submit(() -> {
+                    via.await();
+                    for (int i = 0; i < 10; i++) {
+                        try {
+                            carrelloService.aggiungiVideogioco(idUtente, halo, 1);
+                        } catch (Exception e) {
+                            inattese.add(e);
+                        }
+                    }
+                    return null;
+                });
+                Future<?> acquisto = esecutore.submit(() -> {
+                    via.await();
+                    try {
+                        carrelloService.acquista(carrello);
+                    } catch (OrdineNonValido e) {
+                        //il carrello è cambiato prima del blocco: risposta prevista
+                    } catch (Exception e) {
+                        inattese.add(e);
+                    }
+                    return null;
+                });
+                via.countDown();
+                modifiche.get();
+                acquisto.get();
+            }
+        } finally {
+            esecutore.shutdown();
+        }
+
+        assertThat(inattese).isEmpty();
+    }
+
+}
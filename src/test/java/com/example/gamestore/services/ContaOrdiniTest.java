@@ -0,0 +1,54 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.ConteggioDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContaOrdiniTest extends TestConDatabase {
+
+    @Autowired
+    private OrdineService ordineService;
+
+    private void inserisciOrdini(int quanti) {
+        int idUtente = inserisciUtenteConCarrello("conta@example.com");
+        jdbcTemplate.update("INSERT INTO ordine (data_ordine, totale, id_utente) " +
+                "SELECT now(), n, ? FROM generate_series(1, ?) AS n", idUtente, quanti);
+    }
+
+    @Test
+    void stimaDalleStatisticheQuandoLaTabellaEAnalizzata() {
+        inserisciOrdini(50);
+        jdbcTemplate.execute("ANALYZE ordine");
+
+        ConteggioDto conteggio = ordineService.contaOrdini(false);
+
+        assertThat(conteggio.approssimato()).isTrue();
+        assertThat(conteggio.totale()).isEqualTo(50);
+    }
+
+    @Test
+    void conEsattoSempreCount() {
+        inserisciOrdini(7);
+
+        ConteggioDto conteggio = ordineService.contaOrdini(true);
+
+        assertThat(conteggio.approssimato()).isFalse();
+        assertThat(conteggio.totale()).isEqualTo(7);
+    }
+
+    @Test
+    void senzaStatisticheRicadeSullaCountEsatta() {
+        inserisciOrdini(3);
+        //una tabella appena creata non ha statistiche: reltuples = -1
+        jdbcTemplate.execute("UPDATE pg_class SET reltuples = -1 WHERE oid = 'ordine'::regclass");
+
+        ConteggioDto conteggio = ordineService.contaOrdini(false);
+
+        assertThat(conteggio.approssimato()).isFalse();
+        assertThat(conteggio.totale()).isEqualTo(3);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.entities.DettaglioOrdine;
+import com.example.gamestore.entities.Ordine;
+import com.example.gamestore.entities.Utente;
+import com.example.gamestore.entities.Videogioco;
+import com.example.gamestore.support.exceptions.QuantitaVideogiocoNonDisponibile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+Acquirenti contemporanei di un solo videogioco con salvaOrdine, una copia a testa: le scorte non devono mai andare
+sotto zero e chi non trova più copie deve ricevere QuantitaVideogiocoNonDisponibile, non un errore di lock.
+ */
+class ContesaScorteTest extends TestConDatabase {
+
+    @Autowired
+    private OrdineService ordineService;
+
+    private record Esito(int riusciti, int esauriti, int altriErrori) {
+    }
+
+    private Ordine ordine(int idUtente, int idVideogioco, double prezzo) {
+        Utente utente = new Utente();
+        utente.setId(idUtente);
+        Videogioco videogioco = new Videogioco();
+        videogioco.setId(idVideogioco);
+        DettaglioOrdine dettaglio = new DettaglioOrdine();
+        dettaglio.setVideogioco(videogioco);
+        dettaglio.setQuantita(1);
+        dettaglio.setPrezzoUnitario(prezzo);
+        Ordine ordine = new Ordine();
+        ordine.setUtente(utente);
+        ordine.setListaDettagliOrdine(new ArrayList<>(List.of(dettaglio)));
+        return ordine;
+    }
+
+    private Esito acquirenti(int quanti, int idUtente, int idVideogioco) throws InterruptedException {
+        AtomicInteger riusciti = new AtomicInteger();
+        AtomicInteger esauriti = new AtomicInteger();
+        AtomicInteger altriErrori = new AtomicInteger();
+        CountDownLatch via = new CountDownLatch(1);
+        ExecutorService esecutore = Executors.newFixedThreadPool(quanti);
+        for (int i = 0; i < quanti; i++) {
+            esecutore.submit(() -> {
+                try {
+                    via.await();
+                    ordineService.salvaOrdine(ordine(idUtente, idVideogioco, 19.99));
+                    riusciti.incrementAndGet();
+                } catch (QuantitaVideogiocoNonDisponibile e) {
+                    esauriti.incrementAndGet();
+                } catch (Exception e) {
+                    altriErrori.incrementAndGet();
+                }
+            });
+        }
+        via.countDown();
+        esecutore.shutdown();
+        assertThat(esecutore.awaitTermination(2, TimeUnit.MINUTES)).isTrue();
+        return new Esito(riusciti.get(), esauriti.get(), altriErrori.get());
+    }
+
+    @Test
+    void leScorteNonVannoMaiSottoZero() throws Exception {
+        int idUtente = inserisciUtenteConCarrello("contesa@example.com");
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 20);
+
+        Esito esito = acquirenti(64, idUtente, doom);
+
+        assertThat(esito).isEqualTo(new Esito(20, 44, 0));
+        assertThat(quantita(doom)).isZero();
+        assertThat(jdbcTemplate.queryForObject("SELECT coalesce(sum(quantita), 0) FROM dettaglio_ordine WHERE id_videogioco = ?",
+                Integer.class, doom)).isEqualTo(20);
+    }
+
+    @Test
+    void conScorteSufficientiRiesconoTutti() throws Exception {
+        int idUtente = inserisciUtenteConCarrello("contesa@example.com");
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 20);
+
+        assertThat(acquirenti(8, idUtente, doom)).isEqualTo(new Esito(8, 0, 0));
+        assertThat(quantita(doom)).isEqualTo(12);
+    }
+
+}
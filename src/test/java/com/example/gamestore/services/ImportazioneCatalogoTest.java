@@ -0,0 +1,64 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.EsitoImportazioneDto;
+import com.example.gamestore.support.esportazione.ScrittoreEsportazione;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImportazioneCatalogoTest extends TestConDatabase {
+
+    @Autowired
+    private ImportazioneCatalogoService importazioneCatalogoService;
+
+    @Autowired
+    private EsportazioneService esportazioneService;
+
+    private byte[] esporta(ScrittoreEsportazione.Formato formato) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        esportazioneService.esportaCatalogo(formato).writeTo(output);
+        return output.toByteArray();
+    }
+
+    private EsitoImportazioneDto importa(byte[] file, ScrittoreEsportazione.Formato formato) throws Exception {
+        return importazioneCatalogoService.importa(new ByteArrayInputStream(file), formato.contentType());
+    }
+
+    private int nascosto(String nome) {
+        return jdbcTemplate.queryForObject("SELECT nascosto FROM videogioco WHERE nome = ?", Integer.class, nome);
+    }
+
+    @Test
+    void lEsportazioneReimportataConservaINascosti() throws Exception {
+        for (ScrittoreEsportazione.Formato formato : ScrittoreEsportazione.Formato.values()) {
+            svuotaCatalogo();
+            inserisciVideogioco("Doom, \"Eternal\"", "PC", 59.99, 3);
+            int halo = inserisciVideogioco("Halo", "Xbox", 9.99, 0);
+            jdbcTemplate.update("UPDATE videogioco SET nascosto = 1 WHERE id_videogioco = ?", halo);
+            byte[] file = esporta(formato);
+
+            // Sullo stesso catalogo non cambia niente: il nascosto non viene riattivato
+            EsitoImportazioneDto stesso = importa(file, formato);
+            assertThat(stesso.inseriti() + stesso.riattivati()).as(formato.name()).isZero();
+            assertThat(stesso.scartati()).isEqualTo(2);
+            assertThat(nascosto("Halo")).isEqualTo(1);
+
+            // Su un catalogo vuoto si ritrovano gli stessi videogiochi, nascosti compresi
+            svuotaCatalogo();
+            EsitoImportazioneDto vuoto = importa(file, formato);
+            assertThat(vuoto.inseriti()).as(formato.name()).isEqualTo(2);
+            assertThat(nascosto("Halo")).isEqualTo(1);
+            assertThat(nascosto("Doom, \"Eternal\"")).isZero();
+        }
+    }
+
+    private void svuotaCatalogo() {
+        jdbcTemplate.execute("TRUNCATE videogioco RESTART IDENTITY CASCADE");
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.EsitoRigaCarrelloDto;
+import com.example.gamestore.dto.ModificaRigaCarrelloDto;
+import com.example.gamestore.support.carrello.CarrelliInMemoria;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static com.example.gamestore.dto.EsitoRigaCarrelloDto.Esito.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModificaInBloccoTest extends TestConDatabase {
+
+    @Autowired
+    private CarrelloService carrelloService;
+
+    @Autowired
+    private CarrelliInMemoria carrelliInMemoria;
+
+    private int idUtente;
+    private int doom;
+    private int halo;
+    private int zelda;
+    private int nascosto;
+
+    @BeforeEach
+    void prepara() {
+        idUtente = inserisciUtenteConCarrello("blocco@example.com");
+        autentica(idUtente);
+        doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        halo = inserisciVideogioco("Halo", "Xbox", 29.99, 5);
+        zelda = inserisciVideogioco("Zelda", "Switch", 49.99, 1);
+        nascosto = inserisciVideogioco("Nascosto", "PC", 9.99, 5);
+        inserisciRigaCarrello(idUtente, halo, 1, 29.99);
+        inserisciRigaCarrello(idUtente, nascosto, 1, 9.99);
+        jdbcTemplate.update("UPDATE videogioco SET nascosto = 1 WHERE id_videogioco = ?", nascosto);
+        azzeraIstruzioniSql();
+    }
+
+    private List<ModificaRigaCarrelloDto> modifiche() {
+        return List.of(
+                new ModificaRigaCarrelloDto(doom, 2),
+                new ModificaRigaCarrelloDto(halo, 0),
+                new ModificaRigaCarrelloDto(zelda, 0),
+                new ModificaRigaCarrelloDto(nascosto, 0),
+                new ModificaRigaCarrelloDto(nascosto, 0),
+                new ModificaRigaCarrelloDto(999, 0),
+                new ModificaRigaCarrelloDto(998, 1),
+                new ModificaRigaCarrelloDto(zelda, 3));
+    }
+
+    private void verificaEsiti(List<EsitoRigaCarrelloDto> esiti) {
+        assertThat(esiti).extracting(EsitoRigaCarrelloDto::esito)
+                .containsExactly(AGGIORNATO, RIMOSSO, NON_PRESENTE, RIMOSSO, DUPLICATO, VIDEOGIOCO_NON_VALIDO, VIDEOGIOCO_NON_VALIDO, DUPLICATO);
+    }
+
+    @Test
+    void esitiDaiConteggiDelleIstruzioni() throws Exception {
+        List<EsitoRigaCarrelloDto> esiti = carrelloService.modificaInBlocco(idUtente, modifiche());
+
+        //carrello, sintesi, upsert, delete e la verifica dell'unico id rimasto senza riga e non visibile (999)
+        assertThat(istruzioniSql()).isEqualTo(5);
+        verificaEsiti(esiti);
+        assertThat(jdbcTemplate.queryForList("SELECT id_videogioco FROM dettaglio_carrello", Integer.class)).containsExactly(doom);
+    }
+
+    @Test
+    void tuttoRimossoSenzaSecondaLettura() throws Exception {
+        carrelloService.modificaInBlocco(idUtente, List.of(new ModificaRigaCarrelloDto(halo, 0), new ModificaRigaCarrelloDto(doom, 0)));
+
+        //doom non era nel carrello ma è visibile: basta la prima lettura per dire NON_PRESENTE
+        assertThat(istruzioniSql()).isEqualTo(3);
+    }
+
+    @Test
+    void stessiEsitiConICarrelliInMemoria() throws Exception {
+        ReflectionTestUtils.setField(carrelliInMemoria, "attivo", true);
+        try {
+            verificaEsiti(carrelloService.modificaInBlocco(idUtente, modifiche()));
+            carrelliInMemoria.salvaUtente(idUtente);
+        } finally {
+            ReflectionTestUtils.setField(carrelliInMemoria, "attivo", false);
+        }
+        assertThat(jdbcTemplate.queryForList("SELECT id_videogioco FROM dettaglio_carrello", Integer.class)).containsExactly(doom);
+    }
+
+}
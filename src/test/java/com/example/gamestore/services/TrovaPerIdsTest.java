@@ -0,0 +1,45 @@
+package com.example.gamestore.services;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.ElementoBatchDto;
+import com.example.gamestore.support.exceptions.IdBatchNonValidiException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TrovaPerIdsTest extends TestConDatabase {
+
+    @Autowired
+    private VideogiocoService videogiocoService;
+
+    @Test
+    void nellOrdineRichiestoConINonTrovati() throws Exception {
+        int doom = inserisciVideogioco("Doom", "PC", 20, 1);
+        int halo = inserisciVideogioco("Halo", "Xbox", 30, 1);
+        jdbcTemplate.update("UPDATE videogioco SET nascosto = 1 WHERE id_videogioco = ?", halo);
+
+        List<ElementoBatchDto> risultato = videogiocoService.trovaPerIds(List.of(999, doom, halo));
+
+        assertThat(risultato).extracting(ElementoBatchDto::id).containsExactly(999, doom, halo);
+        assertThat(risultato).extracting(ElementoBatchDto::trovato).containsExactly(false, true, false);
+        assertThat(risultato.get(1).videogioco().nome()).isEqualTo("Doom");
+        assertThat(statistiche().getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void idNulliRipetutiOTroppiRifiutatiSenzaQuery() {
+        List<Integer> troppi = IntStream.rangeClosed(1, VideogiocoService.MAX_ID_BATCH + 1).boxed().toList();
+
+        for (List<Integer> ids : Arrays.asList(null, List.<Integer>of(), Arrays.asList(1, null), List.of(1, 2, 1), troppi)) {
+            assertThatThrownBy(() -> videogiocoService.trovaPerIds(ids)).isInstanceOf(IdBatchNonValidiException.class);
+        }
+        assertThat(statistiche().getPrepareStatementCount()).isZero();
+    }
+
+}
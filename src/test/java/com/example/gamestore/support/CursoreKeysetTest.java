@@ -0,0 +1,126 @@
+package com.example.gamestore.support;
+
+import com.example.gamestore.entities.Ordine;
+import com.example.gamestore.entities.Videogioco;
+import com.example.gamestore.support.exceptions.CursoreNonValidoException;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CursoreKeysetTest {
+
+    private static final Sort PER_QUANTITA = Sort.by(Sort.Direction.DESC, "quantita", "id");
+
+    private static String cursore(Object... chiaviEValori) {
+        Map<String, Object> chiavi = new LinkedHashMap<>();
+        for (int i = 0; i < chiaviEValori.length; i += 2) {
+            chiavi.put((String) chiaviEValori[i], chiaviEValori[i + 1]);
+        }
+        return CursoreKeyset.codifica(ScrollPosition.forward(chiavi));
+    }
+
+    private static String base64(String testo) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(testo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void cursoreAssenteOVuotoIndicaLaPrimaPagina() throws Exception {
+        assertThat(CursoreKeyset.decodifica(null, PER_QUANTITA, Videogioco.class).isInitial()).isTrue();
+        assertThat(CursoreKeyset.decodifica(" ", PER_QUANTITA, Videogioco.class).isInitial()).isTrue();
+    }
+
+    @Test
+    void andataERitornoConservaChiaviETipi() throws Exception {
+        KeysetScrollPosition posizione = (KeysetScrollPosition) CursoreKeyset.decodifica(
+                cursore("quantita", 7, "id", 42), PER_QUANTITA, Videogioco.class);
+
+        assertThat(posizione.getKeys()).containsExactly(Map.entry("quantita", 7), Map.entry("id", 42));
+    }
+
+    @Test
+    void iTimestampConservanoIMicrosecondi() throws Exception {
+        Timestamp data = Timestamp.valueOf("2024-05-01 10:20:30.123456");
+        Sort perData = Sort.by(Sort.Direction.DESC, "dataOrdine", "id");
+
+        KeysetScrollPosition posizione = (KeysetScrollPosition) CursoreKeyset.decodifica(
+                cursore("dataOrdine", data, "id", 3), perData, Ordine.class);
+
+        assertThat(posizione.getKeys().get("dataOrdine")).isEqualTo(data);
+    }
+
+    @Test
+    void valoriConCaratteriSpecialiTornanoUguali() throws Exception {
+        Sort perNome = Sort.by(Sort.Direction.DESC, "nome", "id");
+
+        KeysetScrollPosition posizione = (KeysetScrollPosition) CursoreKeyset.decodifica(
+                cursore("nome", "Gioco & co = 100% ñ", "id", 1), perNome, Videogioco.class);
+
+        assertThat(posizione.getKeys().get("nome")).isEqualTo("Gioco & co = 100% ñ");
+    }
+
+    @Test
+    void cursoreDiUnAltroOrdinamentoNonValido() {
+        String perPrezzo = cursore("prezzo", 10.5, "id", 42);
+
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(perPrezzo, PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+    }
+
+    // Spring Data non scrive le chiavi nell'ordine dell'ordinamento (Window.positionAt può dare id per primo)
+    @Test
+    void chiaviInOrdineDiversoValideERiordinate() throws Exception {
+        KeysetScrollPosition posizione = (KeysetScrollPosition) CursoreKeyset.decodifica(
+                cursore("id", 42, "quantita", 7), PER_QUANTITA, Videogioco.class);
+
+        assertThat(posizione.getKeys()).containsExactly(Map.entry("quantita", 7), Map.entry("id", 42));
+    }
+
+    @Test
+    void chiaviMancantiOInPiuNonValide() {
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(cursore("quantita", 7), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(cursore("quantita", 7, "id", 42, "prezzo", 10.5), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+    }
+
+    @Test
+    void chiaveNullaNonValida() {
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(cursore("quantita", null, "id", 42), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+    }
+
+    @Test
+    void tipoDiversoDallAttributoNonValido() {
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(cursore("quantita", "sette", "id", 42), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(cursore("quantita", 7L, "id", 42), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+    }
+
+    @Test
+    void cursoreManomessoNonValido() {
+        String valido = cursore("quantita", 7, "id", 42);
+
+        assertThatThrownBy(() -> CursoreKeyset.decodifica("!!" + valido, PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(base64("quantita=I7&id=Iquarantadue"), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(base64("quantita=X7&id=I42"), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(base64("quantita=I7&id=I1&id=I2"), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+        assertThatThrownBy(() -> CursoreKeyset.decodifica(base64("spazzatura"), PER_QUANTITA, Videogioco.class))
+                .isInstanceOf(CursoreNonValidoException.class);
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.example.gamestore.support.carrello;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.CarrelloDto;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.RiepilogoCarrelloDto;
+import com.example.gamestore.entities.Ordine;
+import com.example.gamestore.services.CarrelloService;
+import com.example.gamestore.services.OrdineService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CarrelliInMemoriaTest extends TestConDatabase {
+
+    @Autowired
+    private CarrelliInMemoria carrelliInMemoria;
+
+    @Autowired
+    private CarrelloService carrelloService;
+
+    @Autowired
+    private OrdineService ordineService;
+
+    private int mario;
+    private int luigi;
+
+    @BeforeEach
+    void attiva() {
+        mario = inserisciUtenteConCarrello("mario@example.com");
+        luigi = inserisciUtenteConCarrello("luigi@example.com");
+        ReflectionTestUtils.setField(carrelliInMemoria, "tentativiMassimi", 3);
+        ReflectionTestUtils.setField(carrelliInMemoria, "attivo", true);
+    }
+
+    @AfterEach
+    void disattiva() {
+        ReflectionTestUtils.setField(carrelliInMemoria, "attivo", false);
+        ReflectionTestUtils.setField(carrelliInMemoria, "tentativiMassimi", 5);
+        carrelliInMemoria.salvaTutto();
+        carrelliInMemoria.dimentica(mario);
+        carrelliInMemoria.dimentica(luigi);
+    }
+
+    private List<Integer> righeSulDb(int idUtente) {
+        return jdbcTemplate.queryForList("SELECT d.id_videogioco FROM dettaglio_carrello d JOIN carrello c ON c.carrello_id = d.id_carrello " +
+                "WHERE c.id_utente = ?", Integer.class, idUtente);
+    }
+
+    @Test
+    void unCarrelloRifiutatoNonFermaGliAltriEDopoITentativiVieneScartato() throws Exception {
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        int eliminato = inserisciVideogioco("Eliminato", "PC", 9.99, 5);
+        carrelliInMemoria.applica(mario, List.of(new DettaglioDto(doom, 2, 19.99)));
+        carrelliInMemoria.applica(luigi, List.of(new DettaglioDto(doom, 1, 19.99), new DettaglioDto(eliminato, 1, 9.99)));
+        //la riga di luigi non può più essere scritta (chiave esterna)
+        jdbcTemplate.update("DELETE FROM videogioco WHERE id_videogioco = ?", eliminato);
+
+        carrelliInMemoria.salvaPeriodicamente();
+        assertThat(righeSulDb(mario)).containsExactly(doom);
+        assertThat(righeSulDb(luigi)).isEmpty();
+
+        for (int i = 0; i < 3; i++) {
+            carrelliInMemoria.salvaPeriodicamente();
+        }
+        assertThat(carrelliInMemoria.statistiche().carrelliScartati()).isEqualTo(1);
+        assertThat(carrelliInMemoria.statistiche().carrelliDaSalvare()).isZero();
+        //il carrello scartato viene riletto dal DB
+        assertThat(carrelliInMemoria.righe(luigi)).isEmpty();
+        assertThat(carrelliInMemoria.righe(mario)).extracting(DettaglioDto::idVideogioco).containsExactly(doom);
+    }
+
+    @Test
+    void ilRiepilogoLeggeLeModificheAncoraInMemoria() throws Exception {
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        autentica(mario);
+        carrelliInMemoria.applica(mario, List.of(new DettaglioDto(doom, 3, 19.99)));
+
+        RiepilogoCarrelloDto riepilogo = carrelloService.riepilogo(mario);
+
+        assertThat(riepilogo.numeroArticoli()).isEqualTo(3);
+        assertThat(carrelloService.impronta(mario).revisione()).isEqualTo(riepilogo.revisione());
+        assertThat(righeSulDb(mario)).containsExactly(doom);
+    }
+
+    // Il salvataggio delle modifiche in sospeso viene fatto prima della transazione dell'acquisto, non dentro
+    @Test
+    void lAcquistoTieneUnaSolaConnessione() throws Exception {
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        autentica(mario);
+        carrelliInMemoria.applica(mario, List.of(new DettaglioDto(doom, 2, 19.99)));
+
+        azzeraIstruzioniSql();
+        carrelloService.acquista(new CarrelloDto(List.of(new DettaglioDto(doom, 2, 19.99)), mario));
+
+        assertThat(connessioniAperteInsieme()).isEqualTo(1);
+        assertThat(quantita(doom)).isEqualTo(3);
+    }
+
+    // Le righe dell'ordine annullato si sommano a quelle in memoria non ancora salvate, senza essere sovrascritte dal salvataggio
+    @Test
+    void lAnnullamentoDiUnOrdineRimetteLeRigheNelCarrelloInMemoria() throws Exception {
+        int doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        int halo = inserisciVideogioco("Halo", "Xbox", 29.99, 5);
+        autentica(mario);
+        carrelliInMemoria.applica(mario, List.of(new DettaglioDto(doom, 2, 19.99)));
+        Ordine ordine = carrelloService.acquista(new CarrelloDto(List.of(new DettaglioDto(doom, 2, 19.99)), mario));
+        carrelliInMemoria.applica(mario, List.of(new DettaglioDto(doom, 1, 19.99), new DettaglioDto(halo, 1, 29.99)));
+
+        ordineService.rimuoviOrdine(ordine.getId());
+
+        assertThat(carrelloService.totali(mario).numeroArticoli()).isEqualTo(4);
+        assertThat(carrelliInMemoria.righe(mario)).containsExactlyInAnyOrder(new DettaglioDto(doom, 3, 19.99), new DettaglioDto(halo, 1, 29.99));
+        carrelloService.acquista(new CarrelloDto(List.of(new DettaglioDto(doom, 3, 19.99), new DettaglioDto(halo, 1, 29.99)), mario));
+        assertThat(quantita(doom)).isEqualTo(2);
+        assertThat(quantita(halo)).isEqualTo(4);
+        assertThat(righeSulDb(mario)).isEmpty();
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.example.gamestore.support.carrello;
+
+import com.example.gamestore.TestConDatabase;
+import com.example.gamestore.dto.DettaglioDto;
+import com.example.gamestore.dto.EsitoPuliziaCarrelliDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PuliziaCarrelliTest extends TestConDatabase {
+
+    @Autowired
+    private PuliziaCarrelli puliziaCarrelli;
+
+    @Autowired
+    private CarrelliInMemoria carrelliInMemoria;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private int mario;
+    private int luigi;
+    private int doom;
+    private int halo;
+
+    @BeforeEach
+    void prepara() {
+        mario = inserisciUtenteConCarrello("mario@example.com");
+        luigi = inserisciUtenteConCarrello("luigi@example.com");
+        doom = inserisciVideogioco("Doom", "PC", 19.99, 5);
+        halo = inserisciVideogioco("Halo", "Xbox", 29.99, 5);
+        inserisciRigaCarrello(mario, doom, 1, 19.99);
+        inserisciRigaCarrello(luigi, doom, 1, 19.99);
+        ReflectionTestUtils.setField(puliziaCarrelli, "attiva", true);
+        ReflectionTestUtils.setField(puliziaCarrelli, "pausaMs", 0L);
+    }
+
+    @AfterEach
+    void ripristina() {
+        ReflectionTestUtils.setField(puliziaCarrelli, "attiva", false);
+        ReflectionTestUtils.setField(puliziaCarrelli, "pausaMs", 200L);
+        ReflectionTestUtils.setField(puliziaCarrelli, "giorniInattivita", 30);
+        carrelliInMemoria.dimentica(mario);
+        carrelliInMemoria.dimentica(luigi);
+    }
+
+    // Con il limite nel futuro tutte le righe risultano inattive (ultima_modifica la imposta il trigger, non si può invecchiare)
+    private void tutteInattive() {
+        ReflectionTestUtils.setField(puliziaCarrelli, "giorniInattivita", -1);
+    }
+
+    private List<Integer> righeSulDb(int idUtente) {
+        return jdbcTemplate.queryForList("SELECT d.id_videogioco FROM dettaglio_carrello d JOIN carrello c ON c.carrello_id = d.id_carrello " +
+                "WHERE c.id_utente = ? ORDER BY d.id_videogioco", Integer.class, idUtente);
+    }
+
+    @Test
+    void eliminaLeRigheNonAcquistabiliELasciaLeAltre() {
+        inserisciRigaCarrello(mario, halo, 1, 29.99);
+        jdbcTemplate.update("UPDATE videogioco SET nascosto = 1 WHERE id_videogioco = ?", halo);
+
+        puliziaCarrelli.pulisci();
+
+        EsitoPuliziaCarrelliDto esito = puliziaCarrelli.ultima();
+        assertThat(esito.righeNonAcquistabili()).isEqualTo(1);
+        assertThat(esito.righeInattive()).isZero();
+        assertThat(esito.interrotta()).isFalse();
+        assertThat(righeSulDb(mario)).containsExactly(doom);
+        //i trigger hanno aggiornato anche i totali del carrello
+        assertThat(jdbcTemplate.queryForObject("SELECT numero_articoli FROM carrello WHERE id_utente = ?", Integer.class, mario)).isEqualTo(1);
+    }
+
+    // Un carrello bloccato da un'altra transazione (ad esempio un acquisto in corso) viene saltato senza aspettare
+    @Test
+    void saltaICarrelliBloccati() throws Exception {
+        tutteInattive();
+        try (Connection altra = dataSource.getConnection()) {
+            altra.setAutoCommit(false);
+            try (PreparedStatement ps = altra.prepareStatement("SELECT carrello_id FROM carrello WHERE id_utente = ? FOR UPDATE")) {
+                ps.setInt(1, mario);
+                ps.executeQuery().close();
+            }
+
+            puliziaCarrelli.pulisci();
+            altra.rollback();
+        }
+
+        assertThat(puliziaCarrelli.ultima().righeInattive()).isEqualTo(1);
+        assertThat(righeSulDb(mario)).containsExactly(doom);
+        assertThat(righeSulDb(luigi)).isEmpty();
+    }
+
+    // Senza attivare il salvataggio periodico, che potrebbe scrivere la modifica di luigi prima della pulizia
+    @Test
+    void conICarrelliInMemoriaSaltaQuelliNonSalvatiEDimenticaGliAltri() throws Exception {
+        //luigi ha una modifica non ancora scritta sul DB, mario è in memoria ma salvato
+        assertThat(carrelliInMemoria.righe(mario)).hasSize(1);
+        carrelliInMemoria.applica(luigi, List.of(new DettaglioDto(halo, 2, 29.99)));
+        tutteInattive();
+
+        puliziaCarrelli.pulisci();
+
+        assertThat(righeSulDb(mario)).isEmpty();
+        assertThat(righeSulDb(luigi)).containsExactly(doom);
+        //mario viene riletto dal DB: la riga eliminata non c'è più
+        assertThat(carrelliInMemoria.righe(mario)).isEmpty();
+        assertThat(carrelliInMemoria.righe(luigi)).extracting(DettaglioDto::idVideogioco).containsExactly(doom, halo);
+        carrelliInMemoria.salvaUtente(luigi);
+        assertThat(righeSulDb(luigi)).containsExactly(doom, halo);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.dto.FacetteDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FacetteCatalogoTest {
+
+    private static final String[] PIATTAFORME = {"PC", "PS4", "PS5", "Switch", "Xbox One"};
+    private static final double[] LIMITI_FASCE = {20, 40, 60, 80};
+    private static final String[] NOMI_FASCE = {"0-20", "20-40", "40-60", "60-80", "80+"};
+
+    private final FacetteCatalogo facette = new FacetteCatalogo();
+
+    private static VoceCatalogo voce(int id, String nome, String piattaforma, double prezzo, int quantita, int anno) {
+        return new VoceCatalogo(id, nome, null, piattaforma, null, anno, prezzo, quantita);
+    }
+
+    private static VideogiocoModificatoEvent scorte(VoceCatalogo v, int quantita) {
+        return new VideogiocoModificatoEvent(VideogiocoModificatoEvent.TipoModifica.SCORTE, v.id(), v.nome(), null,
+                v.piattaforma(), null, v.annoRilascio(), v.prezzo(), quantita, v.quantita(), 0);
+    }
+
+    private static FacetteCatalogo.Filtri senzaFiltri() {
+        return new FacetteCatalogo.Filtri(null, null, null, null, null, null);
+    }
+
+    @Test
+    void ogniFaccettaIgnoraIlProprioFiltro() {
+        facette.ricostruisci(List.of(voce(1, "Doom", "PC", 19.99, 3, 2016), voce(2, "Doom", "PS4", 29.99, 1, 2016),
+                voce(3, "Halo", "Xbox One", 59.99, 2, 2021), voce(4, "Zelda", "Switch", 69.99, 5, 2017),
+                voce(5, "Esaurito", "PC", 9.99, 0, 2020)));
+
+        FacetteDto tutte = facette.conteggi(senzaFiltri());
+        assertThat(tutte.totale()).isEqualTo(4);
+        assertThat(tutte.piattaforme()).containsExactly(Map.entry("PC", 1), Map.entry("PS4", 1),
+                Map.entry("Switch", 1), Map.entry("Xbox One", 1));
+        assertThat(tutte.fascePrezzo()).containsExactly(Map.entry("0-20", 1), Map.entry("20-40", 1),
+                Map.entry("40-60", 1), Map.entry("60-80", 1), Map.entry("80+", 0));
+        assertThat(tutte.anniRilascio()).containsExactly(Map.entry(2016, 2), Map.entry(2017, 1), Map.entry(2021, 1));
+
+        FacetteDto pc = facette.conteggi(new FacetteCatalogo.Filtri(null, null, null, "PC", null, null));
+        assertThat(pc.totale()).isEqualTo(1);
+        assertThat(pc.piattaforme()).hasSize(4);
+        assertThat(pc.anniRilascio()).containsExactly(Map.entry(2016, 1));
+    }
+
+    @Test
+    void leScorteAZeroEscononoDaiConteggiEGliSlotVengonoRiusati() {
+        VoceCatalogo doom = voce(1, "Doom", "PC", 19.99, 1, 2016);
+        facette.ricostruisci(List.of(doom));
+
+        facette.aggiorna(scorte(doom, 0));
+        FacetteDto vuote = facette.conteggi(senzaFiltri());
+        assertThat(vuote.totale()).isZero();
+        assertThat(vuote.piattaforme()).isEmpty();
+        assertThat(vuote.anniRilascio()).isEmpty();
+
+        VoceCatalogo halo = voce(2, "Halo", "Xbox One", 59.99, 2, 2021);
+        facette.aggiorna(scorte(halo, 2));
+        facette.aggiorna(scorte(doom, 4));
+        FacetteDto dopo = facette.conteggi(new FacetteCatalogo.Filtri(null, null, "D%", null, 3, null));
+        assertThat(dopo.totale()).isEqualTo(1);
+        assertThat(dopo.piattaforme()).containsExactly(Map.entry("PC", 1));
+    }
+
+    // Confronto con il conteggio diretto voce per voce (quello che faceva la versione precedente) su dati e filtri a caso
+    @Test
+    void stessiConteggiDelCalcoloDiretto() {
+        Random random = new Random(42);
+        List<VoceCatalogo> voci = new ArrayList<>();
+        for (int id = 1; id <= 3000; id++) {
+            voci.add(voce(id, "Gioco " + random.nextInt(100), random.nextInt(20) == 0 ? null : PIATTAFORME[random.nextInt(PIATTAFORME.length)],
+                    Math.round(random.nextDouble() * 12000) / 100.0, random.nextInt(6), 2010 + random.nextInt(10)));
+        }
+        facette.ricostruisci(voci);
+        Map<Integer, VoceCatalogo> catalogo = new LinkedHashMap<>();
+        voci.forEach(v -> catalogo.put(v.id(), v));
+
+        // Un po' di movimenti di magazzino dopo la ricostruzione
+        for (int i = 0; i < 1000; i++) {
+            VoceCatalogo v = catalogo.get(1 + random.nextInt(voci.size()));
+            VoceCatalogo nuova = voce(v.id(), v.nome(), v.piattaforma(), v.prezzo(), random.nextInt(4), v.annoRilascio());
+            facette.aggiorna(scorte(v, nuova.quantita()));
+            catalogo.put(v.id(), nuova);
+        }
+
+        String[] nomi = {null, "Gioco 1%", "%7", "Gioco _"};
+        String[] piattaforme = {null, "PS%", "PC", "%o%"};
+        Double[] minimi = {null, 0.1, 25.0, 59.99};
+        Double[] massimi = {null, 35.5, 80.0, 100.0};
+        Integer[] quantita = {null, 0, 2};
+        Integer[] anni = {null, 2013};
+        for (int i = 0; i < 300; i++) {
+            Double min = minimi[random.nextInt(minimi.length)];
+            Double max = massimi[random.nextInt(massimi.length)];
+            FacetteCatalogo.Filtri filtri = new FacetteCatalogo.Filtri(min, max != null && min != null && max < min ? null : max,
+                    nomi[random.nextInt(nomi.length)], piattaforme[random.nextInt(piattaforme.length)],
+                    quantita[random.nextInt(quantita.length)], anni[random.nextInt(anni.length)]);
+
+            assertThat(facette.conteggi(filtri)).as(filtri.toString()).isEqualTo(diretto(catalogo.values(), filtri));
+        }
+    }
+
+    private static FacetteDto diretto(Iterable<VoceCatalogo> voci, FacetteCatalogo.Filtri filtri) {
+        int totale = 0;
+        Map<String, Integer> piattaforme = new TreeMap<>();
+        Map<String, Integer> fasce = new LinkedHashMap<>();
+        for (String fascia : NOMI_FASCE) {
+            fasce.put(fascia, 0);
+        }
+        Map<Integer, Integer> anni = new TreeMap<>();
+        for (VoceCatalogo v : voci) {
+            if (v.quantita() <= 0) {
+                continue;
+            }
+            boolean okPrezzo = (filtri.prezzoMin() == null || v.prezzo() >= filtri.prezzoMin())
+                    && (filtri.prezzoMax() == null || v.prezzo() <= filtri.prezzoMax());
+            boolean okPiattaforma = filtri.piattaforma() == null || (v.piattaforma() != null && like(v.piattaforma(), filtri.piattaforma()));
+            boolean okAnno = filtri.annoRilascio() == null || v.annoRilascio() == filtri.annoRilascio();
+            boolean okAltri = (filtri.nome() == null || like(v.nome(), filtri.nome()))
+                    && (filtri.quantita() == null || v.quantita() >= filtri.quantita());
+            if (!okAltri) {
+                continue;
+            }
+            if (okPrezzo && okAnno && v.piattaforma() != null) {
+                piattaforme.merge(v.piattaforma(), 1, Integer::sum);
+            }
+            if (okPiattaforma && okAnno) {
+                int i = 0;
+                while (i < LIMITI_FASCE.length && v.prezzo() >= LIMITI_FASCE[i]) {
+                    i++;
+                }
+                fasce.merge(NOMI_FASCE[i], 1, Integer::sum);
+            }
+            if (okPrezzo && okPiattaforma) {
+                anni.merge(v.annoRilascio(), 1, Integer::sum);
+            }
+            if (okPrezzo && okPiattaforma && okAnno) {
+                totale++;
+            }
+        }
+        return new FacetteDto(totale, piattaforme, fasce, anni);
+    }
+
+    private static boolean like(String testo, String modello) {
+        return testo.matches(modello.replace("%", ".*").replace("_", ".").replace(" ", "\\s"));
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.example.gamestore.support.catalogo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndicePrefissiTest {
+
+    private final IndicePrefissi indice = new IndicePrefissi();
+
+    private static VoceCatalogo voce(int id, String nome, String piattaforma) {
+        return new VoceCatalogo(id, nome, null, piattaforma, null, 2020, 10.0, 1);
+    }
+
+    private static VideogiocoModificatoEvent evento(VideogiocoModificatoEvent.TipoModifica tipo, int id, String nome, int nascosto) {
+        return new VideogiocoModificatoEvent(tipo, id, nome, null, "PC", null, 2020, 10.0, 1, 1, nascosto);
+    }
+
+    @Test
+    void suggerisceInOrdineAlfabeticoFinoAlLimite() {
+        indice.ricostruisci(List.of(voce(1, "Zelda", "Switch"), voce(2, "Super Mario Odyssey", "Switch"),
+                voce(3, "Super Mario Bros", "NES"), voce(4, "Super Metroid", "SNES"), voce(5, "Sonic", "MD")));
+
+        assertThat(indice.suggerisci("super m", 10)).containsExactly("Super Mario Bros", "Super Mario Odyssey", "Super Metroid");
+        assertThat(indice.suggerisci("super m", 2)).containsExactly("Super Mario Bros", "Super Mario Odyssey");
+        assertThat(indice.suggerisci("x", 10)).isEmpty();
+        assertThat(indice.suggerisci("", 10)).isEmpty();
+    }
+
+    @Test
+    void ilPrefissoVieneNormalizzato() {
+        indice.ricostruisci(List.of(voce(1, "Pokémon Perla", "DS")));
+
+        assertThat(indice.suggerisci("POKE", 10)).containsExactly("Pokémon Perla");
+    }
+
+    @Test
+    void unNomeSuPiuPiattaformeEUnSoloSuggerimentoFinchéNeResta() {
+        indice.ricostruisci(List.of(voce(1, "Doom", "PC"), voce(2, "Doom", "PS4")));
+        assertThat(indice.suggerisci("do", 10)).containsExactly("Doom");
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, "Doom", 1));
+        assertThat(indice.suggerisci("do", 10)).containsExactly("Doom");
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 2, "Doom", 1));
+        assertThat(indice.suggerisci("do", 10)).isEmpty();
+    }
+
+    @Test
+    void rinominaEInserimento() {
+        indice.ricostruisci(List.of(voce(1, "Halo", "Xbox")));
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, "Halo 2", 0));
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 2, "Hades", 0));
+
+        assertThat(indice.suggerisci("ha", 10)).containsExactly("Hades", "Halo 2");
+    }
+
+    @Test
+    void leScorteNonCambianoISuggerimenti() {
+        indice.ricostruisci(List.of(voce(1, "Tetris", "GB")));
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.SCORTE, 1, "Tetris", 1));
+
+        assertThat(indice.suggerisci("tet", 10)).containsExactly("Tetris");
+    }
+
+    @Test
+    void duranteLaRicostruzioneLeLettureNonVedonoMaiLIndiceVuoto() throws Exception {
+        List<VoceCatalogo> catalogo = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            catalogo.add(voce(i, "Gioco " + i, "PC"));
+        }
+        indice.ricostruisci(catalogo);
+
+        AtomicBoolean fine = new AtomicBoolean();
+        AtomicInteger vuote = new AtomicInteger();
+        Thread lettore = new Thread(() -> {
+            while (!fine.get()) {
+                if (indice.suggerisci("gioco 1", 5).size() != 5) {
+                    vuote.incrementAndGet();
+                }
+            }
+        });
+        lettore.start();
+        for (int i = 0; i < 30; i++) {
+            indice.ricostruisci(catalogo);
+        }
+        fine.set(true);
+        lettore.join();
+
+        assertThat(vuote.get()).isZero();
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.example.gamestore.support.catalogo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndicePrezziTest {
+
+    private final IndicePrezzi indice = new IndicePrezzi();
+
+    private static VoceCatalogo voce(int id, double prezzo) {
+        return new VoceCatalogo(id, "Gioco " + id, null, "PC", null, 2020, prezzo, 1);
+    }
+
+    private static VideogiocoModificatoEvent evento(VideogiocoModificatoEvent.TipoModifica tipo, int id, double prezzo, int nascosto) {
+        return new VideogiocoModificatoEvent(tipo, id, "Gioco " + id, null, "PC", null, 2020, prezzo, 1, 1, nascosto);
+    }
+
+    @Test
+    void nonProntoPrimaDellaRicostruzione() {
+        assertThat(indice.pronto()).isFalse();
+        // prima della ricostruzione gli eventi vengono ignorati: all'avvio l'indice parte dal DB
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, 10, 0));
+        assertThat(indice.pronto()).isFalse();
+
+        indice.ricostruisci(List.of());
+        assertThat(indice.pronto()).isTrue();
+        assertThat(indice.cerca(null, null, 0, 10).idVideogiochi()).isEmpty();
+    }
+
+    @Test
+    void prezzoDecrescenteAParitaIdDecrescenteEPagine() {
+        indice.ricostruisci(List.of(voce(1, 10), voce(2, 30), voce(3, 20), voce(4, 20), voce(5, 5)));
+
+        IndicePrezzi.Risultato prima = indice.cerca(null, null, 0, 2);
+        assertThat(prima.idVideogiochi()).containsExactly(2, 4);
+        assertThat(prima.haSuccessiva()).isTrue();
+        assertThat(indice.cerca(null, null, 1, 2).idVideogiochi()).containsExactly(3, 1);
+
+        IndicePrezzi.Risultato ultima = indice.cerca(null, null, 2, 2);
+        assertThat(ultima.idVideogiochi()).containsExactly(5);
+        assertThat(ultima.haSuccessiva()).isFalse();
+        assertThat(indice.cerca(null, null, 3, 2).idVideogiochi()).isEmpty();
+        assertThat(indice.cerca(null, null, Integer.MAX_VALUE, Integer.MAX_VALUE).idVideogiochi()).isEmpty();
+    }
+
+    @Test
+    void estremiDellaFasciaInclusiAlCentesimo() {
+        indice.ricostruisci(List.of(voce(1, 19.99), voce(2, 20.0), voce(3, 20.01), voce(4, 0.1)));
+
+        assertThat(indice.cerca(19.99, 20.0, 0, 10).idVideogiochi()).containsExactly(2, 1);
+        assertThat(indice.cerca(19.995, 20.005, 0, 10).idVideogiochi()).containsExactly(2);
+        // 0.1 * 100 in double non è esattamente 10: il limite va comunque incluso
+        assertThat(indice.cerca(0.1, 0.1, 0, 10).idVideogiochi()).containsExactly(4);
+        assertThat(indice.cerca(20.02, null, 0, 10).idVideogiochi()).isEmpty();
+        assertThat(indice.cerca(30.0, 10.0, 0, 10).idVideogiochi()).isEmpty();
+        assertThat(indice.cerca(null, Double.MAX_VALUE, 0, 10).idVideogiochi()).containsExactly(3, 2, 1, 4);
+    }
+
+    @Test
+    void modificheDelCatalogoSiScorteNo() {
+        indice.ricostruisci(List.of(voce(1, 10), voce(2, 20)));
+
+        // cambio di prezzo: il videogioco si sposta
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, 30, 0));
+        assertThat(indice.cerca(null, null, 0, 10).idVideogiochi()).containsExactly(1, 2);
+
+        // le scorte non riguardano i prezzi: anche un evento incoerente viene ignorato
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.SCORTE, 2, 99, 0));
+        assertThat(indice.cerca(null, null, 0, 10).idVideogiochi()).containsExactly(1, 2);
+
+        // nuovo videogioco e videogioco nascosto
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 3, 15, 0));
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, 30, 1));
+        assertThat(indice.cerca(null, null, 0, 10).idVideogiochi()).containsExactly(2, 3);
+
+        // nascondere un videogioco che non c'è non cambia niente
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 7, 30, 1));
+        assertThat(indice.cerca(null, null, 0, 10).idVideogiochi()).containsExactly(2, 3);
+    }
+
+    // Confronto con un ordinamento e un filtro fatti per esteso, dopo molti aggiornamenti casuali
+    @Test
+    void stessePagineDelCalcoloDiretto() {
+        Random random = new Random(11);
+        Map<Integer, Integer> visibili = new HashMap<>();
+        List<VoceCatalogo> voci = new ArrayList<>();
+        for (int id = 1; id <= 2000; id++) {
+            int centesimi = 1 + random.nextInt(10_000);
+            visibili.put(id, centesimi);
+            voci.add(voce(id, centesimi / 100.0));
+        }
+        indice.ricostruisci(voci);
+
+        for (int i = 0; i < 2000; i++) {
+            int id = 1 + random.nextInt(2500);
+            int centesimi = 1 + random.nextInt(10_000);
+            boolean nascosto = random.nextInt(4) == 0;
+            indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, id, centesimi / 100.0, nascosto ? 1 : 0));
+            if (nascosto) {
+                visibili.remove(id);
+            } else {
+                visibili.put(id, centesimi);
+            }
+        }
+
+        List<Map.Entry<Integer, Integer>> ordinati = new ArrayList<>(visibili.entrySet());
+        ordinati.sort(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()).reversed());
+        for (int q = 0; q < 200; q++) {
+            int minimo = random.nextInt(10_000);
+            int massimo = minimo + random.nextInt(3_000);
+            int dimPagina = 1 + random.nextInt(50);
+            int numPagina = random.nextInt(5);
+
+            List<Integer> attesi = ordinati.stream()
+                    .filter(e -> e.getValue() >= minimo && e.getValue() <= massimo)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            int da = Math.min(attesi.size(), numPagina * dimPagina);
+            int a = Math.min(attesi.size(), da + dimPagina);
+
+            IndicePrezzi.Risultato risultato = indice.cerca(minimo / 100.0, massimo / 100.0, numPagina, dimPagina);
+            assertThat(risultato.idVideogiochi()).isEqualTo(attesi.subList(da, a));
+            assertThat(risultato.haSuccessiva()).isEqualTo(a < attesi.size());
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.example.gamestore.support.catalogo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndiceTitoliApprossimatoTest {
+
+    private final IndiceTitoliApprossimato indice = new IndiceTitoliApprossimato();
+
+    private static VoceCatalogo voce(int id, String nome) {
+        return new VoceCatalogo(id, nome, null, "PC", null, 2020, 10.0, 1);
+    }
+
+    private static VideogiocoModificatoEvent evento(VideogiocoModificatoEvent.TipoModifica tipo, int id, String nome, int nascosto) {
+        return new VideogiocoModificatoEvent(tipo, id, nome, null, "PC", null, 2020, 10.0, 1, 1, nascosto);
+    }
+
+    private static List<String> nomi(List<IndiceTitoliApprossimato.Candidato> candidati) {
+        return candidati.stream().map(IndiceTitoliApprossimato.Candidato::nome).toList();
+    }
+
+    // Nomi casuali di 2-4 parole da un vocabolario limitato, così ci sono molti titoli vicini tra loro
+    private static List<String> catalogoCasuale(int quanti, long seme) {
+        String[] parole = {"super", "mario", "zelda", "legend", "dark", "souls", "final", "fantasy", "star", "wars",
+                "call", "duty", "age", "empires", "need", "speed", "street", "fighter", "metal", "gear", "solid", "racing",
+                "kingdom", "hearts", "resident", "evil", "silent", "hill", "grand", "theft", "auto", "halo", "gears",
+                "crash", "bandicoot", "spyro", "dragon", "tomb", "raider", "assassin", "creed", "far", "cry", "battlefield",
+                "monster", "hunter", "persona", "tekken", "mortal", "kombat", "sonic", "hedgehog", "pokemon", "tales",
+                "chronicles", "origins", "remastered", "deluxe", "edition", "warriors", "odyssey", "infinite", "world"};
+        Random random = new Random(seme);
+        TreeSet<String> nomi = new TreeSet<>();
+        while (nomi.size() < quanti) {
+            StringBuilder nome = new StringBuilder();
+            int n = 2 + random.nextInt(3);
+            for (int i = 0; i < n; i++) {
+                nome.append(i == 0 ? "" : " ").append(parole[random.nextInt(parole.length)]);
+            }
+            nome.append(' ').append(random.nextInt(quanti));
+            nomi.add(nome.toString());
+        }
+        return new ArrayList<>(nomi);
+    }
+
+    private static String conErrore(String nome, Random random) {
+        char[] c = nome.toCharArray();
+        c[random.nextInt(c.length)] = 'x';
+        return new String(c);
+    }
+
+    @Test
+    void distanzaDiLevenshtein() {
+        assertThat(IndiceTitoliApprossimato.distanza("kitten", "sitting", 10)).isEqualTo(3);
+        assertThat(IndiceTitoliApprossimato.distanza("", "abc", 10)).isEqualTo(3);
+        assertThat(IndiceTitoliApprossimato.distanza("zelda", "zelda", 0)).isZero();
+        // oltre il limite non serve il valore esatto: limite + 1
+        assertThat(IndiceTitoliApprossimato.distanza("kitten", "sitting", 1)).isEqualTo(2);
+        assertThat(IndiceTitoliApprossimato.distanza("a", "abcdef", 2)).isEqualTo(3);
+    }
+
+    @Test
+    void distanzaBitParallelaUgualeAQuellaARighe() {
+        Random random = new Random(5);
+        String alfabeto = "abcdeèé 12";
+        for (int prova = 0; prova < 20_000; prova++) {
+            String a = casuale(random, alfabeto, random.nextInt(prova % 100 == 0 ? 80 : 20));
+            String b = casuale(random, alfabeto, random.nextInt(prova % 100 == 0 ? 80 : 20));
+            int limite = random.nextInt(4) == 0 ? Integer.MAX_VALUE : random.nextInt(6);
+
+            assertThat(IndiceTitoliApprossimato.distanza(new IndiceTitoliApprossimato.Maschere(a), b, limite))
+                    .as("%s / %s / %d", a, b, limite)
+                    .isEqualTo(IndiceTitoliApprossimato.distanza(a, b, limite));
+        }
+    }
+
+    private static String casuale(Random random, String alfabeto, int lunghezza) {
+        StringBuilder testo = new StringBuilder();
+        for (int i = 0; i < lunghezza; i++) {
+            testo.append(alfabeto.charAt(random.nextInt(alfabeto.length())));
+        }
+        return testo.toString();
+    }
+
+    @Test
+    void trovaConErroriDiBattituraOrdinatiPerDistanzaEPoiNome() {
+        indice.ricostruisci(List.of(voce(1, "Zelda Breath of the Wild"), voce(2, "Zelda Breath of the Wind"),
+                voce(3, "Zelda Tears of the Kingdom"), voce(4, "Halo")));
+
+        List<IndiceTitoliApprossimato.Candidato> trovati = indice.cerca("zelda breath of the wlid", 3, 10);
+
+        assertThat(nomi(trovati)).containsExactly("zelda breath of the wild", "zelda breath of the wind");
+        assertThat(trovati.get(0).distanza()).isEqualTo(2);
+        assertThat(indice.cerca("zelda breath of the wlid", 3, 1)).hasSize(1);
+        assertThat(indice.cerca("", 3, 10)).isEmpty();
+    }
+
+    @Test
+    void stessoNomeSuPiuPiattaformeEUnSoloCandidato() {
+        indice.ricostruisci(List.of(voce(1, "Doom"), voce(2, "DOOM")));
+
+        List<IndiceTitoliApprossimato.Candidato> trovati = indice.cerca("dom", 1, 10);
+
+        assertThat(trovati).hasSize(1);
+        assertThat(trovati.get(0).idVideogiochi()).containsExactlyInAnyOrder(1, 2);
+    }
+
+    @Test
+    void iNomiSenzaVideogiochiVisibiliSpariscono() {
+        indice.ricostruisci(List.of(voce(1, "Doom"), voce(2, "Doom"), voce(3, "Quake")));
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, "Doom", 1));
+        assertThat(indice.cerca("doom", 0, 10).get(0).idVideogiochi()).containsExactly(2);
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 2, "Doom", 1));
+        assertThat(indice.cerca("doom", 0, 10)).isEmpty();
+        assertThat(nomi(indice.cerca("quak", 1, 10))).containsExactly("quake");
+    }
+
+    @Test
+    void leScorteNonToccanoLIndice() {
+        indice.ricostruisci(List.of(voce(1, "Tetris")));
+
+        indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.SCORTE, 1, "Tetris", 1));
+
+        assertThat(nomi(indice.cerca("tetris", 0, 10))).containsExactly("tetris");
+    }
+
+    @Test
+    void dopoMolteRimozioniECompattazioniDaGliStessiRisultatiDiUnaScansioneCompleta() {
+        List<String> catalogo = catalogoCasuale(3000, 1);
+        List<VoceCatalogo> voci = new ArrayList<>();
+        for (int i = 0; i < catalogo.size(); i++) {
+            voci.add(voce(i, catalogo.get(i)));
+        }
+        indice.ricostruisci(voci);
+        // nasconde due titoli su tre: l'albero viene compattato più volte
+        List<String> rimasti = new ArrayList<>();
+        for (int i = 0; i < catalogo.size(); i++) {
+            if (i % 3 != 0) {
+                indice.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, i, catalogo.get(i), 1));
+            } else {
+                rimasti.add(catalogo.get(i));
+            }
+        }
+
+        Random random = new Random(2);
+        for (int q = 0; q < 200; q++) {
+            String cercato = conErrore(rimasti.get(random.nextInt(rimasti.size())), random);
+            List<String> attesi = rimasti.stream()
+                    .filter(n -> IndiceTitoliApprossimato.distanza(cercato, n, 2) <= 2)
+                    .sorted(Comparator.<String>comparingInt(n -> IndiceTitoliApprossimato.distanza(cercato, n, 2))
+                            .thenComparing(Comparator.naturalOrder()))
+                    .toList();
+
+            assertThat(nomi(indice.cerca(cercato, 2, Integer.MAX_VALUE))).as(cercato).isEqualTo(attesi);
+        }
+    }
+
+    /*
+    Misura grezza al posto di un benchmark JMH: 20.000 titoli molto simili tra loro (caso sfavorevole per il BK-tree)
+    e 300 ricerche con un errore di battitura entro distanza 2, confrontate con la scansione di tutti i nomi con la
+    stessa distanza. Il confronto è relativo, così non dipende dalla macchina.
+     */
+    // Niente tempi (dipendono dalla macchina): si contano i nomi confrontati, che sono il costo di una ricerca
+    @Test
+    void ricercaConfrontaSoloUnaParteDeiNomi() {
+        List<String> catalogo = catalogoCasuale(20_000, 3);
+        List<VoceCatalogo> voci = new ArrayList<>();
+        List<String> chiavi = new ArrayList<>();
+        for (int i = 0; i < catalogo.size(); i++) {
+            voci.add(voce(i, catalogo.get(i)));
+            chiavi.add(NormalizzatoreTesto.normalizza(catalogo.get(i)));
+        }
+        indice.ricostruisci(voci);
+        Random random = new Random(4);
+
+        long confrontati = 0;
+        int ricerche = 300;
+        for (int q = 0; q < ricerche; q++) {
+            String cercato = conErrore(chiavi.get(random.nextInt(chiavi.size())), random);
+            IndiceTitoliApprossimato.Maschere maschere = new IndiceTitoliApprossimato.Maschere(cercato);
+            long attesi = chiavi.stream().filter(chiave -> IndiceTitoliApprossimato.distanza(maschere, chiave, 2) <= 2).count();
+
+            assertThat(indice.cerca(cercato, 2, Integer.MAX_VALUE)).hasSize((int) attesi);
+            confrontati += indice.confronti(cercato, 2);
+        }
+        double frazione = (double) confrontati / ricerche / chiavi.size();
+        assertThat(frazione).isLessThan(0.15);
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.example.gamestore.support.catalogo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NormalizzatoreTestoTest {
+
+    @Test
+    void minuscoloESenzaAccenti() {
+        assertThat(NormalizzatoreTesto.normalizza("Pokémon Perla")).isEqualTo("pokemon perla");
+        assertThat(NormalizzatoreTesto.normalizza("ÀÉÎÕÜ ñ ç")).isEqualTo("aeiou n c");
+    }
+
+    @Test
+    void nullDiventaStringaVuota() {
+        assertThat(NormalizzatoreTesto.normalizza(null)).isEmpty();
+        assertThat(NormalizzatoreTesto.tokenizza(null)).isEmpty();
+    }
+
+    @Test
+    void tokenizzaSpezzaSuTuttoCioCheNonELetteraOCifra() {
+        assertThat(NormalizzatoreTesto.tokenizza("  Final Fantasy VII: Remake (PS4) -- 2020! "))
+                .containsExactly("final", "fantasy", "vii", "remake", "ps4", "2020");
+    }
+
+    @Test
+    void tokenizzaTieneLettereNonLatine() {
+        assertThat(NormalizzatoreTesto.tokenizza("Война и мир: Ω-Boost"))
+                .containsExactly("воина", "и", "мир", "ω", "boost");
+    }
+
+    @Test
+    void soliSeparatoriNessunToken() {
+        assertThat(NormalizzatoreTesto.tokenizza(" - / ... ")).isEmpty();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.dto.TitoloDto;
+import com.example.gamestore.dto.VarianteTitoloDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RaggruppamentoTitoliTest {
+
+    private final RaggruppamentoTitoli raggruppamento = new RaggruppamentoTitoli();
+
+    private static VoceCatalogo voce(int id, String nome, String piattaforma, double prezzo, int quantita) {
+        return new VoceCatalogo(id, nome, null, piattaforma, null, 2020, prezzo, quantita);
+    }
+
+    private static VideogiocoModificatoEvent evento(VideogiocoModificatoEvent.TipoModifica tipo, int id, String nome, String piattaforma,
+                                                    double prezzo, int quantita, int nascosto) {
+        return new VideogiocoModificatoEvent(tipo, id, nome, null, piattaforma, null, 2020, prezzo, quantita, quantita, nascosto);
+    }
+
+    private List<String> nomi(String ordinamento) {
+        return raggruppamento.elenco(0, 100, ordinamento).getContent().stream().map(TitoloDto::nome).toList();
+    }
+
+    private Object ordinamentoPerPrezzo() {
+        return ReflectionTestUtils.getField(raggruppamento, "ordinatiPerPrezzo");
+    }
+
+    @Test
+    void unTitoloPerNomeConTutteLePiattaforme() {
+        raggruppamento.ricostruisci(List.of(voce(1, "Doom", "PS4", 30, 2), voce(2, "DOOM", "PC", 20, 3), voce(3, "Halo", "Xbox", 40, 1)));
+
+        TitoloDto doom = raggruppamento.trova("doom");
+        assertThat(doom.nome()).isEqualTo("Doom");
+        assertThat(doom.prezzoMin()).isEqualTo(20.0);
+        assertThat(doom.prezzoMax()).isEqualTo(30.0);
+        assertThat(doom.quantitaTotale()).isEqualTo(5);
+        assertThat(doom.varianti()).extracting(VarianteTitoloDto::piattaforma).containsExactly("PC", "PS4");
+
+        assertThat(nomi("nome")).containsExactly("Halo", "Doom");
+        assertThat(nomi("prezzo")).containsExactly("Halo", "Doom");
+    }
+
+    @Test
+    void pagineESuccessiva() {
+        List<VoceCatalogo> voci = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            voci.add(voce(i, "Gioco " + i, "PC", 10 * i, 1));
+        }
+        raggruppamento.ricostruisci(voci);
+
+        assertThat(raggruppamento.elenco(1, 2, "prezzo").getContent()).extracting(TitoloDto::nome).containsExactly("Gioco 3", "Gioco 2");
+        assertThat(raggruppamento.elenco(1, 2, "prezzo").hasNext()).isTrue();
+        assertThat(raggruppamento.elenco(2, 2, "nome").getContent()).extracting(TitoloDto::nome).containsExactly("Gioco 1");
+        assertThat(raggruppamento.elenco(2, 2, "nome").hasNext()).isFalse();
+        assertThat(raggruppamento.elenco(3, 2, "prezzo").getContent()).isEmpty();
+    }
+
+    @Test
+    void leScorteNonInvalidanoLOrdinePerPrezzoMaLeQuantitaSonoAggiornate() {
+        raggruppamento.ricostruisci(List.of(voce(1, "Doom", "PC", 20, 3), voce(2, "Halo", "Xbox", 40, 1)));
+        assertThat(nomi("prezzo")).containsExactly("Halo", "Doom");
+        Object ordinamento = ordinamentoPerPrezzo();
+
+        raggruppamento.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.SCORTE, 1, "Doom", "PC", 20, 7, 0));
+
+        assertThat(ordinamentoPerPrezzo()).isSameAs(ordinamento);
+        assertThat(raggruppamento.elenco(0, 10, "prezzo").getContent()).extracting(TitoloDto::quantitaTotale).containsExactly(1, 7);
+    }
+
+    @Test
+    void ancheIlCatalogoInvalidaSoloSeCambianoPrezzoMinimoNomeOVisibilita() {
+        raggruppamento.ricostruisci(List.of(voce(1, "Doom", "PC", 20, 3), voce(2, "Doom", "PS4", 30, 1), voce(3, "Halo", "Xbox", 25, 1)));
+        assertThat(nomi("prezzo")).containsExactly("Halo", "Doom");
+        Object ordinamento = ordinamentoPerPrezzo();
+
+        // la variante più cara cambia prezzo ma il minimo del titolo resta 20
+        raggruppamento.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 2, "Doom", "PS4", 35, 1, 0));
+        assertThat(ordinamentoPerPrezzo()).isSameAs(ordinamento);
+
+        // cambia il minimo: Doom passa davanti
+        raggruppamento.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 1, "Doom", "PC", 29, 3, 0));
+        assertThat(ordinamentoPerPrezzo()).isNull();
+        assertThat(nomi("prezzo")).containsExactly("Doom", "Halo");
+
+        // nascosto: sparisce
+        raggruppamento.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 3, "Halo", "Xbox", 25, 1, 1));
+        assertThat(nomi("prezzo")).containsExactly("Doom");
+
+        // rinominato: il titolo vecchio perde una variante, ne nasce uno nuovo
+        raggruppamento.aggiorna(evento(VideogiocoModificatoEvent.TipoModifica.CATALOGO, 2, "Doom II", "PS4", 35, 1, 0));
+        assertThat(nomi("prezzo")).containsExactly("Doom II", "Doom");
+        assertThat(raggruppamento.trova("doom").varianti()).hasSize(1);
+    }
+
+    @Test
+    void duranteLaRicostruzioneLeLettureVedonoSempreTuttoIlCatalogo() throws Exception {
+        List<VoceCatalogo> catalogo = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            catalogo.add(voce(i, "Gioco " + i, "PC", i, 1));
+        }
+        raggruppamento.ricostruisci(catalogo);
+
+        AtomicBoolean fine = new AtomicBoolean();
+        AtomicInteger incomplete = new AtomicInteger();
+        Thread lettore = new Thread(() -> {
+            while (!fine.get()) {
+                if (raggruppamento.trova("gioco 19999") == null || raggruppamento.elenco(0, 5, "nome").getContent().size() != 5) {
+                    incomplete.incrementAndGet();
+                }
+            }
+        });
+        lettore.start();
+        for (int i = 0; i < 30; i++) {
+            raggruppamento.ricostruisci(catalogo);
+        }
+        fine.set(true);
+        lettore.join();
+
+        assertThat(incomplete.get()).isZero();
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.example.gamestore.support.catalogo;
+
+import com.example.gamestore.repositories.VideogiocoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SincronizzatoreIndiciCatalogoTest {
+
+    // Indice finto che tiene solo gli id visibili
+    private static class IdVisibili implements IndiceCatalogo {
+        final List<Integer> ids = new ArrayList<>();
+
+        @Override
+        public void ricostruisci(List<VoceCatalogo> visibili) {
+            ids.clear();
+            visibili.forEach(v -> ids.add(v.id()));
+        }
+
+        @Override
+        public void aggiorna(VideogiocoModificatoEvent evento) {
+            ids.remove(Integer.valueOf(evento.idVideogioco()));
+            if (evento.visibile()) {
+                ids.add(evento.idVideogioco());
+            }
+        }
+    }
+
+    private final VideogiocoRepository videogiocoRepository = mock(VideogiocoRepository.class);
+    private final IdVisibili indice = new IdVisibili();
+    private final SincronizzatoreIndiciCatalogo sincronizzatore = new SincronizzatoreIndiciCatalogo();
+
+    @BeforeEach
+    void prepara() {
+        ReflectionTestUtils.setField(sincronizzatore, "videogiocoRepository", videogiocoRepository);
+        ReflectionTestUtils.setField(sincronizzatore, "indici", List.of(indice));
+        ReflectionTestUtils.setField(sincronizzatore, "transactionManager", mock(PlatformTransactionManager.class));
+    }
+
+    private static VoceCatalogo voce(int id) {
+        return new VoceCatalogo(id, "Gioco " + id, null, "PC", null, 2020, 10.0, 1);
+    }
+
+    private static VideogiocoModificatoEvent evento(int id, int nascosto) {
+        return new VideogiocoModificatoEvent(VideogiocoModificatoEvent.TipoModifica.CATALOGO, id, "Gioco " + id, null, "PC",
+                null, 2020, 10.0, 1, 1, nascosto);
+    }
+
+    @Test
+    void gliEventiArrivatiDuranteLaLetturaNonVannoPersi() {
+        // mentre si legge il catalogo (che ha già 1 e 2) un'altra transazione aggiunge il 3 e nasconde l'1
+        when(videogiocoRepository.leggiCatalogoVisibile()).thenAnswer(i -> {
+            sincronizzatore.onVideogiocoModificato(evento(3, 0));
+            sincronizzatore.onVideogiocoModificato(evento(1, 1));
+            return List.of(voce(1), voce(2));
+        });
+
+        sincronizzatore.ricostruisci();
+
+        assertThat(indice.ids).containsExactlyInAnyOrder(2, 3);
+    }
+
+    @Test
+    void finitaLaRicostruzioneGliEventiNonVengonoPiuAccumulati() {
+        when(videogiocoRepository.leggiCatalogoVisibile()).thenReturn(List.of(voce(1)));
+        sincronizzatore.ricostruisci();
+
+        sincronizzatore.onVideogiocoModificato(evento(2, 0));
+
+        assertThat(indice.ids).containsExactlyInAnyOrder(1, 2);
+        assertThat(ReflectionTestUtils.getField(sincronizzatore, "inAttesa")).isNull();
+    }
+
+    @Test
+    void unaLetturaFallitaNonLasciaLaRicostruzioneInCorso() {
+        when(videogiocoRepository.leggiCatalogoVisibile()).thenThrow(new IllegalStateException("DB non raggiungibile"));
+
+        try {
+            sincronizzatore.ricostruisci();
+        } catch (IllegalStateException e) {
+            // atteso
+        }
+
+        assertThat(ReflectionTestUtils.getField(sincronizzatore, "inAttesa")).isNull();
+        assertThat(ReflectionTestUtils.getField(sincronizzatore, "ricostruzioniInCorso")).isEqualTo(0);
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.example.gamestore.support.importazione;
+
+import com.example.gamestore.support.exceptions.ImportazioneNonValidaException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LettoreImportazioneTest {
+
+    private static List<LettoreImportazione.RigaLetta> leggi(String testo, String contentType) throws IOException, ImportazioneNonValidaException {
+        LettoreImportazione lettore = new LettoreImportazione(new ByteArrayInputStream(testo.getBytes(StandardCharsets.UTF_8)), contentType);
+        List<LettoreImportazione.RigaLetta> righe = new ArrayList<>();
+        LettoreImportazione.RigaLetta riga;
+        while ((riga = lettore.prossima()) != null) {
+            righe.add(riga);
+        }
+        return righe;
+    }
+
+    @Test
+    void campiTraVirgoletteConVirgoleACapoEVirgoletteRaddoppiate() throws Exception {
+        List<LettoreImportazione.RigaLetta> righe = leggi("nome,piattaforma,descrizione,prezzo,quantita\r\n" +
+                "\"Doom, Eternal\",PC,\"Riga uno\nriga \"\"due\"\"\",59.99,3\r\n", "text/csv");
+
+        assertThat(righe).hasSize(1);
+        RigaImportazione riga = righe.get(0).riga();
+        assertThat(riga.nome()).isEqualTo("Doom, Eternal");
+        assertThat(riga.descrizione()).isEqualTo("Riga uno\nriga \"due\"");
+        assertThat(riga.prezzo()).isEqualTo(59.99);
+        assertThat(riga.quantita()).isEqualTo(3);
+    }
+
+    @Test
+    void unaVirgolettaInMezzoAlCampoNonApreUnaCitazione() throws Exception {
+        List<LettoreImportazione.RigaLetta> righe = leggi("""
+                nome,piattaforma,prezzo,quantita
+                Vinile 12" Edition,PC,19.9,1
+                Altro,PS5,9.9,2
+                """, "text/csv");
+
+        assertThat(righe).extracting(r -> r.riga().nome()).containsExactly("Vinile 12\" Edition", "Altro");
+        assertThat(righe.get(0).riga().piattaforma()).isEqualTo("PC");
+    }
+
+    @Test
+    void righeVuoteSaltateERigheSbagliateSegnalate() throws Exception {
+        List<LettoreImportazione.RigaLetta> righe = leggi("""
+                quantita,prezzo,nome,piattaforma,colonnaSconosciuta
+
+                2,abc,Halo,Xbox,x
+                1,10,Zelda,Switch,y
+                """, "text/csv");
+
+        assertThat(righe).hasSize(2);
+        assertThat(righe.get(0).numero()).isEqualTo(1);
+        assertThat(righe.get(0).errore()).isEqualTo("RIGA NON LEGGIBILE");
+        assertThat(righe.get(1).riga().nome()).isEqualTo("Zelda");
+        assertThat(righe.get(1).riga().nascosto()).isNull();
+    }
+
+    @Test
+    void rigaTroppoLungaScartataSenzaPerdereLeSuccessive() throws Exception {
+        String lunga = "x".repeat(70 * 1024);
+        List<LettoreImportazione.RigaLetta> righe = leggi("nome,piattaforma,prezzo,quantita\n" + lunga + ",PC,1,1\nHalo,Xbox,5,1\n", "text/csv");
+
+        assertThat(righe).extracting(LettoreImportazione.RigaLetta::errore).containsExactly("RIGA TROPPO LUNGA", null);
+        assertThat(righe.get(1).riga().nome()).isEqualTo("Halo");
+    }
+
+    @Test
+    void ndjsonConNascosto() throws Exception {
+        List<LettoreImportazione.RigaLetta> righe = leggi("""
+                {"id":7,"nome":"Halo","piattaforma":"Xbox","prezzo":5.0,"quantita":0,"nascosto":1}
+                non json
+                """, "application/x-ndjson");
+
+        assertThat(righe.get(0).riga().daNascondere()).isTrue();
+        assertThat(righe.get(1).errore()).isEqualTo("RIGA NON LEGGIBILE");
+    }
+
+    @Test
+    void intestazioneSenzaColonneObbligatorieOTipoSconosciuto() {
+        assertThatThrownBy(() -> leggi("nome,prezzo\nHalo,5\n", "text/csv")).isInstanceOf(ImportazioneNonValidaException.class);
+        assertThatThrownBy(() -> leggi("{}", "application/json")).isInstanceOf(ImportazioneNonValidaException.class);
+    }
+
+}